@@ -17,11 +17,14 @@
 package com.google.maps.android.clustering;
 
 import android.content.Context;
-import android.os.AsyncTask;
-import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.model.CameraPosition;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.Marker;
 import com.google.maps.android.MarkerManager;
 import com.google.maps.android.clustering.algo.Algorithm;
@@ -29,31 +32,98 @@ import com.google.maps.android.clustering.algo.NonHierarchicalDistanceBasedAlgor
 import com.google.maps.android.clustering.algo.PreCachingAlgorithmDecorator;
 import com.google.maps.android.clustering.view.ClusterRenderer;
 import com.google.maps.android.clustering.view.DefaultClusterRenderer;
+import com.google.maps.android.geometry.Point;
+import com.google.maps.android.projection.SphericalMercatorProjection;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Groups many items on a map based on zoom level.
  * <p/>
+ * Only the clusters within the visible region, extended by a margin on each side, are rendered.
+ * Each zoom level is clustered once for the whole map and cached, so panning beyond the margin
+ * only filters the cached clusters again.
+ * Bursts of camera changes, such as during a fling or a pinch, are coalesced into one clustering,
+ * which runs on a background thread shared by all ClusterManagers unless another
+ * {@link Executor} is set. While the activity hosting the map is paused, {@link #pause()} stops
+ * clustering, prefetching and rendering.
+ * <p/>
  * ClusterManager should be added to the map as an: <ul> <li>{@link com.google.android.gms.maps.GoogleMap.OnCameraChangeListener}</li>
  * <li>{@link com.google.android.gms.maps.GoogleMap.OnMarkerClickListener}</li> </ul>
  */
 public class ClusterManager<T extends ClusterItem> implements GoogleMap.OnCameraChangeListener, GoogleMap.OnMarkerClickListener, GoogleMap.OnInfoWindowClickListener {
+    /**
+     * Fraction of the visible width and height added to each side of the visible region when
+     * clustering, so that clusters near its edges are stable while the map is panned.
+     */
+    private static final double VIEWPORT_MARGIN = 0.5;
+
+    private static final SphericalMercatorProjection PROJECTION = new SphericalMercatorProjection(1);
+
+    private static final long DEFAULT_DEBOUNCE_MS = 50;
+    private static final long DEFAULT_MAX_LATENCY_MS = 250;
+
+    private static final Executor CLUSTER_EXECUTOR = createClusterExecutor();
+
     private final MarkerManager mMarkerManager;
     private final MarkerManager.Collection mMarkers;
     private final MarkerManager.Collection mClusterMarkers;
 
-    private Algorithm<T> mAlgorithm;
+    private PreCachingAlgorithmDecorator<T> mAlgorithm;
     private final ReadWriteLock mAlgorithmLock = new ReentrantReadWriteLock();
     private ClusterRenderer<T> mRenderer;
 
     private GoogleMap mMap;
     private CameraPosition mPreviousCameraPosition;
+
+    /**
+     * The region clustered by the latest clustering, or null if it covered the whole world.
+     */
+    private LatLngBounds mClusteredBounds;
     private ClusterTask mClusterTask;
     private final ReadWriteLock mClusterTaskLock = new ReentrantReadWriteLock();
+    private Executor mExecutor = CLUSTER_EXECUTOR;
+    private volatile boolean mPaused;
+
+    /**
+     * Whether to cluster on resume, because a clustering was requested or cancelled while paused.
+     * Guarded by mClusterTaskLock.
+     */
+    private boolean mClusterPending;
+
+    /**
+     * Posts the results of clustering, and the clusterings requested by camera changes, to the
+     * main thread.
+     */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private long mDebounceMs = DEFAULT_DEBOUNCE_MS;
+    private long mMaxLatencyMs = DEFAULT_MAX_LATENCY_MS;
+
+    /**
+     * Uptime of the first camera change not yet clustered, or -1 if there is none. Only used on
+     * the main thread.
+     */
+    private long mFirstRequestTime = -1;
+    private final Runnable mRequestedCluster = new Runnable() {
+        @Override
+        public void run() {
+            mFirstRequestTime = -1;
+            cluster();
+        }
+    };
 
     private OnClusterItemClickListener<T> mOnClusterItemClickListener;
     private OnClusterInfoWindowClickListener<T> mOnClusterInfoWindowClickListener;
@@ -71,7 +141,6 @@ public class ClusterManager<T extends ClusterItem> implements GoogleMap.OnCamera
         mMarkers = markerManager.newCollection();
         mRenderer = new DefaultClusterRenderer<T>(context, map, this);
         mAlgorithm = new PreCachingAlgorithmDecorator<T>(new NonHierarchicalDistanceBasedAlgorithm<T>());
-        mClusterTask = new ClusterTask();
         mRenderer.onAdd();
     }
 
@@ -94,6 +163,9 @@ public class ClusterManager<T extends ClusterItem> implements GoogleMap.OnCamera
         mMarkers.clear();
         mRenderer.onRemove();
         mRenderer = view;
+        if (mPaused && mRenderer instanceof DefaultClusterRenderer) {
+            ((DefaultClusterRenderer<T>) mRenderer).pause();
+        }
         mRenderer.onAdd();
         mRenderer.setOnClusterClickListener(mOnClusterClickListener);
         mRenderer.setOnClusterInfoWindowClickListener(mOnClusterInfoWindowClickListener);
@@ -109,6 +181,9 @@ public class ClusterManager<T extends ClusterItem> implements GoogleMap.OnCamera
                 algorithm.addItems(mAlgorithm.getItems());
             }
             mAlgorithm = new PreCachingAlgorithmDecorator<T>(algorithm);
+            if (mPaused) {
+                mAlgorithm.pause();
+            }
         } finally {
             mAlgorithmLock.writeLock().unlock();
         }
@@ -152,25 +227,160 @@ public class ClusterManager<T extends ClusterItem> implements GoogleMap.OnCamera
         }
     }
 
+    /**
+     * Removes many items at once, taking the lock and invalidating cached clusters once for the
+     * whole batch.
+     */
+    public void removeItems(Collection<T> items) {
+        mAlgorithmLock.writeLock().lock();
+        try {
+            mAlgorithm.removeItems(items);
+        } finally {
+            mAlgorithmLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sets the executor clustering runs on. By default a single background thread is shared by
+     * all ClusterManagers, so that clustering does not compete with the rest of the app for
+     * {@link android.os.AsyncTask}'s pool.
+     */
+    public void setExecutor(Executor executor) {
+        mClusterTaskLock.writeLock().lock();
+        try {
+            mExecutor = executor;
+        } finally {
+            mClusterTaskLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sets how camera changes are coalesced. The map is clustered once the camera has not changed
+     * for debounceMs, and at most maxLatencyMs after the first change which has not been
+     * clustered yet.
+     */
+    public void setDebounce(long debounceMs, long maxLatencyMs) {
+        mDebounceMs = debounceMs;
+        mMaxLatencyMs = maxLatencyMs;
+    }
+
+    /**
+     * Moves items which have already been added to their current positions, in place in the
+     * algorithm's index and under a single lock for the whole batch, rather than removing and
+     * adding each of them. Call {@link #cluster()} afterwards to update the map: the markers of
+     * items, and of clusters whose items are unchanged, are moved rather than replaced.
+     */
+    public void updateItems(Collection<T> items) {
+        mAlgorithmLock.writeLock().lock();
+        try {
+            mAlgorithm.updateItems(items);
+        } finally {
+            mAlgorithmLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Moves an item which has already been added to its current position, like
+     * {@link #updateItems(Collection)}.
+     */
+    public void updateItem(T item) {
+        updateItems(Collections.singletonList(item));
+    }
+
     /**
      * Force a re-cluster. You may want to call this after adding new item(s).
      */
     public void cluster() {
         mClusterTaskLock.writeLock().lock();
         try {
+            if (mPaused) {
+                mClusterPending = true;
+                return;
+            }
             // Attempt to cancel the in-flight request.
-            mClusterTask.cancel(true);
-            mClusterTask = new ClusterTask();
-            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
-                mClusterTask.execute(mMap.getCameraPosition().zoom);
-            } else {
-                mClusterTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, mMap.getCameraPosition().zoom);
+            if (mClusterTask != null) {
+                mClusterTask.cancel(true);
             }
+            mClusteredBounds = getClusteringBounds(
+                    mMap.getProjection().getVisibleRegion().latLngBounds);
+            mClusterTask = new ClusterTask(mClusteredBounds, mMap.getCameraPosition().zoom);
+            mExecutor.execute(mClusterTask);
         } finally {
             mClusterTaskLock.writeLock().unlock();
         }
     }
 
+    /**
+     * Stops clustering, prefetching and rendering, for example while the activity hosting the
+     * map is paused. A clustering in progress is cancelled. Must be called on the main thread.
+     */
+    public void pause() {
+        mHandler.removeCallbacks(mRequestedCluster);
+        boolean requested = mFirstRequestTime >= 0;
+        mFirstRequestTime = -1;
+        mClusterTaskLock.writeLock().lock();
+        try {
+            mPaused = true;
+            if (mClusterTask != null && mClusterTask.cancel(true)) {
+                requested = true;
+            }
+            mClusterPending |= requested;
+        } finally {
+            mClusterTaskLock.writeLock().unlock();
+        }
+        mAlgorithmLock.readLock().lock();
+        try {
+            mAlgorithm.pause();
+        } finally {
+            mAlgorithmLock.readLock().unlock();
+        }
+        if (mRenderer instanceof DefaultClusterRenderer) {
+            ((DefaultClusterRenderer<T>) mRenderer).pause();
+        }
+    }
+
+    /**
+     * Resumes after {@link #pause()}. The clusters rendered before are kept, and the map is
+     * clustered again only if it was requested or cancelled while paused, in which case
+     * clusters cached before are reused.
+     */
+    public void resume() {
+        boolean pending;
+        mClusterTaskLock.writeLock().lock();
+        try {
+            mPaused = false;
+            pending = mClusterPending;
+            mClusterPending = false;
+        } finally {
+            mClusterTaskLock.writeLock().unlock();
+        }
+        mAlgorithmLock.readLock().lock();
+        try {
+            mAlgorithm.resume();
+        } finally {
+            mAlgorithmLock.readLock().unlock();
+        }
+        if (mRenderer instanceof DefaultClusterRenderer) {
+            ((DefaultClusterRenderer<T>) mRenderer).resume();
+        }
+        if (pending) {
+            cluster();
+        }
+    }
+
+    /**
+     * Clusters after the debounce delay, unless another request comes first and postpones it.
+     */
+    private void requestCluster() {
+        long now = SystemClock.uptimeMillis();
+        if (mFirstRequestTime < 0) {
+            mFirstRequestTime = now;
+        }
+        mHandler.removeCallbacks(mRequestedCluster);
+        mHandler.postAtTime(mRequestedCluster,
+                Math.min(now + mDebounceMs, mFirstRequestTime + mMaxLatencyMs));
+    }
+
     /**
      * Might re-cluster.
      *
@@ -182,14 +392,63 @@ public class ClusterManager<T extends ClusterItem> implements GoogleMap.OnCamera
             ((GoogleMap.OnCameraChangeListener) mRenderer).onCameraChange(cameraPosition);
         }
 
-        // Don't re-compute clusters if the map has just been panned/tilted/rotated.
+        // Don't re-compute clusters if the map has just been panned/tilted/rotated within the
+        // region already clustered.
         CameraPosition position = mMap.getCameraPosition();
-        if (mPreviousCameraPosition != null && mPreviousCameraPosition.zoom == position.zoom) {
+        if (mPreviousCameraPosition != null && mPreviousCameraPosition.zoom == position.zoom
+                && isVisibleRegionClustered()) {
             return;
         }
         mPreviousCameraPosition = mMap.getCameraPosition();
 
-        cluster();
+        requestCluster();
+    }
+
+    private boolean isVisibleRegionClustered() {
+        if (mClusteredBounds == null) {
+            return true;
+        }
+        LatLngBounds visible = mMap.getProjection().getVisibleRegion().latLngBounds;
+        return mClusteredBounds.contains(visible.southwest)
+                && mClusteredBounds.contains(visible.northeast);
+    }
+
+    /**
+     * @return the visible bounds extended by VIEWPORT_MARGIN on each side, or null if they would
+     * cover the whole width of the world.
+     */
+    private static LatLngBounds getClusteringBounds(LatLngBounds visible) {
+        Point southwest = PROJECTION.toPoint(visible.southwest);
+        Point northeast = PROJECTION.toPoint(visible.northeast);
+        double width = northeast.x - southwest.x;
+        if (width < 0) {
+            // The visible region crosses the antimeridian.
+            width += 1;
+        }
+        double marginX = width * VIEWPORT_MARGIN;
+        double marginY = (southwest.y - northeast.y) * VIEWPORT_MARGIN;
+        if (width + 2 * marginX >= 1) {
+            return null;
+        }
+        LatLng extendedSouthwest = PROJECTION.toLatLng(
+                new Point(southwest.x - marginX, southwest.y + marginY));
+        LatLng extendedNortheast = PROJECTION.toLatLng(
+                new Point(northeast.x + marginX, northeast.y - marginY));
+        return new LatLngBounds(extendedSouthwest, extendedNortheast);
+    }
+
+    private static Executor createClusterExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "ClusterManager");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     @Override
@@ -204,20 +463,71 @@ public class ClusterManager<T extends ClusterItem> implements GoogleMap.OnCamera
 
     /**
      * Runs the clustering algorithm in a background thread, then re-paints when results come back.
+     * <p/>
+     * Stops soon after the task is cancelled, since cancelling interrupts the thread, which the
+     * algorithms check for. The result is then discarded.
      */
-    private class ClusterTask extends AsyncTask<Float, Void, Set<? extends Cluster<T>>> {
+    private class ClusterTask extends FutureTask<Set<? extends Cluster<T>>> {
+        /**
+         * @param bounds the region to cluster, or null for the whole world.
+         */
+        private ClusterTask(final LatLngBounds bounds, final float zoom) {
+            super(new Callable<Set<? extends Cluster<T>>>() {
+                @Override
+                public Set<? extends Cluster<T>> call() {
+                    try {
+                        mAlgorithmLock.readLock().lockInterruptibly();
+                    } catch (InterruptedException e) {
+                        return null;
+                    }
+                    try {
+                        if (bounds == null) {
+                            return mAlgorithm.getClusters(zoom);
+                        }
+                        return mAlgorithm.getClusters(zoom, bounds);
+                    } catch (CancellationException e) {
+                        return null;
+                    } finally {
+                        mAlgorithmLock.readLock().unlock();
+                    }
+                }
+            });
+        }
+
         @Override
-        protected Set<? extends Cluster<T>> doInBackground(Float... zoom) {
-            mAlgorithmLock.readLock().lock();
-            try {
-                return mAlgorithm.getClusters(zoom[0]);
-            } finally {
-                mAlgorithmLock.readLock().unlock();
+        protected void done() {
+            if (isCancelled()) {
+                return;
             }
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onPostExecute();
+                }
+            });
         }
 
-        @Override
-        protected void onPostExecute(Set<? extends Cluster<T>> clusters) {
+        /**
+         * Renders the clusters on the main thread, unless another clustering has started since.
+         */
+        private void onPostExecute() {
+            Set<? extends Cluster<T>> clusters;
+            try {
+                clusters = get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+            mClusterTaskLock.readLock().lock();
+            try {
+                if (clusters == null || mClusterTask != this) {
+                    return;
+                }
+            } finally {
+                mClusterTaskLock.readLock().unlock();
+            }
             mRenderer.onClustersChanged(clusters);
         }
     }
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.clustering;
+
+import com.google.android.gms.maps.model.LatLng;
+
+/**
+ * Aggregates of the items of a cluster: their number, the sum, minimum and maximum of their
+ * weights, and their centroid weighted by their weights. Items which are not
+ * {@link WeightedClusterItem}s weigh 1.
+ * <p/>
+ * Algorithms accumulate the aggregates with a {@link Builder} as they form clusters, so renderers
+ * can read them without going through the items. ClusterStats are immutable.
+ */
+public final class ClusterStats {
+    private final int mCount;
+    private final double mSum;
+    private final double mMin;
+    private final double mMax;
+    private final LatLng mCentroid;
+
+    /**
+     * Creates stats from aggregates computed by other means.
+     *
+     * @param centroid the weighted centroid, or null if the weights sum to 0.
+     */
+    public ClusterStats(int count, double sum, double min, double max, LatLng centroid) {
+        mCount = count;
+        mSum = sum;
+        mMin = min;
+        mMax = max;
+        mCentroid = centroid;
+    }
+
+    /**
+     * @return the stats of a {@link StatsCluster}, or otherwise stats accumulated from the items.
+     */
+    public static ClusterStats of(Cluster<?> cluster) {
+        if (cluster instanceof StatsCluster) {
+            return ((StatsCluster<?>) cluster).getStats();
+        }
+        Builder builder = new Builder();
+        for (ClusterItem item : cluster.getItems()) {
+            builder.add(item);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the weight of the item if it is a {@link WeightedClusterItem}, otherwise 1.
+     */
+    public static double weightOf(ClusterItem item) {
+        return item instanceof WeightedClusterItem ? ((WeightedClusterItem) item).getWeight() : 1;
+    }
+
+    /**
+     * @return the number of items.
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the sum of the weights of the items.
+     */
+    public double getSum() {
+        return mSum;
+    }
+
+    /**
+     * @return the smallest weight, or NaN if there are no items.
+     */
+    public double getMin() {
+        return mCount == 0 ? Double.NaN : mMin;
+    }
+
+    /**
+     * @return the largest weight, or NaN if there are no items.
+     */
+    public double getMax() {
+        return mCount == 0 ? Double.NaN : mMax;
+    }
+
+    /**
+     * @return the mean of the positions of the items weighted by their weights, or null if the
+     * weights sum to 0.
+     */
+    public LatLng getCentroid() {
+        return mCount == 0 ? null : mCentroid;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ClusterStats)) {
+            return false;
+        }
+        ClusterStats other = (ClusterStats) o;
+        LatLng centroid = getCentroid();
+        return mCount == other.mCount
+                && Double.compare(mSum, other.mSum) == 0
+                && Double.compare(getMin(), other.getMin()) == 0
+                && Double.compare(getMax(), other.getMax()) == 0
+                && (centroid == null ? other.getCentroid() == null
+                : centroid.equals(other.getCentroid()));
+    }
+
+    @Override
+    public int hashCode() {
+        long bits = Double.doubleToLongBits(mSum) * 31 + Double.doubleToLongBits(getMax());
+        return mCount * 31 + (int) (bits ^ (bits >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "ClusterStats{" +
+                "mCount=" + mCount +
+                ", mSum=" + mSum +
+                ", mMin=" + getMin() +
+                ", mMax=" + getMax() +
+                '}';
+    }
+
+    /**
+     * Accumulates the stats of items as they are added to and removed from a cluster.
+     */
+    public static final class Builder {
+        private int mCount;
+        private double mSum;
+        private double mMin = Double.POSITIVE_INFINITY;
+        private double mMax = Double.NEGATIVE_INFINITY;
+
+        /**
+         * Sums of the coordinates of the items times their weights. Longitudes are taken within
+         * 180 degrees of mLngOrigin, the longitude of the first item, so a cluster across the
+         * antimeridian is not centered on the other side of the world.
+         */
+        private double mWeightedLat;
+        private double mWeightedLng;
+        private double mLngOrigin = Double.NaN;
+
+        public Builder add(ClusterItem item) {
+            return add(weightOf(item), item.getPosition());
+        }
+
+        /**
+         * Adds an item of the given weight at the given position, such as the weight and position
+         * it was clustered by, which it may no longer have.
+         */
+        public Builder add(double weight, LatLng position) {
+            if (mCount == 0) {
+                mLngOrigin = position.longitude;
+            }
+            mCount++;
+            mSum += weight;
+            mMin = Math.min(mMin, weight);
+            mMax = Math.max(mMax, weight);
+            mWeightedLat += weight * position.latitude;
+            mWeightedLng += weight * unwrap(position.longitude);
+            return this;
+        }
+
+        /**
+         * Removes an item added before, which must have kept its weight and position.
+         *
+         * @return false if the minimum or maximum may have changed, in which case the stats must
+         * be accumulated again from the remaining items.
+         */
+        public boolean remove(ClusterItem item) {
+            return remove(weightOf(item), item.getPosition());
+        }
+
+        /**
+         * Removes an item added before with the given weight and position.
+         *
+         * @return false if the minimum or maximum may have changed, in which case the stats must
+         * be accumulated again from the remaining items.
+         */
+        public boolean remove(double weight, LatLng position) {
+            if (--mCount == 0) {
+                clear();
+                return true;
+            }
+            mSum -= weight;
+            mWeightedLat -= weight * position.latitude;
+            mWeightedLng -= weight * unwrap(position.longitude);
+            return mMin == mMax || (weight > mMin && weight < mMax);
+        }
+
+        public Builder clear() {
+            mCount = 0;
+            mSum = 0;
+            mMin = Double.POSITIVE_INFINITY;
+            mMax = Double.NEGATIVE_INFINITY;
+            mWeightedLat = 0;
+            mWeightedLng = 0;
+            mLngOrigin = Double.NaN;
+            return this;
+        }
+
+        private double unwrap(double lng) {
+            if (lng - mLngOrigin > 180) {
+                return lng - 360;
+            } else if (lng - mLngOrigin < -180) {
+                return lng + 360;
+            }
+            return lng;
+        }
+
+        /**
+         * @return the stats of the items added so far, which later changes don't affect.
+         */
+        public ClusterStats build() {
+            LatLng centroid = null;
+            if (mCount != 0 && mSum != 0) {
+                double lng = mWeightedLng / mSum;
+                if (lng >= 180) {
+                    lng -= 360;
+                } else if (lng < -180) {
+                    lng += 360;
+                }
+                centroid = new LatLng(mWeightedLat / mSum, lng);
+            }
+            return new ClusterStats(mCount, mSum, mMin, mMax, centroid);
+        }
+    }
+}
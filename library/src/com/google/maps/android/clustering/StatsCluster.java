@@ -0,0 +1,31 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.clustering;
+
+/**
+ * A Cluster which aggregates the weights and positions of its items as it is formed. The clusters
+ * of the bundled algorithms implement it; {@link ClusterStats#of(Cluster)} computes the stats of
+ * other clusters from their items.
+ */
+public interface StatsCluster<T extends ClusterItem> extends Cluster<T> {
+
+    /**
+     * @return the aggregates of the weights and positions of the items, accumulated as the cluster
+     * was formed so reading them takes constant time.
+     */
+    ClusterStats getStats();
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.clustering;
+
+/**
+ * A ClusterItem with a weight, such as a load or a price, which clusters aggregate in their
+ * {@link ClusterStats}.
+ */
+public interface WeightedClusterItem extends ClusterItem {
+
+    /**
+     * The weight of this marker. Algorithms read it when they cluster the item, or, for those
+     * which keep their clusters up to date, when the item is added or updated.
+     */
+    double getWeight();
+}
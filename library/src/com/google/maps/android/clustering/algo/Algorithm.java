@@ -24,6 +24,8 @@ import com.google.maps.android.clustering.ClusterItem;
 
 /**
  * Logic for computing clusters
+ *
+ * @see ExtendedAlgorithm
  */
 public interface Algorithm<T extends ClusterItem> {
     void addItem(T item);
@@ -34,7 +36,12 @@ public interface Algorithm<T extends ClusterItem> {
 
     void removeItem(T item);
 
+    /**
+     * Computes the clusters at the given zoom level. Implementations which take long may stop
+     * early when the calling thread is interrupted, throwing a
+     * {@link java.util.concurrent.CancellationException} and leaving the thread interrupted.
+     */
     Set<? extends Cluster<T>> getClusters(double zoom);
 
     Collection<T> getItems();
-}
\ No newline at end of file
+}
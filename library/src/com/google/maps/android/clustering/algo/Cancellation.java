@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.clustering.algo;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Lets long clustering passes stop soon after the thread running them is interrupted, as when
+ * ClusterManager cancels its clustering task on the executor to start a newer one.
+ */
+final class Cancellation {
+    /**
+     * Loops check once every CHECK_MASK + 1 iterations, which take well under a millisecond.
+     */
+    private static final int CHECK_MASK = 0xFF;
+
+    private Cancellation() {
+    }
+
+    /**
+     * @throws CancellationException if the current thread has been interrupted, leaving it
+     *                               interrupted.
+     */
+    static void check() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Clustering interrupted");
+        }
+    }
+
+    /**
+     * Checks for cancellation on some iterations of a loop.
+     *
+     * @param iteration the index of the iteration.
+     */
+    static void check(int iteration) {
+        if ((iteration & CHECK_MASK) == 0) {
+            check();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.clustering.algo;
+
+import com.google.maps.android.clustering.Cluster;
+import com.google.maps.android.clustering.ClusterItem;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The changes to the clusters at one zoom level between two points in time.
+ * <p/>
+ * Clusters are identified by their items, see {@link #idOf(Cluster)}. A cluster replaced by a
+ * cluster of the same items, for example because some of them moved, is reported as changed, and
+ * a cluster whose items changed is reported as removed, and added again as a new cluster.
+ */
+public class ClusterDelta<T extends ClusterItem> {
+    private final boolean mReset;
+    private final Set<Cluster<T>> mAdded;
+    private final Set<Cluster<T>> mRemoved;
+
+    /**
+     * The cluster each changed cluster replaced.
+     */
+    private final Map<Cluster<T>, Cluster<T>> mChanged;
+
+    /**
+     * @param added   the clusters which appeared.
+     * @param removed the clusters which disappeared. Those with the same items as an added cluster
+     *                are moved from both sets to the changed clusters, so the sets must not be
+     *                used afterwards.
+     */
+    public ClusterDelta(boolean reset, Set<Cluster<T>> added, Set<Cluster<T>> removed) {
+        mReset = reset;
+        mChanged = new IdentityHashMap<Cluster<T>, Cluster<T>>();
+        if (!added.isEmpty() && !removed.isEmpty()) {
+            LongHashMap<Cluster<T>> removedById = new LongHashMap<Cluster<T>>();
+            for (Cluster<T> cluster : removed) {
+                removedById.put(idOf(cluster), cluster);
+            }
+            for (Iterator<Cluster<T>> i = added.iterator(); i.hasNext(); ) {
+                Cluster<T> cluster = i.next();
+                Cluster<T> previous = removedById.get(idOf(cluster));
+                if (previous != null) {
+                    i.remove();
+                    removed.remove(previous);
+                    mChanged.put(cluster, previous);
+                }
+            }
+        }
+        mAdded = Collections.unmodifiableSet(added);
+        mRemoved = Collections.unmodifiableSet(removed);
+    }
+
+    /**
+     * Compares two results of {@link Algorithm#getClusters(double)}. Clusters in both results are
+     * unchanged, and appear in none of the sets of the delta.
+     *
+     * @param previous the earlier clusters, or null for a reset delta holding all the current
+     *                 clusters.
+     */
+    public static <T extends ClusterItem> ClusterDelta<T> between(
+            Set<? extends Cluster<T>> previous, Set<? extends Cluster<T>> current) {
+        Set<Cluster<T>> added = new HashSet<Cluster<T>>(current);
+        if (previous == null) {
+            return new ClusterDelta<T>(true, added, new HashSet<Cluster<T>>());
+        }
+        Set<Cluster<T>> removed = new HashSet<Cluster<T>>(previous);
+        added.removeAll(previous);
+        removed.removeAll(current);
+        return new ClusterDelta<T>(false, added, removed);
+    }
+
+    /**
+     * @return an id derived from the items of the cluster: the same for every cluster of the same
+     * items, in whatever order and wherever they are, as long as the hash codes of the items do
+     * not change. Clusters of different items almost always have different ids.
+     */
+    public static long idOf(Cluster<?> cluster) {
+        // Sum well mixed hashes of the items, so that their order does not matter.
+        long id = cluster.getSize() * 0x9E3779B97F4A7C15L;
+        for (Object item : cluster.getItems()) {
+            long hash = item.hashCode();
+            hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+            hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+            id += hash ^ (hash >>> 33);
+        }
+        return id;
+    }
+
+    /**
+     * @return whether the clusters were computed afresh, in which case any clusters previously
+     * obtained for the zoom level should be discarded, and {@link #getAdded()} holds all of them.
+     */
+    public boolean isReset() {
+        return mReset;
+    }
+
+    /**
+     * @return the clusters which appeared.
+     */
+    public Set<Cluster<T>> getAdded() {
+        return mAdded;
+    }
+
+    /**
+     * @return the clusters which disappeared. Empty if {@link #isReset()}.
+     */
+    public Set<Cluster<T>> getRemoved() {
+        return mRemoved;
+    }
+
+    /**
+     * @return the clusters which replaced a cluster of the same items.
+     */
+    public Set<Cluster<T>> getChanged() {
+        return Collections.unmodifiableSet(mChanged.keySet());
+    }
+
+    /**
+     * @return the cluster which the given changed cluster replaced, or null if it is not one of
+     * {@link #getChanged()}.
+     */
+    public Cluster<T> getPrevious(Cluster<T> changed) {
+        return mChanged.get(changed);
+    }
+
+    /**
+     * @return whether nothing changed.
+     */
+    public boolean isEmpty() {
+        return !mReset && mAdded.isEmpty() && mRemoved.isEmpty() && mChanged.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "ClusterDelta{" +
+                "mReset=" + mReset +
+                ", mAdded.size=" + mAdded.size() +
+                ", mRemoved.size=" + mRemoved.size() +
+                ", mChanged.size=" + mChanged.size() +
+                '}';
+    }
+}
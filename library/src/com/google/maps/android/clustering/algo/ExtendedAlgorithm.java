@@ -0,0 +1,57 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.clustering.algo;
+
+import java.util.Collection;
+import java.util.Set;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.maps.android.clustering.Cluster;
+import com.google.maps.android.clustering.ClusterItem;
+
+/**
+ * An {@link Algorithm} which can also remove and move items in batches, and cluster only a region
+ * of the map. These are optional: for other algorithms, {@link PreCachingAlgorithmDecorator},
+ * and so {@link com.google.maps.android.clustering.ClusterManager}, remove items one by one,
+ * move an item by removing and adding it again, and cluster the whole map.
+ */
+public interface ExtendedAlgorithm<T extends ClusterItem> extends Algorithm<T> {
+    /**
+     * Removes many items at once, taking any lock once for the whole batch. Items which have not
+     * been added are ignored.
+     */
+    void removeItems(Collection<T> items);
+
+    /**
+     * Moves items which have already been added to their current positions, as returned by
+     * {@link ClusterItem#getPosition()}, and takes the current weights of
+     * {@link com.google.maps.android.clustering.WeightedClusterItem}s. Items which have not been
+     * added are ignored.
+     */
+    void updateItems(Collection<T> items);
+
+    /**
+     * Computes the clusters at the given zoom level for the items within the given bounds.
+     * Algorithms which index their items or clusters do so at a cost which depends on the number
+     * within the bounds rather than on the total; others may still check every item, as
+     * {@link GridBasedAlgorithm} does. Clusters near the edges may also hold items outside the
+     * bounds, and may differ from those computed for the whole world, so callers should pass
+     * bounds with a margin around the visible region. May stop early when the calling thread is
+     * interrupted, like {@link #getClusters(double)}.
+     */
+    Set<? extends Cluster<T>> getClusters(double zoom, LatLngBounds bounds);
+}
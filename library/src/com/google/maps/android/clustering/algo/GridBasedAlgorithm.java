@@ -16,67 +16,165 @@
 
 package com.google.maps.android.clustering.algo;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import android.support.v4.util.LongSparseArray;
-
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.maps.android.clustering.Cluster;
 import com.google.maps.android.clustering.ClusterItem;
+import com.google.maps.android.geometry.Bounds;
 import com.google.maps.android.geometry.Point;
 import com.google.maps.android.projection.SphericalMercatorProjection;
 
 /**
  * Groups markers into a grid.
+ * <p/>
+ * Items are projected once, when they are added, so that clustering at any zoom is a single pass
+ * over their coordinates.
  */
-public class GridBasedAlgorithm<T extends ClusterItem> implements Algorithm<T> {
+public class GridBasedAlgorithm<T extends ClusterItem> implements ExtendedAlgorithm<T> {
     private static final int GRID_SIZE = 100;
 
-    private final Set<T> mItems = Collections.synchronizedSet(new HashSet<T>());
+    private static final SphericalMercatorProjection PROJECTION =
+            new SphericalMercatorProjection(1);
+
+    /**
+     * The items, and their points on a world one unit wide. Any access should be synchronized on
+     * mItems.
+     */
+    private final List<T> mItems = new ArrayList<T>();
+    private double[] mXs = new double[16];
+    private double[] mYs = new double[16];
+
+    /**
+     * The position of each item in mItems. Guarded by mItems.
+     */
+    private final Map<T, Integer> mPositions = new HashMap<T, Integer>();
 
     @Override
     public void addItem(T item) {
-        mItems.add(item);
+        synchronized (mItems) {
+            if (mPositions.containsKey(item)) {
+                return;
+            }
+            int position = mItems.size();
+            if (position == mXs.length) {
+                double[] xs = new double[position * 2];
+                double[] ys = new double[position * 2];
+                System.arraycopy(mXs, 0, xs, 0, position);
+                System.arraycopy(mYs, 0, ys, 0, position);
+                mXs = xs;
+                mYs = ys;
+            }
+            Point p = PROJECTION.toPoint(item.getPosition());
+            mXs[position] = p.x;
+            mYs[position] = p.y;
+            mItems.add(item);
+            mPositions.put(item, position);
+        }
     }
 
     @Override
     public void addItems(Collection<T> items) {
-        mItems.addAll(items);
+        synchronized (mItems) {
+            for (T item : items) {
+                addItem(item);
+            }
+        }
     }
 
     @Override
     public void clearItems() {
-        mItems.clear();
+        synchronized (mItems) {
+            mItems.clear();
+            mPositions.clear();
+        }
     }
 
     @Override
     public void removeItem(T item) {
-        mItems.remove(item);
+        synchronized (mItems) {
+            Integer position = mPositions.remove(item);
+            if (position == null) {
+                return;
+            }
+            // Move the last item into the gap.
+            int last = mItems.size() - 1;
+            T lastItem = mItems.remove(last);
+            if (position != last) {
+                mItems.set(position, lastItem);
+                mXs[position] = mXs[last];
+                mYs[position] = mYs[last];
+                mPositions.put(lastItem, position);
+            }
+        }
+    }
+
+    @Override
+    public void removeItems(Collection<T> items) {
+        synchronized (mItems) {
+            for (T item : items) {
+                removeItem(item);
+            }
+        }
+    }
+
+    @Override
+    public void updateItems(Collection<T> items) {
+        synchronized (mItems) {
+            for (T item : items) {
+                Integer position = mPositions.get(item);
+                if (position != null) {
+                    Point p = PROJECTION.toPoint(item.getPosition());
+                    mXs[position] = p.x;
+                    mYs[position] = p.y;
+                }
+            }
+        }
     }
 
     @Override
     public Set<? extends Cluster<T>> getClusters(double zoom) {
+        return getClusters(zoom, null);
+    }
+
+    /**
+     * Grid cells don't depend on the bounds, so clusters near the edges are the same as for the
+     * whole world, but are limited to the items within the bounds. The items are not indexed, so
+     * every item is still checked, though only those within the bounds are grouped.
+     */
+    @Override
+    public Set<? extends Cluster<T>> getClusters(double zoom, LatLngBounds bounds) {
         long numCells = (long) Math.ceil(256 * Math.pow(2, zoom) / GRID_SIZE);
         SphericalMercatorProjection proj = new SphericalMercatorProjection(numCells);
+        Bounds viewport = bounds == null ? null : Viewport.toBounds(bounds);
 
         HashSet<Cluster<T>> clusters = new HashSet<Cluster<T>>();
-        LongSparseArray<StaticCluster<T>> sparseArray = new LongSparseArray<StaticCluster<T>>();
+        LongHashMap<StaticCluster<T>> cells = new LongHashMap<StaticCluster<T>>();
 
         synchronized (mItems) {
-            for (T item : mItems) {
-                Point p = proj.toPoint(item.getPosition());
+            for (int i = 0; i < mItems.size(); i++) {
+                Cancellation.check(i);
+                if (viewport != null && !Viewport.contains(viewport, mXs[i], mYs[i])) {
+                    continue;
+                }
+                double x = mXs[i] * numCells;
+                double y = mYs[i] * numCells;
 
-                long coord = getCoord(numCells, p.x, p.y);
+                long coord = getCoord(numCells, x, y);
 
-                StaticCluster<T> cluster = sparseArray.get(coord);
+                StaticCluster<T> cluster = cells.get(coord);
                 if (cluster == null) {
-                    cluster = new StaticCluster<T>(proj.toLatLng(new Point(Math.floor(p.x) + .5, Math.floor(p.y) + .5)));
-                    sparseArray.put(coord, cluster);
+                    cluster = new StaticCluster<T>(proj.toLatLng(new Point(Math.floor(x) + .5, Math.floor(y) + .5)));
+                    cells.put(coord, cluster);
                     clusters.add(cluster);
                 }
-                cluster.add(item);
+                cluster.add(mItems.get(i));
             }
         }
 
@@ -85,10 +183,12 @@ public class GridBasedAlgorithm<T extends ClusterItem> implements Algorithm<T> {
 
     @Override
     public Collection<T> getItems() {
-        return mItems;
+        synchronized (mItems) {
+            return new ArrayList<T>(mItems);
+        }
     }
 
     private static long getCoord(long numCells, double x, double y) {
         return (long) (numCells * Math.floor(x) + Math.floor(y));
     }
-}
\ No newline at end of file
+}
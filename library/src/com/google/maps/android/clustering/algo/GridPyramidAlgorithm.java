@@ -0,0 +1,625 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.clustering.algo;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.maps.android.clustering.Cluster;
+import com.google.maps.android.clustering.ClusterItem;
+import com.google.maps.android.clustering.ClusterStats;
+import com.google.maps.android.clustering.StatsCluster;
+import com.google.maps.android.clustering.WeightedClusterItem;
+import com.google.maps.android.geometry.Bounds;
+import com.google.maps.android.geometry.Point;
+import com.google.maps.android.projection.SphericalMercatorProjection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Groups markers into a grid, like {@link GridBasedAlgorithm}, but keeps the grid of every zoom
+ * level up to date as items are added and removed, so that the clusters of any zoom take time
+ * proportional to the number of occupied cells rather than the number of items.
+ * <p/>
+ * The cells are 128 dp wide, so that each cell is split into four at the next zoom level, like
+ * the tiles of the map, and the cell holding a point at any zoom comes from shifting its fixed
+ * point coordinates. Each cell keeps the number of its items and the sums of their coordinates,
+ * in fixed point so that removing an item exactly undoes adding it, and a cluster is positioned
+ * at the centroid of its items. Adding or removing an item updates one cell per zoom level, and
+ * the coordinates each item was added at are kept, so that it can be removed or moved after its
+ * position changes.
+ * <p/>
+ * Cells likewise keep the sum, minimum and maximum of the weights of their items, and the sums of
+ * their coordinates times their weights, for the {@link ClusterStats} of their clusters. The
+ * minimum and maximum of the cells an item is removed from are taken again from the cells within
+ * them, so removing an item still updates one cell per zoom level.
+ * <p/>
+ * Cells link to the occupied cells within them at the next zoom level, down to a cell holding a
+ * single item, whose cells at higher zooms are left implicit, or to the cells of
+ * {@link #MAX_ZOOM}. The grids of all zoom levels therefore take little more memory than the
+ * items.
+ * <p/>
+ * Clusters for a region of the map come from descending only into the cells which overlap it.
+ * Each cell keeps its cluster until the cell changes, so clusters of cells which did not change
+ * are returned again, whether for the whole world or a region. The items of a cluster are
+ * collected from the cells when first asked for, or before the cells next change if that comes
+ * first, so a cluster never changes once returned.
+ */
+public class GridPyramidAlgorithm<T extends ClusterItem> implements ExtendedAlgorithm<T> {
+    /**
+     * The finest zoom level kept. Clusters of higher zooms are those of this one.
+     */
+    public static final int MAX_ZOOM = 21;
+
+    /**
+     * Bits of the fixed point coordinates of items, on a world 2^FIXED_BITS units wide. Leaves
+     * eight bits within the cells of the finest zoom, which has 2^(MAX_ZOOM + 1) cells per side.
+     */
+    private static final int FIXED_BITS = 30;
+    private static final double FIXED_SCALE = 1 << FIXED_BITS;
+
+    private static final SphericalMercatorProjection PROJECTION =
+            new SphericalMercatorProjection(1);
+
+    /**
+     * A cell covering the world, holding the four cells of zoom 0. Any access to the cells should
+     * be synchronized on mLock.
+     */
+    private Cell<T> mRoot = new Cell<T>(null);
+
+    private final Object mLock = new Object();
+
+    /**
+     * The fixed point coordinates each item was added at, x in the high half, so that it can be
+     * found after it moves. Guarded by mLock.
+     */
+    private final Map<T, Long> mPoints = new HashMap<T, Long>();
+
+    /**
+     * The weight each {@link WeightedClusterItem} was added with, so that it can be removed after
+     * its weight changes. Other items weigh 1. Guarded by mLock.
+     */
+    private final Map<T, Double> mWeights = new HashMap<T, Double>();
+
+    /**
+     * The clusters of each zoom level, or null until asked for after the items change. Guarded by
+     * mLock.
+     */
+    private final List<Set<Cluster<T>>> mClusters = new ArrayList<Set<Cluster<T>>>();
+
+    /**
+     * The clusters returned since the cells last changed, whose items may not have been collected
+     * yet. Guarded by mLock.
+     */
+    private final List<PyramidCluster> mUncollected = new ArrayList<PyramidCluster>();
+
+    public GridPyramidAlgorithm() {
+        mRoot.mChildren = newChildren();
+        for (int zoom = 0; zoom <= MAX_ZOOM; zoom++) {
+            mClusters.add(null);
+        }
+    }
+
+    @Override
+    public void addItem(T item) {
+        Point p = PROJECTION.toPoint(item.getPosition());
+        int x = toFixed(p.x);
+        int y = toFixed(p.y);
+        synchronized (mLock) {
+            if (!mPoints.containsKey(item)) {
+                add(item, x, y);
+                Collections.fill(mClusters, null);
+            }
+        }
+    }
+
+    @Override
+    public void addItems(Collection<T> items) {
+        synchronized (mLock) {
+            for (T item : items) {
+                addItem(item);
+            }
+        }
+    }
+
+    @Override
+    public void clearItems() {
+        synchronized (mLock) {
+            // The cells of the clusters returned so far are left as they are.
+            mUncollected.clear();
+            mRoot = new Cell<T>(null);
+            mRoot.mChildren = newChildren();
+            mPoints.clear();
+            mWeights.clear();
+            Collections.fill(mClusters, null);
+        }
+    }
+
+    @Override
+    public void removeItem(T item) {
+        synchronized (mLock) {
+            if (mPoints.containsKey(item)) {
+                remove(item);
+                Collections.fill(mClusters, null);
+            }
+        }
+    }
+
+    @Override
+    public void removeItems(Collection<T> items) {
+        synchronized (mLock) {
+            boolean removed = false;
+            for (T item : items) {
+                if (mPoints.containsKey(item)) {
+                    remove(item);
+                    removed = true;
+                }
+            }
+            if (removed) {
+                Collections.fill(mClusters, null);
+            }
+        }
+    }
+
+    /**
+     * Moves each item from the cells of the point it was added at to those of its current one,
+     * and from its former weight to its current one.
+     */
+    @Override
+    public void updateItems(Collection<T> items) {
+        synchronized (mLock) {
+            for (T item : items) {
+                Long point = mPoints.get(item);
+                if (point == null) {
+                    continue;
+                }
+                Point p = PROJECTION.toPoint(item.getPosition());
+                int x = toFixed(p.x);
+                int y = toFixed(p.y);
+                if (point != pack(x, y) || weightOf(item) != ClusterStats.weightOf(item)) {
+                    remove(item);
+                    add(item, x, y);
+                    Collections.fill(mClusters, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds an item which is not in the cells yet. Must be called while synchronized on mLock.
+     */
+    private void add(T item, int x, int y) {
+        collectUncollected();
+        double weight = ClusterStats.weightOf(item);
+        // The latitude of the fixed point coordinates, which removing the item subtracts again.
+        double weightedLat = weight * toLatLng(x, y).latitude;
+        Cell<T> parent = mRoot;
+        for (int zoom = 0; ; zoom++) {
+            int quadrant = quadrant(zoom, x, y);
+            Cell<T> cell = parent.mChildren[quadrant];
+            if (cell == null) {
+                parent.mChildren[quadrant] = newLeaf(parent, zoom, item, x, y, weight, weightedLat);
+                addToSums(parent, x, y, weight, weightedLat);
+                break;
+            }
+            if (cell.mItems != null) {
+                if (zoom == MAX_ZOOM) {
+                    cell.mItems.add(item);
+                    addToSums(cell, x, y, weight, weightedLat);
+                    break;
+                }
+                // Move the single item of the cell into a cell of the next zoom level.
+                T other = cell.mItems.get(0);
+                int otherX = (int) cell.mSumX;
+                int otherY = (int) cell.mSumY;
+                cell.mItems = null;
+                cell.mChildren = newChildren();
+                cell.mChildren[quadrant(zoom + 1, otherX, otherY)] =
+                        newLeaf(cell, zoom + 1, other, otherX, otherY, cell.mWeight,
+                                cell.mWeightedLat);
+            }
+            parent = cell;
+        }
+        mPoints.put(item, pack(x, y));
+        if (item instanceof WeightedClusterItem) {
+            mWeights.put(item, weight);
+        }
+    }
+
+    /**
+     * Removes an item which is in the cells. Must be called while synchronized on mLock.
+     */
+    private void remove(T item) {
+        collectUncollected();
+        double weight = weightOf(item);
+        long point = mPoints.remove(item);
+        mWeights.remove(item);
+        int x = (int) (point >>> 32);
+        int y = (int) point;
+        double weightedLat = weight * toLatLng(x, y).latitude;
+        Cell<T> cell = mRoot;
+        int quadrant = 0;
+        for (int zoom = 0; cell.mItems == null; zoom++) {
+            quadrant = quadrant(zoom, x, y);
+            cell = cell.mChildren[quadrant];
+        }
+        if (cell.mCount == 1) {
+            cell.mParent.mChildren[quadrant] = null;
+        } else {
+            cell.mItems.remove(item);
+        }
+        for (Cell<T> c = cell; c != null; c = c.mParent) {
+            c.mCluster = null;
+            c.mCount--;
+            c.mSumX -= x;
+            c.mSumY -= y;
+            c.mWeight -= weight;
+            c.mWeightedX -= weight * x;
+            c.mWeightedLat -= weightedLat;
+            if (c.mCount > 0) {
+                updateExtremes(c);
+            }
+        }
+
+        // Collapse the highest cell left with a single item, if any, into a leaf.
+        Cell<T> single = null;
+        for (Cell<T> c = cell.mParent; c != mRoot && c.mCount == 1; c = c.mParent) {
+            single = c;
+        }
+        if (single != null) {
+            Cell<T> leaf = single;
+            while (leaf.mItems == null) {
+                leaf = firstChild(leaf);
+            }
+            single.mChildren = null;
+            single.mItems = leaf.mItems;
+        }
+    }
+
+    /**
+     * @return the clusters of the occupied cells at the zoom level, which are cached until the
+     * items change.
+     */
+    @Override
+    public Set<? extends Cluster<T>> getClusters(double zoom) {
+        int discreteZoom = Math.max(0, Math.min(MAX_ZOOM, (int) zoom));
+        synchronized (mLock) {
+            Set<Cluster<T>> clusters = mClusters.get(discreteZoom);
+            if (clusters == null) {
+                clusters = new HashSet<Cluster<T>>();
+                collectClusters(mRoot, 0, discreteZoom, 0, 0, null, null, clusters);
+                clusters = Collections.unmodifiableSet(clusters);
+                mClusters.set(discreteZoom, clusters);
+            }
+            return clusters;
+        }
+    }
+
+    /**
+     * Visits only the cells which overlap the bounds, so takes time proportional to the number of
+     * occupied cells within them, and returns the clusters positioned within the bounds.
+     */
+    @Override
+    public Set<? extends Cluster<T>> getClusters(double zoom, LatLngBounds bounds) {
+        int discreteZoom = Math.max(0, Math.min(MAX_ZOOM, (int) zoom));
+        Bounds viewport = Viewport.toBounds(bounds);
+        Set<Cluster<T>> clusters = new HashSet<Cluster<T>>();
+        synchronized (mLock) {
+            collectClusters(mRoot, 0, discreteZoom, 0, 0, viewport, bounds, clusters);
+        }
+        return clusters;
+    }
+
+    @Override
+    public Collection<T> getItems() {
+        synchronized (mLock) {
+            List<T> items = new ArrayList<T>(mRoot.mCount);
+            mRoot.collect(items);
+            return items;
+        }
+    }
+
+    /**
+     * Adds a cluster for each cell at the zoom level within the children of the parent, which
+     * are at the given level. Must be called while synchronized on mLock.
+     *
+     * @param parentX  the fixed point coordinates of the corner of the parent.
+     * @param viewport the bounds from {@link Viewport#toBounds(LatLngBounds)}, outside which
+     *                 cells are skipped, or null for all cells.
+     * @param bounds   the bounds the clusters must be positioned within, or null.
+     */
+    private void collectClusters(Cell<T> parent, int level, int zoom, int parentX, int parentY,
+                                 Bounds viewport, LatLngBounds bounds, Set<Cluster<T>> clusters) {
+        int shift = FIXED_BITS - (level + 1);
+        for (int quadrant = 0; quadrant < 4; quadrant++) {
+            Cell<T> cell = parent.mChildren[quadrant];
+            if (cell == null) {
+                continue;
+            }
+            int x = parentX | (quadrant >> 1) << shift;
+            int y = parentY | (quadrant & 1) << shift;
+            if (viewport != null && !overlaps(viewport, x, y, 1 << shift)) {
+                continue;
+            }
+            if (level == zoom || cell.mItems != null) {
+                if (cell.mCluster == null) {
+                    PyramidCluster cluster = new PyramidCluster(cell);
+                    mUncollected.add(cluster);
+                    cell.mCluster = cluster;
+                }
+                if (bounds == null || bounds.contains(cell.mCluster.getPosition())) {
+                    clusters.add(cell.mCluster);
+                }
+            } else {
+                collectClusters(cell, level + 1, zoom, x, y, viewport, bounds, clusters);
+            }
+        }
+    }
+
+    /**
+     * @return whether the cell with the fixed point coordinates and width overlaps the viewport,
+     * which may extend beyond the antimeridian.
+     */
+    private static boolean overlaps(Bounds viewport, int x, int y, int width) {
+        double minX = x / FIXED_SCALE;
+        double maxX = (x + (double) width) / FIXED_SCALE;
+        double minY = y / FIXED_SCALE;
+        double maxY = (y + (double) width) / FIXED_SCALE;
+        if (maxY < viewport.minY || minY > viewport.maxY) {
+            return false;
+        }
+        return (maxX >= viewport.minX && minX <= viewport.maxX)
+                || (maxX + 1 >= viewport.minX && minX + 1 <= viewport.maxX);
+    }
+
+    /**
+     * Collects the items of the clusters returned so far before their cells change. Each cluster
+     * is collected at most once, so this takes no more than asking for the items of all of them.
+     * Must be called while synchronized on mLock.
+     */
+    private void collectUncollected() {
+        for (PyramidCluster cluster : mUncollected) {
+            cluster.collect();
+        }
+        mUncollected.clear();
+    }
+
+    /**
+     * @return the coordinate on a world 2^FIXED_BITS units wide, within the world.
+     */
+    private static int toFixed(double coordinate) {
+        return (int) Math.max(0, Math.min(FIXED_SCALE - 1, Math.floor(coordinate * FIXED_SCALE)));
+    }
+
+    /**
+     * @return which of the four cells at the zoom level within the cell of the previous level
+     * holds the fixed point coordinates.
+     */
+    private static int quadrant(int zoom, int x, int y) {
+        int shift = FIXED_BITS - (zoom + 1);
+        return ((x >> shift) & 1) << 1 | ((y >> shift) & 1);
+    }
+
+    private static long pack(int x, int y) {
+        return (long) x << 32 | y;
+    }
+
+    private static void addToSums(Cell<?> cell, int x, int y, double weight,
+                                  double weightedLat) {
+        for (Cell<?> c = cell; c != null; c = c.mParent) {
+            c.mCluster = null;
+            c.mCount++;
+            c.mSumX += x;
+            c.mSumY += y;
+            c.mWeight += weight;
+            c.mMinWeight = Math.min(c.mMinWeight, weight);
+            c.mMaxWeight = Math.max(c.mMaxWeight, weight);
+            c.mWeightedX += weight * x;
+            c.mWeightedLat += weightedLat;
+        }
+    }
+
+    private static <T extends ClusterItem> Cell<T> newLeaf(Cell<T> parent, int zoom, T item, int x,
+                                                           int y, double weight,
+                                                           double weightedLat) {
+        Cell<T> leaf = new Cell<T>(parent);
+        leaf.mItems = new ArrayList<T>(zoom == MAX_ZOOM ? 2 : 1);
+        leaf.mItems.add(item);
+        leaf.mCount = 1;
+        leaf.mSumX = x;
+        leaf.mSumY = y;
+        leaf.mWeight = weight;
+        leaf.mMinWeight = weight;
+        leaf.mMaxWeight = weight;
+        leaf.mWeightedX = weight * x;
+        leaf.mWeightedLat = weightedLat;
+        return leaf;
+    }
+
+    /**
+     * @return the weight the item was added with. Must be called while synchronized on mLock.
+     */
+    private double weightOf(T item) {
+        Double weight = mWeights.get(item);
+        return weight == null ? 1 : weight;
+    }
+
+    /**
+     * Takes the minimum and maximum weights of an occupied cell again from its items, or from the
+     * cells within it, after an item was removed from them. Must be called while synchronized on
+     * mLock.
+     */
+    private void updateExtremes(Cell<T> cell) {
+        cell.mMinWeight = Double.POSITIVE_INFINITY;
+        cell.mMaxWeight = Double.NEGATIVE_INFINITY;
+        if (cell.mItems != null) {
+            for (T item : cell.mItems) {
+                double weight = weightOf(item);
+                cell.mMinWeight = Math.min(cell.mMinWeight, weight);
+                cell.mMaxWeight = Math.max(cell.mMaxWeight, weight);
+            }
+            return;
+        }
+        for (Cell<T> child : cell.mChildren) {
+            if (child != null) {
+                cell.mMinWeight = Math.min(cell.mMinWeight, child.mMinWeight);
+                cell.mMaxWeight = Math.max(cell.mMaxWeight, child.mMaxWeight);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends ClusterItem> Cell<T>[] newChildren() {
+        return (Cell<T>[]) new Cell[4];
+    }
+
+    private static <T extends ClusterItem> Cell<T> firstChild(Cell<T> cell) {
+        for (Cell<T> child : cell.mChildren) {
+            if (child != null) {
+                return child;
+            }
+        }
+        throw new IllegalStateException("Empty cell " + cell);
+    }
+
+    private static LatLng toLatLng(double x, double y) {
+        return PROJECTION.toLatLng(new Point(x / FIXED_SCALE, y / FIXED_SCALE));
+    }
+
+    /**
+     * An occupied cell of one zoom level.
+     */
+    private static class Cell<T extends ClusterItem> {
+        private final Cell<T> mParent;
+
+        /**
+         * The cells within this one at the next zoom level, by quadrant, or null for a leaf.
+         */
+        private Cell<T>[] mChildren;
+
+        /**
+         * The items of a leaf, which holds a single item unless it is at {@link #MAX_ZOOM}, or
+         * null for a cell with children.
+         */
+        private List<T> mItems;
+
+        private int mCount;
+        private long mSumX;
+        private long mSumY;
+
+        private double mWeight;
+        private double mMinWeight = Double.POSITIVE_INFINITY;
+        private double mMaxWeight = Double.NEGATIVE_INFINITY;
+
+        /**
+         * Sums of the weights times the x coordinates, which are proportional to longitudes, and
+         * times the latitudes, which are not proportional to the y coordinates.
+         */
+        private double mWeightedX;
+        private double mWeightedLat;
+
+        /**
+         * The cluster of this cell, or null until asked for after the cell changes.
+         */
+        private Cluster<T> mCluster;
+
+        private Cell(Cell<T> parent) {
+            mParent = parent;
+        }
+
+        /**
+         * Adds the items of this cell and the cells within it to the list.
+         */
+        private void collect(List<T> items) {
+            if (mItems != null) {
+                items.addAll(mItems);
+                return;
+            }
+            for (Cell<T> child : mChildren) {
+                if (child != null) {
+                    child.collect(items);
+                }
+            }
+        }
+    }
+
+    /**
+     * A cluster of the items of a cell, positioned at their centroid when it was created.
+     */
+    private class PyramidCluster implements StatsCluster<T> {
+        private final Cell<T> mCell;
+        private final LatLng mPosition;
+        private final int mSize;
+        private final ClusterStats mStats;
+        private Collection<T> mItems;
+
+        private PyramidCluster(Cell<T> cell) {
+            mCell = cell;
+            mPosition = toLatLng((double) cell.mSumX / cell.mCount,
+                    (double) cell.mSumY / cell.mCount);
+            mSize = cell.mCount;
+            LatLng centroid = null;
+            if (cell.mWeight != 0) {
+                centroid = new LatLng(cell.mWeightedLat / cell.mWeight,
+                        (cell.mWeightedX / cell.mWeight / FIXED_SCALE - .5) * 360);
+            }
+            mStats = new ClusterStats(cell.mCount, cell.mWeight, cell.mMinWeight,
+                    cell.mMaxWeight, centroid);
+        }
+
+        @Override
+        public LatLng getPosition() {
+            return mPosition;
+        }
+
+        @Override
+        public Collection<T> getItems() {
+            synchronized (mLock) {
+                collect();
+                return mItems;
+            }
+        }
+
+        /**
+         * Collects the items from the cell, unless already done. Must be called while
+         * synchronized on mLock.
+         */
+        private void collect() {
+            if (mItems == null) {
+                List<T> items = new ArrayList<T>(mSize);
+                mCell.collect(items);
+                mItems = Collections.unmodifiableList(items);
+            }
+        }
+
+        @Override
+        public int getSize() {
+            return mSize;
+        }
+
+        @Override
+        public ClusterStats getStats() {
+            return mStats;
+        }
+    }
+}
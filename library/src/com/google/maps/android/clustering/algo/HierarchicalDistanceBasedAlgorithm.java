@@ -0,0 +1,716 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.clustering.algo;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.maps.android.clustering.Cluster;
+import com.google.maps.android.clustering.ClusterItem;
+import com.google.maps.android.clustering.ClusterStats;
+import com.google.maps.android.clustering.StatsCluster;
+import com.google.maps.android.geometry.Bounds;
+import com.google.maps.android.geometry.Point;
+import com.google.maps.android.projection.SphericalMercatorProjection;
+import com.google.maps.android.quadtree.PointIndex;
+import com.google.maps.android.quadtree.PrimitivePointQuadTree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A distance based clustering algorithm which computes the clusters for every zoom level from 0 to
+ * {@link #MAX_ZOOM} in one pass, after which {@link #getClusters(double)} is a lookup.
+ * <p/>
+ * High level algorithm:<br>
+ * 1. Start with every item as a cluster of its own, at a level beyond MAX_ZOOM.<br>
+ * 2. For each zoom level from MAX_ZOOM down to 0, bulk load the clusters of the level above into
+ * a {@link PrimitivePointQuadTree}.<br>
+ * 3. Iterate over those clusters in order, and merge each which is not yet taken with all those
+ * within the same distance as {@link NonHierarchicalDistanceBasedAlgorithm} uses at that zoom.<br>
+ * <p/>
+ * The clusters therefore nest: a cluster at one zoom level is made of whole clusters of the next.
+ * A cluster is positioned at the weighted centroid of the clusters it merges, and distances wrap
+ * around the antimeridian. Items are not moved to a closer cluster once taken, so clusters differ
+ * slightly from those of {@link NonHierarchicalDistanceBasedAlgorithm}.
+ * <p/>
+ * The hierarchy is rebuilt by the first call to getClusters after the items change, outside the
+ * lock which guards the items, and concurrent calls share that build. It therefore suits items
+ * which change rarely compared to how often the camera zooms.
+ */
+public class HierarchicalDistanceBasedAlgorithm<T extends ClusterItem>
+        implements ExtendedAlgorithm<T> {
+    /**
+     * The highest zoom level with its own clusters. Greater zooms use the clusters of this one.
+     */
+    public static final int MAX_ZOOM = 21;
+
+    private static final SphericalMercatorProjection PROJECTION =
+            new SphericalMercatorProjection(1);
+
+    /**
+     * Any access should be synchronized on mItems.
+     */
+    private final List<T> mItems = new ArrayList<T>();
+
+    /**
+     * Incremented whenever the items change. Guarded by mItems.
+     */
+    private int mVersion;
+
+    /**
+     * The hierarchy for the current items, or null until it has been built. Guarded by mItems.
+     */
+    private Hierarchy<T> mHierarchy;
+
+    /**
+     * The build of the hierarchy for the current items which callers wait for, or null if none
+     * has started. Guarded by mItems.
+     */
+    private Build mBuild;
+
+    @Override
+    public void addItem(T item) {
+        synchronized (mItems) {
+            mItems.add(item);
+            invalidate();
+        }
+    }
+
+    @Override
+    public void addItems(Collection<T> items) {
+        synchronized (mItems) {
+            mItems.addAll(items);
+            invalidate();
+        }
+    }
+
+    @Override
+    public void clearItems() {
+        synchronized (mItems) {
+            mItems.clear();
+            invalidate();
+        }
+    }
+
+    @Override
+    public void removeItem(T item) {
+        synchronized (mItems) {
+            mItems.remove(item);
+            invalidate();
+        }
+    }
+
+    /**
+     * Removes the items in one pass. Like {@link #removeItem(ClusterItem)}, an item added more
+     * than once loses its earliest added copy, once per occurrence in the batch.
+     */
+    @Override
+    public void removeItems(Collection<T> items) {
+        synchronized (mItems) {
+            Occurrences<T> remaining = new Occurrences<T>(items);
+            int count = 0;
+            for (int i = 0; i < mItems.size(); i++) {
+                T item = mItems.get(i);
+                if (!remaining.take(item)) {
+                    mItems.set(count++, item);
+                }
+            }
+            mItems.subList(count, mItems.size()).clear();
+            invalidate();
+        }
+    }
+
+    /**
+     * Positions are read when the hierarchy is built, so moving items only invalidates it.
+     */
+    @Override
+    public void updateItems(Collection<T> items) {
+        synchronized (mItems) {
+            invalidate();
+        }
+    }
+
+    /**
+     * Must be called while synchronized on mItems.
+     */
+    private void invalidate() {
+        mVersion++;
+        mHierarchy = null;
+        mBuild = null;
+    }
+
+    @Override
+    public Set<? extends Cluster<T>> getClusters(double zoom) {
+        return getHierarchy().getClusters(Math.max(0, Math.min(MAX_ZOOM, (int) zoom)));
+    }
+
+    /**
+     * Looks the precomputed clusters of the zoom level positioned within the bounds up in an index
+     * of their positions, built for each zoom level when first needed, so clusters near the edges
+     * are the same as for the whole world.
+     */
+    @Override
+    public Set<? extends Cluster<T>> getClusters(double zoom, LatLngBounds bounds) {
+        return getHierarchy().getClusters(Math.max(0, Math.min(MAX_ZOOM, (int) zoom)), bounds);
+    }
+
+    /**
+     * @return the hierarchy for the current items, building it if necessary. Callers which ask
+     * while it is being built wait for that build rather than starting their own. Only the wait
+     * stops when the calling thread is interrupted: the build itself always completes, so that
+     * cancelling one clustering pass does not throw away work which the next one would repeat.
+     */
+    private Hierarchy<T> getHierarchy() {
+        Build build;
+        synchronized (mItems) {
+            if (mHierarchy != null) {
+                return mHierarchy;
+            }
+            build = mBuild;
+            if (build == null) {
+                build = new Build(new ArrayList<T>(mItems), mVersion);
+                mBuild = build;
+            }
+        }
+        // Builds without holding the lock, so that writers are not blocked, and on this thread
+        // unless another caller has already started.
+        build.run();
+        try {
+            return build.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Clustering interrupted");
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    @Override
+    public Collection<T> getItems() {
+        synchronized (mItems) {
+            return new ArrayList<T>(mItems);
+        }
+    }
+
+    /**
+     * Half the width of the area within which clusters are merged at the given zoom.
+     */
+    private static double halfSpan(int zoom) {
+        return NonHierarchicalDistanceBasedAlgorithm.MAX_DISTANCE_AT_ZOOM / Math.pow(2, zoom)
+                / 256 / 2;
+    }
+
+    /**
+     * Builds the hierarchy of a snapshot of the items, and keeps it unless they changed meanwhile.
+     */
+    private class Build extends FutureTask<Hierarchy<T>> {
+        private final int mBuildVersion;
+
+        private Build(final List<T> items, int version) {
+            super(new Callable<Hierarchy<T>>() {
+                @Override
+                public Hierarchy<T> call() {
+                    return new Hierarchy<T>(items);
+                }
+            });
+            mBuildVersion = version;
+        }
+
+        @Override
+        protected void done() {
+            synchronized (mItems) {
+                if (mBuild == this) {
+                    mBuild = null;
+                }
+                if (mVersion != mBuildVersion) {
+                    return;
+                }
+                try {
+                    mHierarchy = get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    // Nothing to keep. The callers waiting for the build get the exception.
+                }
+            }
+        }
+    }
+
+    /**
+     * The clusters of a snapshot of the items at every zoom level. Immutable once built.
+     */
+    private static class Hierarchy<T extends ClusterItem> {
+        /**
+         * The items, ordered so that every cluster at every level holds a contiguous range.
+         */
+        private final List<T> mItems;
+
+        /**
+         * Positions of mItems when the hierarchy was built, which single items are shown at.
+         */
+        private final LatLng[] mPositions;
+
+        /**
+         * Clusters at each zoom level. Consecutive levels share a Level when nothing merged.
+         */
+        private final Level[] mLevels = new Level[MAX_ZOOM + 1];
+
+        /**
+         * Cluster sets for each zoom level, created on first use. Guarded by this.
+         */
+        private final List<Set<Cluster<T>>> mClusters = new ArrayList<Set<Cluster<T>>>(
+                Collections.<Set<Cluster<T>>>nCopies(MAX_ZOOM + 1, null));
+
+        /**
+         * The clusters of each zoom level by index, each created on first use. Guarded by this.
+         */
+        private final List<List<Cluster<T>>> mLevelClusters = new ArrayList<List<Cluster<T>>>(
+                Collections.<List<Cluster<T>>>nCopies(MAX_ZOOM + 1, null));
+
+        /**
+         * Index of the positions of the clusters of each zoom level, built on first use. Guarded
+         * by this.
+         */
+        private final PointIndex[] mIndexes = new PointIndex[MAX_ZOOM + 1];
+
+        private Hierarchy(List<T> items) {
+            int n = items.size();
+            double[] xs = new double[n];
+            double[] ys = new double[n];
+            int[] counts = new int[n];
+            double[] weights = new double[n];
+            double[] lats = new double[n];
+            double[] lngs = new double[n];
+            LatLng[] positions = new LatLng[n];
+            for (int i = 0; i < n; i++) {
+                T item = items.get(i);
+                LatLng position = item.getPosition();
+                positions[i] = position;
+                Point p = PROJECTION.toPoint(position);
+                xs[i] = p.x;
+                // Clamp items at the poles into the index.
+                ys[i] = Math.max(0, Math.min(1, p.y));
+                counts[i] = 1;
+                weights[i] = ClusterStats.weightOf(item);
+                lats[i] = weights[i] == 0 ? Double.NaN : position.latitude;
+                lngs[i] = weights[i] == 0 ? Double.NaN : position.longitude;
+            }
+            Level itemLevel = new Level(xs, ys, counts, n, weights, weights, weights, lats, lngs);
+
+            int[] ids = new int[n];
+            for (int i = 0; i < n; i++) {
+                ids[i] = i;
+            }
+            Level finer = itemLevel;
+            for (int zoom = MAX_ZOOM; zoom >= 0; zoom--) {
+                if (finer.mSize > 1) {
+                    finer = finer.merge(ids, halfSpan(zoom));
+                }
+                mLevels[zoom] = finer;
+            }
+
+            // Order each level after the one above it, so that every cluster's items are
+            // contiguous, from the top down.
+            Level coarser = mLevels[0];
+            coarser.mStarts = new int[coarser.mSize + 1];
+            for (int i = 0; i < coarser.mSize; i++) {
+                coarser.mStarts[i + 1] = coarser.mStarts[i] + coarser.mCounts[i];
+            }
+            coarser.mRanks = null;
+            for (int zoom = 1; zoom <= MAX_ZOOM + 1; zoom++) {
+                Level level = zoom <= MAX_ZOOM ? mLevels[zoom] : itemLevel;
+                if (level != coarser) {
+                    level.orderAfter(coarser);
+                    coarser.mCounts = null;
+                    coarser = level;
+                }
+            }
+
+            List<T> ordered = new ArrayList<T>(Collections.<T>nCopies(n, null));
+            mPositions = new LatLng[n];
+            for (int i = 0; i < n; i++) {
+                ordered.set(itemLevel.rank(i), items.get(i));
+                mPositions[itemLevel.rank(i)] = positions[i];
+            }
+            mItems = Collections.unmodifiableList(ordered);
+        }
+
+        private synchronized Set<? extends Cluster<T>> getClusters(int zoom) {
+            Set<Cluster<T>> clusters = mClusters.get(zoom);
+            if (clusters == null) {
+                clusters = new HashSet<Cluster<T>>();
+                for (int i = 0; i < mLevels[zoom].mSize; i++) {
+                    clusters.add(getCluster(zoom, i));
+                }
+                clusters = Collections.unmodifiableSet(clusters);
+                mClusters.set(zoom, clusters);
+            }
+            return clusters;
+        }
+
+        /**
+         * @return the clusters of the zoom level positioned within the bounds.
+         */
+        private synchronized Set<? extends Cluster<T>> getClusters(final int zoom,
+                                                                   final LatLngBounds bounds) {
+            PointIndex index = mIndexes[zoom];
+            if (index == null) {
+                Level level = mLevels[zoom];
+                int[] ids = new int[level.mSize];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = i;
+                }
+                index = new PrimitivePointQuadTree(new Bounds(0, 1, 0, 1));
+                index.addAll(ids, level.mXs, level.mYs, level.mSize);
+                mIndexes[zoom] = index;
+            }
+            final Set<Cluster<T>> clusters = new HashSet<Cluster<T>>();
+            Bounds viewport = Viewport.toBounds(bounds);
+            index.searchWrapped(viewport.minX, viewport.maxX, viewport.minY, viewport.maxY, 1,
+                    new PointIndex.WrappedVisitor() {
+                        @Override
+                        public void visit(int id, double x, double y, double xOffset) {
+                            Cluster<T> cluster = getCluster(zoom, id);
+                            if (bounds.contains(cluster.getPosition())) {
+                                clusters.add(cluster);
+                            }
+                        }
+                    });
+            return clusters;
+        }
+
+        /**
+         * @return cluster i of the zoom level. Must be called while synchronized on this.
+         */
+        private Cluster<T> getCluster(int zoom, int i) {
+            List<Cluster<T>> levelClusters = mLevelClusters.get(zoom);
+            if (levelClusters == null) {
+                levelClusters = new ArrayList<Cluster<T>>(
+                        Collections.<Cluster<T>>nCopies(mLevels[zoom].mSize, null));
+                mLevelClusters.set(zoom, levelClusters);
+            }
+            Cluster<T> cluster = levelClusters.get(i);
+            if (cluster == null) {
+                Level level = mLevels[zoom];
+                List<T> items = mItems.subList(level.mStarts[i], level.mStarts[i + 1]);
+                LatLng position = items.size() == 1 ? mPositions[level.mStarts[i]]
+                        : PROJECTION.toLatLng(new Point(level.mXs[i], level.mYs[i]));
+                cluster = new HierarchyCluster<T>(position, items, level.getStats(i));
+                levelClusters.set(i, cluster);
+            }
+            return cluster;
+        }
+    }
+
+    /**
+     * The clusters at one zoom level, as parallel arrays.
+     */
+    private static class Level {
+        private final int mSize;
+        private double[] mXs;
+        private double[] mYs;
+
+        /**
+         * Number of items in each cluster. Only needed while the hierarchy is built.
+         */
+        private int[] mCounts;
+
+        /**
+         * The sum, minimum and maximum of the weights of the items in each cluster, and their
+         * weighted centroid, which is NaN if the weights sum to 0. Folded from the clusters of
+         * the finer level as they merge.
+         */
+        private double[] mWeights;
+        private double[] mMinWeights;
+        private double[] mMaxWeights;
+        private double[] mLats;
+        private double[] mLngs;
+
+        /**
+         * Index of the cluster each of these clusters merged into at the next coarser distinct
+         * level. Only needed while the hierarchy is built.
+         */
+        private int[] mParents;
+
+        /**
+         * Position of each cluster once the level is reordered. Only needed while the hierarchy
+         * is built, and kept for the items themselves.
+         */
+        private int[] mRanks;
+
+        /**
+         * Once the level is reordered, the items of cluster i are mStarts[i] to mStarts[i + 1].
+         */
+        private int[] mStarts;
+
+        private Level(double[] xs, double[] ys, int[] counts, int size, double[] weights,
+                      double[] minWeights, double[] maxWeights, double[] lats, double[] lngs) {
+            mXs = xs;
+            mYs = ys;
+            mCounts = counts;
+            mSize = size;
+            mWeights = weights;
+            mMinWeights = minWeights;
+            mMaxWeights = maxWeights;
+            mLats = lats;
+            mLngs = lngs;
+        }
+
+        /**
+         * @return the level formed by merging these clusters, or this level if nothing merged.
+         */
+        private Level merge(int[] ids, double halfSpan) {
+            PointIndex tree = new PrimitivePointQuadTree(new Bounds(0, 1, 0, 1));
+            tree.addAll(ids, mXs, mYs, mSize);
+
+            int[] parents = new int[mSize];
+            Arrays.fill(parents, -1);
+            Merger merger = new Merger(this, parents);
+            double[] xs = new double[mSize];
+            double[] ys = new double[mSize];
+            int[] counts = new int[mSize];
+            double[] weights = new double[mSize];
+            double[] minWeights = new double[mSize];
+            double[] maxWeights = new double[mSize];
+            double[] lats = new double[mSize];
+            double[] lngs = new double[mSize];
+            int size = 0;
+            for (int i = 0; i < mSize; i++) {
+                if (parents[i] >= 0) {
+                    continue;
+                }
+                double x = mXs[i];
+                double y = mYs[i];
+                merger.start(size);
+                merger.visit(i, x, y, 0);
+                tree.searchWrapped(x - halfSpan, x + halfSpan, y - halfSpan, y + halfSpan, 1,
+                        merger);
+
+                // The centroid may lie beyond the antimeridian.
+                double centroidX = merger.mSumX / merger.mCount;
+                xs[size] = centroidX < 0 ? centroidX + 1
+                        : (centroidX > 1 ? centroidX - 1 : centroidX);
+                ys[size] = merger.mSumY / merger.mCount;
+                counts[size] = merger.mCount;
+                weights[size] = merger.mWeight;
+                minWeights[size] = merger.mMinWeight;
+                maxWeights[size] = merger.mMaxWeight;
+                if (merger.mWeight == 0) {
+                    lats[size] = Double.NaN;
+                    lngs[size] = Double.NaN;
+                } else {
+                    lats[size] = merger.mWeightedLat / merger.mWeight;
+                    double lng = merger.mWeightedLng / merger.mWeight;
+                    lngs[size] = lng >= 180 ? lng - 360 : (lng < -180 ? lng + 360 : lng);
+                }
+                size++;
+            }
+            if (size == mSize) {
+                return this;
+            }
+            mParents = parents;
+            return new Level(Arrays.copyOf(xs, size), Arrays.copyOf(ys, size),
+                    Arrays.copyOf(counts, size), size, Arrays.copyOf(weights, size),
+                    Arrays.copyOf(minWeights, size), Arrays.copyOf(maxWeights, size),
+                    Arrays.copyOf(lats, size), Arrays.copyOf(lngs, size));
+        }
+
+        /**
+         * Reorders this level so that the children of each cluster at the coarser level, which
+         * has already been reordered, are consecutive and in the same order as their parents.
+         */
+        private void orderAfter(Level coarser) {
+            // Index of the first child of each coarser cluster, and of its first item.
+            int[] childCursors = new int[coarser.mSize + 1];
+            for (int i = 0; i < mSize; i++) {
+                childCursors[coarser.rank(mParents[i]) + 1]++;
+            }
+            for (int k = 0; k < coarser.mSize; k++) {
+                childCursors[k + 1] += childCursors[k];
+            }
+            int[] itemCursors = Arrays.copyOf(coarser.mStarts, coarser.mSize);
+
+            int[] ranks = new int[mSize];
+            int[] starts = new int[mSize + 1];
+            double[] xs = new double[mSize];
+            double[] ys = new double[mSize];
+            double[] weights = new double[mSize];
+            double[] minWeights = new double[mSize];
+            double[] maxWeights = new double[mSize];
+            double[] lats = new double[mSize];
+            double[] lngs = new double[mSize];
+            for (int i = 0; i < mSize; i++) {
+                int parent = coarser.rank(mParents[i]);
+                int rank = childCursors[parent]++;
+                ranks[i] = rank;
+                starts[rank] = itemCursors[parent];
+                itemCursors[parent] += mCounts[i];
+                xs[rank] = mXs[i];
+                ys[rank] = mYs[i];
+                weights[rank] = mWeights[i];
+                minWeights[rank] = mMinWeights[i];
+                maxWeights[rank] = mMaxWeights[i];
+                lats[rank] = mLats[i];
+                lngs[rank] = mLngs[i];
+            }
+            starts[mSize] = coarser.mStarts[coarser.mSize];
+
+            coarser.mRanks = null;
+            mParents = null;
+            mRanks = ranks;
+            mStarts = starts;
+            mXs = xs;
+            mYs = ys;
+            mWeights = weights;
+            mMinWeights = minWeights;
+            mMaxWeights = maxWeights;
+            mLats = lats;
+            mLngs = lngs;
+        }
+
+        /**
+         * @return the position of the cluster which was created at index i, after reordering.
+         */
+        private int rank(int i) {
+            return mRanks == null ? i : mRanks[i];
+        }
+
+        /**
+         * @return the stats of cluster i, once the level is reordered.
+         */
+        private ClusterStats getStats(int i) {
+            LatLng centroid = Double.isNaN(mLats[i]) ? null : new LatLng(mLats[i], mLngs[i]);
+            return new ClusterStats(mStarts[i + 1] - mStarts[i], mWeights[i], mMinWeights[i],
+                    mMaxWeights[i], centroid);
+        }
+    }
+
+    /**
+     * Merges the clusters found by a search into the one being formed.
+     */
+    private static class Merger implements PointIndex.WrappedVisitor {
+        private final Level mLevel;
+        private final int[] mParents;
+        private int mCluster;
+        private int mCount;
+        private double mSumX;
+        private double mSumY;
+        private double mWeight;
+        private double mMinWeight;
+        private double mMaxWeight;
+
+        /**
+         * Sums of the centroids of the merged clusters times their weights. Longitudes are taken
+         * within 180 degrees of mLngOrigin, the centroid of the first weighted cluster, like
+         * ClusterStats.Builder does for items.
+         */
+        private double mWeightedLat;
+        private double mWeightedLng;
+        private double mLngOrigin;
+
+        private Merger(Level level, int[] parents) {
+            mLevel = level;
+            mParents = parents;
+        }
+
+        private void start(int cluster) {
+            mCluster = cluster;
+            mCount = 0;
+            mSumX = 0;
+            mSumY = 0;
+            mWeight = 0;
+            mMinWeight = Double.POSITIVE_INFINITY;
+            mMaxWeight = Double.NEGATIVE_INFINITY;
+            mWeightedLat = 0;
+            mWeightedLng = 0;
+            mLngOrigin = Double.NaN;
+        }
+
+        @Override
+        public void visit(int id, double x, double y, double xOffset) {
+            if (mParents[id] >= 0) {
+                return;
+            }
+            int count = mLevel.mCounts[id];
+            mParents[id] = mCluster;
+            mCount += count;
+            mSumX += (x + xOffset) * count;
+            mSumY += y * count;
+
+            double weight = mLevel.mWeights[id];
+            mWeight += weight;
+            mMinWeight = Math.min(mMinWeight, mLevel.mMinWeights[id]);
+            mMaxWeight = Math.max(mMaxWeight, mLevel.mMaxWeights[id]);
+            if (weight != 0) {
+                double lng = mLevel.mLngs[id];
+                if (Double.isNaN(mLngOrigin)) {
+                    mLngOrigin = lng;
+                } else if (lng - mLngOrigin > 180) {
+                    lng -= 360;
+                } else if (lng - mLngOrigin < -180) {
+                    lng += 360;
+                }
+                mWeightedLat += weight * mLevel.mLats[id];
+                mWeightedLng += weight * lng;
+            }
+        }
+    }
+
+    /**
+     * A cluster whose items are a view of a range of the ordered items.
+     */
+    private static class HierarchyCluster<T extends ClusterItem> implements StatsCluster<T> {
+        private final LatLng mPosition;
+        private final List<T> mItems;
+        private final ClusterStats mStats;
+
+        private HierarchyCluster(LatLng position, List<T> items, ClusterStats stats) {
+            mPosition = position;
+            mItems = items;
+            mStats = stats;
+        }
+
+        @Override
+        public LatLng getPosition() {
+            return mPosition;
+        }
+
+        @Override
+        public Collection<T> getItems() {
+            return mItems;
+        }
+
+        @Override
+        public int getSize() {
+            return mItems.size();
+        }
+
+        @Override
+        public ClusterStats getStats() {
+            return mStats;
+        }
+    }
+}
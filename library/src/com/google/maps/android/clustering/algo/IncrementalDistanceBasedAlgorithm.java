@@ -0,0 +1,435 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.clustering.algo;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.maps.android.clustering.Cluster;
+import com.google.maps.android.clustering.ClusterItem;
+import com.google.maps.android.clustering.ClusterStats;
+import com.google.maps.android.clustering.StatsCluster;
+import com.google.maps.android.geometry.Bounds;
+import com.google.maps.android.geometry.Point;
+import com.google.maps.android.projection.SphericalMercatorProjection;
+import com.google.maps.android.quadtree.PointQuadTree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A distance based clustering algorithm which keeps the clusters of recently used zoom levels up
+ * to date as items are added and removed, rather than computing them again.
+ * <p/>
+ * High level algorithm, applied to each item in the order they were added:<br>
+ * 1. Find the clusters whose centers are within the same distance of the item as
+ * {@link NonHierarchicalDistanceBasedAlgorithm} uses at that zoom.<br>
+ * 2. Add the item to the closest of them, or create a cluster centered on the item if there is
+ * none.
+ * <p/>
+ * Adding an item therefore changes at most one cluster per zoom level. Removing an item changes
+ * only its own cluster, unless it is the item the cluster is centered on, in which case the
+ * cluster is dissolved and its other items are added again. Clusters keep the center of their
+ * first item, and distances wrap around the antimeridian.
+ * <p/>
+ * A cluster returned by {@link #getClusters(double)} never changes: when its items change it is
+ * replaced by a new cluster, and an unchanged cluster is the same instance in every result.
+ * {@link #getClusterDelta(double)} returns just the clusters replaced since it was last called.
+ */
+public class IncrementalDistanceBasedAlgorithm<T extends ClusterItem>
+        implements ExtendedAlgorithm<T> {
+    private static final int DEFAULT_MAX_ZOOM_LEVELS = 5;
+
+    private static final SphericalMercatorProjection PROJECTION =
+            new SphericalMercatorProjection(1);
+
+    /**
+     * Items in the order they were added. Any access should be synchronized on mItems.
+     */
+    private final Set<T> mItems = new LinkedHashSet<T>();
+
+    /**
+     * Clusters of the most recently used zoom levels. Guarded by mItems.
+     */
+    private final Map<Integer, Level> mLevels;
+
+    public IncrementalDistanceBasedAlgorithm() {
+        this(DEFAULT_MAX_ZOOM_LEVELS);
+    }
+
+    /**
+     * @param maxZoomLevels the number of zoom levels whose clusters are kept up to date.
+     */
+    public IncrementalDistanceBasedAlgorithm(final int maxZoomLevels) {
+        mLevels = new LinkedHashMap<Integer, Level>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Level> eldest) {
+                return size() > maxZoomLevels;
+            }
+        };
+    }
+
+    @Override
+    public void addItem(T item) {
+        synchronized (mItems) {
+            if (mItems.add(item)) {
+                LatLng position = item.getPosition();
+                Point point = toPoint(position);
+                for (Level level : mLevels.values()) {
+                    level.add(item, position, point);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void addItems(Collection<T> items) {
+        synchronized (mItems) {
+            for (T item : items) {
+                addItem(item);
+            }
+        }
+    }
+
+    @Override
+    public void clearItems() {
+        synchronized (mItems) {
+            mItems.clear();
+            mLevels.clear();
+        }
+    }
+
+    @Override
+    public void removeItem(T item) {
+        synchronized (mItems) {
+            if (mItems.remove(item)) {
+                for (Level level : mLevels.values()) {
+                    level.remove(item);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void removeItems(Collection<T> items) {
+        synchronized (mItems) {
+            for (T item : items) {
+                removeItem(item);
+            }
+        }
+    }
+
+    /**
+     * Removes each item from its cluster at every zoom level kept, and adds it again at its
+     * current position.
+     */
+    @Override
+    public void updateItems(Collection<T> items) {
+        synchronized (mItems) {
+            for (T item : items) {
+                if (mItems.contains(item)) {
+                    LatLng position = item.getPosition();
+                    Point point = toPoint(position);
+                    for (Level level : mLevels.values()) {
+                        level.remove(item);
+                        level.add(item, position, point);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public Set<? extends Cluster<T>> getClusters(double zoom) {
+        synchronized (mItems) {
+            Level level = getLevel(zoom);
+            level.publish();
+            return Collections.unmodifiableSet(new HashSet<Cluster<T>>(level.mPublished));
+        }
+    }
+
+    /**
+     * Finds the clusters centered within the bounds with the index of cluster centers, so clusters
+     * near the edges are the same as for the whole world.
+     */
+    @Override
+    public Set<? extends Cluster<T>> getClusters(double zoom, LatLngBounds bounds) {
+        final Set<Cluster<T>> results = new HashSet<Cluster<T>>();
+        Bounds b = Viewport.toBounds(bounds);
+        synchronized (mItems) {
+            Level level = getLevel(zoom);
+            level.publish();
+            level.mCenters.searchWrapped(b.minX, b.maxX, b.minY, b.maxY, 1,
+                    new PointQuadTree.WrappedVisitor<Group<T>>() {
+                        @Override
+                        public void visit(Group<T> group, double xOffset) {
+                            results.add(group.mCluster);
+                        }
+                    });
+        }
+        return Collections.unmodifiableSet(results);
+    }
+
+    /**
+     * @return the clusters added and removed at the zoom level since the previous call for it.
+     * The first call for a zoom level, or the first after its clusters were dropped to make room
+     * for other zoom levels, returns a reset delta holding all its clusters.
+     */
+    public ClusterDelta<T> getClusterDelta(double zoom) {
+        synchronized (mItems) {
+            Level level = getLevel(zoom);
+            level.publish();
+            ClusterDelta<T> delta = new ClusterDelta<T>(level.mReset, level.mAdded,
+                    level.mRemoved);
+            level.mReset = false;
+            level.mAdded = new HashSet<Cluster<T>>();
+            level.mRemoved = new HashSet<Cluster<T>>();
+            return delta;
+        }
+    }
+
+    @Override
+    public Collection<T> getItems() {
+        synchronized (mItems) {
+            return new ArrayList<T>(mItems);
+        }
+    }
+
+    /**
+     * Must be called while synchronized on mItems.
+     */
+    private Level getLevel(double zoom) {
+        int discreteZoom = Math.max(0, (int) zoom);
+        Level level = mLevels.get(discreteZoom);
+        if (level == null) {
+            level = new Level(discreteZoom);
+            for (T item : mItems) {
+                level.add(item);
+            }
+            mLevels.put(discreteZoom, level);
+        }
+        return level;
+    }
+
+    private static Point toPoint(LatLng position) {
+        Point p = PROJECTION.toPoint(position);
+        // Clamp items at the poles into the index.
+        return new Point(p.x, Math.max(0, Math.min(1, p.y)));
+    }
+
+    /**
+     * The clusters at one zoom level. Must be used while synchronized on mItems.
+     */
+    private class Level {
+        private final double mHalfSpan;
+
+        /**
+         * Index of the cluster centers.
+         */
+        private final PointQuadTree<Group<T>> mCenters = new PointQuadTree<Group<T>>(0, 1, 0, 1);
+        private final Map<T, Group<T>> mItemToGroup = new HashMap<T, Group<T>>();
+
+        /**
+         * Groups changed since their clusters were last published.
+         */
+        private final Set<Group<T>> mDirty = new LinkedHashSet<Group<T>>();
+
+        /**
+         * The current cluster of each group, as last published.
+         */
+        private final Set<Cluster<T>> mPublished = new HashSet<Cluster<T>>();
+
+        /**
+         * The delta since getClusterDelta was last called.
+         */
+        private boolean mReset = true;
+        private Set<Cluster<T>> mAdded = new HashSet<Cluster<T>>();
+        private Set<Cluster<T>> mRemoved = new HashSet<Cluster<T>>();
+
+        /**
+         * Finds the group closest to mPoint. Reused for every search.
+         */
+        private final NearestGroup<T> mNearest = new NearestGroup<T>();
+
+        private Level(int zoom) {
+            mHalfSpan = NonHierarchicalDistanceBasedAlgorithm.MAX_DISTANCE_AT_ZOOM
+                    / Math.pow(2, zoom) / 256 / 2;
+        }
+
+        private void add(T item) {
+            LatLng position = item.getPosition();
+            add(item, position, toPoint(position));
+        }
+
+        private void add(T item, LatLng position, Point point) {
+            mNearest.start(point);
+            mCenters.searchWrapped(point.x - mHalfSpan, point.x + mHalfSpan,
+                    point.y - mHalfSpan, point.y + mHalfSpan, 1, mNearest);
+            Group<T> group = mNearest.mGroup;
+            mNearest.mGroup = null;
+            if (group == null) {
+                group = new Group<T>(item, position, point);
+                mCenters.add(group);
+            }
+            group.mItems.add(item);
+            mItemToGroup.put(item, group);
+            mDirty.add(group);
+        }
+
+        private void remove(T item) {
+            Group<T> group = mItemToGroup.remove(item);
+            if (group == null) {
+                return;
+            }
+            group.mItems.remove(item);
+            mDirty.add(group);
+            if (group.mItems.isEmpty() || group.mCenterItem.equals(item)) {
+                // Dissolve the group, and find new groups for the rest of its items.
+                mCenters.remove(group);
+                group.mDissolved = true;
+                for (T other : group.mItems) {
+                    mItemToGroup.remove(other);
+                }
+                for (T other : group.mItems) {
+                    add(other);
+                }
+            }
+        }
+
+        /**
+         * Replaces the clusters of the groups which changed.
+         */
+        private void publish() {
+            for (Group<T> group : mDirty) {
+                if (group.mCluster != null) {
+                    mPublished.remove(group.mCluster);
+                    if (!mAdded.remove(group.mCluster)) {
+                        mRemoved.add(group.mCluster);
+                    }
+                    group.mCluster = null;
+                }
+                if (!group.mDissolved) {
+                    group.mCluster = new GroupCluster<T>(group);
+                    mPublished.add(group.mCluster);
+                    mAdded.add(group.mCluster);
+                }
+            }
+            mDirty.clear();
+        }
+    }
+
+    /**
+     * The items clustered around one item, at one zoom level.
+     */
+    private static class Group<T extends ClusterItem> implements PointQuadTree.Item {
+        private final T mCenterItem;
+
+        /**
+         * Position of the center item when the group was formed, and its projected point.
+         */
+        private final LatLng mPosition;
+        private final Point mCenter;
+        private final Set<T> mItems = new LinkedHashSet<T>();
+        private boolean mDissolved;
+
+        /**
+         * The immutable cluster last published for the group, or null.
+         */
+        private Cluster<T> mCluster;
+
+        private Group(T centerItem, LatLng position, Point center) {
+            mCenterItem = centerItem;
+            mPosition = position;
+            mCenter = center;
+        }
+
+        @Override
+        public Point getPoint() {
+            return mCenter;
+        }
+    }
+
+    private static class NearestGroup<T extends ClusterItem>
+            implements PointQuadTree.WrappedVisitor<Group<T>> {
+        private Point mPoint;
+        private Group<T> mGroup;
+        private double mDistance;
+
+        private void start(Point point) {
+            mPoint = point;
+            mGroup = null;
+            mDistance = Double.POSITIVE_INFINITY;
+        }
+
+        @Override
+        public void visit(Group<T> group, double xOffset) {
+            double dx = group.mCenter.x + xOffset - mPoint.x;
+            double dy = group.mCenter.y - mPoint.y;
+            double distance = dx * dx + dy * dy;
+            if (distance < mDistance) {
+                mDistance = distance;
+                mGroup = group;
+            }
+        }
+    }
+
+    /**
+     * An immutable copy of a group.
+     */
+    private static class GroupCluster<T extends ClusterItem> implements StatsCluster<T> {
+        private final LatLng mPosition;
+        private final List<T> mItems;
+        private final ClusterStats mStats;
+
+        private GroupCluster(Group<T> group) {
+            mPosition = group.mPosition;
+            mItems = Collections.unmodifiableList(new ArrayList<T>(group.mItems));
+            ClusterStats.Builder stats = new ClusterStats.Builder();
+            for (T item : mItems) {
+                stats.add(item);
+            }
+            mStats = stats.build();
+        }
+
+        @Override
+        public LatLng getPosition() {
+            return mPosition;
+        }
+
+        @Override
+        public Collection<T> getItems() {
+            return mItems;
+        }
+
+        @Override
+        public int getSize() {
+            return mItems.size();
+        }
+
+        @Override
+        public ClusterStats getStats() {
+            return mStats;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.clustering.algo;
+
+/**
+ * A map from longs to non-null values, stored in arrays with open addressing, so that neither
+ * keys nor entries are allocated.
+ */
+final class LongHashMap<V> {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] mKeys = new long[INITIAL_CAPACITY];
+
+    /**
+     * The value for the key at the same index, or null for an empty slot.
+     */
+    private Object[] mValues = new Object[INITIAL_CAPACITY];
+    private int mSize;
+
+    /**
+     * @return the value for the key, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        int mask = mKeys.length - 1;
+        for (int i = slot(key, mask); mValues[i] != null; i = (i + 1) & mask) {
+            if (mKeys[i] == key) {
+                return (V) mValues[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the value for the key, replacing any previous value.
+     */
+    void put(long key, V value) {
+        int mask = mKeys.length - 1;
+        int i = slot(key, mask);
+        while (mValues[i] != null) {
+            if (mKeys[i] == key) {
+                mValues[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        mKeys[i] = key;
+        mValues[i] = value;
+        if (++mSize > mKeys.length / 2) {
+            grow();
+        }
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    private void grow() {
+        long[] keys = mKeys;
+        Object[] values = mValues;
+        mKeys = new long[keys.length * 2];
+        mValues = new Object[values.length * 2];
+        int mask = mKeys.length - 1;
+        for (int j = 0; j < keys.length; j++) {
+            if (values[j] != null) {
+                int i = slot(keys[j], mask);
+                while (mValues[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                mKeys[i] = keys[j];
+                mValues[i] = values[j];
+            }
+        }
+    }
+
+    /**
+     * Spreads the bits of the key, since keys of neighbouring cells differ only in their low bits.
+     */
+    private static int slot(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -17,20 +17,35 @@
 package com.google.maps.android.clustering.algo;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.RandomAccess;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.maps.android.clustering.Cluster;
 import com.google.maps.android.clustering.ClusterItem;
-import com.google.maps.android.geometry.Bounds;
+import com.google.maps.android.clustering.ClusterStats;
+import com.google.maps.android.clustering.StatsCluster;
 import com.google.maps.android.geometry.Point;
 import com.google.maps.android.projection.SphericalMercatorProjection;
+import com.google.maps.android.geometry.Bounds;
+import com.google.maps.android.quadtree.LinearPointQuadTree;
+import com.google.maps.android.quadtree.PersistentPointQuadTree;
+import com.google.maps.android.quadtree.PointIndex;
 import com.google.maps.android.quadtree.PointQuadTree;
 
 /**
@@ -45,43 +60,200 @@ import com.google.maps.android.quadtree.PointQuadTree;
  * 5. Remove those items from the list of candidate clusters.
  * <p/>
  * Clusters have the center of the first element (not the centroid of the items within it).
+ * Distances wrap around the antimeridian, so items on either side of it are clustered together.
+ * <p/>
+ * Items are indexed by a {@link PointQuadTree} by default, or by one of the other
+ * {@link IndexType}s. The {@link IndexType#LINEAR_QUAD_TREE linear} index, which is rebuilt in
+ * bulk by the first clustering after the items change, suits items which change rarely compared to
+ * how often they are clustered. The {@link IndexType#PERSISTENT_QUAD_TREE persistent} index
+ * suits items which change continuously: clustering works on an immutable snapshot without
+ * locking, so it neither blocks nor is blocked by concurrent updates.
+ * <p/>
+ * Given an executor, clustering splits the map into tiles and clusters the items well inside each
+ * tile concurrently, then the items near the borders of the tiles in order.
  */
-public class NonHierarchicalDistanceBasedAlgorithm<T extends ClusterItem> implements Algorithm<T> {
+public class NonHierarchicalDistanceBasedAlgorithm<T extends ClusterItem>
+        implements ExtendedAlgorithm<T> {
     public static final int MAX_DISTANCE_AT_ZOOM = 100; // essentially 100 dp.
 
+    /**
+     * The kinds of spatial index the items can be kept in.
+     */
+    public enum IndexType {
+        /**
+         * A {@link PointQuadTree}, updated as each item is added or removed.
+         */
+        QUAD_TREE,
+
+        /**
+         * A {@link LinearPointQuadTree}, rebuilt in bulk by the first clustering after the items
+         * have changed.
+         */
+        LINEAR_QUAD_TREE,
+
+        /**
+         * A {@link PersistentPointQuadTree}. Each update publishes a new version of the tree
+         * atomically, and clustering reads the latest version without taking any lock.
+         */
+        PERSISTENT_QUAD_TREE
+    }
+
     /**
      * Any modifications should be synchronized on mQuadTree.
      */
-    private final Collection<QuadItem<T>> mItems = new ArrayList<QuadItem<T>>();
+    private final List<QuadItem<T>> mItems = new ArrayList<QuadItem<T>>();
 
     /**
      * Any modifications should be synchronized on mQuadTree.
      */
     private final PointQuadTree<QuadItem<T>> mQuadTree = new PointQuadTree<QuadItem<T>>(0, 1, 0, 1);
 
+    private final IndexType mIndexType;
+
+    /**
+     * For a linear index, a snapshot of mItems indexed by mLinearTree, and the tree itself, whose
+     * ids are positions in the snapshot. Null until the first clustering after the items change.
+     * Guarded by mQuadTree.
+     */
+    private List<QuadItem<T>> mLinearItems;
+    private LinearPointQuadTree mLinearTree;
+
+    /**
+     * For a persistent index, the latest version of the tree, which replaces both mItems and
+     * mQuadTree. Updated with compare-and-set, never under a lock.
+     */
+    private final AtomicReference<PersistentPointQuadTree<QuadItem<T>>> mSnapshot =
+            new AtomicReference<PersistentPointQuadTree<QuadItem<T>>>(
+                    new PersistentPointQuadTree<QuadItem<T>>(new Bounds(0, 1, 0, 1)));
+
+    /**
+     * Numbers the items in the order they were added.
+     */
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /**
+     * Numbers the items densely, so that clustering can keep its state in arrays.
+     */
+    private final IdAllocator mIds = new IdAllocator();
+
+    /**
+     * Runs the tiles of a parallel clustering, or null to cluster on the calling thread.
+     */
+    private final ExecutorService mExecutor;
+    private final int mParallelism;
+
     private static final SphericalMercatorProjection PROJECTION = new SphericalMercatorProjection(1);
 
+    /**
+     * The number of tiles per thread of a parallel clustering, and the minimum width of a tile
+     * relative to the distance within which items are clustered.
+     */
+    private static final int TILES_PER_THREAD = 4;
+    private static final int MIN_TILE_SPANS = 8;
+
+    /**
+     * The minimum number of items each task projects when a batch is added concurrently.
+     */
+    private static final int MIN_PROJECTIONS_PER_RUN = 2048;
+
+    public NonHierarchicalDistanceBasedAlgorithm() {
+        this(IndexType.QUAD_TREE);
+    }
+
+    /**
+     * @param indexType the kind of index to keep the items in.
+     */
+    public NonHierarchicalDistanceBasedAlgorithm(IndexType indexType) {
+        this(indexType, null, 1);
+    }
+
+    /**
+     * Creates an algorithm which clusters separate areas of the map concurrently.
+     * The clusters differ slightly from those clustered on one thread, near the borders of
+     * the areas.
+     *
+     * @param indexType   the kind of index to keep the items in.
+     * @param executor    runs the clustering of each area, and the projection of large batches
+     *                    of added items. Both wait for their tasks, so must not themselves run on
+     *                    this executor.
+     * @param parallelism the number of threads of the executor.
+     */
+    public NonHierarchicalDistanceBasedAlgorithm(IndexType indexType, ExecutorService executor,
+                                                 int parallelism) {
+        mIndexType = indexType;
+        mExecutor = executor;
+        mParallelism = parallelism;
+    }
+
     @Override
     public void addItem(T item) {
-        final QuadItem<T> quadItem = new QuadItem<T>(item);
+        final QuadItem<T> quadItem = new QuadItem<T>(item, mSequence.getAndIncrement(),
+                mIds.allocate());
+        if (mIndexType == IndexType.PERSISTENT_QUAD_TREE) {
+            PersistentPointQuadTree<QuadItem<T>> snapshot;
+            do {
+                snapshot = mSnapshot.get();
+            } while (!mSnapshot.compareAndSet(snapshot, snapshot.plus(quadItem)));
+            return;
+        }
         synchronized (mQuadTree) {
             mItems.add(quadItem);
-            mQuadTree.add(quadItem);
+            if (mIndexType == IndexType.LINEAR_QUAD_TREE) {
+                mLinearTree = null;
+            } else {
+                mQuadTree.add(quadItem);
+            }
         }
     }
 
+    /**
+     * Projects the items before taking the lock, concurrently on the executor if there is one and
+     * the batch is large, then adds them all to the index at once.
+     */
     @Override
     public void addItems(Collection<T> items) {
-        for (T item : items) {
-            addItem(item);
+        final List<QuadItem<T>> quadItems = toQuadItems(items);
+        if (mIndexType == IndexType.PERSISTENT_QUAD_TREE) {
+            PersistentPointQuadTree<QuadItem<T>> snapshot;
+            do {
+                snapshot = mSnapshot.get();
+            } while (!mSnapshot.compareAndSet(snapshot, snapshot.plusAll(quadItems)));
+            return;
+        }
+        synchronized (mQuadTree) {
+            mItems.addAll(quadItems);
+            if (mIndexType == IndexType.LINEAR_QUAD_TREE) {
+                mLinearTree = null;
+            } else {
+                mQuadTree.addAll(quadItems);
+            }
         }
     }
 
     @Override
     public void clearItems() {
+        if (mIndexType == IndexType.PERSISTENT_QUAD_TREE) {
+            PersistentPointQuadTree<QuadItem<T>> snapshot;
+            do {
+                snapshot = mSnapshot.get();
+            } while (!mSnapshot.compareAndSet(snapshot,
+                    new PersistentPointQuadTree<QuadItem<T>>(snapshot.getBounds())));
+            snapshot.visitAll(new PointQuadTree.Visitor<QuadItem<T>>() {
+                @Override
+                public void visit(QuadItem<T> quadItem) {
+                    mIds.release(quadItem.mId);
+                }
+            });
+            return;
+        }
         synchronized (mQuadTree) {
+            for (QuadItem<T> quadItem : mItems) {
+                mIds.release(quadItem.mId);
+            }
             mItems.clear();
             mQuadTree.clear();
+            mLinearItems = null;
+            mLinearTree = null;
         }
     }
 
@@ -90,67 +262,608 @@ public class NonHierarchicalDistanceBasedAlgorithm<T extends ClusterItem> implem
         // QuadItem delegates hashcode() and equals() to its item so,
         //   removing any QuadItem to that item will remove the item
         final QuadItem<T> quadItem = new QuadItem<T>(item);
+        if (mIndexType == IndexType.PERSISTENT_QUAD_TREE) {
+            PersistentPointQuadTree<QuadItem<T>> snapshot;
+            QuadItem<T> removed;
+            do {
+                snapshot = mSnapshot.get();
+                removed = find(snapshot, quadItem);
+                if (removed == null) {
+                    return;
+                }
+            } while (!mSnapshot.compareAndSet(snapshot, snapshot.minus(removed)));
+            mIds.release(removed.mId);
+            return;
+        }
+        synchronized (mQuadTree) {
+            int index = mItems.indexOf(quadItem);
+            if (index < 0) {
+                return;
+            }
+            // Remove the same instance from the index, so that its id is no longer used.
+            QuadItem<T> removed = mItems.remove(index);
+            if (mIndexType == IndexType.LINEAR_QUAD_TREE) {
+                mLinearTree = null;
+            } else {
+                mQuadTree.remove(removed);
+            }
+            mIds.release(removed.mId);
+        }
+    }
+
+    /**
+     * Removes the items in one pass over all of them, however many are removed. Like
+     * {@link #removeItem(ClusterItem)}, an item added more than once loses its earliest added
+     * copy, once per occurrence in the batch. An index mostly emptied by the batch is built again
+     * from the remaining items rather than pruned.
+     */
+    @Override
+    public void removeItems(Collection<T> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        final List<QuadItem<T>> found = new ArrayList<QuadItem<T>>();
+        if (mIndexType == IndexType.PERSISTENT_QUAD_TREE) {
+            final Occurrences<T> batch = new Occurrences<T>(items);
+            PersistentPointQuadTree<QuadItem<T>> snapshot;
+            do {
+                snapshot = mSnapshot.get();
+                final List<QuadItem<T>> candidates = new ArrayList<QuadItem<T>>();
+                snapshot.visitAll(new PointQuadTree.Visitor<QuadItem<T>>() {
+                    @Override
+                    public void visit(QuadItem<T> quadItem) {
+                        if (batch.contains(quadItem.mClusterItem)) {
+                            candidates.add(quadItem);
+                        }
+                    }
+                });
+                Collections.sort(candidates, SEQUENCE_ORDER);
+                Occurrences<T> remaining = new Occurrences<T>(items);
+                found.clear();
+                for (QuadItem<T> quadItem : candidates) {
+                    if (remaining.take(quadItem.mClusterItem)) {
+                        found.add(quadItem);
+                    }
+                }
+                if (found.isEmpty()) {
+                    return;
+                }
+            } while (!mSnapshot.compareAndSet(snapshot, snapshot.minusAll(found)));
+            mIds.release(found);
+            return;
+        }
         synchronized (mQuadTree) {
-            mItems.remove(quadItem);
-            mQuadTree.remove(quadItem);
+            Occurrences<T> remaining = new Occurrences<T>(items);
+            int count = 0;
+            for (int i = 0; i < mItems.size(); i++) {
+                QuadItem<T> quadItem = mItems.get(i);
+                if (remaining.take(quadItem.mClusterItem)) {
+                    found.add(quadItem);
+                } else {
+                    mItems.set(count++, quadItem);
+                }
+            }
+            if (found.isEmpty()) {
+                return;
+            }
+            mItems.subList(count, mItems.size()).clear();
+            if (mIndexType == IndexType.LINEAR_QUAD_TREE) {
+                mLinearTree = null;
+            } else if (found.size() > mItems.size()) {
+                mQuadTree.clear();
+                mQuadTree.addAll(mItems);
+            } else {
+                for (QuadItem<T> quadItem : found) {
+                    mQuadTree.remove(quadItem);
+                }
+            }
+            mIds.release(found);
         }
     }
 
+    /**
+     * Replaces each item which moved or changed weight in the index, keeping its place in the
+     * order items were added. Finding the items takes one pass over all of them, however many moved.
+     */
+    @Override
+    public void updateItems(Collection<T> items) {
+        final Set<T> updated = new HashSet<T>(items);
+        if (mIndexType == IndexType.PERSISTENT_QUAD_TREE) {
+            PersistentPointQuadTree<QuadItem<T>> snapshot;
+            PersistentPointQuadTree<QuadItem<T>> moved;
+            do {
+                snapshot = mSnapshot.get();
+                final List<QuadItem<T>> from = new ArrayList<QuadItem<T>>();
+                final List<QuadItem<T>> to = new ArrayList<QuadItem<T>>();
+                snapshot.visitAll(new PointQuadTree.Visitor<QuadItem<T>>() {
+                    @Override
+                    public void visit(QuadItem<T> quadItem) {
+                        QuadItem<T> movedItem = moved(quadItem, updated);
+                        if (movedItem != null) {
+                            from.add(quadItem);
+                            to.add(movedItem);
+                        }
+                    }
+                });
+                if (from.isEmpty()) {
+                    return;
+                }
+                moved = snapshot;
+                for (QuadItem<T> quadItem : from) {
+                    moved = moved.minus(quadItem);
+                }
+                moved = moved.plusAll(to);
+            } while (!mSnapshot.compareAndSet(snapshot, moved));
+            return;
+        }
+        synchronized (mQuadTree) {
+            for (int i = 0; i < mItems.size(); i++) {
+                QuadItem<T> quadItem = mItems.get(i);
+                QuadItem<T> movedItem = moved(quadItem, updated);
+                if (movedItem == null) {
+                    continue;
+                }
+                mItems.set(i, movedItem);
+                if (mIndexType == IndexType.LINEAR_QUAD_TREE) {
+                    mLinearTree = null;
+                } else {
+                    mQuadTree.remove(quadItem);
+                    mQuadTree.add(movedItem);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the items wrapped in QuadItems, in order, with a run of sequence numbers so that the
+     * batch keeps its order. Projecting the positions is the bulk of the work, so large batches
+     * are split into runs projected concurrently on the executor.
+     */
+    @SuppressWarnings("unchecked")
+    private List<QuadItem<T>> toQuadItems(Collection<T> items) {
+        final List<T> list = items instanceof List && items instanceof RandomAccess
+                ? (List<T>) items : new ArrayList<T>(items);
+        final int n = list.size();
+        final long sequence = mSequence.getAndAdd(n);
+        final int[] ids = mIds.allocate(n);
+        final QuadItem<T>[] quadItems = (QuadItem<T>[]) new QuadItem<?>[n];
+        int runs = mExecutor == null ? 1 : Math.min(mParallelism, n / MIN_PROJECTIONS_PER_RUN);
+        if (runs > 1) {
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(runs);
+            for (int run = 0; run < runs; run++) {
+                final int start = (int) ((long) n * run / runs);
+                final int end = (int) ((long) n * (run + 1) / runs);
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int i = start; i < end; i++) {
+                            quadItems[i] = new QuadItem<T>(list.get(i), sequence + i, ids[i]);
+                        }
+                        return null;
+                    }
+                });
+            }
+            try {
+                for (Future<Void> future : mExecutor.invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                // Project what the executor did not below.
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (quadItems[i] == null) {
+                quadItems[i] = new QuadItem<T>(list.get(i), sequence + i, ids[i]);
+            }
+        }
+        return Arrays.asList(quadItems);
+    }
+
+    /**
+     * @return a copy of the item at its current position and weight, with the same sequence number
+     * and id, if it is one of the given items and has moved or changed weight, or null otherwise.
+     */
+    private static <T extends ClusterItem> QuadItem<T> moved(QuadItem<T> quadItem, Set<T> items) {
+        if (!items.contains(quadItem.mClusterItem)
+                || (quadItem.mPosition.equals(quadItem.mClusterItem.getPosition())
+                && quadItem.mStats.getSum() == ClusterStats.weightOf(quadItem.mClusterItem))) {
+            return null;
+        }
+        return new QuadItem<T>(quadItem.mClusterItem, quadItem.mSequence, quadItem.mId);
+    }
+
     @Override
     public Set<? extends Cluster<T>> getClusters(double zoom) {
+        return getClusters(zoom, (Bounds) null);
+    }
+
+    /**
+     * Clusters the items within the bounds, in the order they were added, found with the index.
+     * Clusters near the edges may also take items outside the bounds.
+     */
+    @Override
+    public Set<? extends Cluster<T>> getClusters(double zoom, LatLngBounds bounds) {
+        return getClusters(zoom, Viewport.toBounds(bounds));
+    }
+
+    /**
+     * @param viewport the projected bounds of the items to cluster, or null for all items.
+     */
+    private Set<? extends Cluster<T>> getClusters(double zoom, Bounds viewport) {
         final int discreteZoom = (int) zoom;
 
         final double zoomSpecificSpan = MAX_DISTANCE_AT_ZOOM / Math.pow(2, discreteZoom) / 256;
+        // TODO: Use a span that takes into account the visual size of the marker, not just its
+        // LatLng.
+        final double halfSpan = zoomSpecificSpan / 2;
 
-        final Set<QuadItem<T>> visitedCandidates = new HashSet<QuadItem<T>>();
-        final Set<Cluster<T>> results = new HashSet<Cluster<T>>();
-        final Map<QuadItem<T>, Double> distanceToCluster = new HashMap<QuadItem<T>, Double>();
-        final Map<QuadItem<T>, StaticCluster<T>> itemToCluster = new HashMap<QuadItem<T>, StaticCluster<T>>();
-
+        if (mIndexType == IndexType.PERSISTENT_QUAD_TREE) {
+            // The snapshot never changes, so no lock is needed.
+            PersistentPointQuadTree<QuadItem<T>> snapshot = mSnapshot.get();
+            return cluster(viewport == null ? snapshotItems(snapshot)
+                    : viewportItems(viewport, snapshot), snapshot, halfSpan);
+        }
         synchronized (mQuadTree) {
-            for (QuadItem<T> candidate : mItems) {
-                if (visitedCandidates.contains(candidate)) {
-                    // Candidate is already part of another cluster.
-                    continue;
-                }
+            if (mIndexType == IndexType.LINEAR_QUAD_TREE && mLinearTree == null) {
+                buildLinearTree();
+            }
+            return cluster(viewport == null ? mItems : viewportItems(viewport, null), null,
+                    halfSpan);
+        }
+    }
 
-                Bounds searchBounds = createBoundsFromSpan(candidate.getPoint(), zoomSpecificSpan);
-                Collection<QuadItem<T>> clusterItems;
-                clusterItems = mQuadTree.search(searchBounds);
-                if (clusterItems.size() == 1) {
-                    // Only the current marker is in range. Just add the single item to the results.
-                    results.add(candidate);
-                    visitedCandidates.add(candidate);
-                    distanceToCluster.put(candidate, 0d);
-                    continue;
-                }
-                StaticCluster<T> cluster = new StaticCluster<T>(candidate.mClusterItem.getPosition());
-                results.add(cluster);
-
-                for (QuadItem<T> clusterItem : clusterItems) {
-                    Double existingDistance = distanceToCluster.get(clusterItem);
-                    double distance = distanceSquared(clusterItem.getPoint(), candidate.getPoint());
-                    if (existingDistance != null) {
-                        // Item already belongs to another cluster. Check if it's closer to this cluster.
-                        if (existingDistance < distance) {
-                            continue;
+    /**
+     * Unless snapshot is given, must be called while synchronized on mQuadTree.
+     *
+     * @param snapshot the persistent index to search, or null to search mQuadTree or mLinearTree.
+     * @return the items within the viewport, in the order they were added.
+     */
+    private List<QuadItem<T>> viewportItems(Bounds viewport,
+                                            PersistentPointQuadTree<QuadItem<T>> snapshot) {
+        final List<QuadItem<T>> items = new ArrayList<QuadItem<T>>();
+        PointQuadTree.WrappedVisitor<QuadItem<T>> collector =
+                new PointQuadTree.WrappedVisitor<QuadItem<T>>() {
+                    @Override
+                    public void visit(QuadItem<T> item, double xOffset) {
+                        items.add(item);
+                    }
+                };
+        if (snapshot != null) {
+            snapshot.searchWrapped(viewport.minX, viewport.maxX, viewport.minY, viewport.maxY, 1,
+                    collector);
+        } else if (mIndexType == IndexType.LINEAR_QUAD_TREE) {
+            final List<QuadItem<T>> linearItems = mLinearItems;
+            mLinearTree.searchWrapped(viewport.minX, viewport.maxX, viewport.minY, viewport.maxY,
+                    1, new PointIndex.WrappedVisitor() {
+                        @Override
+                        public void visit(int id, double x, double y, double xOffset) {
+                            items.add(linearItems.get(id));
                         }
-                        // Move item to the closer cluster.
-                        itemToCluster.get(clusterItem).remove(clusterItem.mClusterItem);
+                    });
+        } else {
+            mQuadTree.searchWrapped(viewport.minX, viewport.maxX, viewport.minY, viewport.maxY, 1,
+                    collector);
+        }
+        Collections.sort(items, SEQUENCE_ORDER);
+        return items;
+    }
+
+    /**
+     * Clusters the candidates, in order, on the executor if there is one. Unless snapshot is given,
+     * must be called while synchronized on mQuadTree.
+     *
+     * @param snapshot the persistent index to search, or null to search mQuadTree or mLinearTree.
+     */
+    private Set<? extends Cluster<T>> cluster(Collection<QuadItem<T>> candidates,
+                                              PersistentPointQuadTree<QuadItem<T>> snapshot,
+                                              double halfSpan) {
+        if (mExecutor != null && mParallelism > 1) {
+            Set<? extends Cluster<T>> results = clusterTiles(candidates, snapshot, halfSpan);
+            if (results != null) {
+                return results;
+            }
+        }
+        Pass pass = new Pass(snapshot, halfSpan, mIds.limit());
+        int i = 0;
+        for (QuadItem<T> candidate : candidates) {
+            Cancellation.check(i++);
+            pass.cluster(candidate);
+        }
+        return pass.mResults;
+    }
+
+    /**
+     * Splits the bounding box of the candidates into tiles, and clusters the candidates of each
+     * tile concurrently. Only candidates whose search lies within their tile are clustered that
+     * way, so that tiles never share an item. The others, near the borders of the tiles, are then
+     * clustered in order against the merged clusters of all tiles, and take over items closer to
+     * them as usual. The clusters therefore differ from those of {@link Pass} alone only near the
+     * borders of the tiles, where candidates are taken in a different order.
+     *
+     * @return the clusters, or null if there are too few tiles to be worth it.
+     */
+    private Set<? extends Cluster<T>> clusterTiles(Collection<QuadItem<T>> candidates,
+                                                   PersistentPointQuadTree<QuadItem<T>> snapshot,
+                                                   double halfSpan) {
+        double minX = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (QuadItem<T> candidate : candidates) {
+            Point p = candidate.getPoint();
+            minX = Math.min(minX, p.x);
+            maxX = Math.max(maxX, p.x);
+            minY = Math.min(minY, p.y);
+            maxY = Math.max(maxY, p.y);
+        }
+        // A few tiles per thread balance the load, and tiles much wider than a search keep most
+        // candidates away from their borders.
+        int maxTilesPerSide = (int) Math.ceil(Math.sqrt(TILES_PER_THREAD * mParallelism));
+        double minTileWidth = MIN_TILE_SPANS * 2 * halfSpan;
+        int columns = Math.min(maxTilesPerSide, (int) ((maxX - minX) / minTileWidth));
+        int rows = Math.min(maxTilesPerSide, (int) ((maxY - minY) / minTileWidth));
+        if (columns * rows < 2) {
+            return null;
+        }
+        double tileWidth = (maxX - minX) / columns;
+        double tileHeight = (maxY - minY) / rows;
+
+        List<List<QuadItem<T>>> tiles = new ArrayList<List<QuadItem<T>>>(columns * rows);
+        for (int i = 0; i < columns * rows; i++) {
+            tiles.add(new ArrayList<QuadItem<T>>());
+        }
+        List<QuadItem<T>> borderCandidates = new ArrayList<QuadItem<T>>();
+        for (QuadItem<T> candidate : candidates) {
+            Point p = candidate.getPoint();
+            int column = Math.min(columns - 1, (int) ((p.x - minX) / tileWidth));
+            int row = Math.min(rows - 1, (int) ((p.y - minY) / tileHeight));
+            double tileMinX = minX + column * tileWidth;
+            double tileMinY = minY + row * tileHeight;
+            // Items on the far edges belong to the next tile, so the search must stop short of
+            // them. Searches around the antimeridian never lie within a tile.
+            if (p.x - halfSpan >= tileMinX && p.x + halfSpan < tileMinX + tileWidth
+                    && p.y - halfSpan >= tileMinY && p.y + halfSpan < tileMinY + tileHeight) {
+                tiles.get(row * columns + column).add(candidate);
+            } else {
+                borderCandidates.add(candidate);
+            }
+        }
+
+        Pass merged = new Pass(snapshot, halfSpan, mIds.limit());
+        List<Callable<Pass>> tasks = new ArrayList<Callable<Pass>>();
+        for (final List<QuadItem<T>> tile : tiles) {
+            if (tile.isEmpty()) {
+                continue;
+            }
+            final Pass pass = new Pass(merged);
+            tasks.add(new Callable<Pass>() {
+                @Override
+                public Pass call() {
+                    for (int i = 0; i < tile.size(); i++) {
+                        Cancellation.check(i);
+                        pass.cluster(tile.get(i));
                     }
-                    distanceToCluster.put(clusterItem, distance);
-                    cluster.add(clusterItem.mClusterItem);
-                    itemToCluster.put(clusterItem, cluster);
+                    return pass;
                 }
-                visitedCandidates.addAll(clusterItems);
+            });
+        }
+        try {
+            for (Future<Pass> future : mExecutor.invokeAll(tasks)) {
+                merged.merge(future.get());
             }
+        } catch (InterruptedException e) {
+            // The remaining tiles were cancelled by invokeAll.
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Clustering interrupted");
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        for (int i = 0; i < borderCandidates.size(); i++) {
+            Cancellation.check(i);
+            merged.cluster(borderCandidates.get(i));
         }
-        return results;
+        return merged.mResults;
+    }
+
+    /**
+     * The state of one clustering pass, kept in arrays indexed by the ids of the items. Passes
+     * over separate items may run concurrently and share the arrays, since the indexes can all be
+     * searched concurrently while they are not modified.
+     */
+    private class Pass {
+        /**
+         * Items which belong to a cluster. Only those have a distance and, unless they are a
+         * cluster of their own, a cluster.
+         */
+        private final BitSet mVisited;
+        private final double[] mDistanceToCluster;
+        private final StaticCluster<T>[] mItemToCluster;
+        private final Set<Cluster<T>> mResults = new HashSet<Cluster<T>>();
+
+        private final PersistentPointQuadTree<QuadItem<T>> mSnapshot;
+        private final double mHalfSpan;
+        private final LinearPointQuadTree mLinearTree =
+                NonHierarchicalDistanceBasedAlgorithm.this.mLinearTree;
+        private final List<QuadItem<T>> mLinearItems =
+                NonHierarchicalDistanceBasedAlgorithm.this.mLinearItems;
+
+        // Reused for every search, so that searching doesn't allocate.
+        private final List<QuadItem<T>> mClusterItems = new ArrayList<QuadItem<T>>();
+        private final PointQuadTree.WrappedVisitor<QuadItem<T>> mCollector =
+                new PointQuadTree.WrappedVisitor<QuadItem<T>>() {
+                    @Override
+                    public void visit(QuadItem<T> item, double xOffset) {
+                        mClusterItems.add(item);
+                    }
+                };
+        private final PointIndex.WrappedVisitor mLinearCollector = new PointIndex.WrappedVisitor() {
+            @Override
+            public void visit(int id, double x, double y, double xOffset) {
+                mClusterItems.add(mLinearItems.get(id));
+            }
+        };
+
+        /**
+         * Unless snapshot is given, must be created while synchronized on mQuadTree.
+         *
+         * @param snapshot the persistent index to search, or null to search mQuadTree or
+         *                 mLinearTree.
+         * @param idLimit  one more than the highest id of an item to be clustered.
+         */
+        @SuppressWarnings("unchecked")
+        private Pass(PersistentPointQuadTree<QuadItem<T>> snapshot, double halfSpan, int idLimit) {
+            mSnapshot = snapshot;
+            mHalfSpan = halfSpan;
+            mVisited = new BitSet(idLimit);
+            mDistanceToCluster = new double[idLimit];
+            mItemToCluster = (StaticCluster<T>[]) new StaticCluster[idLimit];
+        }
+
+        /**
+         * Creates a pass over items other than those of the given pass, with its own results but
+         * sharing its arrays.
+         */
+        private Pass(Pass pass) {
+            mSnapshot = pass.mSnapshot;
+            mHalfSpan = pass.mHalfSpan;
+            mVisited = new BitSet(pass.mDistanceToCluster.length);
+            mDistanceToCluster = pass.mDistanceToCluster;
+            mItemToCluster = pass.mItemToCluster;
+        }
+
+        private void cluster(QuadItem<T> candidate) {
+            if (mVisited.get(candidate.mId)) {
+                // Candidate is already part of another cluster.
+                return;
+            }
+
+            Point p = candidate.getPoint();
+            mClusterItems.clear();
+            if (mSnapshot != null) {
+                mSnapshot.searchWrapped(p.x - mHalfSpan, p.x + mHalfSpan, p.y - mHalfSpan,
+                        p.y + mHalfSpan, 1, mCollector);
+            } else if (mIndexType == IndexType.LINEAR_QUAD_TREE) {
+                mLinearTree.searchWrapped(p.x - mHalfSpan, p.x + mHalfSpan, p.y - mHalfSpan,
+                        p.y + mHalfSpan, 1, mLinearCollector);
+            } else {
+                mQuadTree.searchWrapped(p.x - mHalfSpan, p.x + mHalfSpan, p.y - mHalfSpan,
+                        p.y + mHalfSpan, 1, mCollector);
+            }
+            if (mClusterItems.size() == 1) {
+                // Only the current marker is in range. Just add the single item to the results.
+                mResults.add(candidate);
+                mVisited.set(candidate.mId);
+                mDistanceToCluster[candidate.mId] = 0;
+                return;
+            }
+            StaticCluster<T> cluster = new StaticCluster<T>(candidate.mPosition);
+            mResults.add(cluster);
+
+            for (QuadItem<T> clusterItem : mClusterItems) {
+                int id = clusterItem.mId;
+                double distance = distanceSquared(clusterItem.getPoint(), candidate.getPoint());
+                if (mVisited.get(id)) {
+                    // Item already belongs to another cluster. Check if it's closer to this cluster.
+                    if (mDistanceToCluster[id] < distance) {
+                        continue;
+                    }
+                    // Move item to the closer cluster.
+                    mItemToCluster[id].remove(clusterItem.mClusterItem);
+                }
+                mVisited.set(id);
+                mDistanceToCluster[id] = distance;
+                cluster.add(clusterItem.mClusterItem, clusterItem.mStats.getSum(),
+                        clusterItem.mPosition);
+                mItemToCluster[id] = cluster;
+            }
+        }
+
+        /**
+         * Adds the clusters of a pass created from this one.
+         */
+        private void merge(Pass other) {
+            mVisited.or(other.mVisited);
+            mResults.addAll(other.mResults);
+        }
+    }
+
+    /**
+     * Indexes a snapshot of the items with a new linear quad tree. Must be called while
+     * synchronized on mQuadTree.
+     */
+    private void buildLinearTree() {
+        List<QuadItem<T>> items = new ArrayList<QuadItem<T>>(mItems);
+        int[] ids = new int[items.size()];
+        double[] xs = new double[items.size()];
+        double[] ys = new double[items.size()];
+        for (int i = 0; i < items.size(); i++) {
+            Point p = items.get(i).getPoint();
+            ids[i] = i;
+            xs[i] = p.x;
+            ys[i] = p.y;
+        }
+        LinearPointQuadTree tree = new LinearPointQuadTree(0, 1, 0, 1);
+        tree.addAll(ids, xs, ys, items.size());
+        mLinearItems = items;
+        mLinearTree = tree;
+    }
+
+    /**
+     * @return all the items of a persistent index, in the order they were added.
+     */
+    private List<QuadItem<T>> snapshotItems(PersistentPointQuadTree<QuadItem<T>> snapshot) {
+        final List<QuadItem<T>> items = new ArrayList<QuadItem<T>>(snapshot.size());
+        snapshot.visitAll(new PointQuadTree.Visitor<QuadItem<T>>() {
+            @Override
+            public void visit(QuadItem<T> item) {
+                items.add(item);
+            }
+        });
+        Collections.sort(items, SEQUENCE_ORDER);
+        return items;
+    }
+
+    /**
+     * @return the earliest added item of a persistent index equal to the given one, or null if
+     * there is none. Looks at the current position of the item first, and then through all the
+     * items, in case it moved without {@link #updateItems(Collection)} being called.
+     */
+    private static <T extends ClusterItem> QuadItem<T> find(
+            PersistentPointQuadTree<QuadItem<T>> snapshot, final QuadItem<T> quadItem) {
+        final List<QuadItem<T>> found = new ArrayList<QuadItem<T>>(1);
+        PointQuadTree.Visitor<QuadItem<T>> visitor = new PointQuadTree.Visitor<QuadItem<T>>() {
+            @Override
+            public void visit(QuadItem<T> item) {
+                if (!item.equals(quadItem)) {
+                    return;
+                }
+                if (found.isEmpty()) {
+                    found.add(item);
+                } else if (item.mSequence < found.get(0).mSequence) {
+                    found.set(0, item);
+                }
+            }
+        };
+        Point p = quadItem.getPoint();
+        snapshot.search(p.x, p.x, p.y, p.y, visitor);
+        if (found.isEmpty()) {
+            snapshot.visitAll(visitor);
+        }
+        return found.isEmpty() ? null : found.get(0);
     }
 
     @Override
     public Collection<T> getItems() {
         final List<T> items = new ArrayList<T>();
+        if (mIndexType == IndexType.PERSISTENT_QUAD_TREE) {
+            for (QuadItem<T> quadItem : snapshotItems(mSnapshot.get())) {
+                items.add(quadItem.mClusterItem);
+            }
+            return items;
+        }
         synchronized (mQuadTree) {
             for (QuadItem<T> quadItem : mItems) {
                 items.add(quadItem.mClusterItem);
@@ -159,29 +872,101 @@ public class NonHierarchicalDistanceBasedAlgorithm<T extends ClusterItem> implem
         return items;
     }
 
+    /**
+     * @return the squared distance between a and b, the short way round the world, which is one
+     * unit wide.
+     */
     private double distanceSquared(Point a, Point b) {
-        return (a.x - b.x) * (a.x - b.x) + (a.y - b.y) * (a.y - b.y);
+        double dx = Math.abs(a.x - b.x);
+        dx = Math.min(dx, 1 - dx);
+        return dx * dx + (a.y - b.y) * (a.y - b.y);
     }
 
-    private Bounds createBoundsFromSpan(Point p, double span) {
-        // TODO: Use a span that takes into account the visual size of the marker, not just its
-        // LatLng.
-        double halfSpan = span / 2;
-        return new Bounds(
-                p.x - halfSpan, p.x + halfSpan,
-                p.y - halfSpan, p.y + halfSpan);
+    /**
+     * Orders items by when they were added.
+     */
+    private static final Comparator<QuadItem<?>> SEQUENCE_ORDER = new Comparator<QuadItem<?>>() {
+        @Override
+        public int compare(QuadItem<?> a, QuadItem<?> b) {
+            return a.mSequence < b.mSequence ? -1 : (a.mSequence == b.mSequence ? 0 : 1);
+        }
+    };
+
+    /**
+     * Hands out ids, reusing those released, so that they stay below the largest number of
+     * items held at once. Thread safe.
+     */
+    private static class IdAllocator {
+        private int mLimit;
+        private int[] mFreeIds = new int[8];
+        private int mFreeCount;
+
+        private synchronized int allocate() {
+            return mFreeCount > 0 ? mFreeIds[--mFreeCount] : mLimit++;
+        }
+
+        private synchronized int[] allocate(int count) {
+            int[] ids = new int[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = allocate();
+            }
+            return ids;
+        }
+
+        private synchronized void release(int id) {
+            if (mFreeCount == mFreeIds.length) {
+                int[] freeIds = new int[mFreeCount * 2];
+                System.arraycopy(mFreeIds, 0, freeIds, 0, mFreeCount);
+                mFreeIds = freeIds;
+            }
+            mFreeIds[mFreeCount++] = id;
+        }
+
+        private synchronized void release(List<? extends QuadItem<?>> quadItems) {
+            for (QuadItem<?> quadItem : quadItems) {
+                release(quadItem.mId);
+            }
+        }
+
+        /**
+         * @return one more than the highest id handed out so far.
+         */
+        private synchronized int limit() {
+            return mLimit;
+        }
     }
 
-    private static class QuadItem<T extends ClusterItem> implements PointQuadTree.Item, Cluster<T> {
+    private static class QuadItem<T extends ClusterItem>
+            implements PointQuadTree.Item, StatsCluster<T> {
         private final T mClusterItem;
         private final Point mPoint;
         private final LatLng mPosition;
+        private final ClusterStats mStats;
         private Set<T> singletonSet;
 
+        /**
+         * Position of the item in the order items were added.
+         */
+        private final long mSequence;
+
+        /**
+         * Dense id of the item, unique among the items of the algorithm, or -1 for an item only
+         * used to look up an equal one.
+         */
+        private final int mId;
+
         private QuadItem(T item) {
+            this(item, 0, -1);
+        }
+
+        private QuadItem(T item, long sequence, int id) {
+            mSequence = sequence;
+            mId = id;
             mClusterItem = item;
             mPosition = item.getPosition();
             mPoint = PROJECTION.toPoint(mPosition);
+            double weight = ClusterStats.weightOf(item);
+            mStats = new ClusterStats(1, weight, weight, weight, weight == 0 ? null : mPosition);
             singletonSet = Collections.singleton(mClusterItem);
         }
 
@@ -205,6 +990,11 @@ public class NonHierarchicalDistanceBasedAlgorithm<T extends ClusterItem> implem
             return 1;
         }
 
+        @Override
+        public ClusterStats getStats() {
+            return mStats;
+        }
+
         @Override
         public int hashCode() {
             return mClusterItem.hashCode();
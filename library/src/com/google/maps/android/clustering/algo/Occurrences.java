@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.clustering.algo;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The number of times each item occurs in a batch to remove, so that removing the batch in one
+ * pass over the added items removes one copy of an item added more than once per occurrence, as
+ * removing the items one by one would.
+ */
+final class Occurrences<T> {
+    private final Map<T, Integer> mCounts = new HashMap<T, Integer>();
+
+    Occurrences(Collection<T> items) {
+        for (T item : items) {
+            Integer count = mCounts.get(item);
+            mCounts.put(item, count == null ? 1 : count + 1);
+        }
+    }
+
+    boolean isEmpty() {
+        return mCounts.isEmpty();
+    }
+
+    boolean contains(Object item) {
+        return mCounts.containsKey(item);
+    }
+
+    /**
+     * @return whether the item occurs in the batch more times than it was taken, in which case it
+     * is taken once more.
+     */
+    boolean take(T item) {
+        Integer count = mCounts.get(item);
+        if (count == null) {
+            return false;
+        }
+        if (count == 1) {
+            mCounts.remove(item);
+        } else {
+            mCounts.put(item, count - 1);
+        }
+        return true;
+    }
+}
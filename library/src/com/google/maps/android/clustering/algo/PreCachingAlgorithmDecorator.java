@@ -18,26 +18,97 @@ package com.google.maps.android.clustering.algo;
 
 import android.support.v4.util.LruCache;
 
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.maps.android.clustering.Cluster;
 import com.google.maps.android.clustering.ClusterItem;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Optimistically fetch clusters for adjacent zoom levels, caching them as necessary.
+ * <p/>
+ * Each zoom level is clustered at most once at a time: callers asking for a zoom level which is
+ * already being clustered wait for that result. Adjacent zoom levels are clustered after a delay
+ * on a single low priority thread shared by all decorators. Changing the items clears the cache
+ * and cancels any clustering which has not started yet, and results of clusterings which already
+ * started are discarded. Prefetching stops while the decorator is paused.
+ * <p/>
+ * Clusters for a region are filtered from the cached clusters of the whole zoom level if there
+ * are any, and otherwise asked of the algorithm for that region if it is an
+ * {@link ExtendedAlgorithm}, while the whole zoom level is prefetched for the next regions.
  */
-public class PreCachingAlgorithmDecorator<T extends ClusterItem> implements Algorithm<T> {
+public class PreCachingAlgorithmDecorator<T extends ClusterItem> implements ExtendedAlgorithm<T> {
+    private static final int DEFAULT_MAX_CACHED_ZOOMS = 5;
+    private static final int DEFAULT_PREFETCH_RADIUS = 1;
+    private static final long PREFETCH_DELAY_MS = 500;
+
+    private static final ScheduledExecutorService PREFETCH_EXECUTOR = createPrefetchExecutor();
+
     private final Algorithm<T> mAlgorithm;
+    private final int mPrefetchRadius;
+    private final ScheduledExecutorService mPrefetchExecutor;
+    private final LruCache<Integer, Set<? extends Cluster<T>>> mCache;
+
+    /**
+     * Clusterings which are running or scheduled, by zoom level. Any access should be
+     * synchronized on mInFlight.
+     */
+    private final Map<Integer, Clustering> mInFlight = new HashMap<Integer, Clustering>();
+
+    /**
+     * Incremented whenever the items change, so that results computed before are not cached.
+     * Guarded by mInFlight.
+     */
+    private int mGeneration;
 
-    // TODO: evaluate maxSize parameter for LruCache.
-    private final LruCache<Integer, Set<? extends Cluster<T>>> mCache = new LruCache<Integer, Set<? extends Cluster<T>>>(5);
-    private final ReadWriteLock mCacheLock = new ReentrantReadWriteLock();
+    /**
+     * Whether prefetching is paused. Guarded by mInFlight.
+     */
+    private boolean mPaused;
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
 
     public PreCachingAlgorithmDecorator(Algorithm<T> algorithm) {
+        this(algorithm, DEFAULT_MAX_CACHED_ZOOMS, DEFAULT_PREFETCH_RADIUS);
+    }
+
+    /**
+     * @param maxCachedZooms the number of zoom levels whose clusters are cached.
+     * @param prefetchRadius the number of zoom levels above and below the one asked for to
+     *                       cluster in the background, or 0 to cluster only on demand.
+     */
+    public PreCachingAlgorithmDecorator(Algorithm<T> algorithm, int maxCachedZooms,
+                                        int prefetchRadius) {
+        this(algorithm, maxCachedZooms, prefetchRadius, PREFETCH_EXECUTOR);
+    }
+
+    /**
+     * @param prefetchExecutor runs the prefetching instead of the thread shared by all decorators.
+     */
+    public PreCachingAlgorithmDecorator(Algorithm<T> algorithm, int maxCachedZooms,
+                                        int prefetchRadius,
+                                        ScheduledExecutorService prefetchExecutor) {
         mAlgorithm = algorithm;
+        mCache = new LruCache<Integer, Set<? extends Cluster<T>>>(maxCachedZooms);
+        mPrefetchRadius = prefetchRadius;
+        mPrefetchExecutor = prefetchExecutor;
     }
 
     public void addItem(T item) {
@@ -62,21 +133,109 @@ public class PreCachingAlgorithmDecorator<T extends ClusterItem> implements Algo
         clearCache();
     }
 
+    /**
+     * Removes the items in one batch if the algorithm is an {@link ExtendedAlgorithm}, and
+     * otherwise one by one.
+     */
+    @Override
+    public void removeItems(Collection<T> items) {
+        if (mAlgorithm instanceof ExtendedAlgorithm) {
+            ((ExtendedAlgorithm<T>) mAlgorithm).removeItems(items);
+        } else {
+            for (T item : items) {
+                mAlgorithm.removeItem(item);
+            }
+        }
+        clearCache();
+    }
+
+    /**
+     * Moves the items in one batch if the algorithm is an {@link ExtendedAlgorithm}, and
+     * otherwise removes and adds again each of them which has been added.
+     */
+    @Override
+    public void updateItems(Collection<T> items) {
+        if (mAlgorithm instanceof ExtendedAlgorithm) {
+            ((ExtendedAlgorithm<T>) mAlgorithm).updateItems(items);
+        } else {
+            Set<T> added = new HashSet<T>(mAlgorithm.getItems());
+            for (T item : items) {
+                if (added.contains(item)) {
+                    mAlgorithm.removeItem(item);
+                    mAlgorithm.addItem(item);
+                }
+            }
+        }
+        clearCache();
+    }
+
     private void clearCache() {
-        mCache.evictAll();
+        synchronized (mInFlight) {
+            mGeneration++;
+            List<Clustering> inFlight = new ArrayList<Clustering>(mInFlight.values());
+            mInFlight.clear();
+            for (Clustering clustering : inFlight) {
+                // Don't interrupt, since the clustering may be running on a caller's thread.
+                clustering.cancel(false);
+            }
+            mCache.evictAll();
+        }
+    }
+
+    /**
+     * Stops prefetching, for example while the map is not visible. Prefetching which has not
+     * started yet is cancelled, and the cache is kept.
+     */
+    public void pause() {
+        synchronized (mInFlight) {
+            mPaused = true;
+            List<Clustering> inFlight = new ArrayList<Clustering>(mInFlight.values());
+            for (Clustering clustering : inFlight) {
+                // Leave clusterings which a caller may be running on its own thread.
+                if (clustering.mSchedule != null && clustering.mSchedule.cancel(false)) {
+                    mInFlight.remove(clustering.mZoom);
+                }
+            }
+        }
+    }
+
+    /**
+     * Prefetches again around the zoom levels asked for after this call.
+     */
+    public void resume() {
+        synchronized (mInFlight) {
+            mPaused = false;
+        }
     }
 
     @Override
     public Set<? extends Cluster<T>> getClusters(double zoom) {
         int discreteZoom = (int) zoom;
         Set<? extends Cluster<T>> results = getClustersInternal(discreteZoom);
-        // TODO: Check if requests are already in-flight.
-        if (mCache.get(discreteZoom + 1) == null) {
-            new Thread(new PrecacheRunnable(discreteZoom + 1)).start();
+        prefetchAround(discreteZoom);
+        return results;
+    }
+
+    /**
+     * Filters the clusters of the whole zoom level if they are cached. Otherwise clusters only
+     * the bounds if the algorithm is an {@link ExtendedAlgorithm}, at a cost which depends on
+     * the items within them, and prefetches the whole zoom level, unless prefetching is disabled,
+     * so that panning filters the cache. Other algorithms cluster the whole zoom level as
+     * {@link #getClusters(double)} does.
+     */
+    @Override
+    public Set<? extends Cluster<T>> getClusters(double zoom, LatLngBounds bounds) {
+        int discreteZoom = (int) zoom;
+        if (mCache.get(discreteZoom) != null || !(mAlgorithm instanceof ExtendedAlgorithm)) {
+            return Viewport.filter(getClusters(zoom), bounds);
         }
-        if (mCache.get(discreteZoom - 1) == null) {
-            new Thread(new PrecacheRunnable(discreteZoom - 1)).start();
+        mMissCount.incrementAndGet();
+        Set<? extends Cluster<T>> results =
+                ((ExtendedAlgorithm<T>) mAlgorithm).getClusters(discreteZoom, bounds);
+        if (mPrefetchRadius > 0) {
+            prefetch(discreteZoom);
         }
+        prefetchAround(discreteZoom);
         return results;
     }
 
@@ -85,40 +244,139 @@ public class PreCachingAlgorithmDecorator<T extends ClusterItem> implements Algo
         return mAlgorithm.getItems();
     }
 
+    /**
+     * @return the number of requests for clusters answered from the cache.
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * @return the number of requests for clusters which had to wait for a clustering, either
+     * their own, of the whole zoom level or of a region, or one already in progress.
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
     private Set<? extends Cluster<T>> getClustersInternal(int discreteZoom) {
-        Set<? extends Cluster<T>> results;
-        mCacheLock.readLock().lock();
-        results = mCache.get(discreteZoom);
-        mCacheLock.readLock().unlock();
-
-        if (results == null) {
-            mCacheLock.writeLock().lock();
-            results = mCache.get(discreteZoom);
-            if (results == null) {
-                results = mAlgorithm.getClusters(discreteZoom);
-                mCache.put(discreteZoom, results);
+        Set<? extends Cluster<T>> results = mCache.get(discreteZoom);
+        if (results != null) {
+            mHitCount.incrementAndGet();
+            return results;
+        }
+        mMissCount.incrementAndGet();
+
+        while (true) {
+            Clustering clustering;
+            synchronized (mInFlight) {
+                clustering = mInFlight.get(discreteZoom);
+                if (clustering == null) {
+                    clustering = new Clustering(discreteZoom, mGeneration);
+                    mInFlight.put(discreteZoom, clustering);
+                }
+            }
+            // Runs the clustering on this thread, unless it has already started elsewhere.
+            clustering.run();
+            try {
+                return clustering.get();
+            } catch (CancellationException e) {
+                // The items changed meanwhile. Cluster them again.
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Clustering interrupted");
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof CancellationException)) {
+                    throw new RuntimeException(e.getCause());
+                }
+                // The thread running the clustering was interrupted. Stop too if this one was,
+                // and otherwise cluster again.
+                Cancellation.check();
             }
-            mCacheLock.writeLock().unlock();
         }
-        return results;
     }
 
-    private class PrecacheRunnable implements Runnable {
+    private void prefetchAround(int discreteZoom) {
+        for (int i = 1; i <= mPrefetchRadius; i++) {
+            prefetch(discreteZoom + i);
+            prefetch(discreteZoom - i);
+        }
+    }
+
+    /**
+     * Schedules clustering at the zoom level, unless it is cached or already scheduled.
+     */
+    private void prefetch(int discreteZoom) {
+        if (discreteZoom < 0 || mCache.get(discreteZoom) != null) {
+            return;
+        }
+        synchronized (mInFlight) {
+            if (mPaused || mInFlight.containsKey(discreteZoom)) {
+                return;
+            }
+            Clustering clustering = new Clustering(discreteZoom, mGeneration);
+            mInFlight.put(discreteZoom, clustering);
+            clustering.mSchedule = mPrefetchExecutor.schedule(clustering, PREFETCH_DELAY_MS,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static ScheduledExecutorService createPrefetchExecutor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "PreCachingAlgorithmDecorator");
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+        executor.setKeepAliveTime(10, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Clusters one zoom level, caching the result unless the items changed meanwhile.
+     */
+    private class Clustering extends FutureTask<Set<? extends Cluster<T>>> {
         private final int mZoom;
+        private final int mClusteringGeneration;
 
-        public PrecacheRunnable(int zoom) {
+        /**
+         * The scheduled run of a prefetch, or null. Guarded by mInFlight.
+         */
+        private ScheduledFuture<?> mSchedule;
+
+        private Clustering(final int zoom, int generation) {
+            super(new Callable<Set<? extends Cluster<T>>>() {
+                @Override
+                public Set<? extends Cluster<T>> call() {
+                    return mAlgorithm.getClusters(zoom);
+                }
+            });
             mZoom = zoom;
+            mClusteringGeneration = generation;
         }
 
         @Override
-        public void run() {
-            try {
-                // Wait between 500 - 1000 ms.
-                Thread.sleep((long) (Math.random() * 500 + 500));
-            } catch (InterruptedException e) {
-                // ignore. keep going.
+        protected void done() {
+            synchronized (mInFlight) {
+                if (mInFlight.get(mZoom) == this) {
+                    mInFlight.remove(mZoom);
+                }
+                if (isCancelled() || mClusteringGeneration != mGeneration) {
+                    return;
+                }
+                try {
+                    mCache.put(mZoom, get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    // Nothing to cache. The caller waiting for the result gets the exception.
+                }
             }
-            getClustersInternal(mZoom);
         }
     }
 }
@@ -17,8 +17,9 @@
 package com.google.maps.android.clustering.algo;
 
 import com.google.android.gms.maps.model.LatLng;
-import com.google.maps.android.clustering.Cluster;
 import com.google.maps.android.clustering.ClusterItem;
+import com.google.maps.android.clustering.ClusterStats;
+import com.google.maps.android.clustering.StatsCluster;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -27,15 +28,40 @@ import java.util.List;
 /**
  * A cluster whose center is determined upon creation.
  */
-public class StaticCluster<T extends ClusterItem> implements Cluster<T> {
+public class StaticCluster<T extends ClusterItem> implements StatsCluster<T> {
     private final LatLng mCenter;
     private final List<T> mItems = new ArrayList<T>();
 
+    /**
+     * Weights and positions of mItems as they were added. The stats are accumulated from these,
+     * so they still match after an item changes.
+     */
+    private final List<Double> mWeights = new ArrayList<Double>();
+    private final List<LatLng> mPositions = new ArrayList<LatLng>();
+
+    private final ClusterStats.Builder mStats = new ClusterStats.Builder();
+
+    /**
+     * The stats built since the items last changed, or null.
+     */
+    private ClusterStats mBuiltStats;
+
     public StaticCluster(LatLng center) {
         mCenter = center;
     }
 
     public boolean add(T t) {
+        return add(t, ClusterStats.weightOf(t), t.getPosition());
+    }
+
+    /**
+     * Adds an item with the weight and position it was clustered by, which it may no longer have.
+     */
+    public boolean add(T t, double weight, LatLng position) {
+        mStats.add(weight, position);
+        mBuiltStats = null;
+        mWeights.add(weight);
+        mPositions.add(position);
         return mItems.add(t);
     }
 
@@ -45,7 +71,21 @@ public class StaticCluster<T extends ClusterItem> implements Cluster<T> {
     }
 
     public boolean remove(T t) {
-        return mItems.remove(t);
+        int index = mItems.indexOf(t);
+        if (index < 0) {
+            return false;
+        }
+        mItems.remove(index);
+        double weight = mWeights.remove(index);
+        LatLng position = mPositions.remove(index);
+        if (!mStats.remove(weight, position)) {
+            mStats.clear();
+            for (int i = 0; i < mItems.size(); i++) {
+                mStats.add(mWeights.get(i), mPositions.get(i));
+            }
+        }
+        mBuiltStats = null;
+        return true;
     }
 
     @Override
@@ -58,6 +98,14 @@ public class StaticCluster<T extends ClusterItem> implements Cluster<T> {
         return mItems.size();
     }
 
+    @Override
+    public ClusterStats getStats() {
+        if (mBuiltStats == null) {
+            mBuiltStats = mStats.build();
+        }
+        return mBuiltStats;
+    }
+
     @Override
     public String toString() {
         return "StaticCluster{" +
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.clustering.algo;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.maps.android.clustering.Cluster;
+import com.google.maps.android.clustering.ClusterItem;
+import com.google.maps.android.geometry.Bounds;
+import com.google.maps.android.geometry.Point;
+import com.google.maps.android.projection.SphericalMercatorProjection;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Helpers for clustering the items within a region of the map.
+ */
+final class Viewport {
+    private static final SphericalMercatorProjection PROJECTION =
+            new SphericalMercatorProjection(1);
+
+    private Viewport() {
+    }
+
+    /**
+     * @return the bounds projected onto a world one unit wide. Bounds which cross the
+     * antimeridian extend beyond x = 1, so must be searched with a wrapped search.
+     */
+    static Bounds toBounds(LatLngBounds bounds) {
+        Point southwest = PROJECTION.toPoint(bounds.southwest);
+        Point northeast = PROJECTION.toPoint(bounds.northeast);
+        double maxX = northeast.x < southwest.x ? northeast.x + 1 : northeast.x;
+        return new Bounds(southwest.x, maxX, northeast.y, southwest.y);
+    }
+
+    /**
+     * @return whether the point, on a world one unit wide, is within bounds from
+     * {@link #toBounds(LatLngBounds)}.
+     */
+    static boolean contains(Bounds bounds, double x, double y) {
+        return bounds.contains(x, y) || bounds.contains(x + 1, y);
+    }
+
+    /**
+     * @return the clusters positioned within the bounds.
+     */
+    static <T extends ClusterItem> Set<? extends Cluster<T>> filter(
+            Set<? extends Cluster<T>> clusters, LatLngBounds bounds) {
+        Set<Cluster<T>> results = new HashSet<Cluster<T>>();
+        for (Cluster<T> cluster : clusters) {
+            if (bounds.contains(cluster.getPosition())) {
+                results.add(cluster);
+            }
+        }
+        return results;
+    }
+}
@@ -50,8 +50,11 @@ import com.google.maps.android.R;
 import com.google.maps.android.clustering.Cluster;
 import com.google.maps.android.clustering.ClusterItem;
 import com.google.maps.android.clustering.ClusterManager;
+import com.google.maps.android.clustering.ClusterStats;
+import com.google.maps.android.clustering.algo.ClusterDelta;
 import com.google.maps.android.geometry.Point;
 import com.google.maps.android.projection.SphericalMercatorProjection;
+import com.google.maps.android.quadtree.PrimitivePointQuadTree;
 import com.google.maps.android.ui.SquareTextView;
 import com.google.maps.android.ui.IconGenerator;
 
@@ -59,11 +62,18 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -72,9 +82,13 @@ import static com.google.maps.android.clustering.algo.NonHierarchicalDistanceBas
 
 /**
  * The default view for a ClusterManager. Markers are animated in and out of clusters.
+ * <p/>
+ * Rendering is coordinated on background threads, which are shared by all renderers unless
+ * another {@link Executor} is set.
  */
 public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRenderer<T> {
     private static final boolean SHOULD_ANIMATE = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    private static final Executor RENDER_EXECUTOR = createRenderExecutor();
     private final GoogleMap mMap;
     private final IconGenerator mIconGenerator;
     private final ClusterManager<T> mClusterManager;
@@ -109,6 +123,19 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
      */
     private Set<? extends Cluster<T>> mClusters;
 
+    /**
+     * The position of each marker rendered for mClusters, keyed by its cluster, or by its item
+     * for clusters rendered as their items. Written by render tasks, which run one at a time.
+     */
+    private volatile Map<Object, LatLng> mMarkerPositions = new HashMap<Object, LatLng>();
+
+    /**
+     * The stats each cluster of mClusters rendered as a cluster had when its icon was drawn, as
+     * the weights of its items may have changed since. Written by render tasks.
+     */
+    private volatile Map<Cluster<T>, ClusterStats> mClusterStats =
+            new HashMap<Cluster<T>, ClusterStats>();
+
     /**
      * Lookup between markers and the associated cluster.
      */
@@ -121,6 +148,17 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
     private float mZoom;
 
     private final ViewModifier mViewModifier = new ViewModifier();
+    private Executor mExecutor = RENDER_EXECUTOR;
+
+    /**
+     * Whether rendering is paused. Clusters received meanwhile are rendered on resume.
+     */
+    private volatile boolean mPaused;
+
+    /**
+     * Animations which have started and not ended yet. Only used on the main thread.
+     */
+    private final Set<AnimationTask> mRunningAnimations = new HashSet<AnimationTask>();
 
     private ClusterManager.OnClusterClickListener<T> mClickListener;
     private ClusterManager.OnClusterInfoWindowClickListener<T> mInfoWindowClickListener;
@@ -178,6 +216,45 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
         mClusterManager.getClusterMarkerCollection().setOnMarkerClickListener(null);
     }
 
+    /**
+     * Sets the executor the work of each render is coordinated on. The work waits for markers to
+     * be changed on the main thread, so it should not share a single thread with clustering.
+     */
+    public void setExecutor(Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Stops rendering, for example while the activity hosting the map is paused. Running
+     * animations jump to their end. Must be called on the main thread.
+     */
+    public void pause() {
+        mPaused = true;
+        for (AnimationTask animation : new ArrayList<AnimationTask>(mRunningAnimations)) {
+            animation.end();
+        }
+    }
+
+    /**
+     * Renders the latest clusters received while paused, if there are any.
+     */
+    public void resume() {
+        mPaused = false;
+        mViewModifier.sendEmptyMessage(ViewModifier.RUN_TASK);
+    }
+
+    private static Executor createRenderExecutor() {
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 10, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "DefaultClusterRenderer");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
     private LayerDrawable makeClusterBackground() {
         mColoredCircleBackground = new ShapeDrawable(new OvalShape());
         ShapeDrawable outline = new ShapeDrawable(new OvalShape());
@@ -260,8 +337,8 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
                 return;
             }
 
-            if (mNextClusters == null) {
-                // Nothing to do.
+            if (mNextClusters == null || mPaused) {
+                // Nothing to do, or nothing to do yet.
                 return;
             }
             Projection projection = mMap.getProjection();
@@ -285,7 +362,7 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
             });
             renderTask.setProjection(projection);
             renderTask.setMapZoom(mMap.getCameraPosition().zoom);
-            new Thread(renderTask).start();
+            mExecutor.execute(renderTask);
         }
 
         public void queue(Set<? extends Cluster<T>> clusters) {
@@ -327,6 +404,7 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
         private Runnable mCallback;
         private Projection mProjection;
         private SphericalMercatorProjection mSphericalMercatorProjection;
+        private double mWorldWidth;
         private float mMapZoom;
 
         private RenderTask(Set<? extends Cluster<T>> clusters) {
@@ -348,17 +426,25 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
 
         public void setMapZoom(float zoom) {
             this.mMapZoom = zoom;
-            this.mSphericalMercatorProjection = new SphericalMercatorProjection(256 * Math.pow(2, Math.min(zoom, mZoom)));
+            this.mWorldWidth = 256 * Math.pow(2, Math.min(zoom, mZoom));
+            this.mSphericalMercatorProjection = new SphericalMercatorProjection(mWorldWidth);
         }
 
         @SuppressLint("NewApi")
         public void run() {
-            if (clusters.equals(DefaultClusterRenderer.this.mClusters)) {
+            // Equal clusters may still hold items which have moved or changed weight.
+            final Map<Object, LatLng> markerPositions = markerPositions(clusters);
+            final Map<Cluster<T>, ClusterStats> clusterStats = clusterStats(clusters);
+            final ClusterDelta<T> delta =
+                    ClusterDelta.between(DefaultClusterRenderer.this.mClusters, clusters);
+            if (delta.isEmpty() && markerPositions.equals(mMarkerPositions)
+                    && clusterStats.equals(mClusterStats)) {
                 mCallback.run();
                 return;
             }
 
             final MarkerModifier markerModifier = new MarkerModifier();
+            final boolean animate = SHOULD_ANIMATE && !mPaused;
 
             final float zoom = mMapZoom;
             final boolean zoomingIn = zoom > mZoom;
@@ -370,9 +456,9 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
 
             // Find all of the existing clusters that are on-screen. These are candidates for
             // markers to animate from.
-            List<Point> existingClustersOnScreen = null;
-            if (DefaultClusterRenderer.this.mClusters != null && SHOULD_ANIMATE) {
-                existingClustersOnScreen = new ArrayList<Point>();
+            ClusterPoints existingClustersOnScreen = null;
+            if (DefaultClusterRenderer.this.mClusters != null && animate) {
+                existingClustersOnScreen = new ClusterPoints(mWorldWidth);
                 for (Cluster<T> c : DefaultClusterRenderer.this.mClusters) {
                     if (shouldRenderAsCluster(c) && visibleBounds.contains(c.getPosition())) {
                         Point point = mSphericalMercatorProjection.toPoint(c.getPosition());
@@ -381,12 +467,23 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
                 }
             }
 
+            // Only added clusters get new markers. Unchanged clusters, and clusters which replaced
+            // a cluster of the same items, keep their markers, moved to their positions and
+            // redrawn if their stats changed.
+            Set<Cluster<T>> added = Collections.newSetFromMap(
+                    new IdentityHashMap<Cluster<T>, Boolean>());
+            added.addAll(delta.getAdded());
+
             // Create the new markers and animate them to their new positions.
             final Set<MarkerWithPosition> newMarkers = Collections.newSetFromMap(
                     new ConcurrentHashMap<MarkerWithPosition, Boolean>());
             for (Cluster<T> c : clusters) {
                 boolean onScreen = visibleBounds.contains(c.getPosition());
-                if (zoomingIn && onScreen && SHOULD_ANIMATE) {
+                if (!added.contains(c)) {
+                    Cluster<T> previous = delta.getPrevious(c);
+                    markerModifier.add(onScreen, new CreateMarkerTask(c, newMarkers, null,
+                            previous == null ? c : previous, clusterStats.get(c)));
+                } else if (zoomingIn && onScreen && animate) {
                     Point point = mSphericalMercatorProjection.toPoint(c.getPosition());
                     Point closest = findClosestCluster(existingClustersOnScreen, point);
                     if (closest != null) {
@@ -409,9 +506,9 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
 
             // Find all of the new clusters that were added on-screen. These are candidates for
             // markers to animate from.
-            List<Point> newClustersOnScreen = null;
-            if (SHOULD_ANIMATE) {
-                newClustersOnScreen = new ArrayList<Point>();
+            ClusterPoints newClustersOnScreen = null;
+            if (animate) {
+                newClustersOnScreen = new ClusterPoints(mWorldWidth);
                 for (Cluster<T> c : clusters) {
                     if (shouldRenderAsCluster(c) && visibleBounds.contains(c.getPosition())) {
                         Point p = mSphericalMercatorProjection.toPoint(c.getPosition());
@@ -425,7 +522,7 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
                 boolean onScreen = visibleBounds.contains(marker.position);
                 // Don't animate when zooming out more than 3 zoom levels.
                 // TODO: drop animation based on speed of device & number of markers to animate.
-                if (!zoomingIn && zoomDelta > -3 && onScreen && SHOULD_ANIMATE) {
+                if (!zoomingIn && zoomDelta > -3 && onScreen && animate) {
                     final Point point = mSphericalMercatorProjection.toPoint(marker.position);
                     final Point closest = findClosestCluster(newClustersOnScreen, point);
                     if (closest != null) {
@@ -443,12 +540,45 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
 
             mMarkers = newMarkers;
             DefaultClusterRenderer.this.mClusters = clusters;
+            mMarkerPositions = markerPositions;
+            mClusterStats = clusterStats;
             mZoom = zoom;
 
             mCallback.run();
         }
     }
 
+    /**
+     * @return the position of the marker of each cluster rendered as a cluster, and of each item
+     * of the other clusters.
+     */
+    private Map<Object, LatLng> markerPositions(Set<? extends Cluster<T>> clusters) {
+        Map<Object, LatLng> positions = new HashMap<Object, LatLng>();
+        for (Cluster<T> c : clusters) {
+            if (shouldRenderAsCluster(c)) {
+                positions.put(c, c.getPosition());
+            } else {
+                for (T item : c.getItems()) {
+                    positions.put(item, item.getPosition());
+                }
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * @return the stats of each cluster rendered as a cluster.
+     */
+    private Map<Cluster<T>, ClusterStats> clusterStats(Set<? extends Cluster<T>> clusters) {
+        Map<Cluster<T>, ClusterStats> stats = new HashMap<Cluster<T>, ClusterStats>();
+        for (Cluster<T> c : clusters) {
+            if (shouldRenderAsCluster(c)) {
+                stats.put(c, ClusterStats.of(c));
+            }
+        }
+        return stats;
+    }
+
     @Override
     public void onClustersChanged(Set<? extends Cluster<T>> clusters) {
         mViewModifier.queue(clusters);
@@ -474,24 +604,35 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
         mItemInfoWindowClickListener = listener;
     }
 
-    private static double distanceSquared(Point a, Point b) {
-        return (a.x - b.x) * (a.x - b.x) + (a.y - b.y) * (a.y - b.y);
+    private static Point findClosestCluster(ClusterPoints markers, Point point) {
+        if (markers == null) return null;
+
+        // TODO: make this configurable.
+        return markers.findClosest(point, MAX_DISTANCE_AT_ZOOM);
     }
 
-    private static Point findClosestCluster(List<Point> markers, Point point) {
-        if (markers == null || markers.isEmpty()) return null;
+    /**
+     * Cluster positions on screen, indexed so that the closest one to a marker can be found
+     * without scanning every cluster.
+     */
+    private static class ClusterPoints {
+        private final List<Point> mPoints = new ArrayList<Point>();
+        private final PrimitivePointQuadTree mTree;
+
+        private ClusterPoints(double worldWidth) {
+            mTree = new PrimitivePointQuadTree(0, worldWidth, 0, worldWidth);
+        }
 
-        // TODO: make this configurable.
-        double minDistSquared = MAX_DISTANCE_AT_ZOOM * MAX_DISTANCE_AT_ZOOM;
-        Point closest = null;
-        for (Point candidate : markers) {
-            double dist = distanceSquared(candidate, point);
-            if (dist < minDistSquared) {
-                closest = candidate;
-                minDistSquared = dist;
+        private void add(Point point) {
+            if (mTree.add(mPoints.size(), point.x, point.y)) {
+                mPoints.add(point);
             }
         }
-        return closest;
+
+        private Point findClosest(Point point, double maxDistance) {
+            int[] closest = mTree.nearest(point.x, point.y, 1, maxDistance);
+            return closest.length == 0 ? null : mPoints.get(closest[0]);
+        }
     }
 
     /**
@@ -723,6 +864,10 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
     /**
      * Called before the marker for a Cluster is added to the map.
      * The default implementation draws a circle with a rough count of the number of items.
+     * Overrides can show aggregates of the items from
+     * {@link com.google.maps.android.clustering.ClusterStats#of(Cluster)}, which doesn't go
+     * through them for the clusters of the bundled algorithms. Also called when those stats change
+     * for a cluster whose marker is kept, in which case only the icon is applied to the marker.
      */
     protected void onBeforeClusterRendered(Cluster<T> cluster, MarkerOptions markerOptions) {
         int bucket = getBucket(cluster);
@@ -791,6 +936,8 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
         private final Cluster<T> cluster;
         private final Set<MarkerWithPosition> newMarkers;
         private final LatLng animateFrom;
+        private final Cluster<T> previous;
+        private final ClusterStats stats;
 
         /**
          * @param c            the cluster to render.
@@ -799,9 +946,23 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
          *                     animation is required.
          */
         public CreateMarkerTask(Cluster<T> c, Set<MarkerWithPosition> markersAdded, LatLng animateFrom) {
+            this(c, markersAdded, animateFrom, null, null);
+        }
+
+        /**
+         * @param previous a rendered cluster with the same items, whose marker is moved to the
+         *                 position of the cluster rather than replaced, or null. The cluster
+         *                 itself if it is unchanged.
+         * @param stats    the stats of the cluster, whose icon is redrawn if they differ from
+         *                 those of the previous cluster, or null.
+         */
+        public CreateMarkerTask(Cluster<T> c, Set<MarkerWithPosition> markersAdded,
+                                LatLng animateFrom, Cluster<T> previous, ClusterStats stats) {
             this.cluster = c;
             this.newMarkers = markersAdded;
             this.animateFrom = animateFrom;
+            this.previous = previous;
+            this.stats = stats;
         }
 
         private void perform(MarkerModifier markerModifier) {
@@ -825,6 +986,11 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
                             markerModifier.animate(markerWithPosition, animateFrom, item.getPosition());
                         }
                     } else {
+                        LatLng position = item.getPosition();
+                        if (!position.equals(mMarkerPositions.get(item))) {
+                            // The item has moved since it was last rendered.
+                            marker.setPosition(position);
+                        }
                         markerWithPosition = new MarkerWithPosition(marker);
                     }
                     onClusterItemRendered(item, marker);
@@ -833,6 +999,29 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
                 return;
             }
 
+            Marker previousMarker = previous == null ? null : mClusterToMarker.remove(previous);
+            if (previousMarker != null) {
+                if (!cluster.getPosition().equals(mMarkerPositions.get(previous))) {
+                    previousMarker.setPosition(cluster.getPosition());
+                }
+                boolean redraw = stats != null && !stats.equals(mClusterStats.get(previous));
+                if (redraw) {
+                    // The weights of the items changed since the icon was drawn.
+                    MarkerOptions markerOptions = new MarkerOptions().position(cluster.getPosition());
+                    onBeforeClusterRendered(cluster, markerOptions);
+                    if (markerOptions.getIcon() != null) {
+                        previousMarker.setIcon(markerOptions.getIcon());
+                    }
+                }
+                mMarkerToCluster.put(previousMarker, cluster);
+                mClusterToMarker.put(cluster, previousMarker);
+                if (previous != cluster || redraw) {
+                    onClusterRendered(cluster, previousMarker);
+                }
+                newMarkers.add(new MarkerWithPosition(previousMarker));
+                return;
+            }
+
             MarkerOptions markerOptions = new MarkerOptions().
                     position(animateFrom == null ? cluster.getPosition() : animateFrom);
 
@@ -891,6 +1080,7 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
         private final LatLng to;
         private boolean mRemoveOnComplete;
         private MarkerManager mMarkerManager;
+        private ValueAnimator mAnimator;
 
         private AnimationTask(MarkerWithPosition markerWithPosition, LatLng from, LatLng to) {
             this.markerWithPosition = markerWithPosition;
@@ -900,15 +1090,26 @@ public class DefaultClusterRenderer<T extends ClusterItem> implements ClusterRen
         }
 
         public void perform() {
-            ValueAnimator valueAnimator = ValueAnimator.ofFloat(0, 1);
-            valueAnimator.setInterpolator(ANIMATION_INTERP);
-            valueAnimator.addUpdateListener(this);
-            valueAnimator.addListener(this);
-            valueAnimator.start();
+            if (mPaused) {
+                marker.setPosition(to);
+                onAnimationEnd(null);
+                return;
+            }
+            mAnimator = ValueAnimator.ofFloat(0, 1);
+            mAnimator.setInterpolator(ANIMATION_INTERP);
+            mAnimator.addUpdateListener(this);
+            mAnimator.addListener(this);
+            mRunningAnimations.add(this);
+            mAnimator.start();
+        }
+
+        private void end() {
+            mAnimator.end();
         }
 
         @Override
         public void onAnimationEnd(Animator animation) {
+            mRunningAnimations.remove(this);
             if (mRemoveOnComplete) {
                 Cluster<T> cluster = mMarkerToCluster.get(marker);
                 mClusterToMarker.remove(cluster);
@@ -25,12 +25,15 @@ import com.google.android.gms.maps.model.Tile;
 import com.google.android.gms.maps.model.TileProvider;
 import com.google.maps.android.geometry.Bounds;
 import com.google.maps.android.geometry.Point;
-import com.google.maps.android.quadtree.PointQuadTree;
+import com.google.maps.android.quadtree.LinearPointQuadTree;
+import com.google.maps.android.quadtree.PointIndex;
+import com.google.maps.android.quadtree.PrimitivePointQuadTree;
 
 import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Tile provider that creates heatmap tiles.
@@ -113,22 +116,29 @@ public class HeatmapTileProvider implements TileProvider {
     private static final int MAX_RADIUS = 50;
 
     /**
-     * Quad tree of all the points to display in the heatmap
+     * Quad tree of all the points to display in the heatmap, weighted by their intensity.
+     * Aggregating, so that quads smaller than a bucket can be bucketed as a whole.
      */
-    private PointQuadTree<WeightedLatLng> mTree;
+    private PointIndex mTree;
 
     /**
-     * Collection of all the data.
+     * Whether mTree is a linear quad tree rather than a pointer based one.
      */
-    private Collection<WeightedLatLng> mData;
+    private boolean mLinearIndex;
 
     /**
-     * Bounds of the quad tree
+     * Number of points added to the heatmap, which is also the id of the next point.
+     */
+    private int mPointCount;
+
+    /**
+     * Bounds of all the points in the heatmap. The quad tree grows to fit new points, so its
+     * bounds may be larger.
      */
     private Bounds mBounds;
 
     /**
-     * Heatmap point radius.
+     * Heatmap point radius. Guarded by mLock.
      */
     private int mRadius;
 
@@ -143,7 +153,7 @@ public class HeatmapTileProvider implements TileProvider {
     private int[] mColorMap;
 
     /**
-     * Kernel to use for convolution
+     * Kernel to use for convolution, of the size given by mRadius. Guarded by mLock.
      */
     private double[] mKernel;
 
@@ -153,9 +163,18 @@ public class HeatmapTileProvider implements TileProvider {
     private double mOpacity;
 
     /**
-     * Maximum intensity estimates for heatmap
+     * Maximum intensity estimates for heatmap. Published after the points they were computed from,
+     * so tiles may briefly be colored by the previous estimates.
+     */
+    private volatile double[] mMaxIntensity;
+
+    /**
+     * Guards mTree, mBounds, mPointCount, mRadius and mKernel. Tiles are drawn under the read
+     * lock, so several at once. Changes are made under the write lock, which is then downgraded to
+     * the read lock while the max intensities are computed, so tiles can still be drawn meanwhile
+     * but the points and radius can't change.
      */
-    private double[] mMaxIntensity;
+    private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
 
     /**
      * Builder class for the HeatmapTileProvider.
@@ -168,6 +187,7 @@ public class HeatmapTileProvider implements TileProvider {
         private int radius = DEFAULT_RADIUS;
         private Gradient gradient = DEFAULT_GRADIENT;
         private double opacity = DEFAULT_OPACITY;
+        private boolean linearIndex = false;
 
         /**
          * Constructor for builder.
@@ -246,6 +266,20 @@ public class HeatmapTileProvider implements TileProvider {
             return this;
         }
 
+        /**
+         * Setter for the point index in builder
+         *
+         * @param val Whether to index the points with a linear quad tree, which is built about
+         *            twice as fast and stored in flat arrays, rather than a pointer based quad
+         *            tree, which is faster to search and to add points to.
+         * @return updated builder object
+         * @see LinearPointQuadTree
+         */
+        public Builder linearIndex(boolean val) {
+            linearIndex = val;
+            return this;
+        }
+
         /**
          * Call when all desired options have been set.
          * Note: you must set data using data or weightedData before this!
@@ -265,11 +299,10 @@ public class HeatmapTileProvider implements TileProvider {
 
     private HeatmapTileProvider(Builder builder) {
         // Get parameters from builder
-        mData = builder.data;
-
         mRadius = builder.radius;
         mGradient = builder.gradient;
         mOpacity = builder.opacity;
+        mLinearIndex = builder.linearIndex;
 
         // Compute kernel density function (sd = 1/3rd of radius)
         mKernel = generateKernel(mRadius, mRadius / 3.0);
@@ -278,47 +311,134 @@ public class HeatmapTileProvider implements TileProvider {
         setGradient(mGradient);
 
         // Set the data
-        setWeightedData(mData);
+        setWeightedData(builder.data);
     }
 
     /**
      * Changes the dataset the heatmap is portraying. Weighted.
      * User should clear overlay's tile cache (using clearTileCache()) after calling this.
+     * Tiles requested while the new points are loaded are drawn from the previous ones.
      *
      * @param data Data set of points to use in the heatmap, as LatLngs.
-     *             Note: Editing data without calling setWeightedData again will not update the data
-     *             displayed on the map, but will impact calculation of max intensity values,
-     *             as the collection you pass in is stored.
+     *             Note: The points are copied into the heatmap, and the collection you pass in is
+     *             not stored. Editing data without calling setWeightedData again will not update
+     *             the data displayed on the map.
      *             Outside of changing the data, max intensity values are calculated only upon
      *             changing the radius.
      */
     public void setWeightedData(Collection<WeightedLatLng> data) {
-        // Change point set
-        mData = data;
-
         // Check point set is OK
-        if (mData.isEmpty()) {
+        if (data.isEmpty()) {
             throw new IllegalArgumentException("No input points.");
         }
 
-        // Because quadtree bounds are final once the quadtree is created, we cannot add
-        // points outside of those bounds to the quadtree after creation.
-        // As quadtree creation is actually quite lightweight/fast as compared to other functions
-        // called in heatmap creation, re-creating the quadtree is an acceptable solution here.
+        // Make the quad tree. It grows to fit any points added later with addWeightedData.
+        Bounds bounds = getBounds(data);
+
+        PointIndex tree = mLinearIndex ? new LinearPointQuadTree(bounds, true)
+                : new PrimitivePointQuadTree(bounds, true);
+        tree.setAutoGrow(true);
+
+        // Bulk load points into the quad tree, keeping only their coordinates and intensity.
+        // The new tree is built aside, so tiles requested meanwhile are drawn from the old one.
+        int pointCount = addPoints(tree, 0, data);
+
+        mLock.writeLock().lock();
+        try {
+            mBounds = bounds;
+            mTree = tree;
+            mPointCount = pointCount;
+            // Calculate reasonable maximum intensity for color scale (user can also specify)
+            updateMaxIntensities();
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Adds points to the dataset the heatmap is portraying. Weighted.
+     * User should clear overlay's tile cache (using clearTileCache()) after calling this.
+     * <p/>
+     * Unlike setWeightedData, the existing points are kept where they are: only the new points
+     * are inserted, growing the quad tree if they fall outside of it. Tiles may be requested
+     * while points are being added.
+     *
+     * @param data Data set of points to add to the heatmap, as LatLngs.
+     */
+    public void addWeightedData(Collection<WeightedLatLng> data) {
+        if (data.isEmpty()) {
+            return;
+        }
 
-        // Make the quad tree
-        mBounds = getBounds(mData);
+        Bounds bounds = getBounds(data);
+        mLock.writeLock().lock();
+        try {
+            mBounds = new Bounds(Math.min(mBounds.minX, bounds.minX),
+                    Math.max(mBounds.maxX, bounds.maxX),
+                    Math.min(mBounds.minY, bounds.minY),
+                    Math.max(mBounds.maxY, bounds.maxY));
+            mPointCount += addPoints(mTree, mPointCount, data);
+            // The scale of the color map depends on all of the points
+            updateMaxIntensities();
+        } finally {
+            unlock();
+        }
+    }
 
-        mTree = new PointQuadTree<WeightedLatLng>(mBounds);
+    /**
+     * Computes and publishes the max intensities of the current points. Must be called while
+     * holding the write lock, which is downgraded to the read lock meanwhile, so the caller
+     * must release it with unlock().
+     */
+    private void updateMaxIntensities() {
+        mLock.readLock().lock();
+        mLock.writeLock().unlock();
+        mMaxIntensity = getMaxIntensities(mTree, mBounds, mRadius);
+    }
 
-        // Add points to quad tree
-        for (WeightedLatLng l : mData) {
-            mTree.add(l);
+    /**
+     * Releases whichever lock of mLock this thread holds, whether or not it was downgraded.
+     */
+    private void unlock() {
+        if (mLock.isWriteLockedByCurrentThread()) {
+            mLock.writeLock().unlock();
+        } else {
+            mLock.readLock().unlock();
         }
+    }
+
+    /**
+     * Adds points to the dataset the heatmap is portraying. Unweighted.
+     * User should clear overlay's tile cache (using clearTileCache()) after calling this.
+     *
+     * @param data Data set of points to add to the heatmap, as LatLngs.
+     */
+    public void addData(Collection<LatLng> data) {
+        addWeightedData(wrapData(data));
+    }
 
-        // Calculate reasonable maximum intensity for color scale (user can also specify)
-        // Get max intensities
-        mMaxIntensity = getMaxIntensities(mRadius);
+    /**
+     * Inserts points into a quad tree, weighted by their intensity.
+     *
+     * @param firstId the id of the first point, which the others follow.
+     * @return the number of points inserted.
+     */
+    private static int addPoints(PointIndex tree, int firstId, Collection<WeightedLatLng> data) {
+        int[] ids = new int[data.size()];
+        double[] xs = new double[data.size()];
+        double[] ys = new double[data.size()];
+        double[] intensities = new double[data.size()];
+        int count = 0;
+        for (WeightedLatLng l : data) {
+            Point p = l.getPoint();
+            ids[count] = firstId + count;
+            xs[count] = p.x;
+            ys[count] = p.y;
+            intensities[count] = l.getIntensity();
+            count++;
+        }
+        tree.addAll(ids, xs, ys, intensities, count);
+        return count;
     }
 
     /**
@@ -368,90 +488,68 @@ public class HeatmapTileProvider implements TileProvider {
         // In terms of world width units
         double tileWidth = WORLD_WIDTH / Math.pow(2, zoom);
 
-        // how much padding to include in search
-        // is to tileWidth as mRadius (padding in terms of pixels) is to TILE_DIM
-        // In terms of world width units
-        double padding = tileWidth * mRadius / TILE_DIM;
-
-        // padded tile width
-        // In terms of world width units
-        double tileWidthPadded = tileWidth + 2 * padding;
-
-        // padded bucket width - divided by number of buckets
-        // In terms of world width units
-        double bucketWidth = tileWidthPadded / (TILE_DIM + mRadius * 2);
-
-        // Make bounds: minX, maxX, minY, maxY
-        double minX = x * tileWidth - padding;
-        double maxX = (x + 1) * tileWidth + padding;
-        double minY = y * tileWidth - padding;
-        double maxY = (y + 1) * tileWidth + padding;
-
-        // Deal with overlap across lat = 180
-        // Need to make it wrap around both ways
-        // However, maximum tile size is such that you wont ever have to deal with both, so
-        // hence, the else
-        // Note: Tile must remain square, so cant optimise by editing bounds
-        double xOffset = 0;
-        Collection<WeightedLatLng> wrappedPoints = new ArrayList<WeightedLatLng>();
-        if (minX < 0) {
-            // Need to consider "negative" points
-            // (minX to 0) ->  (512+minX to 512) ie +512
-            // add 512 to search bounds and subtract 512 from actual points
-            Bounds overlapBounds = new Bounds(minX + WORLD_WIDTH, WORLD_WIDTH, minY, maxY);
-            xOffset = -WORLD_WIDTH;
-            wrappedPoints = mTree.search(overlapBounds);
-        } else if (maxX > WORLD_WIDTH) {
-            // Cant both be true as then tile covers whole world
-            // Need to consider "overflow" points
-            // (512 to maxX) -> (0 to maxX-512) ie -512
-            // subtract 512 from search bounds and add 512 to actual points
-            Bounds overlapBounds = new Bounds(0, maxX - WORLD_WIDTH, minY, maxY);
-            xOffset = WORLD_WIDTH;
-            wrappedPoints = mTree.search(overlapBounds);
-        }
-
-        // Main tile bounds to search
-        Bounds tileBounds = new Bounds(minX, maxX, minY, maxY);
-
-        // If outside of *padded* quadtree bounds, return blank tile
-        // This is comparing our bounds to the padded bounds of all points in the quadtree
-        // ie tiles that don't touch the heatmap at all
-        Bounds paddedBounds = new Bounds(mBounds.minX - padding, mBounds.maxX + padding,
-                mBounds.minY - padding, mBounds.maxY + padding);
-        if (!tileBounds.intersects(paddedBounds)) {
-            return TileProvider.NO_TILE;
-        }
-
-        // Search for all points within tile bounds
-        Collection<WeightedLatLng> points = mTree.search(tileBounds);
-
-        // If no points, return blank tile
-        if (points.isEmpty()) {
-            return TileProvider.NO_TILE;
-        }
+        // Quantize all points within tile bounds
+        double[][] intensity;
+        double[] kernel;
+        double maxIntensity;
+        mLock.readLock().lock();
+        try {
+            // Read the radius and kernel once, so they match the grid even if the radius changes
+            int radius = mRadius;
+            kernel = mKernel;
+
+            // how much padding to include in search
+            // is to tileWidth as radius (padding in terms of pixels) is to TILE_DIM
+            // In terms of world width units
+            double padding = tileWidth * radius / TILE_DIM;
+
+            // padded tile width
+            // In terms of world width units
+            double tileWidthPadded = tileWidth + 2 * padding;
+
+            // padded bucket width - divided by number of buckets
+            // In terms of world width units
+            double bucketWidth = tileWidthPadded / (TILE_DIM + radius * 2);
+
+            // Make bounds: minX, maxX, minY, maxY
+            double minX = x * tileWidth - padding;
+            double maxX = (x + 1) * tileWidth + padding;
+            double minY = y * tileWidth - padding;
+            double maxY = (y + 1) * tileWidth + padding;
+
+            // If outside of *padded* quadtree bounds, return blank tile
+            // This is comparing our bounds to the padded bounds of all points in the quadtree
+            // ie tiles that don't touch the heatmap at all, on either side of lat = 180
+            if (!touchesData(minX, maxX, minY, maxY, padding)
+                    && !(minX < 0 && touchesData(minX + WORLD_WIDTH, maxX + WORLD_WIDTH, minY,
+                    maxY, padding))
+                    && !(maxX > WORLD_WIDTH && touchesData(minX - WORLD_WIDTH, maxX - WORLD_WIDTH,
+                    minY, maxY, padding))) {
+                return TileProvider.NO_TILE;
+            }
 
-        // Quantize points
-        double[][] intensity = new double[TILE_DIM + mRadius * 2][TILE_DIM + mRadius * 2];
-        for (WeightedLatLng w : points) {
-            Point p = w.getPoint();
-            int bucketX = (int) ((p.x - minX) / bucketWidth);
-            int bucketY = (int) ((p.y - minY) / bucketWidth);
-            intensity[bucketX][bucketY] += w.getIntensity();
-        }
-        // Quantize wraparound points (taking xOffset into account)
-        for (WeightedLatLng w : wrappedPoints) {
-            Point p = w.getPoint();
-            int bucketX = (int) ((p.x + xOffset - minX) / bucketWidth);
-            int bucketY = (int) ((p.y - minY) / bucketWidth);
-            intensity[bucketX][bucketY] += w.getIntensity();
+            intensity = new double[TILE_DIM + radius * 2][TILE_DIM + radius * 2];
+            BucketVisitor bucketVisitor = new BucketVisitor(intensity, minX, minY, bucketWidth);
+            // Quads no wider than a bucket are bucketed as a whole, at their weighted centroid.
+            // Points across lat = 180 are found by the same search, shifted next to the tile
+            // Note: Tile must remain square, so cant optimise by editing bounds
+            mTree.searchAggregatesWrapped(minX, maxX, minY, maxY, WORLD_WIDTH, bucketWidth,
+                    bucketVisitor);
+
+            // If no points, return blank tile
+            if (bucketVisitor.mCount == 0) {
+                return TileProvider.NO_TILE;
+            }
+            maxIntensity = mMaxIntensity[zoom];
+        } finally {
+            mLock.readLock().unlock();
         }
 
         // Convolve it ("smoothen" it out)
-        double[][] convolved = convolve(intensity, mKernel);
+        double[][] convolved = convolve(intensity, kernel);
 
         // Color it into a bitmap
-        Bitmap bitmap = colorize(convolved, mColorMap, mMaxIntensity[zoom]);
+        Bitmap bitmap = colorize(convolved, mColorMap, maxIntensity);
 
         // Convert bitmap to tile and return
         return convertBitmap(bitmap);
@@ -475,11 +573,16 @@ public class HeatmapTileProvider implements TileProvider {
      * @param radius Radius to set
      */
     public void setRadius(int radius) {
-        mRadius = radius;
-        // need to recompute kernel
-        mKernel = generateKernel(mRadius, mRadius / 3.0);
-        // need to recalculate max intensity
-        mMaxIntensity = getMaxIntensities(mRadius);
+        mLock.writeLock().lock();
+        try {
+            mRadius = radius;
+            // need to recompute kernel
+            mKernel = generateKernel(mRadius, mRadius / 3.0);
+            // need to recalculate max intensity
+            updateMaxIntensities();
+        } finally {
+            unlock();
+        }
     }
 
     /**
@@ -494,21 +597,33 @@ public class HeatmapTileProvider implements TileProvider {
         setGradient(mGradient);
     }
 
+    /**
+     * @return whether the given bounds touch the bounds of the points, padded on every side.
+     * Must be called while holding either lock of mLock.
+     */
+    private boolean touchesData(double minX, double maxX, double minY, double maxY,
+                                double padding) {
+        return minX < mBounds.maxX + padding && mBounds.minX - padding < maxX
+                && minY < mBounds.maxY + padding && mBounds.minY - padding < maxY;
+    }
+
     /**
      * Gets array of maximum intensity values to use with the heatmap for each zoom level
      * This is the value that the highest color on the color map corresponds to
      *
+     * @param tree   aggregating quad tree of the points
+     * @param bounds bounds of the points
      * @param radius radius of the heatmap
      * @return array of maximum intensities
      */
-    private double[] getMaxIntensities(int radius) {
+    private static double[] getMaxIntensities(PointIndex tree, Bounds bounds, int radius) {
         // Can go from zoom level 3 to zoom level 22
         double[] maxIntensityArray = new double[MAX_ZOOM_LEVEL];
 
         // Calculate max intensity for each zoom level
         for (int i = DEFAULT_MIN_ZOOM; i < DEFAULT_MAX_ZOOM; i++) {
             // Each zoom level multiplies viewable size by 2
-            maxIntensityArray[i] = getMaxValue(mData, mBounds, radius,
+            maxIntensityArray[i] = getMaxValue(tree, bounds, radius,
                     (int) (SCREEN_SIZE * Math.pow(2, i - 3)));
             if (i == DEFAULT_MIN_ZOOM) {
                 for (int j = 0; j < i; j++) maxIntensityArray[j] = maxIntensityArray[i];
@@ -521,6 +636,36 @@ public class HeatmapTileProvider implements TileProvider {
         return maxIntensityArray;
     }
 
+    /**
+     * Quantizes the points found by a tree search into the buckets of a tile.
+     */
+    private static class BucketVisitor implements PointIndex.AggregateVisitor {
+        private final double[][] mIntensity;
+        private final double mMinX;
+        private final double mMinY;
+        private final double mBucketWidth;
+
+        /**
+         * Number of points quantized so far.
+         */
+        private int mCount;
+
+        private BucketVisitor(double[][] intensity, double minX, double minY, double bucketWidth) {
+            mIntensity = intensity;
+            mMinX = minX;
+            mMinY = minY;
+            mBucketWidth = bucketWidth;
+        }
+
+        @Override
+        public void visit(int count, double weight, double x, double y) {
+            int bucketX = (int) ((x - mMinX) / mBucketWidth);
+            int bucketY = (int) ((y - mMinY) / mBucketWidth);
+            mIntensity[bucketX][bucketY] += weight;
+            mCount += count;
+        }
+    }
+
     /**
      * helper function - convert a bitmap into a tile
      *
@@ -714,60 +859,74 @@ public class HeatmapTileProvider implements TileProvider {
     /**
      * Calculate a reasonable maximum intensity value to map to maximum color intensity
      *
-     * @param points    Collection of LatLngs to put into buckets
-     * @param bounds    Bucket boundaries
+     * @param tree      Aggregating quad tree of the points to put into buckets, weighted by
+     *                  intensity
+     * @param bounds    Bounds of the points, which are the bucket boundaries
      * @param radius    radius of convolution
      * @param screenDim larger dimension of screen in pixels (for scale)
      * @return Approximate max value
      */
-    static double getMaxValue(Collection<WeightedLatLng> points, Bounds bounds, int radius,
-                              int screenDim) {
-        // Approximate scale as if entire heatmap is on the screen
-        // ie scale dimensions to larger of width or height (screenDim)
-        double minX = bounds.minX;
-        double maxX = bounds.maxX;
-        double minY = bounds.minY;
-        double maxY = bounds.maxY;
-        double boundsDim = (maxX - minX > maxY - minY) ? maxX - minX : maxY - minY;
-
-        // Number of buckets: have diameter sized buckets
-        int nBuckets = (int) (screenDim / (2 * radius) + 0.5);
-        // Scaling factor to convert width in terms of point distance, to which bucket
-        double scale = nBuckets / boundsDim;
-
-        // Make buckets
-        // Use a sparse array - use LongSparseArray just in case
-        LongSparseArray<LongSparseArray<Double>> buckets = new LongSparseArray<LongSparseArray<Double>>();
-        //double[][] buckets = new double[nBuckets][nBuckets];
+    static double getMaxValue(PointIndex tree, Bounds bounds, int radius, int screenDim) {
+        MaxValueVisitor visitor = new MaxValueVisitor(bounds, radius, screenDim);
+        // Quads no wider than a bucket are bucketed as a whole, at their weighted centroid. All
+        // the points are within the bounds, but the query is padded, since quads must overlap it
+        // with some area to be searched, and the bounds have none for a single point or for
+        // points along one line.
+        tree.searchAggregates(bounds.minX - WORLD_WIDTH, bounds.maxX + WORLD_WIDTH,
+                bounds.minY - WORLD_WIDTH, bounds.maxY + WORLD_WIDTH, 1 / visitor.mScale,
+                visitor);
+        return visitor.mMax;
+    }
+
+    /**
+     * Assigns points into diameter sized buckets, tracking the maximum bucket value.
+     */
+    private static class MaxValueVisitor implements PointIndex.AggregateVisitor {
+        private final double mMinX;
+        private final double mMinY;
+        private final double mScale;
 
-        // Assign into buckets + find max value as we go along
-        double x, y;
-        double max = 0;
-        for (WeightedLatLng l : points) {
-            x = l.getPoint().x;
-            y = l.getPoint().y;
+        // Use a sparse array - use LongSparseArray just in case
+        private final LongSparseArray<LongSparseArray<Double>> mBuckets =
+                new LongSparseArray<LongSparseArray<Double>>();
+
+        private double mMax = 0;
+
+        private MaxValueVisitor(Bounds bounds, int radius, int screenDim) {
+            // Approximate scale as if entire heatmap is on the screen
+            // ie scale dimensions to larger of width or height (screenDim)
+            mMinX = bounds.minX;
+            mMinY = bounds.minY;
+            double boundsDim = (bounds.maxX - bounds.minX > bounds.maxY - bounds.minY)
+                    ? bounds.maxX - bounds.minX : bounds.maxY - bounds.minY;
+
+            // Number of buckets: have diameter sized buckets
+            int nBuckets = (int) (screenDim / (2 * radius) + 0.5);
+            // Scaling factor to convert width in terms of point distance, to which bucket
+            mScale = nBuckets / boundsDim;
+        }
 
-            int xBucket = (int) ((x - minX) * scale);
-            int yBucket = (int) ((y - minY) * scale);
+        @Override
+        public void visit(int count, double weight, double x, double y) {
+            int xBucket = (int) ((x - mMinX) * mScale);
+            int yBucket = (int) ((y - mMinY) * mScale);
 
             // Check if x bucket exists, if not make it
-            LongSparseArray<Double> column = buckets.get(xBucket);
+            LongSparseArray<Double> column = mBuckets.get(xBucket);
             if (column == null) {
                 column = new LongSparseArray<Double>();
-                buckets.put(xBucket, column);
+                mBuckets.put(xBucket, column);
             }
             // Check if there is already a y value there
             Double value = column.get(yBucket);
             if (value == null) {
                 value = 0.0;
             }
-            value += l.getIntensity();
+            value += weight;
             // Yes, do need to update it, despite it being a Double.
             column.put(yBucket, value);
 
-            if (value > max) max = value;
+            if (value > mMax) mMax = value;
         }
-
-        return max;
     }
 }
@@ -0,0 +1,984 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.quadtree;
+
+import com.google.maps.android.geometry.Bounds;
+
+/**
+ * A linear quad tree, which keeps its points sorted by Morton (Z-order) key in flat arrays.
+ * <p/>
+ * Every quad of the tree, at every level, is a contiguous range of the sorted keys, so the tree
+ * itself is never stored: a search descends through the quads it overlaps, finding the range of
+ * each child quad by binary search, and skipping straight to the smallest quad holding each range.
+ * There are no nodes and no pointers, the points of a quad are adjacent in memory, and the whole
+ * tree can be stored as a single long[], see {@link #toLongArray()}.
+ * <p/>
+ * Searching is as exact as for {@link PrimitivePointQuadTree}. Keys quantize coordinates to 31
+ * bits per axis, so quads are widened by one quantization step whenever a search tests whether
+ * they lie within, or outside, the search bounds.
+ * <p/>
+ * Adding or removing a single point shifts the arrays, taking time proportional to the number of
+ * points, so the tree suits data which is bulk loaded with {@link #addAll} and then searched many
+ * times. Growing the tree re-sorts all of its points.
+ * This class is not thread safe, though it may be searched from several threads at once while
+ * nothing modifies it.
+ */
+public class LinearPointQuadTree implements PointIndex {
+    /**
+     * Quads with at most this many points are scanned rather than split.
+     */
+    private final static int SCAN_THRESHOLD = 64;
+
+    /**
+     * Initial capacity of the arrays.
+     */
+    private final static int INITIAL_CAPACITY = 16;
+
+    /**
+     * First entry of the array returned by {@link #toLongArray()}, identifying its format.
+     */
+    private final static long FORMAT = 0x4c51540001L;
+
+    /**
+     * Number of entries before the points in the array returned by {@link #toLongArray()}.
+     */
+    private final static int HEADER_SIZE = 7;
+
+    private final static int FLAG_AGGREGATE = 1;
+    private final static int FLAG_AUTO_GROW = 2;
+
+    /**
+     * The bounds of the tree. Only changes if the tree grows.
+     */
+    private Bounds mBounds;
+
+    /**
+     * Computes the keys of points within mBounds.
+     */
+    private MortonCode mCode;
+
+    /**
+     * How far to widen quads when testing them against search bounds, to allow for points whose
+     * coordinates were rounded into a neighbouring quad.
+     */
+    private double mMarginX;
+    private double mMarginY;
+
+    /**
+     * Whether to grow the tree when a point outside its bounds is added.
+     */
+    private boolean mAutoGrow = false;
+
+    /**
+     * Whether points have weights.
+     */
+    private final boolean mAggregate;
+
+    /**
+     * The points, sorted by key. Points with equal keys are kept in the order they were added.
+     */
+    private long[] mKeys;
+    private int[] mIds;
+    private double[] mXs;
+    private double[] mYs;
+
+    /**
+     * Weights of the points, or null if the tree does not aggregate its points.
+     */
+    private double[] mWeights;
+
+    /**
+     * Number of points in the tree.
+     */
+    private int mSize;
+
+    /**
+     * Prefix sums of the weights, weighted x and weighted y coordinates of the points, side by
+     * side: entries 3i, 3i + 1 and 3i + 2 hold the sums over the first i points. Computed by the
+     * first aggregate search after the points change, null until then. Volatile, so that
+     * concurrent searches see a complete array or compute their own.
+     */
+    private volatile double[] mSums;
+
+    /**
+     * Creates a new quad tree with specified bounds.
+     *
+     * @param minX
+     * @param maxX
+     * @param minY
+     * @param maxY
+     */
+    public LinearPointQuadTree(double minX, double maxX, double minY, double maxY) {
+        this(new Bounds(minX, maxX, minY, maxY));
+    }
+
+    public LinearPointQuadTree(Bounds bounds) {
+        this(bounds, false);
+    }
+
+    /**
+     * Creates a new quad tree with specified bounds.
+     *
+     * @param aggregate whether to keep the weight of each point, so that groups of points can be
+     *                  aggregated by {@link #searchAggregates}.
+     */
+    public LinearPointQuadTree(Bounds bounds, boolean aggregate) {
+        mAggregate = aggregate;
+        mKeys = new long[INITIAL_CAPACITY];
+        mIds = new int[INITIAL_CAPACITY];
+        mXs = new double[INITIAL_CAPACITY];
+        mYs = new double[INITIAL_CAPACITY];
+        mWeights = aggregate ? new double[INITIAL_CAPACITY] : null;
+        setBounds(bounds);
+    }
+
+    private void setBounds(Bounds bounds) {
+        mBounds = bounds;
+        mCode = new MortonCode(bounds);
+        // Allow for the rounding of both the quantization and the quad bounds.
+        mMarginX = mCode.stepX()
+                + 4 * Math.ulp(Math.max(Math.abs(bounds.minX), Math.abs(bounds.maxX)));
+        mMarginY = mCode.stepY()
+                + 4 * Math.ulp(Math.max(Math.abs(bounds.minY), Math.abs(bounds.maxY)));
+    }
+
+    @Override
+    public Bounds getBounds() {
+        return mBounds;
+    }
+
+    /**
+     * Sets whether the tree grows when a point outside its bounds is added.
+     * <p/>
+     * A growing tree doubles its width and height, repeatedly, until the new point fits, and then
+     * re-sorts all of its points, as their keys depend on the bounds. The tree never shrinks back.
+     */
+    @Override
+    public void setAutoGrow(boolean autoGrow) {
+        mAutoGrow = autoGrow;
+    }
+
+    @Override
+    public boolean isAutoGrow() {
+        return mAutoGrow;
+    }
+
+    @Override
+    public boolean isAggregate() {
+        return mAggregate;
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public boolean add(int id, double x, double y) {
+        return add(id, x, y, 1);
+    }
+
+    /**
+     * Insert a weighted point, shifting the points after it.
+     */
+    @Override
+    public boolean add(int id, double x, double y, double weight) {
+        if (!mBounds.contains(x, y) && !growToContain(x, y)) {
+            return false;
+        }
+        long key = mCode.encode(x, y);
+        int i = upperBound(key, 0, mSize);
+        ensureCapacity(mSize + 1);
+        int tail = mSize - i;
+        System.arraycopy(mKeys, i, mKeys, i + 1, tail);
+        System.arraycopy(mIds, i, mIds, i + 1, tail);
+        System.arraycopy(mXs, i, mXs, i + 1, tail);
+        System.arraycopy(mYs, i, mYs, i + 1, tail);
+        if (mAggregate) {
+            System.arraycopy(mWeights, i, mWeights, i + 1, tail);
+            mWeights[i] = weight;
+        }
+        mKeys[i] = key;
+        mIds[i] = id;
+        mXs[i] = x;
+        mYs[i] = y;
+        mSize++;
+        mSums = null;
+        return true;
+    }
+
+    @Override
+    public void addAll(int[] ids, double[] xs, double[] ys, int count) {
+        addAll(ids, xs, ys, null, count);
+    }
+
+    /**
+     * Insert many weighted points at once. The new points are sorted by key and then merged with
+     * the points already in the tree, in a single pass.
+     */
+    @Override
+    public void addAll(int[] ids, double[] xs, double[] ys, double[] weights, int count) {
+        if (mAutoGrow) {
+            for (int i = 0; i < count; i++) {
+                if (!mBounds.contains(xs[i], ys[i])) {
+                    growToContain(xs[i], ys[i]);
+                }
+            }
+        }
+
+        long[] keys = new long[count];
+        int[] order = new int[count];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (mBounds.contains(xs[i], ys[i])) {
+                keys[n] = mCode.encode(xs[i], ys[i]);
+                order[n] = i;
+                n++;
+            }
+        }
+        MortonCode.sortByKey(keys, order, n);
+
+        // Merge the new points after any existing points with equal keys.
+        int size = mSize + n;
+        long[] mergedKeys = new long[Math.max(size, INITIAL_CAPACITY)];
+        int[] mergedIds = new int[mergedKeys.length];
+        double[] mergedXs = new double[mergedKeys.length];
+        double[] mergedYs = new double[mergedKeys.length];
+        double[] mergedWeights = mAggregate ? new double[mergedKeys.length] : null;
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < size; k++) {
+            if (j == n || (i < mSize && mKeys[i] <= keys[j])) {
+                mergedKeys[k] = mKeys[i];
+                mergedIds[k] = mIds[i];
+                mergedXs[k] = mXs[i];
+                mergedYs[k] = mYs[i];
+                if (mAggregate) {
+                    mergedWeights[k] = mWeights[i];
+                }
+                i++;
+            } else {
+                int p = order[j];
+                mergedKeys[k] = keys[j];
+                mergedIds[k] = ids[p];
+                mergedXs[k] = xs[p];
+                mergedYs[k] = ys[p];
+                if (mAggregate) {
+                    mergedWeights[k] = weights == null ? 1 : weights[p];
+                }
+                j++;
+            }
+        }
+        mKeys = mergedKeys;
+        mIds = mergedIds;
+        mXs = mergedXs;
+        mYs = mergedYs;
+        mWeights = mergedWeights;
+        mSize = size;
+        mSums = null;
+    }
+
+    /**
+     * Grows the tree until it contains (x, y), if growing is enabled.
+     *
+     * @return whether the tree now contains (x, y).
+     */
+    private boolean growToContain(double x, double y) {
+        if (!mAutoGrow || Double.isNaN(x) || Double.isNaN(y)
+                || Double.isInfinite(x) || Double.isInfinite(y)) {
+            return false;
+        }
+        Bounds bounds = mBounds;
+        while (!bounds.contains(x, y)) {
+            double width = bounds.maxX - bounds.minX;
+            double height = bounds.maxY - bounds.minY;
+            if (width == 0 || height == 0) {
+                // Give the tree some area before doubling it.
+                double size = Math.max(Math.max(width, height),
+                        Math.max(Math.abs(x - bounds.minX), Math.abs(y - bounds.minY)));
+                bounds = new Bounds(bounds.minX, bounds.minX + (width == 0 ? size : width),
+                        bounds.minY, bounds.minY + (height == 0 ? size : height));
+                continue;
+            }
+            boolean growLeft = x < bounds.minX;
+            boolean growUp = y < bounds.minY;
+            bounds = new Bounds(
+                    growLeft ? bounds.minX - width : bounds.minX,
+                    growLeft ? bounds.maxX : bounds.minX + 2 * width,
+                    growUp ? bounds.minY - height : bounds.minY,
+                    growUp ? bounds.maxY : bounds.minY + 2 * height);
+            if (Double.isInfinite(bounds.maxX - bounds.minX)
+                    || Double.isInfinite(bounds.maxY - bounds.minY)) {
+                return false;
+            }
+        }
+        setBounds(bounds);
+        rekey();
+        return true;
+    }
+
+    /**
+     * Recomputes the keys of all points after the bounds have changed, and re-sorts them.
+     */
+    private void rekey() {
+        long[] keys = new long[mKeys.length];
+        int[] order = new int[mSize];
+        for (int i = 0; i < mSize; i++) {
+            keys[i] = mCode.encode(mXs[i], mYs[i]);
+            order[i] = i;
+        }
+        MortonCode.sortByKey(keys, order, mSize);
+
+        int[] ids = new int[mIds.length];
+        double[] xs = new double[mXs.length];
+        double[] ys = new double[mYs.length];
+        double[] weights = mAggregate ? new double[mWeights.length] : null;
+        for (int i = 0; i < mSize; i++) {
+            int j = order[i];
+            ids[i] = mIds[j];
+            xs[i] = mXs[j];
+            ys[i] = mYs[j];
+            if (mAggregate) {
+                weights[i] = mWeights[j];
+            }
+        }
+        mKeys = keys;
+        mIds = ids;
+        mXs = xs;
+        mYs = ys;
+        mWeights = weights;
+        mSums = null;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mKeys.length) {
+            return;
+        }
+        capacity = Math.max(capacity, mKeys.length * 2);
+        long[] keys = new long[capacity];
+        int[] ids = new int[capacity];
+        double[] xs = new double[capacity];
+        double[] ys = new double[capacity];
+        System.arraycopy(mKeys, 0, keys, 0, mSize);
+        System.arraycopy(mIds, 0, ids, 0, mSize);
+        System.arraycopy(mXs, 0, xs, 0, mSize);
+        System.arraycopy(mYs, 0, ys, 0, mSize);
+        mKeys = keys;
+        mIds = ids;
+        mXs = xs;
+        mYs = ys;
+        if (mAggregate) {
+            double[] weights = new double[capacity];
+            System.arraycopy(mWeights, 0, weights, 0, mSize);
+            mWeights = weights;
+        }
+    }
+
+    /**
+     * Remove the point with the given id and coordinates, shifting the points after it.
+     */
+    @Override
+    public boolean remove(int id, double x, double y) {
+        if (!mBounds.contains(x, y)) {
+            return false;
+        }
+        long key = mCode.encode(x, y);
+        for (int i = lowerBound(key, 0, mSize); i < mSize && mKeys[i] == key; i++) {
+            if (mIds[i] == id && mXs[i] == x && mYs[i] == y) {
+                int tail = mSize - i - 1;
+                System.arraycopy(mKeys, i + 1, mKeys, i, tail);
+                System.arraycopy(mIds, i + 1, mIds, i, tail);
+                System.arraycopy(mXs, i + 1, mXs, i, tail);
+                System.arraycopy(mYs, i + 1, mYs, i, tail);
+                if (mAggregate) {
+                    System.arraycopy(mWeights, i + 1, mWeights, i, tail);
+                }
+                mSize--;
+                mSums = null;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void clear() {
+        mSize = 0;
+        mSums = null;
+    }
+
+    /**
+     * @return the index of the first point whose key is at least key, between lo and hi.
+     */
+    private int lowerBound(long key, int lo, int hi) {
+        // Gallop forwards from lo, so that nearby keys are found without touching far ones.
+        int step = 1;
+        while (lo + step < hi && mKeys[lo + step] < key) {
+            lo += step;
+            step *= 2;
+        }
+        hi = Math.min(hi, lo + step + 1);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (mKeys[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return the index of the first point whose key is greater than key, between lo and hi.
+     */
+    private int upperBound(long key, int lo, int hi) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (mKeys[mid] <= key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Search for all points within a given bounds.
+     *
+     * @return the ids of the points found.
+     */
+    public int[] search(Bounds searchBounds) {
+        final int[] results = new int[count(searchBounds.minX, searchBounds.maxX,
+                searchBounds.minY, searchBounds.maxY)];
+        search(searchBounds.minX, searchBounds.maxX, searchBounds.minY, searchBounds.maxY,
+                new Visitor() {
+                    private int mCount = 0;
+
+                    @Override
+                    public void visit(int id, double x, double y) {
+                        results[mCount++] = id;
+                    }
+                });
+        return results;
+    }
+
+    @Override
+    public void search(double minX, double maxX, double minY, double maxY, Visitor visitor) {
+        if (mSize > 0) {
+            search(0, mSize, minX, maxX, minY, maxY, visitor);
+        }
+    }
+
+    private void search(int lo, int hi, double minX, double maxX, double minY, double maxY,
+                        Visitor visitor) {
+        // The smallest quad holding all the points.
+        long key = mKeys[lo];
+        int level = commonLevel(key, mKeys[hi - 1]);
+        long cells = 1L << (MortonCode.KEY_BITS - level);
+        double quadMinX = quadMinX(key, cells);
+        double quadMaxX = quadMaxX(key, cells);
+        double quadMinY = quadMinY(key, cells);
+        double quadMaxY = quadMaxY(key, cells);
+        if (quadMinX > maxX || quadMaxX < minX || quadMinY > maxY || quadMaxY < minY) {
+            return;
+        }
+        boolean within = minX <= quadMinX && quadMaxX <= maxX
+                && minY <= quadMinY && quadMaxY <= maxY;
+        if (within || hi - lo <= SCAN_THRESHOLD || level == MortonCode.KEY_BITS) {
+            for (int i = lo; i < hi; i++) {
+                double x = mXs[i];
+                double y = mYs[i];
+                if (within || (minX <= x && x <= maxX && minY <= y && y <= maxY)) {
+                    visitor.visit(mIds[i], x, y);
+                }
+            }
+            return;
+        }
+        long childSpan = cells * cells / 4;
+        long childKey = key & -(cells * cells);
+        int start = lo;
+        for (int d = 0; d < 4; d++) {
+            childKey += childSpan;
+            int end = d == 3 ? hi : lowerBound(childKey, start, hi);
+            if (end > start) {
+                search(start, end, minX, maxX, minY, maxY, visitor);
+            }
+            start = end;
+        }
+    }
+
+    @Override
+    public void searchWrapped(double minX, double maxX, double minY, double maxY,
+                              double worldWidth, WrappedVisitor visitor) {
+        if (mSize > 0) {
+            searchWrapped(0, mSize, minX, maxX, minY, maxY, worldWidth,
+                    Wrapping.sides(minX, maxX, worldWidth), visitor);
+        }
+    }
+
+    private void searchWrapped(int lo, int hi, double minX, double maxX, double minY,
+                               double maxY, double worldWidth, int sides,
+                               WrappedVisitor visitor) {
+        // The smallest quad holding all the points.
+        long key = mKeys[lo];
+        int level = commonLevel(key, mKeys[hi - 1]);
+        long cells = 1L << (MortonCode.KEY_BITS - level);
+        double quadMinX = quadMinX(key, cells);
+        double quadMaxX = quadMaxX(key, cells);
+        double quadMinY = quadMinY(key, cells);
+        double quadMaxY = quadMaxY(key, cells);
+        if (quadMinY > maxY || quadMaxY < minY) {
+            return;
+        }
+        int overlapping = 0;
+        for (int k = 0; k < Wrapping.DIRECTIONS.length; k++) {
+            double offset = Wrapping.DIRECTIONS[k] * worldWidth;
+            if ((sides & 1 << k) != 0
+                    && quadMinX <= maxX - offset && minX - offset <= quadMaxX) {
+                overlapping |= 1 << k;
+            }
+        }
+        if (overlapping == 0) {
+            return;
+        }
+        if (hi - lo <= SCAN_THRESHOLD || level == MortonCode.KEY_BITS) {
+            for (int k = 0; k < Wrapping.DIRECTIONS.length; k++) {
+                if ((overlapping & 1 << k) == 0) {
+                    continue;
+                }
+                double offset = Wrapping.DIRECTIONS[k] * worldWidth;
+                for (int i = lo; i < hi; i++) {
+                    double x = mXs[i];
+                    double y = mYs[i];
+                    if (minX <= x + offset && x + offset <= maxX && minY <= y && y <= maxY) {
+                        visitor.visit(mIds[i], x, y, offset);
+                    }
+                }
+            }
+            return;
+        }
+        long childSpan = cells * cells / 4;
+        long childKey = key & -(cells * cells);
+        int start = lo;
+        for (int d = 0; d < 4; d++) {
+            childKey += childSpan;
+            int end = d == 3 ? hi : lowerBound(childKey, start, hi);
+            if (end > start) {
+                searchWrapped(start, end, minX, maxX, minY, maxY, worldWidth, overlapping,
+                        visitor);
+            }
+            start = end;
+        }
+    }
+
+    @Override
+    public void searchRadius(double x, double y, double radius, Visitor visitor) {
+        if (mSize > 0) {
+            searchRadius(0, mSize, x, y, radius * radius, visitor);
+        }
+    }
+
+    private void searchRadius(int lo, int hi, double x, double y, double radiusSquared,
+                              Visitor visitor) {
+        // The smallest quad holding all the points.
+        long key = mKeys[lo];
+        int level = commonLevel(key, mKeys[hi - 1]);
+        long cells = 1L << (MortonCode.KEY_BITS - level);
+        double quadMinX = quadMinX(key, cells);
+        double quadMaxX = quadMaxX(key, cells);
+        double quadMinY = quadMinY(key, cells);
+        double quadMaxY = quadMaxY(key, cells);
+        double nearX = Math.max(0, Math.max(quadMinX - x, x - quadMaxX));
+        double nearY = Math.max(0, Math.max(quadMinY - y, y - quadMaxY));
+        if (nearX * nearX + nearY * nearY > radiusSquared) {
+            return;
+        }
+        double farX = Math.max(x - quadMinX, quadMaxX - x);
+        double farY = Math.max(y - quadMinY, quadMaxY - y);
+        boolean inside = farX * farX + farY * farY <= radiusSquared;
+        if (inside || hi - lo <= SCAN_THRESHOLD || level == MortonCode.KEY_BITS) {
+            for (int i = lo; i < hi; i++) {
+                double dx = mXs[i] - x;
+                double dy = mYs[i] - y;
+                if (inside || dx * dx + dy * dy <= radiusSquared) {
+                    visitor.visit(mIds[i], mXs[i], mYs[i]);
+                }
+            }
+            return;
+        }
+        long childSpan = cells * cells / 4;
+        long childKey = key & -(cells * cells);
+        int start = lo;
+        for (int d = 0; d < 4; d++) {
+            childKey += childSpan;
+            int end = d == 3 ? hi : lowerBound(childKey, start, hi);
+            if (end > start) {
+                searchRadius(start, end, x, y, radiusSquared, visitor);
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Count the points within the given bounds. Quads entirely within the bounds are counted
+     * without visiting their points.
+     */
+    @Override
+    public int count(double minX, double maxX, double minY, double maxY) {
+        return mSize == 0 ? 0 : count(0, mSize, minX, maxX, minY, maxY);
+    }
+
+    private int count(int lo, int hi, double minX, double maxX, double minY, double maxY) {
+        // The smallest quad holding all the points.
+        long key = mKeys[lo];
+        int level = commonLevel(key, mKeys[hi - 1]);
+        long cells = 1L << (MortonCode.KEY_BITS - level);
+        double quadMinX = quadMinX(key, cells);
+        double quadMaxX = quadMaxX(key, cells);
+        double quadMinY = quadMinY(key, cells);
+        double quadMaxY = quadMaxY(key, cells);
+        if (quadMinX > maxX || quadMaxX < minX || quadMinY > maxY || quadMaxY < minY) {
+            return 0;
+        }
+        if (minX <= quadMinX && quadMaxX <= maxX && minY <= quadMinY && quadMaxY <= maxY) {
+            return hi - lo;
+        }
+        int count = 0;
+        if (hi - lo <= SCAN_THRESHOLD || level == MortonCode.KEY_BITS) {
+            for (int i = lo; i < hi; i++) {
+                double x = mXs[i];
+                double y = mYs[i];
+                if (minX <= x && x <= maxX && minY <= y && y <= maxY) {
+                    count++;
+                }
+            }
+            return count;
+        }
+        long childSpan = cells * cells / 4;
+        long childKey = key & -(cells * cells);
+        int start = lo;
+        for (int d = 0; d < 4; d++) {
+            childKey += childSpan;
+            int end = d == 3 ? hi : lowerBound(childKey, start, hi);
+            if (end > start) {
+                count += count(start, end, minX, maxX, minY, maxY);
+            }
+            start = end;
+        }
+        return count;
+    }
+
+    /**
+     * Search for all points within the given bounds, passing groups of them to the visitor.
+     * Only available for aggregating trees.
+     * <p/>
+     * Each quad which lies entirely within the bounds, and whose width and height are at most
+     * maxQuadSize, is passed as a single group positioned at its weighted centroid. The groups
+     * are summed from prefix sums over the sorted points, in constant time per group.
+     *
+     * @throws IllegalStateException if the tree does not aggregate its points.
+     */
+    @Override
+    public void searchAggregates(double minX, double maxX, double minY, double maxY,
+                                 double maxQuadSize, AggregateVisitor visitor) {
+        if (!mAggregate) {
+            throw new IllegalStateException("Tree does not aggregate its points.");
+        }
+        if (mSize == 0) {
+            return;
+        }
+        if (mSums == null) {
+            computeSums();
+        }
+        searchAggregates(0, mSize, minX, maxX, minY, maxY, maxQuadSize, visitor);
+    }
+
+    @Override
+    public void searchAggregatesWrapped(double minX, double maxX, double minY, double maxY,
+                                        double worldWidth, double maxQuadSize,
+                                        AggregateVisitor visitor) {
+        if (!mAggregate) {
+            throw new IllegalStateException("Tree does not aggregate its points.");
+        }
+        if (mSize == 0) {
+            return;
+        }
+        if (mSums == null) {
+            computeSums();
+        }
+        searchAggregatesWrapped(0, mSize, minX, maxX, minY, maxY, worldWidth, maxQuadSize,
+                Wrapping.sides(minX, maxX, worldWidth), visitor);
+    }
+
+    private void searchAggregatesWrapped(int lo, int hi, double minX, double maxX, double minY,
+                                         double maxY, double worldWidth, double maxQuadSize,
+                                         int sides, AggregateVisitor visitor) {
+        // The smallest quad holding all the points.
+        long key = mKeys[lo];
+        int level = commonLevel(key, mKeys[hi - 1]);
+        long cells = 1L << (MortonCode.KEY_BITS - level);
+        double quadMinX = quadMinX(key, cells);
+        double quadMaxX = quadMaxX(key, cells);
+        double quadMinY = quadMinY(key, cells);
+        double quadMaxY = quadMaxY(key, cells);
+        if (quadMinY > maxY || quadMaxY < minY) {
+            return;
+        }
+        boolean small = cells * mCode.stepX() <= maxQuadSize
+                && cells * mCode.stepY() <= maxQuadSize;
+        boolean withinY = minY <= quadMinY && quadMaxY <= maxY;
+        int remaining = 0;
+        for (int k = 0; k < Wrapping.DIRECTIONS.length; k++) {
+            double offset = Wrapping.DIRECTIONS[k] * worldWidth;
+            if ((sides & 1 << k) == 0
+                    || quadMinX > maxX - offset || minX - offset > quadMaxX) {
+                continue;
+            }
+            // Groups which weigh nothing are searched further, as they may hold weighted points.
+            boolean visited = small && withinY
+                    && minX - offset <= quadMinX && quadMaxX <= maxX - offset
+                    && visitAggregate(lo, hi, offset, visitor);
+            if (!visited) {
+                remaining |= 1 << k;
+            }
+        }
+        if (remaining == 0) {
+            return;
+        }
+        if (hi - lo <= SCAN_THRESHOLD || level == MortonCode.KEY_BITS) {
+            for (int k = 0; k < Wrapping.DIRECTIONS.length; k++) {
+                if ((remaining & 1 << k) == 0) {
+                    continue;
+                }
+                double offset = Wrapping.DIRECTIONS[k] * worldWidth;
+                for (int i = lo; i < hi; i++) {
+                    double x = mXs[i] + offset;
+                    double y = mYs[i];
+                    if (mWeights[i] != 0 && minX <= x && x <= maxX && minY <= y && y <= maxY) {
+                        visitor.visit(1, mWeights[i], x, y);
+                    }
+                }
+            }
+            return;
+        }
+        long childSpan = cells * cells / 4;
+        long childKey = key & -(cells * cells);
+        int start = lo;
+        for (int d = 0; d < 4; d++) {
+            childKey += childSpan;
+            int end = d == 3 ? hi : lowerBound(childKey, start, hi);
+            if (end > start) {
+                searchAggregatesWrapped(start, end, minX, maxX, minY, maxY, worldWidth,
+                        maxQuadSize, remaining, visitor);
+            }
+            start = end;
+        }
+    }
+
+    private void computeSums() {
+        double[] sums = new double[3 * (mSize + 1)];
+        for (int i = 0; i < mSize; i++) {
+            double weight = mWeights[i];
+            sums[3 * i + 3] = sums[3 * i] + weight;
+            sums[3 * i + 4] = sums[3 * i + 1] + weight * mXs[i];
+            sums[3 * i + 5] = sums[3 * i + 2] + weight * mYs[i];
+        }
+        mSums = sums;
+    }
+
+    private void searchAggregates(int lo, int hi, double minX, double maxX, double minY,
+                                  double maxY, double maxQuadSize, AggregateVisitor visitor) {
+        // The smallest quad holding all the points.
+        long key = mKeys[lo];
+        int level = commonLevel(key, mKeys[hi - 1]);
+        long cells = 1L << (MortonCode.KEY_BITS - level);
+        double quadMinX = quadMinX(key, cells);
+        double quadMaxX = quadMaxX(key, cells);
+        double quadMinY = quadMinY(key, cells);
+        double quadMaxY = quadMaxY(key, cells);
+        if (quadMinX > maxX || quadMaxX < minX || quadMinY > maxY || quadMaxY < minY) {
+            return;
+        }
+        boolean within = minX <= quadMinX && quadMaxX <= maxX
+                && minY <= quadMinY && quadMaxY <= maxY;
+        // Groups which weigh nothing are searched further, as they may hold weighted points.
+        if (within && cells * mCode.stepX() <= maxQuadSize
+                && cells * mCode.stepY() <= maxQuadSize && visitAggregate(lo, hi, 0, visitor)) {
+            return;
+        }
+        if (hi - lo <= SCAN_THRESHOLD || level == MortonCode.KEY_BITS) {
+            for (int i = lo; i < hi; i++) {
+                double x = mXs[i];
+                double y = mYs[i];
+                if (mWeights[i] != 0
+                        && (within || (minX <= x && x <= maxX && minY <= y && y <= maxY))) {
+                    visitor.visit(1, mWeights[i], x, y);
+                }
+            }
+            return;
+        }
+        long childSpan = cells * cells / 4;
+        long childKey = key & -(cells * cells);
+        int start = lo;
+        for (int d = 0; d < 4; d++) {
+            childKey += childSpan;
+            int end = d == 3 ? hi : lowerBound(childKey, start, hi);
+            if (end > start) {
+                searchAggregates(start, end, minX, maxX, minY, maxY, maxQuadSize, visitor);
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Passes the points from lo to hi to the visitor as a single group, shifted by xOffset,
+     * unless their total weight is zero.
+     *
+     * @return whether the group was passed to the visitor.
+     */
+    private boolean visitAggregate(int lo, int hi, double xOffset, AggregateVisitor visitor) {
+        if (hi - lo == 1) {
+            if (mWeights[lo] == 0) {
+                return false;
+            }
+            visitor.visit(1, mWeights[lo], mXs[lo] + xOffset, mYs[lo]);
+            return true;
+        }
+        double weight;
+        double weightedX;
+        double weightedY;
+        if (hi - lo <= SCAN_THRESHOLD) {
+            // Sum small groups directly: the difference of two large prefix sums loses precision
+            // that a group of a few points cannot spare.
+            weight = 0;
+            weightedX = 0;
+            weightedY = 0;
+            for (int i = lo; i < hi; i++) {
+                weight += mWeights[i];
+                weightedX += mWeights[i] * mXs[i];
+                weightedY += mWeights[i] * mYs[i];
+            }
+        } else {
+            weight = mSums[3 * hi] - mSums[3 * lo];
+            weightedX = mSums[3 * hi + 1] - mSums[3 * lo + 1];
+            weightedY = mSums[3 * hi + 2] - mSums[3 * lo + 2];
+        }
+        if (weight == 0) {
+            return false;
+        }
+        visitor.visit(hi - lo, weight, weightedX / weight + xOffset, weightedY / weight);
+        return true;
+    }
+
+    /**
+     * @return the level of the smallest quad holding the points with both keys, where the root
+     * is at level 0.
+     */
+    private static int commonLevel(long key, long otherKey) {
+        long diff = key ^ otherKey;
+        return diff == 0 ? MortonCode.KEY_BITS
+                : MortonCode.KEY_BITS - (64 - Long.numberOfLeadingZeros(diff) + 1) / 2;
+    }
+
+    /**
+     * @return the left edge of the quad which is cells wide and holds the point with the given
+     * key, widened by the margin.
+     */
+    private double quadMinX(long key, long cells) {
+        return mBounds.minX + (MortonCode.cellX(key) & -cells) * mCode.stepX() - mMarginX;
+    }
+
+    private double quadMaxX(long key, long cells) {
+        return mBounds.minX + ((MortonCode.cellX(key) & -cells) + cells) * mCode.stepX()
+                + mMarginX;
+    }
+
+    private double quadMinY(long key, long cells) {
+        return mBounds.minY + (MortonCode.cellY(key) & -cells) * mCode.stepY() - mMarginY;
+    }
+
+    private double quadMaxY(long key, long cells) {
+        return mBounds.minY + ((MortonCode.cellY(key) & -cells) + cells) * mCode.stepY()
+                + mMarginY;
+    }
+
+    /**
+     * Stores the tree in a single array, from which {@link #fromLongArray(long[])} recreates it
+     * without sorting.
+     */
+    public long[] toLongArray() {
+        int columns = mAggregate ? 5 : 4;
+        long[] data = new long[HEADER_SIZE + columns * mSize];
+        data[0] = FORMAT;
+        data[1] = (mAggregate ? FLAG_AGGREGATE : 0) | (mAutoGrow ? FLAG_AUTO_GROW : 0);
+        data[2] = mSize;
+        data[3] = Double.doubleToLongBits(mBounds.minX);
+        data[4] = Double.doubleToLongBits(mBounds.maxX);
+        data[5] = Double.doubleToLongBits(mBounds.minY);
+        data[6] = Double.doubleToLongBits(mBounds.maxY);
+        for (int i = 0; i < mSize; i++) {
+            int j = HEADER_SIZE + columns * i;
+            data[j] = mKeys[i];
+            data[j + 1] = mIds[i];
+            data[j + 2] = Double.doubleToLongBits(mXs[i]);
+            data[j + 3] = Double.doubleToLongBits(mYs[i]);
+            if (mAggregate) {
+                data[j + 4] = Double.doubleToLongBits(mWeights[i]);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Recreates a tree stored by {@link #toLongArray()}.
+     *
+     * @throws IllegalArgumentException if the array does not hold a tree.
+     */
+    public static LinearPointQuadTree fromLongArray(long[] data) {
+        if (data.length < HEADER_SIZE || data[0] != FORMAT) {
+            throw new IllegalArgumentException("Not a stored tree.");
+        }
+        boolean aggregate = (data[1] & FLAG_AGGREGATE) != 0;
+        int columns = aggregate ? 5 : 4;
+        long size = data[2];
+        if (size < 0 || data.length != HEADER_SIZE + columns * size) {
+            throw new IllegalArgumentException("Stored tree has the wrong length.");
+        }
+        LinearPointQuadTree tree = new LinearPointQuadTree(new Bounds(
+                Double.longBitsToDouble(data[3]), Double.longBitsToDouble(data[4]),
+                Double.longBitsToDouble(data[5]), Double.longBitsToDouble(data[6])), aggregate);
+        tree.setAutoGrow((data[1] & FLAG_AUTO_GROW) != 0);
+        tree.ensureCapacity((int) size);
+        for (int i = 0; i < size; i++) {
+            int j = HEADER_SIZE + columns * i;
+            if (i > 0 && data[j] < tree.mKeys[i - 1]) {
+                throw new IllegalArgumentException("Stored tree is not sorted.");
+            }
+            tree.mKeys[i] = data[j];
+            tree.mIds[i] = (int) data[j + 1];
+            tree.mXs[i] = Double.longBitsToDouble(data[j + 2]);
+            tree.mYs[i] = Double.longBitsToDouble(data[j + 3]);
+            if (aggregate) {
+                tree.mWeights[i] = Double.longBitsToDouble(data[j + 4]);
+            }
+        }
+        tree.mSize = (int) size;
+        return tree;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.quadtree;
+
+import com.google.maps.android.geometry.Bounds;
+
+import java.util.Arrays;
+
+/**
+ * Morton (Z-order) keys of points within some bounds.
+ * <p/>
+ * Each coordinate is quantized to KEY_BITS bits, relative to the bounds, and the bits of the two
+ * coordinates are interleaved, y above x. Sorting points by key therefore groups them by quad,
+ * in the order top left, top right, bottom left, bottom right, at every level.
+ */
+final class MortonCode {
+    /**
+     * Number of bits per axis.
+     */
+    static final int KEY_BITS = 31;
+
+    private final double mMinX;
+    private final double mMinY;
+    private final double mScaleX;
+    private final double mScaleY;
+
+    MortonCode(Bounds bounds) {
+        mMinX = bounds.minX;
+        mMinY = bounds.minY;
+        mScaleX = (1L << KEY_BITS) / (bounds.maxX - bounds.minX);
+        mScaleY = (1L << KEY_BITS) / (bounds.maxY - bounds.minY);
+    }
+
+    /**
+     * @return the key of a point within the bounds.
+     */
+    long encode(double x, double y) {
+        return interleave(quantize((x - mMinX) * mScaleX))
+                | interleave(quantize((y - mMinY) * mScaleY)) << 1;
+    }
+
+    /**
+     * @return the width of a quantization step.
+     */
+    double stepX() {
+        return 1 / mScaleX;
+    }
+
+    /**
+     * @return the height of a quantization step.
+     */
+    double stepY() {
+        return 1 / mScaleY;
+    }
+
+    /**
+     * @return the quantized x coordinate of the point with the given key.
+     */
+    static long cellX(long key) {
+        return compact(key);
+    }
+
+    /**
+     * @return the quantized y coordinate of the point with the given key.
+     */
+    static long cellY(long key) {
+        return compact(key >>> 1);
+    }
+
+    private static long quantize(double value) {
+        long max = (1L << KEY_BITS) - 1;
+        return value >= max ? max : (long) value;
+    }
+
+    /**
+     * Spreads the low 32 bits of value out to the even bits of the result.
+     */
+    private static long interleave(long value) {
+        value = (value | (value << 16)) & 0x0000FFFF0000FFFFL;
+        value = (value | (value << 8)) & 0x00FF00FF00FF00FFL;
+        value = (value | (value << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        value = (value | (value << 2)) & 0x3333333333333333L;
+        value = (value | (value << 1)) & 0x5555555555555555L;
+        return value;
+    }
+
+    /**
+     * Gathers the even bits of value into the low 32 bits of the result.
+     */
+    private static long compact(long value) {
+        value &= 0x5555555555555555L;
+        value = (value | (value >>> 1)) & 0x3333333333333333L;
+        value = (value | (value >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+        value = (value | (value >>> 4)) & 0x00FF00FF00FF00FFL;
+        value = (value | (value >>> 8)) & 0x0000FFFF0000FFFFL;
+        value = (value | (value >>> 16)) & 0x00000000FFFFFFFFL;
+        return value;
+    }
+
+    /**
+     * Sorts the first n keys, applying the same permutation to order, using a stable LSD radix
+     * sort with 16 bit digits.
+     */
+    static void sortByKey(long[] keys, int[] order, int n) {
+        long[] keysTmp = new long[n];
+        int[] orderTmp = new int[n];
+        int[] counts = new int[1 << 16];
+        for (int shift = 0; shift < 2 * KEY_BITS; shift += 16) {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < n; i++) {
+                counts[(int) (keys[i] >>> shift) & 0xffff]++;
+            }
+            // Skip digits shared by all keys.
+            if (n == 0 || counts[(int) (keys[0] >>> shift) & 0xffff] == n) {
+                continue;
+            }
+            int total = 0;
+            for (int d = 0; d < counts.length; d++) {
+                int c = counts[d];
+                counts[d] = total;
+                total += c;
+            }
+            for (int i = 0; i < n; i++) {
+                int d = (int) (keys[i] >>> shift) & 0xffff;
+                int j = counts[d]++;
+                keysTmp[j] = keys[i];
+                orderTmp[j] = order[i];
+            }
+            System.arraycopy(keysTmp, 0, keys, 0, n);
+            System.arraycopy(orderTmp, 0, order, 0, n);
+        }
+    }
+}
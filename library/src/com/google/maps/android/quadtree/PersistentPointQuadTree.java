@@ -0,0 +1,528 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.quadtree;
+
+import com.google.maps.android.geometry.Bounds;
+import com.google.maps.android.geometry.Point;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable quad tree of items with a Point geometry.
+ * <p/>
+ * Adding or removing an item returns a new tree, which copies only the quads on the path from the
+ * root to the item and shares all others with the old tree. Either tree can then be searched by
+ * any number of threads without locking, while a writer builds the next version, so a long search
+ * never blocks writers, nor the other way round. Publishing each new tree through an
+ * {@link java.util.concurrent.atomic.AtomicReference} gives readers consistent snapshots.
+ * <p/>
+ * The splitting and search semantics are those of {@link PointQuadTree}, except that searches
+ * include points on the edges of quads which touch the search bounds.
+ * This class is thread safe.
+ */
+public final class PersistentPointQuadTree<T extends PointQuadTree.Item> {
+    /**
+     * Maximum number of elements to store in a quad before splitting.
+     */
+    private final static int MAX_ELEMENTS = 50;
+
+    /**
+     * Number of elements at or below which the children of a quad are merged back into it.
+     */
+    private final static int MIN_ELEMENTS = MAX_ELEMENTS / 2;
+
+    /**
+     * Maximum depth.
+     */
+    private final static int MAX_DEPTH = 40;
+
+    private final Node mRoot;
+
+    /**
+     * Creates an empty tree with the specified bounds.
+     */
+    public PersistentPointQuadTree(Bounds bounds) {
+        this(new Node(bounds, new Object[0], new double[0], new double[0]));
+    }
+
+    private PersistentPointQuadTree(Node root) {
+        mRoot = root;
+    }
+
+    public Bounds getBounds() {
+        return mRoot.mBounds;
+    }
+
+    /**
+     * @return the number of items in the tree.
+     */
+    public int size() {
+        return mRoot.mCount;
+    }
+
+    /**
+     * @return a tree holding the items of this tree and the given item, or this tree if the item
+     * is outside its bounds.
+     */
+    public PersistentPointQuadTree<T> plus(T item) {
+        Point point = item.getPoint();
+        if (!mRoot.mBounds.contains(point.x, point.y)) {
+            return this;
+        }
+        return new PersistentPointQuadTree<T>(mRoot.plus(item, point.x, point.y, 0));
+    }
+
+    /**
+     * @return a tree holding the items of this tree and the given items, ignoring items outside
+     * its bounds. Large batches are built into a new tree in a single pass rather than added one
+     * by one.
+     */
+    public PersistentPointQuadTree<T> plusAll(Collection<? extends T> items) {
+        if (items.size() < mRoot.mCount / 4 + MAX_ELEMENTS) {
+            PersistentPointQuadTree<T> tree = this;
+            for (T item : items) {
+                tree = tree.plus(item);
+            }
+            return tree;
+        }
+
+        int count = mRoot.mCount;
+        Object[] all = new Object[count + items.size()];
+        double[] xs = new double[all.length];
+        double[] ys = new double[all.length];
+        mRoot.collect(all, xs, ys, 0);
+        for (T item : items) {
+            Point point = item.getPoint();
+            if (mRoot.mBounds.contains(point.x, point.y)) {
+                all[count] = item;
+                xs[count] = point.x;
+                ys[count] = point.y;
+                count++;
+            }
+        }
+        return new PersistentPointQuadTree<T>(
+                Node.build(mRoot.mBounds, all, xs, ys, 0, count, 0));
+    }
+
+    /**
+     * @return a tree holding the items of this tree except one equal to the given item, or this
+     * tree if it holds no such item. The given item itself is removed in preference to other
+     * items equal to it.
+     */
+    public PersistentPointQuadTree<T> minus(T item) {
+        Point point = item.getPoint();
+        if (!mRoot.mBounds.contains(point.x, point.y)) {
+            return this;
+        }
+        Node root = mRoot.minus(item, point.x, point.y);
+        return root == mRoot ? this : new PersistentPointQuadTree<T>(root);
+    }
+
+    /**
+     * @return a tree holding the items of this tree except one equal to each of the given items,
+     * as if {@link #minus(PointQuadTree.Item)} were called for each. Large batches are removed by
+     * building a new tree from the remaining items in a single pass.
+     */
+    public PersistentPointQuadTree<T> minusAll(Collection<? extends T> items) {
+        if (items.size() < mRoot.mCount / 4 + MAX_ELEMENTS) {
+            PersistentPointQuadTree<T> tree = this;
+            for (T item : items) {
+                tree = tree.minus(item);
+            }
+            return tree;
+        }
+
+        Object[] all = new Object[mRoot.mCount];
+        double[] xs = new double[all.length];
+        double[] ys = new double[all.length];
+        mRoot.collect(all, xs, ys, 0);
+        // Remove the given items themselves first, then items equal to those not found.
+        Map<Object, Boolean> removed = new IdentityHashMap<Object, Boolean>(items.size());
+        for (T item : items) {
+            removed.put(item, Boolean.TRUE);
+        }
+        int count = 0;
+        for (int i = 0; i < all.length; i++) {
+            if (removed.remove(all[i]) == null) {
+                all[count] = all[i];
+                xs[count] = xs[i];
+                ys[count] = ys[i];
+                count++;
+            }
+        }
+        if (!removed.isEmpty()) {
+            // How many more items equal to each item not found are to be removed.
+            Map<Object, Integer> equal = new HashMap<Object, Integer>();
+            for (Object item : removed.keySet()) {
+                Integer n = equal.get(item);
+                equal.put(item, n == null ? 1 : n + 1);
+            }
+            int remaining = count;
+            count = 0;
+            for (int i = 0; i < remaining; i++) {
+                Integer n = equal.get(all[i]);
+                if (n != null) {
+                    if (n == 1) {
+                        equal.remove(all[i]);
+                    } else {
+                        equal.put(all[i], n - 1);
+                    }
+                    continue;
+                }
+                all[count] = all[i];
+                xs[count] = xs[i];
+                ys[count] = ys[i];
+                count++;
+            }
+        }
+        if (count == all.length) {
+            return this;
+        }
+        return new PersistentPointQuadTree<T>(
+                Node.build(mRoot.mBounds, all, xs, ys, 0, count, 0));
+    }
+
+    /**
+     * Search for all items within a given bounds.
+     */
+    public Collection<T> search(Bounds searchBounds) {
+        final List<T> results = new ArrayList<T>();
+        search(searchBounds.minX, searchBounds.maxX, searchBounds.minY, searchBounds.maxY,
+                new PointQuadTree.Visitor<T>() {
+                    @Override
+                    public void visit(T item) {
+                        results.add(item);
+                    }
+                });
+        return results;
+    }
+
+    /**
+     * Search for all items within the given bounds, passing each of them to the visitor.
+     */
+    public void search(double minX, double maxX, double minY, double maxY,
+                       PointQuadTree.Visitor<? super T> visitor) {
+        mRoot.search(minX, maxX, minY, maxY, visitor);
+    }
+
+    /**
+     * Search for all items within the given bounds on a world from x = 0 to worldWidth which
+     * wraps around horizontally, as at the antimeridian, in a single traversal.
+     *
+     * @see PointQuadTree#searchWrapped(double, double, double, double, double,
+     * PointQuadTree.WrappedVisitor)
+     */
+    public void searchWrapped(double minX, double maxX, double minY, double maxY,
+                              double worldWidth, PointQuadTree.WrappedVisitor<? super T> visitor) {
+        mRoot.searchWrapped(minX, maxX, minY, maxY, worldWidth,
+                Wrapping.sides(minX, maxX, worldWidth), visitor);
+    }
+
+    /**
+     * Passes every item in the tree to the visitor.
+     */
+    public void visitAll(PointQuadTree.Visitor<? super T> visitor) {
+        mRoot.visitAll(visitor);
+    }
+
+    /**
+     * An immutable quad. A leaf holds its items in arrays exactly as long as its count.
+     */
+    private static final class Node {
+        private final Bounds mBounds;
+
+        /**
+         * Child quads, or null for a leaf.
+         */
+        private final Node[] mChildren;
+
+        /**
+         * Items of a leaf, and their coordinates. Null for a quad with children.
+         */
+        private final Object[] mItems;
+        private final double[] mXs;
+        private final double[] mYs;
+
+        /**
+         * Number of items in this quad and its descendants.
+         */
+        private final int mCount;
+
+        private Node(Bounds bounds, Object[] items, double[] xs, double[] ys) {
+            mBounds = bounds;
+            mChildren = null;
+            mItems = items;
+            mXs = xs;
+            mYs = ys;
+            mCount = items.length;
+        }
+
+        private Node(Bounds bounds, Node[] children, int count) {
+            mBounds = bounds;
+            mChildren = children;
+            mItems = null;
+            mXs = null;
+            mYs = null;
+            mCount = count;
+        }
+
+        private int quadrant(double x, double y) {
+            return (y < mBounds.midY ? 0 : 2) + (x < mBounds.midX ? 0 : 1);
+        }
+
+        private Bounds childBounds(int quadrant) {
+            boolean left = (quadrant & 1) == 0;
+            boolean top = quadrant < 2;
+            return new Bounds(left ? mBounds.minX : mBounds.midX,
+                    left ? mBounds.midX : mBounds.maxX,
+                    top ? mBounds.minY : mBounds.midY,
+                    top ? mBounds.midY : mBounds.maxY);
+        }
+
+        private Node plus(Object item, double x, double y, int depth) {
+            if (mChildren != null) {
+                int q = quadrant(x, y);
+                Node[] children = mChildren.clone();
+                children[q] = mChildren[q].plus(item, x, y, depth + 1);
+                return new Node(mBounds, children, mCount + 1);
+            }
+
+            int n = mItems.length;
+            Object[] items = new Object[n + 1];
+            double[] xs = new double[n + 1];
+            double[] ys = new double[n + 1];
+            System.arraycopy(mItems, 0, items, 0, n);
+            System.arraycopy(mXs, 0, xs, 0, n);
+            System.arraycopy(mYs, 0, ys, 0, n);
+            items[n] = item;
+            xs[n] = x;
+            ys[n] = y;
+            if (n + 1 > MAX_ELEMENTS && depth < MAX_DEPTH) {
+                return build(mBounds, items, xs, ys, 0, n + 1, depth);
+            }
+            return new Node(mBounds, items, xs, ys);
+        }
+
+        /**
+         * Builds a quad holding the items from start to end of the given arrays, reordering them.
+         */
+        private static Node build(Bounds bounds, Object[] items, double[] xs, double[] ys,
+                                  int start, int end, int depth) {
+            int n = end - start;
+            if (n <= MAX_ELEMENTS || depth >= MAX_DEPTH) {
+                Object[] leafItems = new Object[n];
+                double[] leafXs = new double[n];
+                double[] leafYs = new double[n];
+                System.arraycopy(items, start, leafItems, 0, n);
+                System.arraycopy(xs, start, leafXs, 0, n);
+                System.arraycopy(ys, start, leafYs, 0, n);
+                return new Node(bounds, leafItems, leafXs, leafYs);
+            }
+
+            // Partition the items by quadrant, in place.
+            Node quad = new Node(bounds, (Node[]) null, 0);
+            int[] ends = new int[4];
+            int next = start;
+            for (int q = 0; q < 4; q++) {
+                for (int i = next; i < end; i++) {
+                    if (quad.quadrant(xs[i], ys[i]) == q) {
+                        swap(items, xs, ys, i, next++);
+                    }
+                }
+                ends[q] = next;
+            }
+            Node[] children = new Node[4];
+            int childStart = start;
+            for (int q = 0; q < 4; q++) {
+                children[q] = build(quad.childBounds(q), items, xs, ys, childStart, ends[q],
+                        depth + 1);
+                childStart = ends[q];
+            }
+            return new Node(bounds, children, n);
+        }
+
+        private static void swap(Object[] items, double[] xs, double[] ys, int i, int j) {
+            Object item = items[i];
+            items[i] = items[j];
+            items[j] = item;
+            double x = xs[i];
+            xs[i] = xs[j];
+            xs[j] = x;
+            double y = ys[i];
+            ys[i] = ys[j];
+            ys[j] = y;
+        }
+
+        /**
+         * @return this quad without an item equal to the given one at (x, y), or this quad itself
+         * if it holds no such item.
+         */
+        private Node minus(Object item, double x, double y) {
+            if (mChildren != null) {
+                int q = quadrant(x, y);
+                Node child = mChildren[q].minus(item, x, y);
+                if (child == mChildren[q]) {
+                    return this;
+                }
+                if (mCount - 1 <= MIN_ELEMENTS) {
+                    // Merge the children back into a leaf.
+                    Object[] items = new Object[mCount - 1];
+                    double[] xs = new double[mCount - 1];
+                    double[] ys = new double[mCount - 1];
+                    int n = 0;
+                    for (int i = 0; i < 4; i++) {
+                        n = (i == q ? child : mChildren[i]).collect(items, xs, ys, n);
+                    }
+                    return new Node(mBounds, items, xs, ys);
+                }
+                Node[] children = mChildren.clone();
+                children[q] = child;
+                return new Node(mBounds, children, mCount - 1);
+            }
+
+            int i = indexOf(item);
+            if (i < 0) {
+                return this;
+            }
+            int n = mItems.length - 1;
+            Object[] items = new Object[n];
+            double[] xs = new double[n];
+            double[] ys = new double[n];
+            System.arraycopy(mItems, 0, items, 0, i);
+            System.arraycopy(mXs, 0, xs, 0, i);
+            System.arraycopy(mYs, 0, ys, 0, i);
+            System.arraycopy(mItems, i + 1, items, i, n - i);
+            System.arraycopy(mXs, i + 1, xs, i, n - i);
+            System.arraycopy(mYs, i + 1, ys, i, n - i);
+            return new Node(mBounds, items, xs, ys);
+        }
+
+        /**
+         * @return the index in this leaf of the given item, or else of an item equal to it, or -1.
+         */
+        private int indexOf(Object item) {
+            for (int i = 0; i < mItems.length; i++) {
+                if (mItems[i] == item) {
+                    return i;
+                }
+            }
+            for (int i = 0; i < mItems.length; i++) {
+                if (mItems[i].equals(item)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Copies the items of this quad and its descendants into the arrays, starting at offset.
+         *
+         * @return the offset after the last item copied.
+         */
+        private int collect(Object[] items, double[] xs, double[] ys, int offset) {
+            if (mChildren != null) {
+                for (Node quad : mChildren) {
+                    offset = quad.collect(items, xs, ys, offset);
+                }
+                return offset;
+            }
+            System.arraycopy(mItems, 0, items, offset, mItems.length);
+            System.arraycopy(mXs, 0, xs, offset, mXs.length);
+            System.arraycopy(mYs, 0, ys, offset, mYs.length);
+            return offset + mItems.length;
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> void search(double minX, double maxX, double minY, double maxY,
+                                PointQuadTree.Visitor<T> visitor) {
+            if (mCount == 0 || minX > mBounds.maxX || mBounds.minX > maxX
+                    || minY > mBounds.maxY || mBounds.minY > maxY) {
+                return;
+            }
+            if (mChildren != null) {
+                for (Node quad : mChildren) {
+                    quad.search(minX, maxX, minY, maxY, visitor);
+                }
+                return;
+            }
+            for (int i = 0; i < mItems.length; i++) {
+                double x = mXs[i];
+                double y = mYs[i];
+                if (minX <= x && x <= maxX && minY <= y && y <= maxY) {
+                    visitor.visit((T) mItems[i]);
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> void searchWrapped(double minX, double maxX, double minY, double maxY,
+                                       double worldWidth, int sides,
+                                       PointQuadTree.WrappedVisitor<T> visitor) {
+            if (mCount == 0 || minY > mBounds.maxY || mBounds.minY > maxY) {
+                return;
+            }
+            int overlapping = 0;
+            for (int k = 0; k < Wrapping.DIRECTIONS.length; k++) {
+                double offset = Wrapping.DIRECTIONS[k] * worldWidth;
+                if ((sides & 1 << k) != 0
+                        && minX - offset <= mBounds.maxX && mBounds.minX <= maxX - offset) {
+                    overlapping |= 1 << k;
+                }
+            }
+            if (overlapping == 0) {
+                return;
+            }
+            if (mChildren != null) {
+                for (Node quad : mChildren) {
+                    quad.searchWrapped(minX, maxX, minY, maxY, worldWidth, overlapping, visitor);
+                }
+                return;
+            }
+            for (int k = 0; k < Wrapping.DIRECTIONS.length; k++) {
+                if ((overlapping & 1 << k) == 0) {
+                    continue;
+                }
+                double offset = Wrapping.DIRECTIONS[k] * worldWidth;
+                for (int i = 0; i < mItems.length; i++) {
+                    double x = mXs[i] + offset;
+                    double y = mYs[i];
+                    if (minX <= x && x <= maxX && minY <= y && y <= maxY) {
+                        visitor.visit((T) mItems[i], offset);
+                    }
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> void visitAll(PointQuadTree.Visitor<T> visitor) {
+            if (mChildren != null) {
+                for (Node quad : mChildren) {
+                    quad.visitAll(visitor);
+                }
+                return;
+            }
+            for (Object item : mItems) {
+                visitor.visit((T) item);
+            }
+        }
+    }
+}
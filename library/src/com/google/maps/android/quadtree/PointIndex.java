@@ -0,0 +1,175 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.quadtree;
+
+import com.google.maps.android.geometry.Bounds;
+
+/**
+ * A spatial index of points, each an x/y coordinate pair plus an int id chosen by the caller.
+ * <p/>
+ * Implemented by {@link PrimitivePointQuadTree}, a pointer based quad tree which is cheap to
+ * update, and by {@link LinearPointQuadTree}, a linear quad tree in a sorted array which is
+ * compact and fast to build but expensive to update point by point.
+ */
+public interface PointIndex {
+    /**
+     * Receives the points found by a search.
+     */
+    public interface Visitor {
+        void visit(int id, double x, double y);
+    }
+
+    /**
+     * Receives the points found by a wrapped search.
+     */
+    public interface WrappedVisitor {
+        /**
+         * @param x       x coordinate of the point, as stored
+         * @param y       y coordinate of the point
+         * @param xOffset offset by which the point was shifted into the search bounds: one of
+         *                -worldWidth, 0 or worldWidth
+         */
+        void visit(int id, double x, double y, double xOffset);
+    }
+
+    /**
+     * Receives the groups of points found by an aggregate search. A single point is a group of
+     * one, positioned at the point itself. Groups whose total weight is zero have no weighted
+     * centroid, so they are not passed to the visitor: a quad whose points weigh nothing in total
+     * is searched further, and only points which weigh nothing are left out.
+     */
+    public interface AggregateVisitor {
+        /**
+         * @param count  number of points in the group
+         * @param weight total weight of the points
+         * @param x      x coordinate of the weighted centroid of the points
+         * @param y      y coordinate of the weighted centroid of the points
+         */
+        void visit(int count, double weight, double x, double y);
+    }
+
+    /**
+     * @return the current bounds of the index, which are larger than the bounds it was created
+     * with if it has grown.
+     */
+    Bounds getBounds();
+
+    /**
+     * Sets whether the index grows when a point outside its bounds is added, rather than
+     * ignoring the point.
+     */
+    void setAutoGrow(boolean autoGrow);
+
+    boolean isAutoGrow();
+
+    /**
+     * @return whether points have weights, and aggregate searches are available.
+     */
+    boolean isAggregate();
+
+    /**
+     * @return the number of points in the index.
+     */
+    int size();
+
+    /**
+     * Insert a point, with a weight of 1.
+     *
+     * @return whether the point was inside the bounds of the index, and was therefore added.
+     */
+    boolean add(int id, double x, double y);
+
+    /**
+     * Insert a weighted point. The weight is only kept by aggregating indices.
+     *
+     * @return whether the point was inside the bounds of the index, and was therefore added.
+     */
+    boolean add(int id, double x, double y, double weight);
+
+    /**
+     * Insert many points at once. The first count entries of each array describe the points.
+     * Points outside the bounds of the index are ignored, unless the index grows automatically.
+     */
+    void addAll(int[] ids, double[] xs, double[] ys, int count);
+
+    /**
+     * Insert many weighted points at once, as {@link #addAll(int[], double[], double[], int)}.
+     *
+     * @param weights weight of each point, or null to give every point a weight of 1.
+     */
+    void addAll(int[] ids, double[] xs, double[] ys, double[] weights, int count);
+
+    /**
+     * Remove the point with the given id and coordinates.
+     *
+     * @return whether the point was removed.
+     */
+    boolean remove(int id, double x, double y);
+
+    /**
+     * Removes all points from the index.
+     */
+    void clear();
+
+    /**
+     * Search for all points within the given bounds, passing each of them to the visitor.
+     */
+    void search(double minX, double maxX, double minY, double maxY, Visitor visitor);
+
+    /**
+     * Search for all points within the given bounds on a world from x = 0 to worldWidth which
+     * wraps around horizontally, as at the antimeridian: bounds extending below 0 also find the
+     * points near worldWidth, and bounds extending beyond worldWidth the points near 0. All sides
+     * are searched in a single traversal, and each point is passed to the visitor with the offset
+     * by which it was shifted into the bounds. The bounds may extend at most one world width
+     * beyond either edge.
+     */
+    void searchWrapped(double minX, double maxX, double minY, double maxY, double worldWidth,
+                       WrappedVisitor visitor);
+
+    /**
+     * Search for all points within the given distance of (x, y), passing each of them to the
+     * visitor.
+     */
+    void searchRadius(double x, double y, double radius, Visitor visitor);
+
+    /**
+     * Count the points within the given bounds.
+     */
+    int count(double minX, double maxX, double minY, double maxY);
+
+    /**
+     * Search for all points within the given bounds, passing groups of them to the visitor.
+     * Each quad which lies entirely within the bounds, and whose width and height are at most
+     * maxQuadSize, is passed as a single group positioned at its weighted centroid.
+     *
+     * @throws IllegalStateException if the index does not aggregate its points.
+     */
+    void searchAggregates(double minX, double maxX, double minY, double maxY,
+                          double maxQuadSize, AggregateVisitor visitor);
+
+    /**
+     * Search for groups of points within the given bounds on a world which wraps around
+     * horizontally, as {@link #searchWrapped} and {@link #searchAggregates}. Groups are passed to
+     * the visitor already shifted into the bounds.
+     *
+     * @throws IllegalStateException if the index does not aggregate its points.
+     */
+    void searchAggregatesWrapped(double minX, double maxX, double minY, double maxY,
+                                 double worldWidth, double maxQuadSize,
+                                 AggregateVisitor visitor);
+}
@@ -22,45 +22,68 @@ import com.google.maps.android.geometry.Point;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A quad tree which tracks items with a Point geometry.
  * See http://en.wikipedia.org/wiki/Quadtree for details on the data structure.
- * This class is not thread safe.
+ * Items are indexed by a {@link PrimitivePointQuadTree}, which holds their coordinates in packed
+ * arrays; the point of each item is only read when it is added or removed.
+ * This class is not thread safe, except that searches may run concurrently with each other as
+ * long as the tree is not modified meanwhile.
  */
 public class PointQuadTree<T extends PointQuadTree.Item> {
     public interface Item {
         public Point getPoint();
     }
+
+    /**
+     * An item with a weight, which an aggregating tree sums. Other items have a weight of 1.
+     */
+    public interface WeightedItem extends Item {
+        public double getWeight();
+    }
+
     /**
-     * The bounds of this quad.
+     * Receives the items found by a search.
      */
-    private final Bounds mBounds;
+    public interface Visitor<T> {
+        void visit(T item);
+    }
 
     /**
-     * The depth of this quad in the tree.
+     * Receives the items found by a wrapped search.
      */
-    private final int mDepth;
+    public interface WrappedVisitor<T> {
+        /**
+         * @param xOffset offset by which the point of the item was shifted into the search
+         *                bounds: one of -worldWidth, 0 or worldWidth
+         */
+        void visit(T item, double xOffset);
+    }
 
     /**
-     * Maximum number of elements to store in a quad before splitting.
+     * The underlying index, which refers to items by their position in mItems.
      */
-    private final static int MAX_ELEMENTS = 50;
+    private final PrimitivePointQuadTree mTree;
 
     /**
-     * The elements inside this quad, if any.
+     * The items in the tree, indexed by id. Slots of removed items are null until reused.
      */
-    private List<T> mItems;
+    private final List<T> mItems = new ArrayList<T>();
 
     /**
-     * Maximum depth.
+     * Ids of removed items, available for reuse.
      */
-    private final static int MAX_DEPTH = 40;
+    private int[] mFreeIds = new int[8];
+    private int mFreeCount = 0;
 
     /**
-     * Child quads.
+     * Adapts id based searches of mTree to item visitors. Reused between searches so that
+     * searching allocates nothing, unless searches overlap, and null while one is in progress.
      */
-    private List<PointQuadTree<T>> mChildren = null;
+    private final AtomicReference<ItemVisitor> mItemVisitor =
+            new AtomicReference<ItemVisitor>(new ItemVisitor());
 
     /**
      * Creates a new quad tree with specified bounds.
@@ -75,116 +98,199 @@ public class PointQuadTree<T extends PointQuadTree.Item> {
     }
 
     public PointQuadTree(Bounds bounds) {
-        this(bounds, 0);
+        this(bounds, false);
     }
 
-    private PointQuadTree(double minX, double maxX, double minY, double maxY, int depth) {
-        this(new Bounds(minX, maxX, minY, maxY), depth);
+    /**
+     * Creates a new quad tree with specified bounds.
+     *
+     * @param aggregate whether to keep the count, total weight and weighted centroid of the
+     *                  items in each quad.
+     * @see PrimitivePointQuadTree#PrimitivePointQuadTree(Bounds, boolean)
+     */
+    public PointQuadTree(Bounds bounds, boolean aggregate) {
+        mTree = new PrimitivePointQuadTree(bounds, aggregate);
+        mTree.setIndexed(true);
     }
 
-    private PointQuadTree(Bounds bounds, int depth) {
-        mBounds = bounds;
-        mDepth = depth;
+    /**
+     * @return the current bounds of the tree.
+     * @see PrimitivePointQuadTree#getBounds()
+     */
+    public Bounds getBounds() {
+        return mTree.getBounds();
+    }
+
+    /**
+     * Sets whether the tree grows to fit items added outside its bounds, rather than ignoring
+     * them.
+     *
+     * @see PrimitivePointQuadTree#setAutoGrow(boolean)
+     */
+    public void setAutoGrow(boolean autoGrow) {
+        mTree.setAutoGrow(autoGrow);
     }
 
     /**
      * Insert an item.
      */
     public void add(T item) {
+        addWithHandle(item);
+    }
+
+    /**
+     * Insert an item, like {@link #add(Item)}.
+     *
+     * @return a handle to the item, with which it can be removed or moved without searching for
+     * it, or -1 if the item is outside the bounds of the tree and was not added. A handle is only
+     * valid until its item is removed.
+     */
+    public int addWithHandle(T item) {
         Point point = item.getPoint();
-        if (this.mBounds.contains(point.x, point.y)) {
-            insert(point.x, point.y, item);
+        int id = allocateId(item);
+        if (!mTree.add(id, point.x, point.y, weightOf(item))) {
+            releaseId(id);
+            return -1;
         }
+        return id;
     }
 
-    private void insert(double x, double y, T item) {
-        if (this.mChildren != null) {
-            if (y < mBounds.midY) {
-                if (x < mBounds.midX) { // top left
-                    mChildren.get(0).insert(x, y, item);
-                } else { // top right
-                    mChildren.get(1).insert(x, y, item);
-                }
-            } else {
-                if (x < mBounds.midX) { // bottom left
-                    mChildren.get(2).insert(x, y, item);
-                } else {
-                    mChildren.get(3).insert(x, y, item);
-                }
+    /**
+     * Insert many items at once. Much faster than adding them one by one when the tree is empty.
+     *
+     * @see PrimitivePointQuadTree#addAll(int[], double[], double[], int)
+     */
+    public void addAll(Collection<? extends T> items) {
+        int[] ids = new int[items.size()];
+        double[] xs = new double[items.size()];
+        double[] ys = new double[items.size()];
+        double[] weights = mTree.isAggregate() ? new double[items.size()] : null;
+        int count = 0;
+        for (T item : items) {
+            Point point = item.getPoint();
+            if (!accepts(point)) {
+                continue;
             }
-            return;
-        }
-        if (mItems == null) {
-            mItems = new ArrayList<T>();
-        }
-        mItems.add(item);
-        if (mItems.size() > MAX_ELEMENTS && mDepth < MAX_DEPTH) {
-            split();
+            ids[count] = allocateId(item);
+            xs[count] = point.x;
+            ys[count] = point.y;
+            if (weights != null) {
+                weights[count] = weightOf(item);
+            }
+            count++;
         }
+        mTree.addAll(ids, xs, ys, weights, count);
+    }
+
+    private static double weightOf(Item item) {
+        return item instanceof WeightedItem ? ((WeightedItem) item).getWeight() : 1;
     }
 
     /**
-     * Split this quad.
+     * @return whether the tree either contains the point or will grow to fit it.
      */
-    private void split() {
-        mChildren = new ArrayList<PointQuadTree<T>>(4);
-        mChildren.add(new PointQuadTree<T>(mBounds.minX, mBounds.midX, mBounds.minY, mBounds.midY, mDepth + 1));
-        mChildren.add(new PointQuadTree<T>(mBounds.midX, mBounds.maxX, mBounds.minY, mBounds.midY, mDepth + 1));
-        mChildren.add(new PointQuadTree<T>(mBounds.minX, mBounds.midX, mBounds.midY, mBounds.maxY, mDepth + 1));
-        mChildren.add(new PointQuadTree<T>(mBounds.midX, mBounds.maxX, mBounds.midY, mBounds.maxY, mDepth + 1));
-
-        List<T> items = mItems;
-        mItems = null;
+    private boolean accepts(Point point) {
+        return mTree.getBounds().contains(point.x, point.y)
+                || (mTree.isAutoGrow() && !Double.isNaN(point.x) && !Double.isNaN(point.y)
+                && !Double.isInfinite(point.x) && !Double.isInfinite(point.y));
+    }
 
-        for (T item : items) {
-            // re-insert items into child quads.
-            insert(item.getPoint().x, item.getPoint().y, item);
+    private int allocateId(T item) {
+        int id;
+        if (mFreeCount > 0) {
+            id = mFreeIds[--mFreeCount];
+            mItems.set(id, item);
+        } else {
+            id = mItems.size();
+            mItems.add(item);
         }
+        return id;
     }
 
     /**
-     * Remove the given item from the set.
+     * Remove the given item from the set, or else an item equal to it.
      *
      * @return whether the item was removed.
      */
-    public boolean remove(T item) {
+    public boolean remove(final T item) {
         Point point = item.getPoint();
-        if (this.mBounds.contains(point.x, point.y)) {
-            return remove(point.x, point.y, item);
-        } else {
+        int id = mTree.remove(point.x, point.y, new PrimitivePointQuadTree.IdMatcher() {
+            @Override
+            public boolean matches(int id) {
+                return item == mItems.get(id);
+            }
+        });
+        if (id < 0) {
+            id = mTree.remove(point.x, point.y, new PrimitivePointQuadTree.IdMatcher() {
+                @Override
+                public boolean matches(int id) {
+                    return item.equals(mItems.get(id));
+                }
+            });
+        }
+        if (id < 0) {
             return false;
         }
+        releaseId(id);
+        return true;
     }
 
-    private boolean remove(double x, double y, T item) {
-        if (this.mChildren != null) {
-            if (y < mBounds.midY) {
-                if (x < mBounds.midX) { // top left
-                    return mChildren.get(0).remove(x, y, item);
-                } else { // top right
-                    return mChildren.get(1).remove(x, y, item);
-                }
-            } else {
-                if (x < mBounds.midX) { // bottom left
-                    return mChildren.get(2).remove(x, y, item);
-                } else {
-                    return mChildren.get(3).remove(x, y, item);
-                }
-            }
+    /**
+     * Remove the item with the given handle, in time proportional to the depth of the tree.
+     *
+     * @return whether the item was removed.
+     */
+    public boolean remove(int handle) {
+        if (!mTree.remove(handle)) {
+            return false;
+        }
+        releaseId(handle);
+        return true;
+    }
+
+    /**
+     * Moves the item with the given handle to its current point, after the point of the item
+     * has changed. Takes time proportional to the depth of the tree.
+     *
+     * @return whether the item is still in the tree. An item which has moved outside the bounds
+     * of the tree is removed.
+     */
+    public boolean move(int handle) {
+        if (!mTree.contains(handle)) {
+            return false;
         }
-        else {
-            return mItems.remove(item);
+        Point point = mItems.get(handle).getPoint();
+        if (!mTree.move(handle, point.x, point.y)) {
+            releaseId(handle);
+            return false;
         }
+        return true;
+    }
+
+    /**
+     * @return the item with the given handle, or null if there is none.
+     */
+    public T get(int handle) {
+        return handle >= 0 && handle < mItems.size() ? mItems.get(handle) : null;
+    }
+
+    private void releaseId(int id) {
+        mItems.set(id, null);
+        if (mFreeCount == mFreeIds.length) {
+            int[] freeIds = new int[mFreeCount * 2];
+            System.arraycopy(mFreeIds, 0, freeIds, 0, mFreeCount);
+            mFreeIds = freeIds;
+        }
+        mFreeIds[mFreeCount++] = id;
     }
 
     /**
      * Removes all points from the quadTree
      */
     public void clear() {
-        mChildren = null;
-        if (mItems != null) {
-            mItems.clear();
-        }
+        mTree.clear();
+        mItems.clear();
+        mFreeCount = 0;
     }
 
     /**
@@ -192,29 +298,133 @@ public class PointQuadTree<T extends PointQuadTree.Item> {
      */
     public Collection<T> search(Bounds searchBounds) {
         final List<T> results = new ArrayList<T>();
-        search(searchBounds, results);
+        search(searchBounds.minX, searchBounds.maxX, searchBounds.minY, searchBounds.maxY,
+                new Visitor<T>() {
+                    @Override
+                    public void visit(T item) {
+                        results.add(item);
+                    }
+                });
         return results;
     }
 
-    private void search(Bounds searchBounds, Collection<T> results) {
-        if (!mBounds.intersects(searchBounds)) {
-            return;
+    /**
+     * Search for all items within the given bounds, passing each of them to the visitor.
+     * Allocates nothing, so is suitable for running many searches in a tight loop.
+     */
+    public void search(double minX, double maxX, double minY, double maxY,
+                       Visitor<? super T> visitor) {
+        ItemVisitor itemVisitor = obtainItemVisitor();
+        itemVisitor.mVisitor = visitor;
+        try {
+            mTree.search(minX, maxX, minY, maxY, itemVisitor);
+        } finally {
+            itemVisitor.mVisitor = null;
+            mItemVisitor.set(itemVisitor);
         }
+    }
 
-        if (this.mChildren != null) {
-            for (PointQuadTree<T> quad : mChildren) {
-                quad.search(searchBounds, results);
-            }
-        } else if (mItems != null) {
-            if (searchBounds.contains(mBounds)) {
-	            results.addAll(mItems);
-            } else {
-                for (T item : mItems) {
-                    if (searchBounds.contains(item.getPoint())) {
-                        results.add(item);
-                    }
-                }
-            }
+    /**
+     * Search for all items within the given bounds on a world from x = 0 to worldWidth which
+     * wraps around horizontally, as at the antimeridian, passing each of them to the visitor with
+     * the offset by which its point was shifted into the bounds.
+     *
+     * @see PrimitivePointQuadTree#searchWrapped(double, double, double, double, double,
+     * PointIndex.WrappedVisitor)
+     */
+    public void searchWrapped(double minX, double maxX, double minY, double maxY,
+                              double worldWidth, WrappedVisitor<? super T> visitor) {
+        ItemVisitor itemVisitor = obtainItemVisitor();
+        itemVisitor.mWrappedVisitor = visitor;
+        try {
+            mTree.searchWrapped(minX, maxX, minY, maxY, worldWidth, itemVisitor);
+        } finally {
+            itemVisitor.mWrappedVisitor = null;
+            mItemVisitor.set(itemVisitor);
+        }
+    }
+
+    /**
+     * Search for all items within the given distance of (x, y), passing each of them to the
+     * visitor.
+     */
+    public void searchRadius(double x, double y, double radius, Visitor<? super T> visitor) {
+        ItemVisitor itemVisitor = obtainItemVisitor();
+        itemVisitor.mVisitor = visitor;
+        try {
+            mTree.searchRadius(x, y, radius, itemVisitor);
+        } finally {
+            itemVisitor.mVisitor = null;
+            mItemVisitor.set(itemVisitor);
+        }
+    }
+
+    /**
+     * Count the items within the given bounds.
+     *
+     * @see PrimitivePointQuadTree#count(double, double, double, double)
+     */
+    public int count(double minX, double maxX, double minY, double maxY) {
+        return mTree.count(minX, maxX, minY, maxY);
+    }
+
+    /**
+     * Search for all items within the given bounds, passing whole quads no larger than
+     * maxQuadSize to the visitor as single groups. Only available for aggregating trees.
+     *
+     * @see PrimitivePointQuadTree#searchAggregates(double, double, double, double, double,
+     * PointIndex.AggregateVisitor)
+     */
+    public void searchAggregates(double minX, double maxX, double minY, double maxY,
+                                 double maxQuadSize,
+                                 PointIndex.AggregateVisitor visitor) {
+        mTree.searchAggregates(minX, maxX, minY, maxY, maxQuadSize, visitor);
+    }
+
+    /**
+     * Find the k items closest to (x, y).
+     *
+     * @return up to k items, closest first.
+     */
+    public List<T> nearest(double x, double y, int k) {
+        return nearest(x, y, k, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Find the k items closest to (x, y), ignoring items further than maxDistance away.
+     *
+     * @return up to k items, closest first.
+     */
+    public List<T> nearest(double x, double y, int k, double maxDistance) {
+        int[] ids = mTree.nearest(x, y, k, maxDistance);
+        List<T> results = new ArrayList<T>(ids.length);
+        for (int id : ids) {
+            results.add(mItems.get(id));
+        }
+        return results;
+    }
+
+    private ItemVisitor obtainItemVisitor() {
+        ItemVisitor itemVisitor = mItemVisitor.getAndSet(null);
+        if (itemVisitor == null) {
+            // A search is already in progress, e.g. from within a visitor or on another thread.
+            return new ItemVisitor();
+        }
+        return itemVisitor;
+    }
+
+    private class ItemVisitor implements PointIndex.Visitor, PointIndex.WrappedVisitor {
+        private Visitor<? super T> mVisitor;
+        private WrappedVisitor<? super T> mWrappedVisitor;
+
+        @Override
+        public void visit(int id, double x, double y) {
+            mVisitor.visit(mItems.get(id));
+        }
+
+        @Override
+        public void visit(int id, double x, double y, double xOffset) {
+            mWrappedVisitor.visit(mItems.get(id), xOffset);
         }
     }
 }
@@ -0,0 +1,1491 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.quadtree;
+
+import com.google.maps.android.geometry.Bounds;
+
+import java.util.Arrays;
+
+/**
+ * A quad tree which tracks points using only primitive data.
+ * <p/>
+ * Each point is an x/y coordinate pair plus an int id chosen by the caller, typically an index
+ * into the caller's own arrays. Leaves pack their points into parallel double[] and int[] arrays,
+ * so no object is allocated per point and coordinates are read once, on insert.
+ * <p/>
+ * The splitting and search semantics are identical to those of {@link PointQuadTree}.
+ * By default points outside the bounds of the tree are ignored; see {@link #setAutoGrow(boolean)}
+ * to have the tree grow to fit them instead.
+ * <p/>
+ * An aggregating tree also gives each point a weight, and keeps the count, total weight and
+ * weighted centroid of the points in every quad up to date. Whole quads can then stand in for
+ * their points, see {@link #searchAggregates(double, double, double, double, double,
+ * AggregateVisitor)}.
+ * <p/>
+ * Quads whose children hold few points after a removal are merged back into a single leaf, so a
+ * tree whose points churn does not keep growing. An indexed tree, see
+ * {@link #setIndexed(boolean)}, also remembers where each id is stored, so points can be removed
+ * or moved by id alone.
+ * This class is not thread safe, though it may be searched from several threads at once while
+ * nothing modifies it.
+ *
+ * @see LinearPointQuadTree
+ */
+public class PrimitivePointQuadTree implements PointIndex {
+    /**
+     * Maximum number of elements to store in a quad before splitting.
+     */
+    private final static int MAX_ELEMENTS = 50;
+
+    /**
+     * Number of elements at or below which the children of a quad are merged back into it.
+     * Well below MAX_ELEMENTS, so that a quad does not repeatedly split and merge.
+     */
+    private final static int MIN_ELEMENTS = MAX_ELEMENTS / 2;
+
+    /**
+     * Maximum depth.
+     */
+    private final static int MAX_DEPTH = 40;
+
+    /**
+     * Initial capacity of the packed arrays of a leaf.
+     */
+    private final static int INITIAL_CAPACITY = 8;
+
+    /**
+     * The bounds of the tree. Only changes if the tree grows.
+     */
+    private Bounds mBounds;
+
+    /**
+     * The root quad.
+     */
+    private Node mRoot;
+
+    /**
+     * Whether to grow the tree when a point outside its bounds is added.
+     */
+    private boolean mAutoGrow = false;
+
+    /**
+     * Whether points have weights and quads keep aggregates of their points.
+     */
+    private final boolean mAggregate;
+
+    /**
+     * For an indexed tree, the leaf and slot in which each point is stored, indexed by id.
+     * Null if the tree is not indexed.
+     */
+    private Node[] mLeafOf;
+    private int[] mSlotOf;
+
+    /**
+     * Number of points in the tree.
+     */
+    private int mSize;
+
+    /**
+     * Creates a new quad tree with specified bounds.
+     *
+     * @param minX
+     * @param maxX
+     * @param minY
+     * @param maxY
+     */
+    public PrimitivePointQuadTree(double minX, double maxX, double minY, double maxY) {
+        this(new Bounds(minX, maxX, minY, maxY));
+    }
+
+    public PrimitivePointQuadTree(Bounds bounds) {
+        this(bounds, false);
+    }
+
+    /**
+     * Creates a new quad tree with specified bounds.
+     *
+     * @param aggregate whether to keep the count, total weight and weighted centroid of the
+     *                  points in each quad. Costs a few arithmetic operations per level on each
+     *                  insert and remove, and a double per point.
+     */
+    public PrimitivePointQuadTree(Bounds bounds, boolean aggregate) {
+        mBounds = bounds;
+        mAggregate = aggregate;
+        mRoot = new Node(bounds);
+    }
+
+    /**
+     * @return the current bounds of the tree, which are larger than the bounds it was created
+     * with if it has grown.
+     */
+    public Bounds getBounds() {
+        return mBounds;
+    }
+
+    /**
+     * Sets whether the tree grows when a point outside its bounds is added.
+     * <p/>
+     * A growing tree wraps its root in a parent quad twice as wide and high, repeatedly, until the
+     * new point fits. Existing points stay where they are, so adding a point outside the bounds
+     * costs about as much as any other insert, instead of requiring the whole tree to be rebuilt.
+     * The tree never shrinks back.
+     */
+    public void setAutoGrow(boolean autoGrow) {
+        mAutoGrow = autoGrow;
+    }
+
+    public boolean isAutoGrow() {
+        return mAutoGrow;
+    }
+
+    public boolean isAggregate() {
+        return mAggregate;
+    }
+
+    /**
+     * Sets whether the tree remembers where the point with each id is stored, so that it can be
+     * removed or moved in time proportional to the depth of the tree, given only its id.
+     * <p/>
+     * An indexed tree requires ids to be unique and non-negative, and uses memory proportional
+     * to the largest id, so ids should be dense, e.g. indices into the caller's arrays.
+     *
+     * @throws IllegalArgumentException if the points already in the tree have negative or
+     *                                  duplicate ids.
+     */
+    public void setIndexed(boolean indexed) {
+        if (!indexed) {
+            mLeafOf = null;
+            mSlotOf = null;
+        } else if (mLeafOf == null) {
+            mLeafOf = new Node[INITIAL_CAPACITY];
+            mSlotOf = new int[INITIAL_CAPACITY];
+            try {
+                mRoot.index();
+            } catch (IllegalArgumentException e) {
+                mLeafOf = null;
+                mSlotOf = null;
+                throw e;
+            }
+        }
+    }
+
+    public boolean isIndexed() {
+        return mLeafOf != null;
+    }
+
+    /**
+     * Makes room in the index for the given id.
+     */
+    private void ensureIndexed(int id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Negative id: " + id);
+        }
+        if (id >= mLeafOf.length) {
+            int capacity = Math.max(id + 1, mLeafOf.length * 2);
+            Node[] leafOf = new Node[capacity];
+            int[] slotOf = new int[capacity];
+            System.arraycopy(mLeafOf, 0, leafOf, 0, mLeafOf.length);
+            System.arraycopy(mSlotOf, 0, slotOf, 0, mSlotOf.length);
+            mLeafOf = leafOf;
+            mSlotOf = slotOf;
+        }
+    }
+
+    /**
+     * @return the number of points in the tree.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Insert a point, with a weight of 1.
+     *
+     * @return whether the point was inside the bounds of the tree, and was therefore added.
+     */
+    public boolean add(int id, double x, double y) {
+        return add(id, x, y, 1);
+    }
+
+    /**
+     * Insert a weighted point. The weight is only kept by aggregating trees.
+     *
+     * @return whether the point was inside the bounds of the tree, and was therefore added.
+     * @throws IllegalArgumentException if the tree is indexed and the id is negative or already
+     *                                  in the tree.
+     */
+    public boolean add(int id, double x, double y, double weight) {
+        if (mLeafOf != null) {
+            ensureIndexed(id);
+            if (mLeafOf[id] != null) {
+                throw new IllegalArgumentException("Duplicate id: " + id);
+            }
+        }
+        if (!mBounds.contains(x, y) && !growToContain(x, y)) {
+            return false;
+        }
+        mRoot.insert(id, x, y, weight, 0);
+        mSize++;
+        return true;
+    }
+
+    /**
+     * Insert many points at once. The first count entries of each array describe the points.
+     * Points outside the bounds of the tree are ignored, unless the tree grows automatically.
+     * <p/>
+     * If the tree is empty, points are sorted by Morton (Z-order) code and the tree is built in
+     * a single pass over the sorted points, which is much faster than adding them one by one as
+     * no leaf ever has to be split. The resulting tree is the same as if each point had been
+     * added individually.
+     */
+    public void addAll(int[] ids, double[] xs, double[] ys, int count) {
+        addAll(ids, xs, ys, null, count);
+    }
+
+    /**
+     * Insert many weighted points at once, as {@link #addAll(int[], double[], double[], int)}.
+     *
+     * @param weights weight of each point, or null to give every point a weight of 1.
+     */
+    public void addAll(int[] ids, double[] xs, double[] ys, double[] weights, int count) {
+        if (mLeafOf != null) {
+            checkNewIds(ids, count);
+        }
+        if (mSize > 0) {
+            for (int i = 0; i < count; i++) {
+                add(ids[i], xs[i], ys[i], weights == null ? 1 : weights[i]);
+            }
+            return;
+        }
+
+        if (mAutoGrow) {
+            for (int i = 0; i < count; i++) {
+                if (!mBounds.contains(xs[i], ys[i])) {
+                    growToContain(xs[i], ys[i]);
+                }
+            }
+        }
+
+        // Compute the Morton key of each point inside the bounds.
+        MortonCode code = new MortonCode(mBounds);
+        long[] keys = new long[count];
+        int[] order = new int[count];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (mBounds.contains(xs[i], ys[i])) {
+                keys[n] = code.encode(xs[i], ys[i]);
+                order[n] = i;
+                n++;
+            }
+        }
+        MortonCode.sortByKey(keys, order, n);
+
+        // Gather the points in Morton order.
+        int[] sortedIds = new int[n];
+        double[] sortedXs = new double[n];
+        double[] sortedYs = new double[n];
+        double[] sortedWeights = mAggregate ? new double[n] : null;
+        for (int i = 0; i < n; i++) {
+            int j = order[i];
+            sortedIds[i] = ids[j];
+            sortedXs[i] = xs[j];
+            sortedYs[i] = ys[j];
+            if (mAggregate) {
+                sortedWeights[i] = weights == null ? 1 : weights[j];
+            }
+        }
+
+        mRoot.clear();
+        mRoot.build(sortedIds, sortedXs, sortedYs, sortedWeights, 0, n, 0,
+                new BuildBuffer(n, mAggregate));
+        mSize = n;
+    }
+
+    /**
+     * Checks that the first n ids are valid for an indexed tree, and are neither in the tree nor
+     * repeated.
+     *
+     * @throws IllegalArgumentException otherwise.
+     */
+    private void checkNewIds(int[] ids, int n) {
+        int checked = 0;
+        try {
+            for (; checked < n; checked++) {
+                int id = ids[checked];
+                ensureIndexed(id);
+                if (mLeafOf[id] != null) {
+                    throw new IllegalArgumentException("Duplicate id: " + id);
+                }
+                // Mark the id as used, to find repeated ids.
+                mLeafOf[id] = mRoot;
+            }
+        } finally {
+            for (int i = 0; i < checked; i++) {
+                mLeafOf[ids[i]] = null;
+            }
+        }
+    }
+
+    /**
+     * Grows the tree until it contains (x, y), if growing is enabled.
+     *
+     * @return whether the tree now contains (x, y).
+     */
+    private boolean growToContain(double x, double y) {
+        if (!mAutoGrow || Double.isNaN(x) || Double.isNaN(y)
+                || Double.isInfinite(x) || Double.isInfinite(y)) {
+            return false;
+        }
+        while (!mBounds.contains(x, y)) {
+            double width = mBounds.maxX - mBounds.minX;
+            double height = mBounds.maxY - mBounds.minY;
+            if (width == 0 || height == 0) {
+                // A root with no area cannot become a child quad: give the tree some area and
+                // rebuild it.
+                double size = Math.max(Math.max(width, height),
+                        Math.max(Math.abs(x - mBounds.minX), Math.abs(y - mBounds.minY)));
+                Bounds bounds = new Bounds(mBounds.minX, mBounds.minX + (width == 0 ? size : width),
+                        mBounds.minY, mBounds.minY + (height == 0 ? size : height));
+                Node points = new Node(mBounds);
+                mRoot.removeAll(points);
+                mBounds = bounds;
+                mRoot = new Node(bounds);
+                for (int i = 0; i < points.mSize; i++) {
+                    mRoot.insert(points.mIds[i], points.mXs[i], points.mYs[i], points.weight(i),
+                            0);
+                }
+                continue;
+            }
+            // Grow towards the point. The old root becomes the child quad on the opposite side.
+            boolean growLeft = x < mBounds.minX;
+            boolean growUp = y < mBounds.minY;
+            Bounds bounds = new Bounds(
+                    growLeft ? mBounds.minX - width : mBounds.minX,
+                    growLeft ? mBounds.maxX : mBounds.minX + 2 * width,
+                    growUp ? mBounds.minY - height : mBounds.minY,
+                    growUp ? mBounds.maxY : mBounds.minY + 2 * height);
+            if (Double.isInfinite(bounds.maxX - bounds.minX)
+                    || Double.isInfinite(bounds.maxY - bounds.minY)) {
+                return false;
+            }
+
+            Node root = new Node(bounds);
+            if (mSize > 0) {
+                root.split();
+                int quadrant = (growUp ? 2 : 0) + (growLeft ? 1 : 0);
+                root.mChildren[quadrant] = mRoot;
+
+                // Points on the edges of the old root which face the new quad boundaries may be
+                // routed to a neighbouring quad by the new root: move them there.
+                Node misplaced = new Node(bounds);
+                mRoot.removeMisplaced(root, quadrant, root.mBounds.midX, root.mBounds.midY,
+                        misplaced);
+                root.updateAggregates();
+                for (int i = 0; i < misplaced.mSize; i++) {
+                    root.insert(misplaced.mIds[i], misplaced.mXs[i], misplaced.mYs[i],
+                            misplaced.weight(i), 0);
+                }
+            }
+            mBounds = bounds;
+            mRoot = root;
+        }
+        return true;
+    }
+
+    /**
+     * Scratch space for re-ordering points while bulk loading.
+     */
+    private static class BuildBuffer {
+        private final int[] mIds;
+        private final double[] mXs;
+        private final double[] mYs;
+        private final double[] mWeights;
+
+        private BuildBuffer(int size, boolean weights) {
+            mIds = new int[size];
+            mXs = new double[size];
+            mYs = new double[size];
+            mWeights = weights ? new double[size] : null;
+        }
+    }
+
+    /**
+     * Remove the point with the given id and coordinates.
+     *
+     * @return whether the point was removed.
+     */
+    public boolean remove(int id, double x, double y) {
+        if (!mBounds.contains(x, y)) {
+            return false;
+        }
+        Node leaf = mRoot.findLeaf(x, y);
+        for (int i = 0; i < leaf.mSize; i++) {
+            if (leaf.mIds[i] == id && leaf.mXs[i] == x && leaf.mYs[i] == y) {
+                removeAt(leaf, i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remove the first point at the given coordinates whose id is accepted by the matcher.
+     *
+     * @return the id of the removed point, or -1 if no point was removed.
+     */
+    int remove(double x, double y, IdMatcher matcher) {
+        if (!mBounds.contains(x, y)) {
+            return -1;
+        }
+        Node leaf = mRoot.findLeaf(x, y);
+        for (int i = 0; i < leaf.mSize; i++) {
+            int id = leaf.mIds[i];
+            if (matcher.matches(id)) {
+                removeAt(leaf, i);
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Remove the point with the given id. Only available for indexed trees.
+     *
+     * @return whether the point was removed.
+     * @throws IllegalStateException if the tree is not indexed.
+     */
+    public boolean remove(int id) {
+        Node leaf = leafOf(id);
+        if (leaf == null) {
+            return false;
+        }
+        removeAt(leaf, mSlotOf[id]);
+        return true;
+    }
+
+    /**
+     * Move the point with the given id to (x, y), keeping its weight. Only available for indexed
+     * trees.
+     * <p/>
+     * A point which stays within its leaf is updated in place; otherwise it is removed and
+     * inserted again.
+     *
+     * @return whether the point is in the tree at its new position. False if there is no point
+     * with the given id, or if the new position is outside the bounds of the tree, in which case
+     * the point is removed.
+     * @throws IllegalStateException if the tree is not indexed.
+     */
+    public boolean move(int id, double x, double y) {
+        Node leaf = leafOf(id);
+        if (leaf == null) {
+            return false;
+        }
+        int slot = mSlotOf[id];
+        double oldX = leaf.mXs[slot];
+        double oldY = leaf.mYs[slot];
+        double weight = leaf.weight(slot);
+        if (mBounds.contains(x, y) && mRoot.findLeaf(x, y) == leaf) {
+            if (mAggregate) {
+                // The old and new positions share the same path from the root.
+                Node node = mRoot;
+                while (true) {
+                    node.mWeightedX += weight * (x - oldX);
+                    node.mWeightedY += weight * (y - oldY);
+                    if (node == leaf) {
+                        break;
+                    }
+                    node = node.child(x, y);
+                }
+            }
+            leaf.mXs[slot] = x;
+            leaf.mYs[slot] = y;
+            return true;
+        }
+        removeAt(leaf, slot);
+        return add(id, x, y, weight);
+    }
+
+    /**
+     * @return the leaf storing the point with the given id, or null if there is no such point.
+     * @throws IllegalStateException if the tree is not indexed.
+     */
+    private Node leafOf(int id) {
+        if (mLeafOf == null) {
+            throw new IllegalStateException("Tree is not indexed.");
+        }
+        return id >= 0 && id < mLeafOf.length ? mLeafOf[id] : null;
+    }
+
+    /**
+     * @return whether a point with the given id is in the tree. Only available for indexed trees.
+     * @throws IllegalStateException if the tree is not indexed.
+     */
+    public boolean contains(int id) {
+        return leafOf(id) != null;
+    }
+
+    /**
+     * Removes the i-th point of a leaf, updating the quads above it. The highest of those quads
+     * left with too few points to need children is collapsed into a leaf.
+     */
+    private void removeAt(Node leaf, int i) {
+        double x = leaf.mXs[i];
+        double y = leaf.mYs[i];
+        double weight = leaf.weight(i);
+        int id = leaf.mIds[i];
+
+        Node collapse = null;
+        Node node = mRoot;
+        while (true) {
+            node.subtractAggregate(x, y, weight);
+            if (node == leaf) {
+                break;
+            }
+            if (collapse == null && node.mCount <= MIN_ELEMENTS) {
+                collapse = node;
+            }
+            node = node.child(x, y);
+        }
+
+        leaf.removeAt(i);
+        if (mLeafOf != null) {
+            mLeafOf[id] = null;
+        }
+        if (collapse != null) {
+            collapse.collapse();
+        }
+        mSize--;
+    }
+
+    /**
+     * Removes all points from the quadTree
+     */
+    public void clear() {
+        mRoot.clear();
+        if (mLeafOf != null) {
+            Arrays.fill(mLeafOf, null);
+        }
+        mSize = 0;
+    }
+
+    /**
+     * @return the number of quads in the tree, including the root.
+     */
+    int getNodeCount() {
+        return mRoot.getNodeCount();
+    }
+
+    /**
+     * Search for all points within a given bounds.
+     *
+     * @return the ids of the points found.
+     */
+    public int[] search(Bounds searchBounds) {
+        final IdCollector collector = new IdCollector();
+        search(searchBounds, collector);
+        return collector.toArray();
+    }
+
+    /**
+     * Search for all points within a given bounds, passing each of them to the visitor.
+     */
+    public void search(Bounds searchBounds, Visitor visitor) {
+        search(searchBounds.minX, searchBounds.maxX, searchBounds.minY, searchBounds.maxY, visitor);
+    }
+
+    /**
+     * Search for all points within the given bounds, passing each of them to the visitor.
+     * Allocates nothing, so is suitable for running many searches in a tight loop.
+     */
+    public void search(double minX, double maxX, double minY, double maxY, Visitor visitor) {
+        mRoot.search(minX, maxX, minY, maxY, visitor);
+    }
+
+    /**
+     * Search for all points within the given bounds on a world from x = 0 to worldWidth which
+     * wraps around horizontally, as at the antimeridian. All sides are searched in a single
+     * traversal, so a search across the edge of the world costs about as much as any other.
+     *
+     * @see PointIndex#searchWrapped(double, double, double, double, double,
+     * PointIndex.WrappedVisitor)
+     */
+    public void searchWrapped(double minX, double maxX, double minY, double maxY,
+                              double worldWidth, WrappedVisitor visitor) {
+        mRoot.searchWrapped(minX, maxX, minY, maxY, worldWidth,
+                Wrapping.sides(minX, maxX, worldWidth), visitor);
+    }
+
+    /**
+     * Search for all points within the given distance of (x, y), passing each of them to the
+     * visitor.
+     */
+    public void searchRadius(double x, double y, double radius, Visitor visitor) {
+        mRoot.searchRadius(x, y, radius * radius, visitor);
+    }
+
+    /**
+     * Count the points within the given bounds. Quads entirely within the bounds are counted
+     * without visiting their points.
+     */
+    public int count(double minX, double maxX, double minY, double maxY) {
+        return mRoot.count(minX, maxX, minY, maxY);
+    }
+
+    /**
+     * Search for all points within the given bounds, passing groups of them to the visitor.
+     * Only available for aggregating trees.
+     * <p/>
+     * Each quad which lies entirely within the bounds, and whose width and height are at most
+     * maxQuadSize, is passed as a single group positioned at its weighted centroid, without
+     * visiting its points. All other points found are passed individually. A maxQuadSize of the
+     * width of a pixel therefore visits at most a few groups per pixel, however many points there
+     * are. A quad whose points weigh nothing in total is searched further instead, and points
+     * which weigh nothing are skipped.
+     *
+     * @throws IllegalStateException if the tree does not aggregate its points.
+     */
+    public void searchAggregates(double minX, double maxX, double minY, double maxY,
+                                 double maxQuadSize, AggregateVisitor visitor) {
+        if (!mAggregate) {
+            throw new IllegalStateException("Tree does not aggregate its points.");
+        }
+        mRoot.searchAggregates(minX, maxX, minY, maxY, maxQuadSize, visitor);
+    }
+
+    /**
+     * Search for groups of points within the given bounds on a world which wraps around
+     * horizontally. Only available for aggregating trees.
+     *
+     * @throws IllegalStateException if the tree does not aggregate its points.
+     * @see PointIndex#searchAggregatesWrapped(double, double, double, double, double, double,
+     * PointIndex.AggregateVisitor)
+     */
+    public void searchAggregatesWrapped(double minX, double maxX, double minY, double maxY,
+                                        double worldWidth, double maxQuadSize,
+                                        AggregateVisitor visitor) {
+        if (!mAggregate) {
+            throw new IllegalStateException("Tree does not aggregate its points.");
+        }
+        mRoot.searchAggregatesWrapped(minX, maxX, minY, maxY, worldWidth, maxQuadSize,
+                Wrapping.sides(minX, maxX, worldWidth), visitor);
+    }
+
+    /**
+     * Find the k points closest to (x, y).
+     *
+     * @return the ids of up to k points, closest first.
+     */
+    public int[] nearest(double x, double y, int k) {
+        return nearest(x, y, k, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Find the k points closest to (x, y), ignoring points further than maxDistance away.
+     * <p/>
+     * Quads and points are visited best-first, in order of their distance from (x, y), so only
+     * the quads nearest to (x, y) are ever opened.
+     *
+     * @return the ids of up to k points, closest first.
+     */
+    public int[] nearest(double x, double y, int k, double maxDistance) {
+        double maxDistanceSquared = maxDistance * maxDistance;
+        int[] results = new int[Math.max(0, Math.min(k, mSize))];
+        int count = 0;
+
+        NearestQueue queue = new NearestQueue();
+        double rootDistance = mRoot.distanceSquared(x, y);
+        if (results.length > 0 && rootDistance <= maxDistanceSquared) {
+            queue.push(mRoot, -1, rootDistance);
+        }
+        while (count < results.length && queue.mSize > 0) {
+            Node node = queue.mNodes[0];
+            int id = queue.mIds[0];
+            queue.pop();
+
+            if (node == null) {
+                // A point: no unvisited point can be any closer.
+                results[count++] = id;
+            } else if (node.mChildren != null) {
+                for (Node child : node.mChildren) {
+                    double distance = child.distanceSquared(x, y);
+                    if (distance <= maxDistanceSquared) {
+                        queue.push(child, -1, distance);
+                    }
+                }
+            } else {
+                for (int i = 0; i < node.mSize; i++) {
+                    double dx = node.mXs[i] - x;
+                    double dy = node.mYs[i] - y;
+                    double distance = dx * dx + dy * dy;
+                    if (distance <= maxDistanceSquared) {
+                        queue.push(null, node.mIds[i], distance);
+                    }
+                }
+            }
+        }
+
+        if (count == results.length) {
+            return results;
+        }
+        int[] trimmed = new int[count];
+        System.arraycopy(results, 0, trimmed, 0, count);
+        return trimmed;
+    }
+
+    /**
+     * A binary min-heap of quads and points, keyed by squared distance.
+     * An entry is a point if its node is null, otherwise a quad.
+     */
+    private static class NearestQueue {
+        private double[] mDistances = new double[INITIAL_CAPACITY * 8];
+        private Node[] mNodes = new Node[INITIAL_CAPACITY * 8];
+        private int[] mIds = new int[INITIAL_CAPACITY * 8];
+        private int mSize;
+
+        private void push(Node node, int id, double distance) {
+            if (mSize == mDistances.length) {
+                int capacity = mSize * 2;
+                double[] distances = new double[capacity];
+                Node[] nodes = new Node[capacity];
+                int[] ids = new int[capacity];
+                System.arraycopy(mDistances, 0, distances, 0, mSize);
+                System.arraycopy(mNodes, 0, nodes, 0, mSize);
+                System.arraycopy(mIds, 0, ids, 0, mSize);
+                mDistances = distances;
+                mNodes = nodes;
+                mIds = ids;
+            }
+            // Sift up.
+            int i = mSize++;
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (mDistances[parent] <= distance) {
+                    break;
+                }
+                set(i, parent);
+                i = parent;
+            }
+            mDistances[i] = distance;
+            mNodes[i] = node;
+            mIds[i] = id;
+        }
+
+        /**
+         * Removes the closest entry.
+         */
+        private void pop() {
+            int last = --mSize;
+            double distance = mDistances[last];
+            Node node = mNodes[last];
+            int id = mIds[last];
+            mNodes[last] = null;
+            // Sift down.
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= mSize) {
+                    break;
+                }
+                if (child + 1 < mSize && mDistances[child + 1] < mDistances[child]) {
+                    child++;
+                }
+                if (distance <= mDistances[child]) {
+                    break;
+                }
+                set(i, child);
+                i = child;
+            }
+            if (i < mSize) {
+                mDistances[i] = distance;
+                mNodes[i] = node;
+                mIds[i] = id;
+            }
+        }
+
+        private void set(int to, int from) {
+            mDistances[to] = mDistances[from];
+            mNodes[to] = mNodes[from];
+            mIds[to] = mIds[from];
+        }
+    }
+
+    /**
+     * Tests whether an id should be matched, without the tree needing to know what it refers to.
+     */
+    interface IdMatcher {
+        boolean matches(int id);
+    }
+
+    private static class IdCollector implements Visitor {
+        private int[] mIds = new int[INITIAL_CAPACITY];
+        private int mSize;
+
+        @Override
+        public void visit(int id, double x, double y) {
+            if (mSize == mIds.length) {
+                int[] ids = new int[mSize * 2];
+                System.arraycopy(mIds, 0, ids, 0, mSize);
+                mIds = ids;
+            }
+            mIds[mSize++] = id;
+        }
+
+        private int[] toArray() {
+            int[] ids = new int[mSize];
+            System.arraycopy(mIds, 0, ids, 0, mSize);
+            return ids;
+        }
+    }
+
+    /**
+     * A quad in the tree. Either has four children, or is a leaf holding packed points.
+     * Not static, as quads depend on whether the tree aggregates and indexes its points.
+     */
+    private class Node {
+        /**
+         * The bounds of this quad.
+         */
+        private final Bounds mBounds;
+
+        /**
+         * Child quads, in the order top left, top right, bottom left, bottom right.
+         */
+        private Node[] mChildren;
+
+        /**
+         * Packed points of a leaf. Only the first mSize entries are valid.
+         */
+        private double[] mXs;
+        private double[] mYs;
+        private int[] mIds;
+        private int mSize;
+
+        /**
+         * Weight of each packed point, only for aggregating trees.
+         */
+        private double[] mWeights;
+
+        /**
+         * Number of points in this quad, including those of its children.
+         */
+        private int mCount;
+
+        /**
+         * Aggregates of all the points in this quad, only for aggregating trees: their total
+         * weight and the sums of their weighted coordinates.
+         */
+        private double mWeight;
+        private double mWeightedX;
+        private double mWeightedY;
+
+        private Node(Bounds bounds) {
+            mBounds = bounds;
+        }
+
+        private Node(double minX, double maxX, double minY, double maxY) {
+            this(new Bounds(minX, maxX, minY, maxY));
+        }
+
+        private Node child(double x, double y) {
+            if (y < mBounds.midY) {
+                if (x < mBounds.midX) { // top left
+                    return mChildren[0];
+                } else { // top right
+                    return mChildren[1];
+                }
+            } else {
+                if (x < mBounds.midX) { // bottom left
+                    return mChildren[2];
+                } else {
+                    return mChildren[3];
+                }
+            }
+        }
+
+        private void insert(int id, double x, double y, double weight, int depth) {
+            Node node = this;
+            node.addAggregate(x, y, weight);
+            while (node.mChildren != null) {
+                node = node.child(x, y);
+                depth++;
+                node.addAggregate(x, y, weight);
+            }
+            node.append(id, x, y, weight);
+            if (node.mSize > MAX_ELEMENTS && depth < MAX_DEPTH) {
+                node.split(depth);
+            }
+        }
+
+        private void append(int id, double x, double y, double weight) {
+            if (mIds == null) {
+                mXs = new double[INITIAL_CAPACITY];
+                mYs = new double[INITIAL_CAPACITY];
+                mIds = new int[INITIAL_CAPACITY];
+                if (mAggregate) {
+                    mWeights = new double[INITIAL_CAPACITY];
+                }
+            } else if (mSize == mIds.length) {
+                int capacity = mSize * 2;
+                double[] xs = new double[capacity];
+                double[] ys = new double[capacity];
+                int[] ids = new int[capacity];
+                System.arraycopy(mXs, 0, xs, 0, mSize);
+                System.arraycopy(mYs, 0, ys, 0, mSize);
+                System.arraycopy(mIds, 0, ids, 0, mSize);
+                mXs = xs;
+                mYs = ys;
+                mIds = ids;
+                if (mAggregate) {
+                    double[] weights = new double[capacity];
+                    System.arraycopy(mWeights, 0, weights, 0, mSize);
+                    mWeights = weights;
+                }
+            }
+            mXs[mSize] = x;
+            mYs[mSize] = y;
+            mIds[mSize] = id;
+            if (mAggregate) {
+                mWeights[mSize] = weight;
+            }
+            if (mLeafOf != null) {
+                mLeafOf[id] = this;
+                mSlotOf[id] = mSize;
+            }
+            mSize++;
+        }
+
+        /**
+         * @return the weight of the i-th point of this leaf.
+         */
+        private double weight(int i) {
+            return mWeights == null ? 1 : mWeights[i];
+        }
+
+        /**
+         * Removes the i-th point of this leaf by moving the last point into its slot.
+         * Does not update aggregates, nor the index entry of the removed point.
+         */
+        private void removeAt(int i) {
+            int last = --mSize;
+            if (i == last) {
+                return;
+            }
+            mXs[i] = mXs[last];
+            mYs[i] = mYs[last];
+            mIds[i] = mIds[last];
+            if (mWeights != null) {
+                mWeights[i] = mWeights[last];
+            }
+            if (mLeafOf != null && mLeafOf[mIds[i]] == this) {
+                mSlotOf[mIds[i]] = i;
+            }
+        }
+
+        private void addAggregate(double x, double y, double weight) {
+            mCount++;
+            if (mAggregate) {
+                mWeight += weight;
+                mWeightedX += weight * x;
+                mWeightedY += weight * y;
+            }
+        }
+
+        private void subtractAggregate(double x, double y, double weight) {
+            if (--mCount == 0) {
+                // Avoid accumulating rounding errors in empty quads.
+                mWeight = 0;
+                mWeightedX = 0;
+                mWeightedY = 0;
+            } else if (mAggregate) {
+                mWeight -= weight;
+                mWeightedX -= weight * x;
+                mWeightedY -= weight * y;
+            }
+        }
+
+        /**
+         * Recomputes the count and aggregates of this quad from its children or points.
+         */
+        private void updateAggregates() {
+            mCount = 0;
+            mWeight = 0;
+            mWeightedX = 0;
+            mWeightedY = 0;
+            if (mChildren != null) {
+                for (Node quad : mChildren) {
+                    mCount += quad.mCount;
+                    mWeight += quad.mWeight;
+                    mWeightedX += quad.mWeightedX;
+                    mWeightedY += quad.mWeightedY;
+                }
+            } else {
+                for (int i = 0; i < mSize; i++) {
+                    addAggregate(mXs[i], mYs[i], weight(i));
+                }
+            }
+        }
+
+        /**
+         * Merges the points of all the children of this quad into it, making it a leaf.
+         */
+        private void collapse() {
+            Node[] children = mChildren;
+            mChildren = null;
+            for (Node quad : children) {
+                quad.appendAllTo(this);
+            }
+        }
+
+        /**
+         * Appends all the points of this quad to out, leaving this quad unchanged.
+         */
+        private void appendAllTo(Node out) {
+            if (mChildren != null) {
+                for (Node quad : mChildren) {
+                    quad.appendAllTo(out);
+                }
+            }
+            for (int i = 0; i < mSize; i++) {
+                out.append(mIds[i], mXs[i], mYs[i], weight(i));
+            }
+        }
+
+        /**
+         * Adds all the points of this quad to the index.
+         *
+         * @throws IllegalArgumentException if a point has a negative or duplicate id.
+         */
+        private void index() {
+            if (mChildren != null) {
+                for (Node quad : mChildren) {
+                    quad.index();
+                }
+            }
+            for (int i = 0; i < mSize; i++) {
+                int id = mIds[i];
+                ensureIndexed(id);
+                if (mLeafOf[id] != null) {
+                    throw new IllegalArgumentException("Duplicate id: " + id);
+                }
+                mLeafOf[id] = this;
+                mSlotOf[id] = i;
+            }
+        }
+
+        private int getNodeCount() {
+            int count = 1;
+            if (mChildren != null) {
+                for (Node quad : mChildren) {
+                    count += quad.getNodeCount();
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Split this empty quad into four empty child quads.
+         */
+        private void split() {
+            mChildren = new Node[]{
+                    new Node(mBounds.minX, mBounds.midX, mBounds.minY, mBounds.midY),
+                    new Node(mBounds.midX, mBounds.maxX, mBounds.minY, mBounds.midY),
+                    new Node(mBounds.minX, mBounds.midX, mBounds.midY, mBounds.maxY),
+                    new Node(mBounds.midX, mBounds.maxX, mBounds.midY, mBounds.maxY)
+            };
+        }
+
+        /**
+         * Split this quad, moving its points into the new child quads.
+         */
+        private void split(int depth) {
+            split();
+
+            double[] xs = mXs;
+            double[] ys = mYs;
+            int[] ids = mIds;
+            double[] weights = mWeights;
+            int size = mSize;
+            mXs = null;
+            mYs = null;
+            mIds = null;
+            mWeights = null;
+            mSize = 0;
+
+            for (int i = 0; i < size; i++) {
+                // re-insert points into child quads.
+                child(xs[i], ys[i]).insert(ids[i], xs[i], ys[i],
+                        weights == null ? 1 : weights[i], depth + 1);
+            }
+        }
+
+        /**
+         * Builds this quad from the points in [lo, hi) of arrays sorted in Morton order.
+         */
+        private void build(int[] ids, double[] xs, double[] ys, double[] weights, int lo, int hi,
+                           int depth, BuildBuffer buffer) {
+            int count = hi - lo;
+            if (count <= MAX_ELEMENTS || depth >= MAX_DEPTH) {
+                int capacity = Math.max(count, INITIAL_CAPACITY);
+                mXs = new double[capacity];
+                mYs = new double[capacity];
+                mIds = new int[capacity];
+                System.arraycopy(xs, lo, mXs, 0, count);
+                System.arraycopy(ys, lo, mYs, 0, count);
+                System.arraycopy(ids, lo, mIds, 0, count);
+                if (weights != null) {
+                    mWeights = new double[capacity];
+                    System.arraycopy(weights, lo, mWeights, 0, count);
+                }
+                mSize = count;
+                if (mLeafOf != null) {
+                    for (int i = 0; i < count; i++) {
+                        mLeafOf[mIds[i]] = this;
+                        mSlotOf[mIds[i]] = i;
+                    }
+                }
+                updateAggregates();
+                return;
+            }
+
+            split();
+
+            // Points in Morton order are grouped by quadrant. The keys are quantized, so a point
+            // very close to a quad boundary may be out of place: check the exact quadrant of
+            // each point and fall back to a stable partition if needed.
+            int[] starts = new int[5];
+            boolean ordered = true;
+            int previous = 0;
+            for (int i = lo; i < hi; i++) {
+                int quadrant = quadrant(xs[i], ys[i]);
+                starts[quadrant + 1]++;
+                if (quadrant < previous) {
+                    ordered = false;
+                }
+                previous = quadrant;
+            }
+            starts[0] = lo;
+            for (int quadrant = 0; quadrant < 4; quadrant++) {
+                starts[quadrant + 1] += starts[quadrant];
+            }
+            if (!ordered) {
+                int[] next = new int[4];
+                System.arraycopy(starts, 0, next, 0, 4);
+                for (int i = lo; i < hi; i++) {
+                    int j = next[quadrant(xs[i], ys[i])]++;
+                    buffer.mIds[j] = ids[i];
+                    buffer.mXs[j] = xs[i];
+                    buffer.mYs[j] = ys[i];
+                    if (weights != null) {
+                        buffer.mWeights[j] = weights[i];
+                    }
+                }
+                System.arraycopy(buffer.mIds, lo, ids, lo, count);
+                System.arraycopy(buffer.mXs, lo, xs, lo, count);
+                System.arraycopy(buffer.mYs, lo, ys, lo, count);
+                if (weights != null) {
+                    System.arraycopy(buffer.mWeights, lo, weights, lo, count);
+                }
+            }
+
+            for (int quadrant = 0; quadrant < 4; quadrant++) {
+                mChildren[quadrant].build(ids, xs, ys, weights, starts[quadrant],
+                        starts[quadrant + 1], depth + 1, buffer);
+            }
+            updateAggregates();
+        }
+
+        /**
+         * @return the index of the child quad containing the point.
+         */
+        private int quadrant(double x, double y) {
+            return (y < mBounds.midY ? 0 : 2) + (x < mBounds.midX ? 0 : 1);
+        }
+
+        /**
+         * @return the squared distance from (x, y) to the closest point of this quad.
+         */
+        private double distanceSquared(double x, double y) {
+            double dx = Math.max(0, Math.max(mBounds.minX - x, x - mBounds.maxX));
+            double dy = Math.max(0, Math.max(mBounds.minY - y, y - mBounds.maxY));
+            return dx * dx + dy * dy;
+        }
+
+        /**
+         * @return the squared distance from (x, y) to the furthest point of this quad.
+         */
+        private double maxDistanceSquared(double x, double y) {
+            double dx = Math.max(x - mBounds.minX, mBounds.maxX - x);
+            double dy = Math.max(y - mBounds.minY, mBounds.maxY - y);
+            return dx * dx + dy * dy;
+        }
+
+        private void searchRadius(double x, double y, double radiusSquared, Visitor visitor) {
+            if (distanceSquared(x, y) > radiusSquared) {
+                return;
+            }
+
+            if (mChildren != null) {
+                for (Node quad : mChildren) {
+                    quad.searchRadius(x, y, radiusSquared, visitor);
+                }
+            } else if (mSize > 0) {
+                boolean inside = maxDistanceSquared(x, y) <= radiusSquared;
+                for (int i = 0; i < mSize; i++) {
+                    double dx = mXs[i] - x;
+                    double dy = mYs[i] - y;
+                    if (inside || dx * dx + dy * dy <= radiusSquared) {
+                        visitor.visit(mIds[i], mXs[i], mYs[i]);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Removes the points of this quad which the given root does not route to the given
+         * quadrant, appending them to out. Only quads touching the root's midlines, midX and
+         * midY, are inspected, as all other points are well inside the quadrant.
+         */
+        private void removeMisplaced(Node root, int quadrant, double midX, double midY,
+                                     Node out) {
+            if (mChildren != null) {
+                for (Node quad : mChildren) {
+                    if ((quad.mBounds.minX <= midX && midX <= quad.mBounds.maxX)
+                            || (quad.mBounds.minY <= midY && midY <= quad.mBounds.maxY)) {
+                        quad.removeMisplaced(root, quadrant, midX, midY, out);
+                    }
+                }
+            } else {
+                for (int i = mSize - 1; i >= 0; i--) {
+                    if (root.quadrant(mXs[i], mYs[i]) != quadrant) {
+                        out.append(mIds[i], mXs[i], mYs[i], weight(i));
+                        removeAt(i);
+                    }
+                }
+            }
+            updateAggregates();
+        }
+
+        /**
+         * Moves all the points of this quad to out.
+         */
+        private void removeAll(Node out) {
+            appendAllTo(out);
+            clear();
+        }
+
+        private Node findLeaf(double x, double y) {
+            Node node = this;
+            while (node.mChildren != null) {
+                node = node.child(x, y);
+            }
+            return node;
+        }
+
+        private void clear() {
+            mChildren = null;
+            mXs = null;
+            mYs = null;
+            mIds = null;
+            mWeights = null;
+            mSize = 0;
+            mCount = 0;
+            mWeight = 0;
+            mWeightedX = 0;
+            mWeightedY = 0;
+        }
+
+        private boolean isWithin(double minX, double maxX, double minY, double maxY) {
+            return mBounds.minX >= minX && mBounds.maxX <= maxX
+                    && mBounds.minY >= minY && mBounds.maxY <= maxY;
+        }
+
+        private int count(double minX, double maxX, double minY, double maxY) {
+            if (mCount == 0 || !mBounds.intersects(minX, maxX, minY, maxY)) {
+                return 0;
+            }
+            if (isWithin(minX, maxX, minY, maxY)) {
+                return mCount;
+            }
+
+            int count = 0;
+            if (mChildren != null) {
+                for (Node quad : mChildren) {
+                    count += quad.count(minX, maxX, minY, maxY);
+                }
+            } else {
+                for (int i = 0; i < mSize; i++) {
+                    double x = mXs[i];
+                    double y = mYs[i];
+                    if (minX <= x && x <= maxX && minY <= y && y <= maxY) {
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+
+        private void searchAggregates(double minX, double maxX, double minY, double maxY,
+                                      double maxQuadSize, AggregateVisitor visitor) {
+            if (mCount == 0 || !mBounds.intersects(minX, maxX, minY, maxY)) {
+                return;
+            }
+
+            boolean within = isWithin(minX, maxX, minY, maxY);
+            // Quads which weigh nothing are searched further, as they may hold weighted points.
+            if (within && mBounds.maxX - mBounds.minX <= maxQuadSize
+                    && mBounds.maxY - mBounds.minY <= maxQuadSize && mWeight != 0) {
+                visitor.visit(mCount, mWeight, mWeightedX / mWeight, mWeightedY / mWeight);
+            } else if (mChildren != null) {
+                for (Node quad : mChildren) {
+                    quad.searchAggregates(minX, maxX, minY, maxY, maxQuadSize, visitor);
+                }
+            } else {
+                for (int i = 0; i < mSize; i++) {
+                    double x = mXs[i];
+                    double y = mYs[i];
+                    if (mWeights[i] != 0
+                            && (within || (minX <= x && x <= maxX && minY <= y && y <= maxY))) {
+                        visitor.visit(1, mWeights[i], x, y);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return the subset of the given sides on which this quad overlaps the bounds.
+         */
+        private int overlappingSides(double minX, double maxX, double minY, double maxY,
+                                     double worldWidth, int sides) {
+            if (minY > mBounds.maxY || mBounds.minY > maxY) {
+                return 0;
+            }
+            int overlapping = 0;
+            for (int k = 0; k < Wrapping.DIRECTIONS.length; k++) {
+                double offset = Wrapping.DIRECTIONS[k] * worldWidth;
+                if ((sides & 1 << k) != 0
+                        && minX - offset <= mBounds.maxX && mBounds.minX <= maxX - offset) {
+                    overlapping |= 1 << k;
+                }
+            }
+            return overlapping;
+        }
+
+        private void searchWrapped(double minX, double maxX, double minY, double maxY,
+                                   double worldWidth, int sides, WrappedVisitor visitor) {
+            sides = overlappingSides(minX, maxX, minY, maxY, worldWidth, sides);
+            if (sides == 0) {
+                return;
+            }
+
+            if (mChildren != null) {
+                for (Node quad : mChildren) {
+                    quad.searchWrapped(minX, maxX, minY, maxY, worldWidth, sides, visitor);
+                }
+                return;
+            }
+            for (int k = 0; k < Wrapping.DIRECTIONS.length; k++) {
+                if ((sides & 1 << k) == 0) {
+                    continue;
+                }
+                double offset = Wrapping.DIRECTIONS[k] * worldWidth;
+                for (int i = 0; i < mSize; i++) {
+                    double x = mXs[i];
+                    double y = mYs[i];
+                    if (minX <= x + offset && x + offset <= maxX && minY <= y && y <= maxY) {
+                        visitor.visit(mIds[i], x, y, offset);
+                    }
+                }
+            }
+        }
+
+        private void searchAggregatesWrapped(double minX, double maxX, double minY, double maxY,
+                                             double worldWidth, double maxQuadSize, int sides,
+                                             AggregateVisitor visitor) {
+            if (mCount == 0) {
+                return;
+            }
+            sides = overlappingSides(minX, maxX, minY, maxY, worldWidth, sides);
+            // Quads which weigh nothing are searched further, as they may hold weighted points.
+            boolean whole = mBounds.maxX - mBounds.minX <= maxQuadSize
+                    && mBounds.maxY - mBounds.minY <= maxQuadSize && mWeight != 0;
+            int remaining = 0;
+            for (int k = 0; k < Wrapping.DIRECTIONS.length; k++) {
+                if ((sides & 1 << k) == 0) {
+                    continue;
+                }
+                double offset = Wrapping.DIRECTIONS[k] * worldWidth;
+                if (whole && isWithin(minX - offset, maxX - offset, minY, maxY)) {
+                    visitor.visit(mCount, mWeight, mWeightedX / mWeight + offset,
+                            mWeightedY / mWeight);
+                } else {
+                    remaining |= 1 << k;
+                }
+            }
+            if (remaining == 0) {
+                return;
+            }
+
+            if (mChildren != null) {
+                for (Node quad : mChildren) {
+                    quad.searchAggregatesWrapped(minX, maxX, minY, maxY, worldWidth, maxQuadSize,
+                            remaining, visitor);
+                }
+                return;
+            }
+            for (int k = 0; k < Wrapping.DIRECTIONS.length; k++) {
+                if ((remaining & 1 << k) == 0) {
+                    continue;
+                }
+                double offset = Wrapping.DIRECTIONS[k] * worldWidth;
+                for (int i = 0; i < mSize; i++) {
+                    double x = mXs[i] + offset;
+                    double y = mYs[i];
+                    if (mWeights[i] != 0 && minX <= x && x <= maxX && minY <= y && y <= maxY) {
+                        visitor.visit(1, mWeights[i], x, y);
+                    }
+                }
+            }
+        }
+
+        private void search(double minX, double maxX, double minY, double maxY,
+                            Visitor visitor) {
+            if (!mBounds.intersects(minX, maxX, minY, maxY)) {
+                return;
+            }
+
+            if (mChildren != null) {
+                for (Node quad : mChildren) {
+                    quad.search(minX, maxX, minY, maxY, visitor);
+                }
+            } else if (mSize > 0) {
+                if (isWithin(minX, maxX, minY, maxY)) {
+                    for (int i = 0; i < mSize; i++) {
+                        visitor.visit(mIds[i], mXs[i], mYs[i]);
+                    }
+                } else {
+                    for (int i = 0; i < mSize; i++) {
+                        double x = mXs[i];
+                        double y = mYs[i];
+                        if (minX <= x && x <= maxX && minY <= y && y <= maxY) {
+                            visitor.visit(mIds[i], x, y);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.quadtree;
+
+/**
+ * The sides of a world which wraps around horizontally, as at the antimeridian, which a wrapped
+ * search may have to look at.
+ * <p/>
+ * Side k holds the points which a search sees shifted by DIRECTIONS[k] world widths. Sets of
+ * sides are bit masks, with bit k set for side k.
+ */
+final class Wrapping {
+    static final int[] DIRECTIONS = {0, -1, 1};
+
+    private Wrapping() {
+    }
+
+    /**
+     * @return the sides which bounds from minX to maxX overlap, for a world from 0 to worldWidth.
+     */
+    static int sides(double minX, double maxX, double worldWidth) {
+        return 1 | (minX < 0 ? 2 : 0) | (maxX > worldWidth ? 4 : 0);
+    }
+}
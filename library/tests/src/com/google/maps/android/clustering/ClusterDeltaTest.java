@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.clustering;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.maps.android.clustering.algo.ClusterDelta;
+import com.google.maps.android.clustering.algo.StaticCluster;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+public class ClusterDeltaTest extends TestCase {
+
+    private final TestingItem a = new TestingItem(10, 10);
+    private final TestingItem b = new TestingItem(10, 10.001);
+    private final TestingItem c = new TestingItem(-30, 100);
+
+    public void testIdOf() {
+        assertEquals(ClusterDelta.idOf(cluster(0, a, b)), ClusterDelta.idOf(cluster(5, b, a)));
+        assertFalse(ClusterDelta.idOf(cluster(0, a, b)) == ClusterDelta.idOf(cluster(0, a)));
+        assertFalse(ClusterDelta.idOf(cluster(0, a, b)) == ClusterDelta.idOf(cluster(0, a, c)));
+    }
+
+    public void testBetween() {
+        Set<Cluster<ClusterItem>> previous = new HashSet<Cluster<ClusterItem>>();
+        previous.add(cluster(0, a, b));
+        previous.add(cluster(1, c));
+        ClusterDelta<ClusterItem> delta = ClusterDelta.between(null, previous);
+        assertTrue(delta.isReset());
+        assertEquals(previous, delta.getAdded());
+
+        // Equal clusters, even if they are other instances, are unchanged.
+        Set<Cluster<ClusterItem>> current = new HashSet<Cluster<ClusterItem>>();
+        current.add(cluster(0, a, b));
+        current.add(cluster(1, c));
+        assertTrue(ClusterDelta.between(previous, current).isEmpty());
+
+        // A cluster of the same items at another position is changed.
+        Cluster<ClusterItem> moved = cluster(2, b, a);
+        current.remove(cluster(0, a, b));
+        current.add(moved);
+        delta = ClusterDelta.between(previous, current);
+        assertEquals(Collections.singleton(moved), delta.getChanged());
+        assertEquals(cluster(0, a, b), delta.getPrevious(moved));
+        assertTrue(delta.getAdded().isEmpty());
+        assertTrue(delta.getRemoved().isEmpty());
+
+        // A cluster whose items changed is removed and added.
+        current.remove(cluster(1, c));
+        current.add(cluster(1, c, new TestingItem(-30, 100.001)));
+        delta = ClusterDelta.between(previous, current);
+        assertEquals(1, delta.getChanged().size());
+        assertEquals(Collections.singleton(cluster(1, c)), delta.getRemoved());
+        assertEquals(2, delta.getAdded().iterator().next().getSize());
+    }
+
+    private static Cluster<ClusterItem> cluster(double lat, ClusterItem... items) {
+        StaticCluster<ClusterItem> cluster = new StaticCluster<ClusterItem>(new LatLng(lat, 0));
+        for (ClusterItem item : items) {
+            cluster.add(item);
+        }
+        return cluster;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.clustering;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.maps.android.clustering.algo.StaticCluster;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+public class ClusterStatsTest extends TestCase {
+
+    public void testEmpty() {
+        ClusterStats stats = new ClusterStats.Builder().build();
+        assertEquals(0, stats.getCount());
+        assertEquals(0.0, stats.getSum());
+        assertTrue(Double.isNaN(stats.getMin()));
+        assertTrue(Double.isNaN(stats.getMax()));
+        assertNull(stats.getCentroid());
+    }
+
+    public void testAggregates() {
+        ClusterStats.Builder builder = new ClusterStats.Builder();
+        builder.add(new WeightedItem(10, 10, 1));
+        builder.add(new WeightedItem(20, 40, 3));
+        ClusterStats stats = builder.build();
+        assertEquals(2, stats.getCount());
+        assertEquals(4.0, stats.getSum());
+        assertEquals(1.0, stats.getMin());
+        assertEquals(3.0, stats.getMax());
+        assertEquals(17.5, stats.getCentroid().latitude, 1e-9);
+        assertEquals(32.5, stats.getCentroid().longitude, 1e-9);
+
+        // Items which are not weighted weigh 1. Stats already built don't change.
+        builder.add(new ClusterItem() {
+            @Override
+            public LatLng getPosition() {
+                return new LatLng(0, 0);
+            }
+        });
+        assertEquals(5.0, builder.build().getSum());
+        assertEquals(1.0, builder.build().getMin());
+        assertEquals(4.0, stats.getSum());
+    }
+
+    public void testAntimeridian() {
+        ClusterStats stats = new ClusterStats.Builder()
+                .add(new WeightedItem(0, 179, 1))
+                .add(new WeightedItem(0, -178, 2))
+                .build();
+        assertEquals(-179, stats.getCentroid().longitude, 1e-6);
+    }
+
+    public void testEquals() {
+        ClusterStats stats = new ClusterStats.Builder()
+                .add(new WeightedItem(10, 10, 1))
+                .add(new WeightedItem(20, 40, 3))
+                .build();
+        ClusterStats same = new ClusterStats.Builder()
+                .add(new WeightedItem(20, 40, 3))
+                .add(new WeightedItem(10, 10, 1))
+                .build();
+        assertEquals(stats, same);
+        assertEquals(stats.hashCode(), same.hashCode());
+        assertEquals(new ClusterStats.Builder().build(), new ClusterStats.Builder().build());
+
+        // The same items with other weights.
+        assertFalse(stats.equals(new ClusterStats.Builder()
+                .add(new WeightedItem(10, 10, 1))
+                .add(new WeightedItem(20, 40, 5))
+                .build()));
+        assertFalse(stats.equals(new ClusterStats(2, 4, 1, 3, null)));
+    }
+
+    public void testRemove() {
+        WeightedItem light = new WeightedItem(10, 10, 1);
+        WeightedItem middle = new WeightedItem(10, 10, 2);
+        WeightedItem heavy = new WeightedItem(10, 10, 5);
+        StaticCluster<ClusterItem> cluster = new StaticCluster<ClusterItem>(new LatLng(10, 10));
+        cluster.add(light);
+        cluster.add(middle);
+        cluster.add(heavy);
+        ClusterStats stats = cluster.getStats();
+        assertSame(stats, cluster.getStats());
+
+        // Removing an extreme weight takes the stats again from the remaining items.
+        assertFalse(new ClusterStats.Builder().add(light).add(heavy).remove(heavy));
+        cluster.remove(heavy);
+        assertEquals(3, stats.getCount());
+        stats = cluster.getStats();
+        assertEquals(2, stats.getCount());
+        assertEquals(3.0, stats.getSum());
+        assertEquals(2.0, stats.getMax());
+        cluster.remove(light);
+        assertEquals(2.0, cluster.getStats().getMin());
+        cluster.remove(middle);
+        assertEquals(0, cluster.getStats().getCount());
+        assertNull(cluster.getStats().getCentroid());
+    }
+
+    public void testOf() {
+        final List<ClusterItem> items = Arrays.<ClusterItem>asList(
+                new WeightedItem(10, 10, 1), new WeightedItem(20, 40, 3));
+        StaticCluster<ClusterItem> statsCluster = new StaticCluster<ClusterItem>(new LatLng(0, 0));
+        for (ClusterItem item : items) {
+            statsCluster.add(item);
+        }
+        assertSame(statsCluster.getStats(), ClusterStats.of(statsCluster));
+
+        // Clusters which don't keep stats have them computed from their items.
+        Cluster<ClusterItem> cluster = new Cluster<ClusterItem>() {
+            @Override
+            public LatLng getPosition() {
+                return new LatLng(0, 0);
+            }
+
+            @Override
+            public Collection<ClusterItem> getItems() {
+                return items;
+            }
+
+            @Override
+            public int getSize() {
+                return items.size();
+            }
+        };
+        ClusterStats stats = ClusterStats.of(cluster);
+        assertEquals(2, stats.getCount());
+        assertEquals(4.0, stats.getSum());
+        assertEquals(32.5, stats.getCentroid().longitude, 1e-9);
+    }
+}
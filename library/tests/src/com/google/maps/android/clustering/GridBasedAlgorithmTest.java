@@ -0,0 +1,136 @@
+/*
+ * Copyright 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.clustering;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.maps.android.clustering.algo.GridBasedAlgorithm;
+import com.google.maps.android.geometry.Point;
+import com.google.maps.android.projection.SphericalMercatorProjection;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+public class GridBasedAlgorithmTest extends TestCase {
+
+    private GridBasedAlgorithm<ClusterItem> mAlgo;
+
+    public void setUp() {
+        mAlgo = new GridBasedAlgorithm<ClusterItem>();
+    }
+
+    public void testCells() {
+        Random random = new Random(10);
+        List<ClusterItem> items = new ArrayList<ClusterItem>();
+        for (int i = 0; i < 5000; i++) {
+            items.add(new TestingItem(random.nextDouble() * 160 - 80,
+                    random.nextDouble() * 360 - 180));
+        }
+        mAlgo.addItems(items);
+        mAlgo.addItems(items.subList(0, 10));
+        assertEquals(5000, mAlgo.getItems().size());
+
+        for (int zoom = 0; zoom <= 10; zoom += 5) {
+            // Items share a cluster exactly when they share a cell of the grid.
+            long numCells = (long) Math.ceil(256 * Math.pow(2, zoom) / 100);
+            SphericalMercatorProjection projection = new SphericalMercatorProjection(numCells);
+            Map<Cluster<ClusterItem>, Long> cells = new HashMap<Cluster<ClusterItem>, Long>();
+            Set<Long> seen = new HashSet<Long>();
+            int count = 0;
+            for (Cluster<ClusterItem> cluster : mAlgo.getClusters(zoom)) {
+                for (ClusterItem item : cluster.getItems()) {
+                    Point p = projection.toPoint(item.getPosition());
+                    long cell = (long) (numCells * Math.floor(p.x) + Math.floor(p.y));
+                    if (cells.containsKey(cluster)) {
+                        assertEquals(cells.get(cluster), (Long) cell);
+                    } else {
+                        cells.put(cluster, cell);
+                        assertTrue(seen.add(cell));
+                    }
+                    count++;
+                }
+            }
+            assertEquals(5000, count);
+        }
+    }
+
+    public void testRemoval() {
+        TestingItem a = new TestingItem(10, 10);
+        TestingItem b = new TestingItem(-30, 100);
+        TestingItem c = new TestingItem(10, 10.001);
+        mAlgo.addItem(a);
+        mAlgo.addItem(b);
+        mAlgo.addItem(c);
+        assertEquals(2, mAlgo.getClusters(5).size());
+
+        mAlgo.removeItem(a);
+        mAlgo.removeItem(a);
+        assertEquals(2, mAlgo.getItems().size());
+        for (Cluster<ClusterItem> cluster : mAlgo.getClusters(5)) {
+            assertEquals(1, cluster.getSize());
+        }
+        mAlgo.clearItems();
+        assertEquals(0, mAlgo.getClusters(5).size());
+    }
+
+    public void testUpdate() {
+        TestingItem a = new TestingItem(10, 10);
+        TestingItem b = new TestingItem(10, 10.001);
+        mAlgo.addItem(a);
+        mAlgo.addItem(b);
+        assertEquals(1, mAlgo.getClusters(5).size());
+
+        b.setPosition(-30, 100);
+        mAlgo.updateItems(Collections.<ClusterItem>singletonList(b));
+        assertEquals(2, mAlgo.getClusters(5).size());
+        mAlgo.removeItem(b);
+        assertEquals(Collections.<ClusterItem>singletonList(a), mAlgo.getItems());
+    }
+
+    public void testCancellation() {
+        mAlgo.addItem(new TestingItem(10, 10));
+        Thread.currentThread().interrupt();
+        try {
+            mAlgo.getClusters(5);
+            fail();
+        } catch (CancellationException e) {
+            assertTrue(Thread.interrupted());
+        }
+        assertEquals(1, mAlgo.getClusters(5).size());
+    }
+
+    public void testViewport() {
+        mAlgo.addItem(new TestingItem(10, 179));
+        mAlgo.addItem(new TestingItem(10, -179));
+        mAlgo.addItem(new TestingItem(10, 0));
+        LatLngBounds bounds = new LatLngBounds(new LatLng(5, 170), new LatLng(15, -170));
+        Set<ClusterItem> clustered = new HashSet<ClusterItem>();
+        for (Cluster<ClusterItem> cluster : mAlgo.getClusters(10, bounds)) {
+            clustered.addAll(cluster.getItems());
+        }
+        assertEquals(2, clustered.size());
+    }
+}
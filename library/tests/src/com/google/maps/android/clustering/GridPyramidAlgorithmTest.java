@@ -0,0 +1,258 @@
+/*
+ * Copyright 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.clustering;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.maps.android.clustering.algo.ClusterDelta;
+import com.google.maps.android.clustering.algo.GridPyramidAlgorithm;
+import com.google.maps.android.clustering.algo.StaticCluster;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+public class GridPyramidAlgorithmTest extends TestCase {
+
+    private GridPyramidAlgorithm<ClusterItem> mAlgo;
+
+    public void setUp() {
+        mAlgo = new GridPyramidAlgorithm<ClusterItem>();
+    }
+
+    public void testCellsNest() {
+        Random random = new Random(11);
+        List<ClusterItem> items = new ArrayList<ClusterItem>();
+        for (int i = 0; i < 5000; i++) {
+            items.add(new TestingItem(random.nextDouble() * 160 - 80,
+                    random.nextDouble() * 360 - 180));
+        }
+        mAlgo.addItems(items);
+        mAlgo.addItems(items.subList(0, 10));
+        assertEquals(5000, mAlgo.getItems().size());
+
+        Map<ClusterItem, Cluster<ClusterItem>> coarser = null;
+        for (int zoom = 0; zoom <= GridPyramidAlgorithm.MAX_ZOOM; zoom++) {
+            // Every item is in exactly one cluster.
+            Map<ClusterItem, Cluster<ClusterItem>> itemToCluster =
+                    new HashMap<ClusterItem, Cluster<ClusterItem>>();
+            for (Cluster<ClusterItem> cluster : mAlgo.getClusters(zoom)) {
+                assertEquals(cluster.getSize(), cluster.getItems().size());
+                for (ClusterItem item : cluster.getItems()) {
+                    assertNull(itemToCluster.put(item, cluster));
+                }
+            }
+            assertEquals(items.size(), itemToCluster.size());
+
+            // Every cluster is part of a single cluster at the previous zoom.
+            if (coarser != null) {
+                for (Cluster<ClusterItem> cluster : mAlgo.getClusters(zoom)) {
+                    Set<Cluster<ClusterItem>> parents = new HashSet<Cluster<ClusterItem>>();
+                    for (ClusterItem item : cluster.getItems()) {
+                        parents.add(coarser.get(item));
+                    }
+                    assertEquals(1, parents.size());
+                }
+            }
+            coarser = itemToCluster;
+        }
+        assertEquals(4, mAlgo.getClusters(0).size());
+        assertSame(mAlgo.getClusters(21), mAlgo.getClusters(25));
+    }
+
+    public void testRemovalUndoesAddition() {
+        Random random = new Random(12);
+        List<ClusterItem> items = new ArrayList<ClusterItem>();
+        for (int i = 0; i < 3000; i++) {
+            items.add(new TestingItem(40 + random.nextDouble(), random.nextDouble()));
+        }
+        GridPyramidAlgorithm<ClusterItem> expected = new GridPyramidAlgorithm<ClusterItem>();
+        expected.addItems(items.subList(0, 1000));
+        mAlgo.addItems(items);
+        for (ClusterItem item : items.subList(1000, 3000)) {
+            mAlgo.removeItem(item);
+        }
+        assertEquals(1000, mAlgo.getItems().size());
+        for (int zoom = 0; zoom <= GridPyramidAlgorithm.MAX_ZOOM; zoom += 3) {
+            assertEquals(positions(expected, zoom), positions(mAlgo, zoom));
+        }
+    }
+
+    public void testReturnedClustersDoNotChange() {
+        List<ClusterItem> items = new ArrayList<ClusterItem>();
+        for (int i = 0; i < 5; i++) {
+            items.add(new TestingItem(20 + i * 1e-4, 20));
+        }
+        mAlgo.addItems(items);
+        Cluster<ClusterItem> cluster = mAlgo.getClusters(5).iterator().next();
+        mAlgo.removeItem(items.get(0));
+        mAlgo.removeItem(items.get(1));
+        mAlgo.addItem(new TestingItem(20, 20.0001));
+
+        // The cluster keeps the items it was returned with, though its cell changed.
+        assertEquals(5, cluster.getSize());
+        assertEquals(new HashSet<ClusterItem>(items),
+                new HashSet<ClusterItem>(cluster.getItems()));
+        StaticCluster<ClusterItem> expected = new StaticCluster<ClusterItem>(new LatLng(20, 20));
+        for (ClusterItem item : items) {
+            expected.add(item);
+        }
+        assertEquals(ClusterDelta.idOf(expected), ClusterDelta.idOf(cluster));
+        assertEquals(4, mAlgo.getClusters(5).iterator().next().getItems().size());
+    }
+
+    public void testUpdate() {
+        Random random = new Random(13);
+        List<ClusterItem> items = new ArrayList<ClusterItem>();
+        for (int i = 0; i < 3000; i++) {
+            items.add(new TestingItem(40 + random.nextDouble(), random.nextDouble()));
+        }
+        mAlgo.addItems(items);
+        mAlgo.getClusters(10);
+        List<ClusterItem> moved = new ArrayList<ClusterItem>();
+        for (int i = 0; i < 3000; i += 2) {
+            TestingItem item = (TestingItem) items.get(i);
+            item.setPosition(-40 + random.nextDouble(), random.nextDouble());
+            moved.add(item);
+        }
+        mAlgo.updateItems(moved);
+
+        GridPyramidAlgorithm<ClusterItem> expected = new GridPyramidAlgorithm<ClusterItem>();
+        expected.addItems(items);
+        for (int zoom = 0; zoom <= GridPyramidAlgorithm.MAX_ZOOM; zoom += 3) {
+            assertEquals(positions(expected, zoom), positions(mAlgo, zoom));
+        }
+
+        // Moved items are found where they were moved to.
+        for (ClusterItem item : moved) {
+            mAlgo.removeItem(item);
+        }
+        assertEquals(1500, mAlgo.getItems().size());
+    }
+
+    public void testStats() {
+        Random random = new Random(14);
+        List<WeightedItem> items = new ArrayList<WeightedItem>();
+        for (int i = 0; i < 3000; i++) {
+            WeightedItem item = new WeightedItem(40 + random.nextDouble(), random.nextDouble(),
+                    random.nextInt(100));
+            items.add(item);
+            mAlgo.addItem(item);
+        }
+        List<ClusterItem> updated = new ArrayList<ClusterItem>();
+        for (int i = 0; i < 3000; i += 3) {
+            mAlgo.removeItem(items.get(i));
+            items.get(i + 1).setWeight(1000);
+            updated.add(items.get(i + 1));
+        }
+        mAlgo.updateItems(updated);
+
+        // The stats of each cell match those of its items.
+        for (int zoom = 0; zoom <= GridPyramidAlgorithm.MAX_ZOOM; zoom += 3) {
+            for (Cluster<ClusterItem> cluster : mAlgo.getClusters(zoom)) {
+                ClusterStats.Builder builder = new ClusterStats.Builder();
+                for (ClusterItem item : cluster.getItems()) {
+                    builder.add(item);
+                }
+                ClusterStats expected = builder.build();
+                ClusterStats stats = ClusterStats.of(cluster);
+                assertEquals(expected.getCount(), stats.getCount());
+                assertEquals(expected.getSum(), stats.getSum(), 1e-6);
+                assertEquals(expected.getMin(), stats.getMin());
+                assertEquals(expected.getMax(), stats.getMax());
+                if (expected.getCentroid() != null) {
+                    assertEquals(expected.getCentroid().latitude,
+                            stats.getCentroid().latitude, 1e-6);
+                    assertEquals(expected.getCentroid().longitude,
+                            stats.getCentroid().longitude, 1e-6);
+                }
+            }
+        }
+    }
+
+    public void testClusterPosition() {
+        mAlgo.addItem(new TestingItem(10, 10));
+        mAlgo.addItem(new TestingItem(10, 10.002));
+        Set<? extends Cluster<ClusterItem>> clusters = mAlgo.getClusters(5);
+        assertEquals(1, clusters.size());
+        LatLng position = clusters.iterator().next().getPosition();
+        assertEquals(10, position.latitude, 1e-6);
+        assertEquals(10.001, position.longitude, 1e-6);
+        assertEquals(2, mAlgo.getClusters(21).size());
+
+        // Items at the same point share a cell at every zoom.
+        TestingItem same = new TestingItem(10, 10);
+        mAlgo.addItem(same);
+        assertEquals(2, mAlgo.getClusters(21).size());
+        mAlgo.removeItem(same);
+        assertEquals(2, mAlgo.getClusters(21).size());
+        assertEquals(2, mAlgo.getItems().size());
+
+        mAlgo.clearItems();
+        assertEquals(0, mAlgo.getClusters(5).size());
+    }
+
+    public void testViewport() {
+        mAlgo.addItem(new TestingItem(10, 179));
+        mAlgo.addItem(new TestingItem(10, -179));
+        mAlgo.addItem(new TestingItem(10, 0));
+        LatLngBounds bounds = new LatLngBounds(new LatLng(5, 170), new LatLng(15, -170));
+        assertEquals(2, mAlgo.getClusters(10, bounds).size());
+    }
+
+    public void testViewportVisitsOnlyOverlappingCells() {
+        Random random = new Random(14);
+        List<ClusterItem> items = new ArrayList<ClusterItem>();
+        for (int i = 0; i < 3000; i++) {
+            items.add(new TestingItem(random.nextDouble() * 40 - 20,
+                    random.nextDouble() * 360 - 180));
+        }
+        mAlgo.addItems(items);
+        LatLngBounds bounds = new LatLngBounds(new LatLng(-5, 160), new LatLng(10, -170));
+        for (int zoom = 6; zoom <= GridPyramidAlgorithm.MAX_ZOOM; zoom += 3) {
+            // The same clusters as filtering those of the whole world.
+            Set<Cluster<ClusterItem>> expected = new HashSet<Cluster<ClusterItem>>();
+            for (Cluster<ClusterItem> cluster : mAlgo.getClusters(zoom)) {
+                if (bounds.contains(cluster.getPosition())) {
+                    expected.add(cluster);
+                }
+            }
+            assertFalse(expected.isEmpty());
+            assertEquals(expected, mAlgo.getClusters(zoom, bounds));
+        }
+
+        // Only the clusters of cells which changed are created again.
+        Set<? extends Cluster<ClusterItem>> before = mAlgo.getClusters(6, bounds);
+        mAlgo.addItem(new TestingItem(0, 0));
+        assertEquals(before, mAlgo.getClusters(6, bounds));
+    }
+
+    private static Map<LatLng, Integer> positions(GridPyramidAlgorithm<ClusterItem> algo,
+                                                  int zoom) {
+        Map<LatLng, Integer> positions = new HashMap<LatLng, Integer>();
+        for (Cluster<ClusterItem> cluster : algo.getClusters(zoom)) {
+            positions.put(cluster.getPosition(), cluster.getSize());
+        }
+        return positions;
+    }
+}
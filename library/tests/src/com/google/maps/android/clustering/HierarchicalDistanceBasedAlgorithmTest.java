@@ -0,0 +1,290 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.clustering;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.maps.android.clustering.algo.HierarchicalDistanceBasedAlgorithm;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class HierarchicalDistanceBasedAlgorithmTest extends TestCase {
+
+    /**
+     * Blocks the first read of its position until released.
+     */
+    private static class BlockingItem extends TestingItem {
+        private final CountDownLatch mRelease = new CountDownLatch(1);
+        private final AtomicBoolean mBlocked = new AtomicBoolean();
+
+        private BlockingItem(double lat, double lng) {
+            super(lat, lng);
+        }
+
+        @Override
+        public LatLng getPosition() {
+            if (mBlocked.compareAndSet(false, true)) {
+                try {
+                    mRelease.await();
+                } catch (InterruptedException e) {
+                    fail();
+                }
+            }
+            return super.getPosition();
+        }
+    }
+
+    private HierarchicalDistanceBasedAlgorithm<ClusterItem> mAlgo;
+
+    public void setUp() {
+        mAlgo = new HierarchicalDistanceBasedAlgorithm<ClusterItem>();
+    }
+
+    public void testEmpty() {
+        assertEquals(0, mAlgo.getClusters(10).size());
+        mAlgo.addItem(new TestingItem(10, 10));
+        assertEquals(1, mAlgo.getClusters(0).size());
+        assertEquals(1, mAlgo.getClusters(30).size());
+    }
+
+    public void testClustersNest() {
+        Random random = new Random(3);
+        List<ClusterItem> items = new ArrayList<ClusterItem>();
+        for (int i = 0; i < 5000; i++) {
+            // Some dense groups, and some items spread over the world.
+            items.add(i % 2 == 0
+                    ? new TestingItem(40 + random.nextGaussian() * 0.01 * (i % 10),
+                    random.nextGaussian() * 0.01 * (i % 10))
+                    : new TestingItem(random.nextDouble() * 160 - 80,
+                    random.nextDouble() * 360 - 180));
+        }
+        mAlgo.addItems(items);
+
+        Map<ClusterItem, Cluster<ClusterItem>> coarser = null;
+        int previousCount = 0;
+        for (int zoom = 0; zoom <= HierarchicalDistanceBasedAlgorithm.MAX_ZOOM; zoom++) {
+            Set<? extends Cluster<ClusterItem>> clusters = mAlgo.getClusters(zoom);
+            assertTrue(clusters.size() >= previousCount);
+            previousCount = clusters.size();
+
+            // Every item is in exactly one cluster.
+            Map<ClusterItem, Cluster<ClusterItem>> itemToCluster =
+                    new HashMap<ClusterItem, Cluster<ClusterItem>>();
+            for (Cluster<ClusterItem> cluster : clusters) {
+                assertEquals(cluster.getSize(), cluster.getItems().size());
+                for (ClusterItem item : cluster.getItems()) {
+                    assertNull(itemToCluster.put(item, cluster));
+                }
+            }
+            assertEquals(items.size(), itemToCluster.size());
+
+            // Every cluster is part of a single cluster at the previous zoom.
+            if (coarser != null) {
+                for (Cluster<ClusterItem> cluster : clusters) {
+                    Set<Cluster<ClusterItem>> parents = new HashSet<Cluster<ClusterItem>>();
+                    for (ClusterItem item : cluster.getItems()) {
+                        parents.add(coarser.get(item));
+                    }
+                    assertEquals(1, parents.size());
+                }
+            }
+            coarser = itemToCluster;
+        }
+        assertTrue(mAlgo.getClusters(0).size() < 100);
+        assertTrue(mAlgo.getClusters(21).size() > 4000);
+        assertSame(mAlgo.getClusters(21), mAlgo.getClusters(25));
+    }
+
+    public void testItemsChange() {
+        TestingItem a = new TestingItem(10, 10);
+        TestingItem b = new TestingItem(10, 10.001);
+        TestingItem c = new TestingItem(-30, 100);
+        mAlgo.addItem(a);
+        mAlgo.addItem(b);
+        assertEquals(1, mAlgo.getClusters(5).size());
+        assertEquals(2, mAlgo.getClusters(5).iterator().next().getSize());
+
+        mAlgo.addItem(c);
+        assertEquals(2, mAlgo.getClusters(5).size());
+        mAlgo.removeItem(b);
+        assertEquals(2, mAlgo.getClusters(5).size());
+        assertEquals(2, mAlgo.getItems().size());
+        for (Cluster<ClusterItem> cluster : mAlgo.getClusters(5)) {
+            // A cluster of one is positioned at its item.
+            assertEquals(cluster.getItems().iterator().next().getPosition(),
+                    cluster.getPosition());
+        }
+
+        mAlgo.clearItems();
+        assertEquals(0, mAlgo.getClusters(5).size());
+    }
+
+    public void testMovedItemsKeepBuiltPosition() {
+        TestingItem moved = new TestingItem(10, 10);
+        mAlgo.addItem(moved);
+        mAlgo.addItem(new TestingItem(-30, 100));
+        assertEquals(2, mAlgo.getClusters(5).size());
+
+        // The clusters of other zoom levels are created later, after the item moved.
+        moved.setPosition(20, 20);
+        LatLngBounds bounds = new LatLngBounds(new LatLng(5, 5), new LatLng(15, 15));
+        for (Cluster<ClusterItem> cluster : mAlgo.getClusters(12, bounds)) {
+            assertEquals(new LatLng(10, 10), cluster.getPosition());
+        }
+        for (Cluster<ClusterItem> cluster : mAlgo.getClusters(15)) {
+            if (cluster.getItems().contains(moved)) {
+                assertEquals(new LatLng(10, 10), cluster.getPosition());
+            }
+        }
+    }
+
+    public void testRemoveDuplicates() {
+        TestingItem a = new TestingItem(10, 10);
+        TestingItem b = new TestingItem(-30, 100);
+        mAlgo.addItems(Arrays.<ClusterItem>asList(a, b, a));
+        mAlgo.removeItems(Collections.<ClusterItem>singletonList(a));
+        assertEquals(Arrays.<ClusterItem>asList(b, a), mAlgo.getItems());
+        mAlgo.removeItem(a);
+        assertEquals(Collections.<ClusterItem>singletonList(b), mAlgo.getItems());
+    }
+
+    public void testViewport() {
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            mAlgo.addItem(new TestingItem(random.nextDouble() * 20, random.nextDouble() * 20));
+            mAlgo.addItem(new TestingItem(random.nextDouble() * 20,
+                    165 + random.nextDouble() * 20));
+        }
+        // The clusters positioned within the bounds are looked up, across the antimeridian too.
+        for (LatLngBounds bounds : Arrays.asList(
+                new LatLngBounds(new LatLng(5, 5), new LatLng(10, 10)),
+                new LatLngBounds(new LatLng(5, 175), new LatLng(10, -175)))) {
+            Set<Cluster<ClusterItem>> expected = new HashSet<Cluster<ClusterItem>>();
+            for (Cluster<ClusterItem> cluster : mAlgo.getClusters(7)) {
+                if (bounds.contains(cluster.getPosition())) {
+                    expected.add(cluster);
+                }
+            }
+            assertFalse(expected.isEmpty());
+            assertEquals(expected, mAlgo.getClusters(7, bounds));
+        }
+    }
+
+    public void testAntimeridian() {
+        mAlgo.addItem(new TestingItem(10, 179.99));
+        mAlgo.addItem(new TestingItem(10, -179.99));
+        Set<? extends Cluster<ClusterItem>> clusters = mAlgo.getClusters(5);
+        assertEquals(1, clusters.size());
+        // The centroid lies on the antimeridian, not on the other side of the world.
+        assertEquals(180, Math.abs(clusters.iterator().next().getPosition().longitude), 1e-6);
+    }
+
+    public void testStats() {
+        Random random = new Random(7);
+        for (int i = 0; i < 3000; i++) {
+            // Dense groups, some of them across the antimeridian, and some zero weights.
+            double lng = (i % 6) * 72 - 180 + random.nextGaussian() * (i % 4);
+            mAlgo.addItem(new WeightedItem(random.nextGaussian() * 20, lng, random.nextInt(10)));
+        }
+
+        // The stats folded from the finer clusters match those of the items.
+        for (int zoom = 2; zoom <= HierarchicalDistanceBasedAlgorithm.MAX_ZOOM; zoom += 3) {
+            for (Cluster<ClusterItem> cluster : mAlgo.getClusters(zoom)) {
+                ClusterStats.Builder builder = new ClusterStats.Builder();
+                for (ClusterItem item : cluster.getItems()) {
+                    builder.add(item);
+                }
+                ClusterStats expected = builder.build();
+                ClusterStats stats = ClusterStats.of(cluster);
+                assertEquals(expected.getCount(), stats.getCount());
+                assertEquals(expected.getSum(), stats.getSum(), 1e-6);
+                assertEquals(expected.getMin(), stats.getMin());
+                assertEquals(expected.getMax(), stats.getMax());
+                if (expected.getCentroid() == null) {
+                    assertNull(stats.getCentroid());
+                } else {
+                    assertEquals(expected.getCentroid().latitude,
+                            stats.getCentroid().latitude, 1e-6);
+                    assertEquals(expected.getCentroid().longitude,
+                            stats.getCentroid().longitude, 1e-6);
+                }
+            }
+        }
+    }
+
+    public void testInterruptedBuildCompletes() {
+        mAlgo.addItem(new TestingItem(10, 10));
+        Thread.currentThread().interrupt();
+        Set<? extends Cluster<ClusterItem>> clusters = mAlgo.getClusters(5);
+        assertTrue(Thread.interrupted());
+
+        // The hierarchy was kept for the next pass.
+        assertSame(clusters, mAlgo.getClusters(5));
+    }
+
+    public void testConcurrentCallersShareBuild() throws InterruptedException {
+        BlockingItem item = new BlockingItem(10, 10);
+        mAlgo.addItem(item);
+        final List<Set<? extends Cluster<ClusterItem>>> results =
+                Collections.synchronizedList(new ArrayList<Set<? extends Cluster<ClusterItem>>>());
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        Runnable getClusters = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    results.add(mAlgo.getClusters(5));
+                } catch (CancellationException e) {
+                    cancelled.set(Thread.currentThread().isInterrupted());
+                }
+            }
+        };
+        Thread builder = new Thread(getClusters);
+        Thread waiter = new Thread(getClusters);
+        Thread interrupted = new Thread(getClusters);
+        for (Thread thread : Arrays.asList(builder, waiter, interrupted)) {
+            thread.start();
+            while (thread.isAlive() && thread.getState() != Thread.State.WAITING) {
+                Thread.yield();
+            }
+        }
+
+        // Only the wait of an interrupted caller stops.
+        interrupted.interrupt();
+        interrupted.join();
+        assertTrue(cancelled.get());
+
+        item.mRelease.countDown();
+        builder.join();
+        waiter.join();
+        assertEquals(2, results.size());
+        assertSame(results.get(0), results.get(1));
+        assertSame(results.get(0), mAlgo.getClusters(5));
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.clustering;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.maps.android.clustering.algo.ClusterDelta;
+import com.google.maps.android.clustering.algo.IncrementalDistanceBasedAlgorithm;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class IncrementalDistanceBasedAlgorithmTest extends TestCase {
+
+    private IncrementalDistanceBasedAlgorithm<ClusterItem> mAlgo;
+
+    public void setUp() {
+        mAlgo = new IncrementalDistanceBasedAlgorithm<ClusterItem>();
+    }
+
+    public void testIncrementalMatchesFromScratch() {
+        Random random = new Random(4);
+        List<ClusterItem> items = new ArrayList<ClusterItem>();
+        for (int i = 0; i < 3000; i++) {
+            items.add(new TestingItem(40 + random.nextDouble() * 5, random.nextDouble() * 5));
+        }
+        int[] zooms = {3, 6, 9};
+        for (int zoom : zooms) {
+            mAlgo.getClusters(zoom);
+        }
+        for (ClusterItem item : items) {
+            mAlgo.addItem(item);
+        }
+
+        IncrementalDistanceBasedAlgorithm<ClusterItem> fromScratch =
+                new IncrementalDistanceBasedAlgorithm<ClusterItem>();
+        fromScratch.addItems(items);
+        for (int zoom : zooms) {
+            assertEquals(clusterSizes(fromScratch.getClusters(zoom)),
+                    clusterSizes(mAlgo.getClusters(zoom)));
+        }
+    }
+
+    public void testRemoval() {
+        Random random = new Random(5);
+        List<ClusterItem> items = new ArrayList<ClusterItem>();
+        for (int i = 0; i < 2000; i++) {
+            items.add(new TestingItem(40 + random.nextDouble() * 5, random.nextDouble() * 5));
+        }
+        mAlgo.addItems(items);
+        mAlgo.getClusters(7);
+        for (int i = 0; i < 2000; i += 2) {
+            mAlgo.removeItem(items.get(i));
+        }
+
+        // Every remaining item is in exactly one cluster, within range of its center.
+        Set<ClusterItem> clustered = new HashSet<ClusterItem>();
+        for (Cluster<ClusterItem> cluster : mAlgo.getClusters(7)) {
+            for (ClusterItem item : cluster.getItems()) {
+                assertTrue(clustered.add(item));
+                assertEquals(cluster.getPosition().longitude,
+                        item.getPosition().longitude, 360.0 / 256 / 128 * 100);
+            }
+        }
+        assertEquals(1000, clustered.size());
+        assertEquals(1000, mAlgo.getItems().size());
+    }
+
+    public void testDelta() {
+        TestingItem a = new TestingItem(10, 10);
+        TestingItem b = new TestingItem(10, 10.001);
+        TestingItem c = new TestingItem(-30, 100);
+        mAlgo.addItem(a);
+
+        ClusterDelta<ClusterItem> delta = mAlgo.getClusterDelta(5);
+        assertTrue(delta.isReset());
+        assertEquals(1, delta.getAdded().size());
+        assertTrue(mAlgo.getClusterDelta(5).isEmpty());
+        Cluster<ClusterItem> clusterA = delta.getAdded().iterator().next();
+
+        // A distant item adds a cluster, and leaves the other one alone.
+        mAlgo.addItem(c);
+        delta = mAlgo.getClusterDelta(5);
+        assertFalse(delta.isReset());
+        assertEquals(1, delta.getAdded().size());
+        assertEquals(0, delta.getRemoved().size());
+        assertTrue(mAlgo.getClusters(5).contains(clusterA));
+
+        // A nearby item replaces the cluster it joins.
+        mAlgo.addItem(b);
+        delta = mAlgo.getClusterDelta(5);
+        assertEquals(Collections.singleton(clusterA), delta.getRemoved());
+        assertEquals(2, delta.getAdded().iterator().next().getSize());
+
+        // Removing the item a cluster is centered on moves its other items to a new cluster.
+        mAlgo.removeItem(a);
+        delta = mAlgo.getClusterDelta(5);
+        assertEquals(1, delta.getRemoved().size());
+        Cluster<ClusterItem> clusterB = delta.getAdded().iterator().next();
+        assertEquals(Collections.singletonList(b), new ArrayList<ClusterItem>(clusterB.getItems()));
+        assertEquals(b.getPosition(), clusterB.getPosition());
+        assertEquals(2, mAlgo.getClusters(5).size());
+
+        // Changes made before a zoom level is first used are not reported as removals.
+        delta = mAlgo.getClusterDelta(12);
+        assertTrue(delta.isReset());
+        assertEquals(2, delta.getAdded().size());
+    }
+
+    public void testUpdate() {
+        TestingItem a = new TestingItem(10, 10);
+        TestingItem b = new TestingItem(10, 10.001);
+        TestingItem c = new TestingItem(-30, 100);
+        mAlgo.addItem(a);
+        mAlgo.addItem(b);
+        mAlgo.addItem(c);
+        assertEquals(2, mAlgo.getClusters(5).size());
+        mAlgo.getClusterDelta(5);
+
+        // An item moved next to another joins its cluster, and leaves its own.
+        b.setPosition(-30, 100.001);
+        mAlgo.updateItems(Collections.<ClusterItem>singletonList(b));
+        ClusterDelta<ClusterItem> delta = mAlgo.getClusterDelta(5);
+        assertEquals(2, delta.getRemoved().size());
+        assertEquals(2, delta.getAdded().size());
+        for (Cluster<ClusterItem> cluster : mAlgo.getClusters(5)) {
+            assertEquals(cluster.getItems().contains(a) ? 1 : 2, cluster.getSize());
+        }
+
+        // An item moved within its cluster changes the cluster, which keeps its items.
+        b.setPosition(-30, 100.002);
+        mAlgo.updateItems(Collections.<ClusterItem>singletonList(b));
+        delta = mAlgo.getClusterDelta(5);
+        assertTrue(delta.getAdded().isEmpty());
+        assertTrue(delta.getRemoved().isEmpty());
+        Cluster<ClusterItem> changed = delta.getChanged().iterator().next();
+        assertEquals(2, changed.getSize());
+        assertEquals(new HashSet<ClusterItem>(changed.getItems()),
+                new HashSet<ClusterItem>(delta.getPrevious(changed).getItems()));
+    }
+
+    public void testViewport() {
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            mAlgo.addItem(new TestingItem(random.nextDouble() * 20,
+                    random.nextDouble() * 20 + (i % 2 == 0 ? 170 : 0)));
+        }
+        LatLngBounds bounds = new LatLngBounds(new LatLng(5, 175), new LatLng(10, -175));
+        Set<Cluster<ClusterItem>> expected = new HashSet<Cluster<ClusterItem>>();
+        for (Cluster<ClusterItem> cluster : mAlgo.getClusters(7)) {
+            if (bounds.contains(cluster.getPosition())) {
+                expected.add(cluster);
+            }
+        }
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, mAlgo.getClusters(7, bounds));
+    }
+
+    public void testCenterMovedWithoutUpdate() {
+        TestingItem center = new TestingItem(10, 10);
+        mAlgo.addItem(center);
+        mAlgo.addItem(new TestingItem(10, 10.001));
+        assertEquals(1, mAlgo.getClusters(5).size());
+
+        // The group changes after its center moved, and stays where it was formed.
+        center.setPosition(20, 20);
+        mAlgo.addItem(new TestingItem(10, 10.0005));
+        Set<? extends Cluster<ClusterItem>> clusters = mAlgo.getClusters(5);
+        assertEquals(1, clusters.size());
+        Cluster<ClusterItem> cluster = clusters.iterator().next();
+        assertEquals(3, cluster.getSize());
+        assertEquals(10, cluster.getPosition().latitude, 1e-9);
+        assertEquals(10, cluster.getPosition().longitude, 1e-9);
+    }
+
+    public void testAntimeridian() {
+        mAlgo.addItem(new TestingItem(10, 179.99));
+        mAlgo.addItem(new TestingItem(10, -179.99));
+        assertEquals(1, mAlgo.getClusters(5).size());
+    }
+
+    private static List<Integer> clusterSizes(Set<? extends Cluster<ClusterItem>> clusters) {
+        List<Integer> sizes = new ArrayList<Integer>();
+        for (Cluster<ClusterItem> cluster : clusters) {
+            sizes.add(cluster.getSize());
+        }
+        Collections.sort(sizes);
+        return sizes;
+    }
+}
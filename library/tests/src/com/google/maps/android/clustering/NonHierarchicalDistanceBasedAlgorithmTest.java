@@ -0,0 +1,435 @@
+/*
+ * Copyright 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.clustering;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.maps.android.clustering.algo.NonHierarchicalDistanceBasedAlgorithm;
+import com.google.maps.android.clustering.algo.NonHierarchicalDistanceBasedAlgorithm.IndexType;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class NonHierarchicalDistanceBasedAlgorithmTest extends TestCase {
+
+    public void testIndexTypes() {
+        NonHierarchicalDistanceBasedAlgorithm<ClusterItem> algo
+                = new NonHierarchicalDistanceBasedAlgorithm<ClusterItem>();
+        Random random = new Random(5);
+        List<ClusterItem> items = new ArrayList<ClusterItem>();
+        for (int i = 0; i < 2000; i++) {
+            items.add(new TestingItem(40 + random.nextDouble() * 5, random.nextDouble() * 5));
+        }
+        algo.addItems(items);
+        for (IndexType indexType : IndexType.values()) {
+            NonHierarchicalDistanceBasedAlgorithm<ClusterItem> other
+                    = new NonHierarchicalDistanceBasedAlgorithm<ClusterItem>(indexType);
+            other.addItems(items.subList(0, 1000));
+            for (ClusterItem item : items.subList(1000, 2000)) {
+                other.addItem(item);
+            }
+            assertEquals(items, other.getItems());
+            for (int zoom = 3; zoom < 12; zoom += 2) {
+                assertEquals(clusterSizes(algo, zoom), clusterSizes(other, zoom));
+            }
+        }
+
+        // Each index is kept up to date, or rebuilt, after the items change.
+        for (IndexType indexType : IndexType.values()) {
+            NonHierarchicalDistanceBasedAlgorithm<ClusterItem> other
+                    = new NonHierarchicalDistanceBasedAlgorithm<ClusterItem>(indexType);
+            other.addItems(items);
+            other.getClusters(7);
+            for (int i = 0; i < 500; i++) {
+                other.removeItem(items.get(i));
+            }
+            assertEquals(items.subList(500, 2000), other.getItems());
+            if (indexType == IndexType.QUAD_TREE) {
+                algo = other;
+            } else {
+                assertEquals(clusterSizes(algo, 7), clusterSizes(other, 7));
+            }
+        }
+    }
+
+    public void testRemoveItems() {
+        Random random = new Random(10);
+        List<ClusterItem> items = new ArrayList<ClusterItem>();
+        for (int i = 0; i < 2000; i++) {
+            items.add(new TestingItem(40 + random.nextDouble() * 5, random.nextDouble() * 5));
+        }
+        List<ClusterItem> few = new ArrayList<ClusterItem>();
+        List<ClusterItem> many = new ArrayList<ClusterItem>();
+        List<ClusterItem> remaining = new ArrayList<ClusterItem>();
+        for (int i = 0; i < items.size(); i++) {
+            (i % 20 == 0 ? few : i % 4 != 0 ? many : remaining).add(items.get(i));
+        }
+        for (IndexType indexType : IndexType.values()) {
+            NonHierarchicalDistanceBasedAlgorithm<ClusterItem> algo
+                    = new NonHierarchicalDistanceBasedAlgorithm<ClusterItem>(indexType);
+            algo.addItems(items);
+            algo.getClusters(7);
+            algo.removeItems(few);
+            // Most of the items, so the index is rebuilt from the rest.
+            algo.removeItems(many);
+            algo.removeItems(Collections.<ClusterItem>singletonList(new TestingItem(0, 0)));
+            assertEquals(remaining, algo.getItems());
+
+            NonHierarchicalDistanceBasedAlgorithm<ClusterItem> expected
+                    = new NonHierarchicalDistanceBasedAlgorithm<ClusterItem>(indexType);
+            expected.addItems(remaining);
+            for (int zoom = 3; zoom < 12; zoom += 2) {
+                assertEquals(clusterSizes(expected, zoom), clusterSizes(algo, zoom));
+            }
+
+            // Ids of removed items are reused.
+            algo.addItems(many);
+            assertEquals(remaining.size() + many.size(), algo.getClusters(20).size());
+        }
+    }
+
+    public void testRemoveDuplicates() {
+        TestingItem a = new TestingItem(10, 10);
+        TestingItem b = new TestingItem(-30, 100);
+        List<ClusterItem> added = Arrays.<ClusterItem>asList(a, b, a);
+        for (IndexType indexType : IndexType.values()) {
+            NonHierarchicalDistanceBasedAlgorithm<ClusterItem> one
+                    = new NonHierarchicalDistanceBasedAlgorithm<ClusterItem>(indexType);
+            NonHierarchicalDistanceBasedAlgorithm<ClusterItem> batch
+                    = new NonHierarchicalDistanceBasedAlgorithm<ClusterItem>(indexType);
+            one.addItems(added);
+            batch.addItems(added);
+
+            // Each occurrence removes one copy, as removing the items one by one does.
+            one.removeItem(a);
+            batch.removeItems(Collections.<ClusterItem>singletonList(a));
+            assertEquals(Arrays.<ClusterItem>asList(b, a), one.getItems());
+            assertEquals(one.getItems(), batch.getItems());
+
+            batch.addItem(a);
+            batch.removeItems(Arrays.<ClusterItem>asList(a, a));
+            assertEquals(Collections.<ClusterItem>singletonList(b), batch.getItems());
+        }
+    }
+
+    public void testUpdate() {
+        Random random = new Random(6);
+        List<ClusterItem> items = new ArrayList<ClusterItem>();
+        List<ClusterItem> moved = new ArrayList<ClusterItem>();
+        for (int i = 0; i < 2000; i++) {
+            TestingItem item = new TestingItem(40 + random.nextDouble() * 5,
+                    random.nextDouble() * 5);
+            items.add(item);
+            if (i % 3 == 0) {
+                moved.add(item);
+            }
+        }
+        LatLngBounds movedTo = new LatLngBounds(new LatLng(29, -1), new LatLng(36, 6));
+        for (IndexType indexType : IndexType.values()) {
+            NonHierarchicalDistanceBasedAlgorithm<ClusterItem> algo
+                    = new NonHierarchicalDistanceBasedAlgorithm<ClusterItem>(indexType);
+            algo.addItems(items);
+            algo.getClusters(7);
+            for (ClusterItem item : moved) {
+                LatLng position = item.getPosition();
+                ((TestingItem) item).setPosition(position.latitude - 10, position.longitude);
+            }
+            algo.updateItems(moved);
+
+            // Moved items keep their place in the order items were added.
+            NonHierarchicalDistanceBasedAlgorithm<ClusterItem> expected
+                    = new NonHierarchicalDistanceBasedAlgorithm<ClusterItem>(indexType);
+            expected.addItems(items);
+            assertEquals(items, algo.getItems());
+            assertEquals(clusterSizes(expected, 7), clusterSizes(algo, 7));
+            int count = 0;
+            for (Cluster<ClusterItem> cluster : algo.getClusters(7, movedTo)) {
+                count += cluster.getSize();
+            }
+            assertEquals(moved.size(), count);
+
+            algo.removeItem(moved.get(0));
+            assertEquals(1999, algo.getItems().size());
+            for (ClusterItem item : moved) {
+                LatLng position = item.getPosition();
+                ((TestingItem) item).setPosition(position.latitude + 10, position.longitude);
+            }
+        }
+    }
+
+    public void testUpdateWeight() {
+        for (IndexType indexType : IndexType.values()) {
+            WeightedItem a = new WeightedItem(10, 10, 1);
+            WeightedItem b = new WeightedItem(10, 10.0001, 1);
+            WeightedItem single = new WeightedItem(-30, 100, 1);
+            NonHierarchicalDistanceBasedAlgorithm<WeightedItem> algo
+                    = new NonHierarchicalDistanceBasedAlgorithm<WeightedItem>(indexType);
+            algo.addItems(Arrays.asList(a, b, single));
+            algo.getClusters(10);
+
+            // Only the weights change, so no item moves.
+            a.setWeight(5);
+            single.setWeight(7);
+            algo.updateItems(Arrays.asList(a, single));
+            assertEquals(Arrays.asList(a, b, single), algo.getItems());
+            for (Cluster<WeightedItem> cluster : algo.getClusters(10)) {
+                ClusterStats stats = ClusterStats.of(cluster);
+                if (cluster.getSize() == 1) {
+                    assertEquals(7, stats.getSum(), 0);
+                    assertEquals(7, stats.getMax(), 0);
+                } else {
+                    assertEquals(6, stats.getSum(), 0);
+                    assertEquals(5, stats.getMax(), 0);
+                }
+            }
+        }
+    }
+
+    public void testStatsUseClusteredValues() {
+        for (IndexType indexType : IndexType.values()) {
+            WeightedItem a = new WeightedItem(10, 10, 1);
+            WeightedItem b = new WeightedItem(10, 10.0001, 3);
+            NonHierarchicalDistanceBasedAlgorithm<WeightedItem> algo
+                    = new NonHierarchicalDistanceBasedAlgorithm<WeightedItem>(indexType);
+            algo.addItems(Arrays.asList(a, b));
+
+            // The items change without being updated, so they are clustered as they were added.
+            a.setWeight(5);
+            a.setPosition(20, 20);
+            b.setPosition(-20, -20);
+            Set<? extends Cluster<WeightedItem>> clusters = algo.getClusters(10);
+            assertEquals(1, clusters.size());
+            Cluster<WeightedItem> cluster = clusters.iterator().next();
+            assertEquals(new LatLng(10, 10), cluster.getPosition());
+            ClusterStats stats = ClusterStats.of(cluster);
+            assertEquals(4, stats.getSum(), 0);
+            assertEquals(3, stats.getMax(), 0);
+            assertEquals(10, stats.getCentroid().latitude, 1e-9);
+            assertEquals(10.000075, stats.getCentroid().longitude, 1e-9);
+        }
+    }
+
+    public void testRemoveMovedWithoutUpdate() {
+        TestingItem item = new TestingItem(10, 10);
+        TestingItem other = new TestingItem(10, 10.001);
+        for (IndexType indexType : IndexType.values()) {
+            NonHierarchicalDistanceBasedAlgorithm<ClusterItem> algo
+                    = new NonHierarchicalDistanceBasedAlgorithm<ClusterItem>(indexType);
+            algo.addItem(item);
+            algo.addItem(other);
+            item.setPosition(-30, 100);
+            algo.removeItem(item);
+            assertEquals(Collections.<ClusterItem>singletonList(other), algo.getItems());
+            assertEquals(1, algo.getClusters(5).size());
+            item.setPosition(10, 10);
+        }
+    }
+
+    public void testPersistentIndexWithConcurrentWriters() throws InterruptedException {
+        final NonHierarchicalDistanceBasedAlgorithm<ClusterItem> algo
+                = new NonHierarchicalDistanceBasedAlgorithm<ClusterItem>(
+                IndexType.PERSISTENT_QUAD_TREE);
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            final Random random = new Random(t);
+            writers[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        TestingItem item = new TestingItem(random.nextDouble() * 10,
+                                random.nextDouble() * 10);
+                        algo.addItem(item);
+                        if (i % 2 == 1) {
+                            algo.removeItem(item);
+                        }
+                    }
+                }
+            };
+            writers[t].start();
+        }
+        int clustered = 0;
+        for (Thread writer : writers) {
+            while (writer.isAlive()) {
+                // Every pass sees a consistent snapshot.
+                clustered = 0;
+                for (Cluster<ClusterItem> cluster : algo.getClusters(10)) {
+                    clustered += cluster.getSize();
+                }
+                assertTrue(clustered <= 4 * 1000);
+            }
+            writer.join();
+        }
+        assertEquals(2000, algo.getItems().size());
+        clustered = 0;
+        for (Cluster<ClusterItem> cluster : algo.getClusters(10)) {
+            clustered += cluster.getSize();
+        }
+        assertEquals(2000, clustered);
+    }
+
+    public void testViewport() {
+        Random random = new Random(6);
+        List<ClusterItem> items = new ArrayList<ClusterItem>();
+        for (int i = 0; i < 3000; i++) {
+            items.add(new TestingItem(random.nextDouble() * 20, random.nextDouble() * 360 - 180));
+        }
+        LatLngBounds bounds = new LatLngBounds(new LatLng(5, 170), new LatLng(15, -170));
+        for (IndexType indexType : IndexType.values()) {
+            NonHierarchicalDistanceBasedAlgorithm<ClusterItem> algo
+                    = new NonHierarchicalDistanceBasedAlgorithm<ClusterItem>(indexType);
+            algo.addItems(items);
+            Set<ClusterItem> clustered = new HashSet<ClusterItem>();
+            for (Cluster<ClusterItem> cluster : algo.getClusters(6, bounds)) {
+                clustered.addAll(cluster.getItems());
+            }
+            // Every item within the bounds, across the antimeridian, is clustered, and only
+            // items close to the bounds besides.
+            for (ClusterItem item : items) {
+                LatLng position = item.getPosition();
+                if (bounds.contains(position)) {
+                    assertTrue(clustered.contains(item));
+                } else if (clustered.contains(item)) {
+                    assertTrue(position.latitude > 4 && position.latitude < 16);
+                    assertTrue(Math.abs(position.longitude) > 169);
+                }
+            }
+        }
+    }
+
+    public void testAntimeridian() {
+        for (IndexType indexType : IndexType.values()) {
+            NonHierarchicalDistanceBasedAlgorithm<ClusterItem> algo
+                    = new NonHierarchicalDistanceBasedAlgorithm<ClusterItem>(indexType);
+            algo.addItem(new TestingItem(10, 179.99));
+            algo.addItem(new TestingItem(10, -179.99));
+            assertEquals(1, algo.getClusters(5).size());
+        }
+    }
+
+    public void testRemoveAndAddAgain() {
+        Random random = new Random(9);
+        List<ClusterItem> items = new ArrayList<ClusterItem>();
+        for (int i = 0; i < 2000; i++) {
+            items.add(new TestingItem(random.nextDouble() * 10, random.nextDouble() * 10));
+        }
+        TestingItem twice = new TestingItem(5, 5);
+        for (IndexType indexType : IndexType.values()) {
+            NonHierarchicalDistanceBasedAlgorithm<ClusterItem> algo
+                    = new NonHierarchicalDistanceBasedAlgorithm<ClusterItem>(indexType);
+            algo.addItems(items.subList(0, 1000));
+            algo.addItem(twice);
+            algo.addItem(twice);
+            algo.getClusters(8);
+            for (int i = 0; i < 1000; i += 2) {
+                algo.removeItem(items.get(i));
+            }
+            algo.removeItem(twice);
+            algo.addItems(items.subList(1000, 2000));
+
+            // Every item is in exactly one cluster, including those which reuse the ids of
+            // removed items.
+            Set<ClusterItem> clustered = new HashSet<ClusterItem>();
+            for (Cluster<ClusterItem> cluster : algo.getClusters(8)) {
+                for (ClusterItem item : cluster.getItems()) {
+                    assertTrue(clustered.add(item));
+                }
+            }
+            assertEquals(1501, clustered.size());
+            assertTrue(clustered.contains(twice));
+            assertFalse(clustered.contains(items.get(0)));
+        }
+    }
+
+    public void testCancellation() {
+        List<ClusterItem> items = new ArrayList<ClusterItem>();
+        for (int i = 0; i < 1000; i++) {
+            items.add(new TestingItem(i * 0.01, i * 0.01));
+        }
+        for (IndexType indexType : IndexType.values()) {
+            NonHierarchicalDistanceBasedAlgorithm<ClusterItem> algo
+                    = new NonHierarchicalDistanceBasedAlgorithm<ClusterItem>(indexType);
+            algo.addItems(items);
+            Thread.currentThread().interrupt();
+            try {
+                algo.getClusters(10);
+                fail();
+            } catch (CancellationException e) {
+                // The interrupt is left for the caller.
+                assertTrue(Thread.interrupted());
+            }
+            assertEquals(1000, algo.getClusters(20).size());
+        }
+    }
+
+    public void testParallel() {
+        Random random = new Random(8);
+        List<ClusterItem> items = new ArrayList<ClusterItem>();
+        for (int i = 0; i < 20000; i++) {
+            items.add(new TestingItem(random.nextDouble() * 160 - 80,
+                    random.nextDouble() * 360 - 180));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (IndexType indexType : IndexType.values()) {
+                NonHierarchicalDistanceBasedAlgorithm<ClusterItem> sequential
+                        = new NonHierarchicalDistanceBasedAlgorithm<ClusterItem>(indexType);
+                NonHierarchicalDistanceBasedAlgorithm<ClusterItem> parallel
+                        = new NonHierarchicalDistanceBasedAlgorithm<ClusterItem>(indexType,
+                        executor, 4);
+                sequential.addItems(items);
+                parallel.addItems(items);
+                assertEquals(items, parallel.getItems());
+                for (int zoom = 0; zoom <= 8; zoom += 2) {
+                    int expected = sequential.getClusters(zoom).size();
+                    Set<? extends Cluster<ClusterItem>> clusters = parallel.getClusters(zoom);
+                    assertEquals(expected, clusters.size(), expected / 20);
+
+                    // Every item is in exactly one cluster.
+                    Set<ClusterItem> clustered = new HashSet<ClusterItem>();
+                    for (Cluster<ClusterItem> cluster : clusters) {
+                        for (ClusterItem item : cluster.getItems()) {
+                            assertTrue(clustered.add(item));
+                        }
+                    }
+                    assertEquals(items.size(), clustered.size());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static List<Integer> clusterSizes(
+            NonHierarchicalDistanceBasedAlgorithm<ClusterItem> algo, int zoom) {
+        List<Integer> sizes = new ArrayList<Integer>();
+        for (Cluster<ClusterItem> cluster : algo.getClusters(zoom)) {
+            sizes.add(cluster.getSize());
+        }
+        Collections.sort(sizes);
+        return sizes;
+    }
+}
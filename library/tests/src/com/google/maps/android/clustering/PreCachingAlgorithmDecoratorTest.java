@@ -0,0 +1,325 @@
+/*
+ * Copyright 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.clustering;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.maps.android.clustering.algo.Algorithm;
+import com.google.maps.android.clustering.algo.GridBasedAlgorithm;
+import com.google.maps.android.clustering.algo.PreCachingAlgorithmDecorator;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PreCachingAlgorithmDecoratorTest extends TestCase {
+
+    /**
+     * Counts the clusterings of each zoom level, which wait for mRelease if it is set, and the
+     * clusterings of regions.
+     */
+    private static class CountingAlgorithm extends GridBasedAlgorithm<ClusterItem> {
+        private final Map<Integer, Integer> mCounts = new HashMap<Integer, Integer>();
+        private final AtomicInteger mBoundedCount = new AtomicInteger();
+        private volatile CountDownLatch mRelease;
+
+        @Override
+        public Set<? extends Cluster<ClusterItem>> getClusters(double zoom) {
+            synchronized (mCounts) {
+                Integer count = mCounts.get((int) zoom);
+                mCounts.put((int) zoom, count == null ? 1 : count + 1);
+            }
+            CountDownLatch release = mRelease;
+            if (release != null) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    fail();
+                }
+            }
+            return super.getClusters(zoom);
+        }
+
+        @Override
+        public Set<? extends Cluster<ClusterItem>> getClusters(double zoom,
+                                                               LatLngBounds bounds) {
+            if (bounds != null) {
+                mBoundedCount.incrementAndGet();
+            }
+            return super.getClusters(zoom, bounds);
+        }
+
+        private int count(int zoom) {
+            synchronized (mCounts) {
+                Integer count = mCounts.get(zoom);
+                return count == null ? 0 : count;
+            }
+        }
+    }
+
+    /**
+     * Holds the prefetches scheduled on it until runPending is called.
+     */
+    private static class ManualExecutor extends ScheduledThreadPoolExecutor {
+        private final List<Runnable> mCommands = new ArrayList<Runnable>();
+        private final List<ScheduledFuture<?>> mFutures = new ArrayList<ScheduledFuture<?>>();
+
+        private ManualExecutor() {
+            super(1);
+        }
+
+        @Override
+        public synchronized ScheduledFuture<?> schedule(Runnable command, long delay,
+                                                        TimeUnit unit) {
+            ScheduledFuture<?> future = super.schedule(command, 1, TimeUnit.DAYS);
+            mCommands.add(command);
+            mFutures.add(future);
+            return future;
+        }
+
+        /**
+         * Runs the scheduled commands which were not cancelled, on the calling thread.
+         */
+        private void runPending() {
+            List<Runnable> commands = new ArrayList<Runnable>();
+            synchronized (this) {
+                for (int i = 0; i < mCommands.size(); i++) {
+                    if (mFutures.get(i).cancel(false)) {
+                        commands.add(mCommands.get(i));
+                    }
+                }
+                mCommands.clear();
+                mFutures.clear();
+            }
+            for (Runnable command : commands) {
+                command.run();
+            }
+        }
+    }
+
+    /**
+     * Implements only the methods of Algorithm, as algorithms written before ExtendedAlgorithm do.
+     */
+    private static class PlainAlgorithm implements Algorithm<ClusterItem> {
+        private final GridBasedAlgorithm<ClusterItem> mAlgorithm =
+                new GridBasedAlgorithm<ClusterItem>();
+
+        @Override
+        public void addItem(ClusterItem item) {
+            mAlgorithm.addItem(item);
+        }
+
+        @Override
+        public void addItems(Collection<ClusterItem> items) {
+            mAlgorithm.addItems(items);
+        }
+
+        @Override
+        public void clearItems() {
+            mAlgorithm.clearItems();
+        }
+
+        @Override
+        public void removeItem(ClusterItem item) {
+            mAlgorithm.removeItem(item);
+        }
+
+        @Override
+        public Set<? extends Cluster<ClusterItem>> getClusters(double zoom) {
+            return mAlgorithm.getClusters(zoom);
+        }
+
+        @Override
+        public Collection<ClusterItem> getItems() {
+            return mAlgorithm.getItems();
+        }
+    }
+
+    private CountingAlgorithm mAlgo;
+    private ManualExecutor mExecutor;
+
+    public void setUp() {
+        mAlgo = new CountingAlgorithm();
+        mAlgo.addItem(new TestingItem(10, 10));
+        mExecutor = new ManualExecutor();
+    }
+
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    public void testSingleFlight() throws InterruptedException {
+        final PreCachingAlgorithmDecorator<ClusterItem> decorator =
+                new PreCachingAlgorithmDecorator<ClusterItem>(mAlgo, 5, 0);
+        mAlgo.mRelease = new CountDownLatch(1);
+        final List<Set<? extends Cluster<ClusterItem>>> results =
+                Collections.synchronizedList(new ArrayList<Set<? extends Cluster<ClusterItem>>>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    results.add(decorator.getClusters(5));
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        // One thread clusters while the others wait for its result.
+        for (Thread thread : threads) {
+            while (thread.getState() != Thread.State.WAITING) {
+                Thread.yield();
+            }
+        }
+        mAlgo.mRelease.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, mAlgo.count(5));
+        assertEquals(4, results.size());
+        for (Set<? extends Cluster<ClusterItem>> result : results) {
+            assertSame(results.get(0), result);
+        }
+        assertEquals(4, decorator.getHitCount() + decorator.getMissCount());
+    }
+
+    public void testPlainAlgorithm() {
+        PreCachingAlgorithmDecorator<ClusterItem> decorator =
+                new PreCachingAlgorithmDecorator<ClusterItem>(new PlainAlgorithm(), 5, 0);
+        TestingItem a = new TestingItem(10, 10);
+        TestingItem b = new TestingItem(-30, 100);
+        TestingItem c = new TestingItem(-30, -100);
+        decorator.addItems(Arrays.<ClusterItem>asList(a, b));
+
+        // Only items which were added are moved.
+        a.setPosition(-30, 100.001);
+        decorator.updateItems(Arrays.<ClusterItem>asList(a, c));
+        assertEquals(2, decorator.getItems().size());
+        assertEquals(1, decorator.getClusters(5).size());
+
+        LatLngBounds bounds = new LatLngBounds(new LatLng(-40, 90), new LatLng(-20, 110));
+        assertEquals(1, decorator.getClusters(5, bounds).size());
+        decorator.removeItems(Arrays.<ClusterItem>asList(a, b));
+        assertTrue(decorator.getItems().isEmpty());
+    }
+
+    public void testItemsChange() {
+        PreCachingAlgorithmDecorator<ClusterItem> decorator =
+                new PreCachingAlgorithmDecorator<ClusterItem>(mAlgo, 5, 0);
+        assertEquals(1, decorator.getClusters(5).size());
+        assertEquals(1, decorator.getClusters(5).size());
+        assertEquals(1, decorator.getHitCount());
+        assertEquals(1, decorator.getMissCount());
+
+        decorator.addItem(new TestingItem(-30, 100));
+        assertEquals(2, decorator.getClusters(5).size());
+        assertEquals(2, mAlgo.count(5));
+        assertEquals(2, decorator.getMissCount());
+    }
+
+    public void testPrefetch() {
+        PreCachingAlgorithmDecorator<ClusterItem> decorator =
+                new PreCachingAlgorithmDecorator<ClusterItem>(mAlgo, 5, 2, mExecutor);
+        decorator.getClusters(5);
+        decorator.getClusters(5);
+        mExecutor.runPending();
+        for (int zoom = 3; zoom <= 7; zoom++) {
+            assertEquals(1, mAlgo.count(zoom));
+        }
+        decorator.getClusters(7);
+        assertEquals(1, mAlgo.count(7));
+        assertEquals(0, mAlgo.count(8));
+
+        // Changing the items cancels the prefetching which hasn't started.
+        decorator.getClusters(12);
+        decorator.clearItems();
+        mExecutor.runPending();
+        assertEquals(0, mAlgo.count(13));
+    }
+
+    public void testBounds() {
+        PreCachingAlgorithmDecorator<ClusterItem> decorator =
+                new PreCachingAlgorithmDecorator<ClusterItem>(mAlgo, 5, 1, mExecutor);
+        decorator.addItem(new TestingItem(-30, 100));
+        LatLngBounds east = new LatLngBounds(new LatLng(-40, 90), new LatLng(-20, 110));
+        LatLngBounds west = new LatLngBounds(new LatLng(0, 0), new LatLng(20, 20));
+        // A miss clusters only the bounds, and the whole zoom level is prefetched.
+        assertEquals(1, decorator.getClusters(5, east).size());
+        assertEquals(1, decorator.getMissCount());
+        assertEquals(1, mAlgo.mBoundedCount.get());
+        assertEquals(0, mAlgo.count(5));
+        mExecutor.runPending();
+        assertEquals(1, mAlgo.count(5));
+
+        // Panning filters the clusters cached for the whole zoom level.
+        assertEquals(1, decorator.getClusters(5, west).size());
+        assertEquals(1, decorator.getHitCount());
+        assertEquals(2, decorator.getClusters(5).size());
+        assertEquals(1, mAlgo.count(5));
+        assertEquals(1, mAlgo.mBoundedCount.get());
+
+        // Adjacent zoom levels are prefetched as well.
+        assertEquals(1, mAlgo.count(4));
+        assertEquals(1, mAlgo.count(6));
+        assertEquals(1, decorator.getClusters(6, east).size());
+        assertEquals(1, mAlgo.count(6));
+        assertEquals(3, decorator.getHitCount());
+
+        // Without prefetching, every miss clusters only the bounds.
+        PreCachingAlgorithmDecorator<ClusterItem> onDemand =
+                new PreCachingAlgorithmDecorator<ClusterItem>(mAlgo, 5, 0, mExecutor);
+        assertEquals(1, onDemand.getClusters(9, west).size());
+        assertEquals(1, onDemand.getClusters(9, east).size());
+        mExecutor.runPending();
+        assertEquals(0, mAlgo.count(9));
+        assertEquals(3, mAlgo.mBoundedCount.get());
+    }
+
+    public void testPause() {
+        PreCachingAlgorithmDecorator<ClusterItem> decorator =
+                new PreCachingAlgorithmDecorator<ClusterItem>(mAlgo, 5, 1, mExecutor);
+        decorator.getClusters(5);
+        decorator.pause();
+        mExecutor.runPending();
+        assertEquals(0, mAlgo.count(4));
+        assertEquals(0, mAlgo.count(6));
+
+        // The cache is kept, and nothing is prefetched while paused.
+        decorator.getClusters(5);
+        assertEquals(1, decorator.getHitCount());
+        decorator.getClusters(8);
+        mExecutor.runPending();
+        assertEquals(0, mAlgo.count(9));
+
+        decorator.resume();
+        decorator.getClusters(8);
+        mExecutor.runPending();
+        assertEquals(1, mAlgo.count(9));
+    }
+}
@@ -45,4 +45,31 @@ public class StaticClusterTest extends TestCase {
         assertFalse(mCluster.equals(cluster_2_3));
         assertFalse(cluster_2_3.hashCode() == mCluster.hashCode());
     }
+
+    public void testStatsKeepAddedValues() {
+        WeightedItem light = new WeightedItem(10, 10, 1);
+        WeightedItem middle = new WeightedItem(20, 20, 2);
+        WeightedItem heavy = new WeightedItem(30, 30, 3);
+        mCluster.add(light, 1, light.getPosition());
+        mCluster.add(middle);
+        mCluster.add(heavy, 3, heavy.getPosition());
+
+        // The items change after they were clustered.
+        light.setWeight(100);
+        light.setPosition(-50, -50);
+        middle.setPosition(0, 0);
+        heavy.setWeight(0);
+
+        assertTrue(mCluster.remove(middle));
+        ClusterStats stats = mCluster.getStats();
+        assertEquals(4, stats.getSum(), 0);
+        assertEquals(25, stats.getCentroid().latitude, 1e-9);
+
+        // The maximum is removed, so the stats are accumulated again.
+        assertTrue(mCluster.remove(heavy));
+        stats = mCluster.getStats();
+        assertEquals(1, stats.getCount());
+        assertEquals(1, stats.getMax(), 0);
+        assertEquals(new LatLng(10, 10), stats.getCentroid());
+    }
 }
@@ -18,11 +18,15 @@ package com.google.maps.android.heatmaps;
 
 import com.google.android.gms.maps.model.LatLng;
 import com.google.maps.android.geometry.Bounds;
+import com.google.maps.android.quadtree.LinearPointQuadTree;
+import com.google.maps.android.quadtree.PointIndex;
+import com.google.maps.android.quadtree.PrimitivePointQuadTree;
 
 import junit.framework.TestCase;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 
 /**
@@ -139,4 +143,32 @@ public class UtilTest extends TestCase {
         expected = new Bounds(x3, x2, y2, y3);
         assertTrue(bounds.contains(expected) && expected.contains(bounds));
     }
+
+    public void testGetMaxValueDegenerateBounds() {
+        // A single point, and points along one latitude, have bounds with no area.
+        double[][] latLngs = {{10, 20}, {10, 20, 10, 25, 10, 30}};
+        for (double[] coordinates : latLngs) {
+            List<WeightedLatLng> data = new ArrayList<WeightedLatLng>();
+            for (int i = 0; i < coordinates.length; i += 2) {
+                data.add(new WeightedLatLng(new LatLng(coordinates[i], coordinates[i + 1]), 2));
+            }
+            Bounds bounds = HeatmapTileProvider.getBounds(data);
+            PointIndex[] trees = {new PrimitivePointQuadTree(bounds, true),
+                    new LinearPointQuadTree(bounds, true)};
+            for (PointIndex tree : trees) {
+                int[] ids = new int[data.size()];
+                double[] xs = new double[data.size()];
+                double[] ys = new double[data.size()];
+                double[] weights = new double[data.size()];
+                for (int i = 0; i < data.size(); i++) {
+                    ids[i] = i;
+                    xs[i] = data.get(i).getPoint().x;
+                    ys[i] = data.get(i).getPoint().y;
+                    weights[i] = data.get(i).getIntensity();
+                }
+                tree.addAll(ids, xs, ys, weights, data.size());
+                assertEquals(2.0, HeatmapTileProvider.getMaxValue(tree, bounds, 20, 1280));
+            }
+        }
+    }
 }
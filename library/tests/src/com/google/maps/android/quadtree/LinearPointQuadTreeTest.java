@@ -0,0 +1,372 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.quadtree;
+
+import com.google.maps.android.geometry.Bounds;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class LinearPointQuadTreeTest extends TestCase {
+
+    private LinearPointQuadTree mTree;
+
+    public void setUp() {
+        mTree = new LinearPointQuadTree(0, 1, 0, 1);
+    }
+
+    public void testAddAndRemove() {
+        assertTrue(mTree.add(0, .1, .1));
+        assertTrue(mTree.add(1, .2, .2));
+        assertTrue(mTree.add(2, .2, .2));
+        assertFalse(mTree.add(3, 1.5, 0));
+
+        assertFalse(mTree.remove(0, .2, .2));
+        assertTrue(mTree.remove(1, .2, .2));
+        assertFalse(mTree.remove(1, .2, .2));
+
+        int[] ids = mTree.search(new Bounds(0, 1, 0, 1));
+        Arrays.sort(ids);
+        assertTrue(Arrays.equals(new int[]{0, 2}, ids));
+        assertEquals(2, mTree.size());
+
+        mTree.clear();
+        assertEquals(0, mTree.search(new Bounds(0, 1, 0, 1)).length);
+    }
+
+    /**
+     * Checks that searches find exactly the points within the search bounds, including points
+     * on quad boundaries and on the edges of the search bounds, and many points at the same
+     * location.
+     */
+    public void testMatchesBruteForce() {
+        checkMatchesBruteForce(new Bounds(0, 1, 0, 1));
+        // Bounds whose quad boundaries are not exactly representable.
+        checkMatchesBruteForce(new Bounds(-0.1, 1.3, 0.05, 1.1));
+        // Bounds far from the origin, relative to their size.
+        checkMatchesBruteForce(new Bounds(1e6, 1e6 + 1e-3, -1e6, -1e6 + 1e-3));
+    }
+
+    private void checkMatchesBruteForce(Bounds bounds) {
+        Random random = new Random(7);
+        int n = 20000;
+        int[] ids = new int[n];
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        double width = bounds.maxX - bounds.minX;
+        double height = bounds.maxY - bounds.minY;
+        for (int i = 0; i < n; i++) {
+            ids[i] = i;
+            if (i % 4 == 0) {
+                // On a grid, so that many points lie on quad boundaries.
+                xs[i] = bounds.minX + width * random.nextInt(65) / 64;
+                ys[i] = bounds.minY + height * random.nextInt(65) / 64;
+            } else if (i % 4 == 1) {
+                // Many points at the same location.
+                xs[i] = bounds.minX + width / 3;
+                ys[i] = bounds.minY + height / 3;
+            } else {
+                xs[i] = bounds.minX + width * random.nextDouble();
+                ys[i] = bounds.minY + height * random.nextDouble();
+            }
+        }
+
+        boolean[] removed = new boolean[n];
+        LinearPointQuadTree linear = new LinearPointQuadTree(bounds);
+        // Half bulk loaded, half merged, a few added one by one.
+        linear.addAll(ids, xs, ys, n / 2);
+        int[] rest = Arrays.copyOfRange(ids, n / 2, n - 100);
+        linear.addAll(rest, Arrays.copyOfRange(xs, n / 2, n - 100),
+                Arrays.copyOfRange(ys, n / 2, n - 100), rest.length);
+        for (int i = n - 100; i < n; i++) {
+            assertTrue(linear.add(ids[i], xs[i], ys[i]));
+        }
+        assertEquals(n, linear.size());
+
+        for (int q = 0; q < 200; q++) {
+            Bounds search;
+            if (q % 2 == 0) {
+                // Snapped to the grid, so that the search bounds touch points.
+                double minX = bounds.minX + width * random.nextInt(65) / 64;
+                double minY = bounds.minY + height * random.nextInt(65) / 64;
+                search = new Bounds(minX, minX + width * random.nextInt(17) / 64,
+                        minY, minY + height * random.nextInt(17) / 64);
+            } else {
+                double minX = bounds.minX + width * random.nextDouble();
+                double minY = bounds.minY + height * random.nextDouble();
+                search = new Bounds(minX, minX + width * random.nextDouble() / 2,
+                        minY, minY + height * random.nextDouble() / 2);
+            }
+            if (q == 100) {
+                // Remove every third point.
+                for (int i = 0; i < n; i += 3) {
+                    assertTrue(linear.remove(ids[i], xs[i], ys[i]));
+                    removed[i] = true;
+                }
+            }
+
+            double x = search.minX;
+            double y = search.minY;
+            double radius = search.maxX - search.minX;
+            int expectedCount = 0;
+            int expectedRadiusCount = 0;
+            for (int i = 0; i < n; i++) {
+                if (removed[i]) {
+                    continue;
+                }
+                if (search.contains(xs[i], ys[i])) {
+                    expectedCount++;
+                }
+                double dx = xs[i] - x;
+                double dy = ys[i] - y;
+                if (dx * dx + dy * dy <= radius * radius) {
+                    expectedRadiusCount++;
+                }
+            }
+            assertEquals(expectedCount, linear.search(search).length);
+            assertEquals(expectedCount,
+                    linear.count(search.minX, search.maxX, search.minY, search.maxY));
+            assertEquals(expectedRadiusCount, countRadius(linear, x, y, radius));
+        }
+    }
+
+    private static int countRadius(PointIndex index, double x, double y, double radius) {
+        final int[] count = new int[1];
+        index.searchRadius(x, y, radius, new PointIndex.Visitor() {
+            @Override
+            public void visit(int id, double x, double y) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    public void testAggregatesMatchBruteForce() {
+        Random random = new Random(11);
+        int n = 50000;
+        int[] ids = new int[n];
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        double[] weights = new double[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = i;
+            xs[i] = random.nextDouble();
+            ys[i] = random.nextDouble();
+            weights[i] = 1 + random.nextInt(5);
+        }
+        LinearPointQuadTree tree = new LinearPointQuadTree(new Bounds(0, 1, 0, 1), true);
+        tree.addAll(ids, xs, ys, weights, n);
+
+        for (int q = 0; q < 20; q++) {
+            double minX = random.nextDouble() / 2;
+            double minY = random.nextDouble() / 2;
+            final Bounds bounds = new Bounds(minX, minX + .25 + random.nextDouble() / 4,
+                    minY, minY + .25 + random.nextDouble() / 4);
+            int expectedCount = 0;
+            double expectedWeight = 0;
+            double expectedX = 0;
+            for (int i = 0; i < n; i++) {
+                if (bounds.contains(xs[i], ys[i])) {
+                    expectedCount++;
+                    expectedWeight += weights[i];
+                    expectedX += weights[i] * xs[i];
+                }
+            }
+
+            final double[] totals = new double[4];
+            tree.searchAggregates(bounds.minX, bounds.maxX, bounds.minY, bounds.maxY, 1.0 / 16,
+                    new PointIndex.AggregateVisitor() {
+                        @Override
+                        public void visit(int count, double weight, double x, double y) {
+                            assertTrue(bounds.contains(x, y));
+                            totals[0] += count;
+                            totals[1] += weight;
+                            totals[2] += weight * x;
+                            totals[3]++;
+                        }
+                    });
+            assertEquals(expectedCount, (int) totals[0]);
+            assertEquals(expectedWeight, totals[1], 1e-6);
+            assertEquals(expectedX, totals[2], 1e-6);
+            // Whole quads stand in for most of the points.
+            assertTrue(totals[3] < expectedCount);
+        }
+    }
+
+    public void testZeroWeightAggregates() {
+        PrimitivePointQuadTreeTest.checkZeroWeightAggregates(
+                new LinearPointQuadTree(new Bounds(0, 1, 0, 1), true));
+    }
+
+    public void testCancellingWeights() {
+        PrimitivePointQuadTreeTest.checkCancellingWeights(
+                new LinearPointQuadTree(new Bounds(0, 1, 0, 1), true));
+    }
+
+    public void testSearchWrapped() {
+        checkSearchWrapped(new LinearPointQuadTree(new Bounds(0, 1, 0, 1), true));
+    }
+
+    /**
+     * Checks wrapped searches near and across both edges of the world against brute force.
+     */
+    private static void checkSearchWrapped(PointIndex tree) {
+        Random random = new Random(9);
+        int n = 20000;
+        final double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = i % 5 == 0 ? random.nextInt(2) : random.nextDouble();
+            ys[i] = random.nextDouble();
+            tree.add(i, xs[i], ys[i], 2);
+        }
+
+        for (int q = 0; q < 100; q++) {
+            double minX = random.nextDouble() * 1.4 - .7;
+            double minY = random.nextDouble() / 2;
+            final Bounds bounds = new Bounds(minX, minX + random.nextDouble() / 2,
+                    minY, minY + random.nextDouble() / 2);
+            int expected = 0;
+            for (int i = 0; i < n; i++) {
+                for (int offset = -1; offset <= 1; offset++) {
+                    if (bounds.contains(xs[i] + offset, ys[i])) {
+                        expected++;
+                    }
+                }
+            }
+
+            final int[] found = new int[2];
+            tree.searchWrapped(bounds.minX, bounds.maxX, bounds.minY, bounds.maxY, 1,
+                    new PointIndex.WrappedVisitor() {
+                        @Override
+                        public void visit(int id, double x, double y, double xOffset) {
+                            assertEquals(xs[id], x, 0);
+                            assertTrue(bounds.contains(x + xOffset, y));
+                            found[0]++;
+                        }
+                    });
+            tree.searchAggregatesWrapped(bounds.minX, bounds.maxX, bounds.minY, bounds.maxY, 1,
+                    1.0 / 32, new PointIndex.AggregateVisitor() {
+                        @Override
+                        public void visit(int count, double weight, double x, double y) {
+                            assertTrue(bounds.contains(x, y));
+                            assertEquals(2 * count, weight, 1e-9);
+                            found[1] += count;
+                        }
+                    });
+            assertEquals(expected, found[0]);
+            assertEquals(expected, found[1]);
+        }
+    }
+
+    public void testSearchAggregatesRequiresAggregateTree() {
+        try {
+            mTree.searchAggregates(0, 1, 0, 1, 1, new PointIndex.AggregateVisitor() {
+                @Override
+                public void visit(int count, double weight, double x, double y) {
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+    }
+
+    public void testAutoGrow() {
+        mTree.setAutoGrow(true);
+        mTree.add(0, .5, .5);
+        assertTrue(mTree.add(1, -3, 7));
+        assertTrue(mTree.getBounds().contains(-3, 7));
+        assertFalse(mTree.add(2, Double.NaN, 0));
+
+        int[] ids = mTree.search(new Bounds(-4, 1, 0, 8));
+        Arrays.sort(ids);
+        assertTrue(Arrays.equals(new int[]{0, 1}, ids));
+        assertTrue(mTree.remove(1, -3, 7));
+        assertEquals(1, mTree.size());
+    }
+
+    public void testLongArray() {
+        LinearPointQuadTree tree = new LinearPointQuadTree(new Bounds(0, 1, 0, 1), true);
+        Random random = new Random(3);
+        for (int i = 0; i < 1000; i++) {
+            tree.add(i, random.nextDouble(), random.nextDouble(), i);
+        }
+
+        LinearPointQuadTree copy = LinearPointQuadTree.fromLongArray(tree.toLongArray());
+        assertTrue(copy.isAggregate());
+        assertEquals(tree.size(), copy.size());
+        Bounds search = new Bounds(.2, .7, .1, .4);
+        int[] expected = tree.search(search);
+        int[] actual = copy.search(search);
+        assertTrue(Arrays.equals(expected, actual));
+
+        try {
+            LinearPointQuadTree.fromLongArray(new long[]{1, 2, 3});
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    /**
+     * Runs the same searches over 100,000 points on a linear and a pointer based tree.
+     */
+    public void testRandomPoints() {
+        Random random = new Random();
+        int n = 100000;
+        int[] ids = new int[n];
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = i;
+            xs[i] = random.nextDouble();
+            ys[i] = random.nextDouble();
+        }
+        PointIndex[] trees = {
+                new LinearPointQuadTree(0, 1, 0, 1), new PrimitivePointQuadTree(0, 1, 0, 1)};
+        for (PointIndex tree : trees) {
+            tree.addAll(ids, xs, ys, n);
+        }
+
+        Bounds[] searches = {
+                new Bounds(0, 0.5, 0, 0.5),
+                new Bounds(0, 0.125, 0, 0.125),
+                new Bounds(0, 0.999, 0, 0.999),
+                new Bounds(0, 1, 0, 0.01),
+                new Bounds(0.356, 0.574, 0.678, 0.987),
+                new Bounds(0.111, 0.222, 0.333, 0.444)};
+        for (Bounds search : searches) {
+            for (PointIndex tree : trees) {
+                countSearch(tree, search);
+            }
+        }
+    }
+
+    private static int countSearch(PointIndex index, Bounds bounds) {
+        final int[] count = new int[1];
+        index.search(bounds.minX, bounds.maxX, bounds.minY, bounds.maxY, new PointIndex.Visitor() {
+            @Override
+            public void visit(int id, double x, double y) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+}
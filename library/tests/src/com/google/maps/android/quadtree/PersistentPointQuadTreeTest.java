@@ -0,0 +1,206 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.quadtree;
+
+import com.google.maps.android.geometry.Bounds;
+import com.google.maps.android.geometry.Point;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class PersistentPointQuadTreeTest extends TestCase {
+
+    private PersistentPointQuadTree<Item> mTree;
+
+    public void setUp() {
+        mTree = new PersistentPointQuadTree<Item>(new Bounds(0, 1, 0, 1));
+    }
+
+    public void testPlusAndMinus() {
+        Item item = new Item(0.1, 0.1);
+        PersistentPointQuadTree<Item> tree = mTree.plus(item);
+        assertEquals(0, mTree.size());
+        assertEquals(1, tree.size());
+        assertSame(tree, tree.plus(new Item(2, 2)));
+
+        assertSame(tree, tree.minus(new Item(0.1, 0.1)));
+        PersistentPointQuadTree<Item> empty = tree.minus(item);
+        assertEquals(0, empty.size());
+        assertEquals(1, tree.search(new Bounds(0, 1, 0, 1)).size());
+    }
+
+    public void testOldVersionsAreUnchanged() {
+        Random random = new Random(1);
+        List<PersistentPointQuadTree<Item>> versions =
+                new ArrayList<PersistentPointQuadTree<Item>>();
+        List<Item> items = new ArrayList<Item>();
+        PersistentPointQuadTree<Item> tree = mTree;
+        for (int i = 0; i < 1000; i++) {
+            Item item = new Item(random.nextDouble(), random.nextDouble());
+            items.add(item);
+            tree = tree.plus(item);
+            if (i % 100 == 99) {
+                versions.add(tree);
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            tree = tree.minus(items.get(i));
+        }
+        assertEquals(0, tree.size());
+
+        Bounds bounds = new Bounds(0.2, 0.7, 0.1, 0.5);
+        for (int v = 0; v < versions.size(); v++) {
+            List<Item> added = items.subList(0, (v + 1) * 100);
+            assertEquals(added.size(), versions.get(v).size());
+            assertEquals(bruteForce(added, bounds),
+                    new HashSet<Item>(versions.get(v).search(bounds)));
+        }
+    }
+
+    public void testMatchesBruteForce() {
+        Random random = new Random(2);
+        List<Item> items = new ArrayList<Item>();
+        PersistentPointQuadTree<Item> tree = mTree;
+        for (int i = 0; i < 5000; i++) {
+            // Some points on quad boundaries, and some duplicates.
+            Item item = i % 3 == 0
+                    ? new Item(random.nextInt(9) / 8.0, random.nextInt(9) / 8.0)
+                    : new Item(random.nextDouble(), random.nextDouble());
+            items.add(item);
+        }
+        tree = tree.plusAll(items.subList(0, 3000));
+        for (Item item : items.subList(3000, 5000)) {
+            tree = tree.plus(item);
+        }
+        for (int i = 0; i < 5000; i += 3) {
+            tree = tree.minus(items.get(i));
+        }
+        List<Item> remaining = new ArrayList<Item>();
+        for (int i = 0; i < 5000; i++) {
+            if (i % 3 != 0) {
+                remaining.add(items.get(i));
+            }
+        }
+        assertEquals(remaining.size(), tree.size());
+
+        for (int i = 0; i < 100; i++) {
+            double x = random.nextDouble();
+            double y = random.nextDouble();
+            Bounds bounds = new Bounds(x, x + random.nextDouble() * 0.3,
+                    y, y + random.nextDouble() * 0.3);
+            assertEquals(bruteForce(remaining, bounds), new HashSet<Item>(tree.search(bounds)));
+        }
+        Bounds edge = new Bounds(0.25, 0.5, 0.25, 0.5);
+        assertEquals(bruteForce(remaining, edge), new HashSet<Item>(tree.search(edge)));
+
+        final Set<Item> all = new HashSet<Item>();
+        tree.visitAll(new PointQuadTree.Visitor<Item>() {
+            @Override
+            public void visit(Item item) {
+                all.add(item);
+            }
+        });
+        assertEquals(new HashSet<Item>(remaining), all);
+    }
+
+    public void testMinusAll() {
+        Random random = new Random(3);
+        List<Item> items = new ArrayList<Item>();
+        for (int i = 0; i < 3000; i++) {
+            items.add(new Item(random.nextDouble(), random.nextDouble()));
+        }
+        PersistentPointQuadTree<Item> tree = mTree.plusAll(items);
+
+        // A small batch is removed item by item, a large one by building a new tree.
+        List<Item> small = new ArrayList<Item>();
+        List<Item> large = new ArrayList<Item>();
+        List<Item> remaining = new ArrayList<Item>();
+        for (int i = 0; i < items.size(); i++) {
+            (i % 50 == 0 ? small : i % 3 == 0 ? large : remaining).add(items.get(i));
+        }
+        PersistentPointQuadTree<Item> smaller = tree.minusAll(small);
+        assertEquals(items.size() - small.size(), smaller.size());
+        PersistentPointQuadTree<Item> smallest = smaller.minusAll(large);
+        assertEquals(remaining.size(), smallest.size());
+        assertEquals(items.size(), tree.size());
+        assertSame(smallest, smallest.minusAll(large));
+
+        for (int i = 0; i < 100; i++) {
+            double x = random.nextDouble();
+            double y = random.nextDouble();
+            Bounds bounds = new Bounds(x, x + random.nextDouble() * 0.3,
+                    y, y + random.nextDouble() * 0.3);
+            assertEquals(bruteForce(remaining, bounds),
+                    new HashSet<Item>(smallest.search(bounds)));
+            assertEquals(bruteForce(items, bounds), new HashSet<Item>(tree.search(bounds)));
+        }
+        assertEquals(0, smallest.minusAll(remaining).size());
+    }
+
+    public void testSearchWrapped() {
+        Item west = new Item(0.01, 0.5);
+        Item east = new Item(0.99, 0.5);
+        PersistentPointQuadTree<Item> tree = mTree.plus(west).plus(east);
+        final List<Item> found = new ArrayList<Item>();
+        final List<Double> offsets = new ArrayList<Double>();
+        PointQuadTree.WrappedVisitor<Item> visitor = new PointQuadTree.WrappedVisitor<Item>() {
+            @Override
+            public void visit(Item item, double xOffset) {
+                found.add(item);
+                offsets.add(xOffset);
+            }
+        };
+        tree.searchWrapped(-0.05, 0.05, 0.4, 0.6, 1, visitor);
+        assertEquals(2, found.size());
+        assertEquals(0.0, offsets.get(found.indexOf(west)));
+        assertEquals(-1.0, offsets.get(found.indexOf(east)));
+
+        found.clear();
+        offsets.clear();
+        tree.searchWrapped(0.95, 1.05, 0.4, 0.6, 1, visitor);
+        assertEquals(2, found.size());
+        assertEquals(1.0, offsets.get(found.indexOf(west)));
+    }
+
+    private static Set<Item> bruteForce(List<Item> items, Bounds bounds) {
+        Set<Item> results = new HashSet<Item>();
+        for (Item item : items) {
+            if (bounds.contains(item.getPoint())) {
+                results.add(item);
+            }
+        }
+        return results;
+    }
+
+    private static class Item implements PointQuadTree.Item {
+        private Point mPoint;
+
+        private Item(double x, double y) {
+            this.mPoint = new Point(x, y);
+        }
+
+        @Override
+        public Point getPoint() {
+            return mPoint;
+        }
+    }
+}
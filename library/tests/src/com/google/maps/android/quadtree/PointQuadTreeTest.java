@@ -21,7 +21,9 @@ import com.google.maps.android.geometry.Point;
 
 import junit.framework.TestCase;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Random;
 
 public class PointQuadTreeTest extends TestCase {
@@ -101,6 +103,171 @@ public class PointQuadTreeTest extends TestCase {
         assertEquals(2, mTree.search(new Bounds(0.0, 0.5, 0.0, 1.0)).size());
     }
 
+    public void testAddAll() {
+        List<Item> items = new ArrayList<Item>();
+        for (int i = 0; i < 10000; i++) {
+            items.add(new Item(i / 20000.0, i / 20000.0));
+        }
+        items.add(new Item(2, 2));
+        mTree.addAll(items);
+
+        assertEquals(10000, searchAll().size());
+        assertEquals(1, mTree.search(new Bounds((double) 0, 0.00001, (double) 0, 0.00001)).size());
+        assertEquals(0, mTree.search(new Bounds(.7, .8, .7, .8)).size());
+
+        assertTrue(mTree.remove(items.get(0)));
+        assertFalse(mTree.remove(items.get(10000)));
+        assertEquals(9999, searchAll().size());
+    }
+
+    public void testVisitorSearch() {
+        for (int i = 0; i < 10000; i++) {
+            mTree.add(new Item(i / 20000.0, i / 20000.0));
+        }
+
+        final List<Item> results = new ArrayList<Item>();
+        PointQuadTree.Visitor<Item> collector = new PointQuadTree.Visitor<Item>() {
+            @Override
+            public void visit(Item item) {
+                results.add(item);
+            }
+        };
+        mTree.search(0, 0.00001, 0, 0.00001, collector);
+        assertEquals(1, results.size());
+
+        results.clear();
+        mTree.search(0, 1, 0, 1, collector);
+        assertEquals(10000, results.size());
+
+        results.clear();
+        mTree.search(.7, .8, .7, .8, collector);
+        assertEquals(0, results.size());
+    }
+
+    public void testNestedVisitorSearch() {
+        mTree.add(new Item(.1, .1));
+        mTree.add(new Item(.2, .2));
+
+        final int[] visits = new int[1];
+        mTree.search(0, 1, 0, 1, new PointQuadTree.Visitor<Item>() {
+            @Override
+            public void visit(Item item) {
+                Point p = item.getPoint();
+                mTree.search(p.x, p.x, p.y, p.y, new PointQuadTree.Visitor<Item>() {
+                    @Override
+                    public void visit(Item inner) {
+                        visits[0]++;
+                    }
+                });
+            }
+        });
+        assertEquals(2, visits[0]);
+    }
+
+    public void testAutoGrow() {
+        mTree.add(new Item(2, 2));
+        assertEquals(0, mTree.search(new Bounds(0, 3, 0, 3)).size());
+
+        mTree.setAutoGrow(true);
+        mTree.add(new Item(2, 2));
+        mTree.add(new Item(-1, .5));
+        assertEquals(2, mTree.search(new Bounds(-1, 3, 0, 3)).size());
+        assertTrue(mTree.getBounds().contains(2, 2));
+    }
+
+    public void testAggregates() {
+        mTree = new PointQuadTree<Item>(new Bounds(0, 1, 0, 1), true);
+        mTree.add(new Item(.1, .1));
+        mTree.add(new Item(.2, .2));
+        mTree.add(new Item(.9, .9));
+
+        assertEquals(2, mTree.count(0, .5, 0, .5));
+        final int[] count = new int[1];
+        mTree.searchAggregates(0, 1, 0, 1, 1, new PrimitivePointQuadTree.AggregateVisitor() {
+            @Override
+            public void visit(int c, double weight, double x, double y) {
+                count[0] += c;
+                assertEquals(c, weight, 0);
+            }
+        });
+        assertEquals(3, count[0]);
+    }
+
+    public void testHandles() {
+        Item item = new Item(.1, .1);
+        int handle = mTree.addWithHandle(item);
+        assertSame(item, mTree.get(handle));
+        assertEquals(-1, mTree.addWithHandle(new Item(2, 2)));
+
+        item.mPoint = new Point(.9, .9);
+        assertTrue(mTree.move(handle));
+        assertEquals(0, mTree.search(new Bounds(0, .5, 0, .5)).size());
+        assertEquals(1, mTree.search(new Bounds(.5, 1, .5, 1)).size());
+
+        assertTrue(mTree.remove(handle));
+        assertFalse(mTree.remove(handle));
+        assertEquals(0, mTree.search(new Bounds(0, 1, 0, 1)).size());
+    }
+
+    public void testNearest() {
+        Item item1 = new Item(.1, .1);
+        Item item2 = new Item(.5, .5);
+        Item item3 = new Item(.9, .9);
+        mTree.add(item1);
+        mTree.add(item2);
+        mTree.add(item3);
+
+        List<Item> nearest = mTree.nearest(.4, .4, 2);
+        assertEquals(2, nearest.size());
+        assertSame(item2, nearest.get(0));
+        assertSame(item1, nearest.get(1));
+
+        assertEquals(1, mTree.nearest(.4, .4, 2, .2).size());
+    }
+
+    public void testSearchRadius() {
+        mTree.add(new Item(.5, .5));
+        mTree.add(new Item(.5, .6));
+        mTree.add(new Item(.58, .58));
+
+        final List<Item> results = new ArrayList<Item>();
+        mTree.searchRadius(.5, .5, .1, new PointQuadTree.Visitor<Item>() {
+            @Override
+            public void visit(Item item) {
+                results.add(item);
+            }
+        });
+        assertEquals(2, results.size());
+    }
+
+    public void testSearchWrapped() {
+        Item west = new Item(.01, .5);
+        Item east = new Item(.99, .5);
+        mTree.add(west);
+        mTree.add(east);
+        mTree.add(new Item(.5, .5));
+
+        final List<Item> results = new ArrayList<Item>();
+        final List<Double> offsets = new ArrayList<Double>();
+        PointQuadTree.WrappedVisitor<Item> visitor = new PointQuadTree.WrappedVisitor<Item>() {
+            @Override
+            public void visit(Item item, double xOffset) {
+                results.add(item);
+                offsets.add(xOffset);
+            }
+        };
+        mTree.searchWrapped(-.05, .05, .4, .6, 1, visitor);
+        assertEquals(2, results.size());
+        assertEquals(-1.0, offsets.get(results.indexOf(east)));
+        assertEquals(0.0, offsets.get(results.indexOf(west)));
+
+        results.clear();
+        offsets.clear();
+        mTree.searchWrapped(.95, 1.05, .4, .6, 1, visitor);
+        assertEquals(2, results.size());
+        assertEquals(1.0, offsets.get(results.indexOf(west)));
+    }
+
     /**
      * Tests 30,000 items at the same point.
      * Timing results are averaged.
@@ -180,7 +347,7 @@ public class PointQuadTreeTest extends TestCase {
     }
 
     private static class Item implements PointQuadTree.Item {
-        private final Point mPoint;
+        private Point mPoint;
 
         private Item(double x, double y) {
             this.mPoint = new Point(x, y);
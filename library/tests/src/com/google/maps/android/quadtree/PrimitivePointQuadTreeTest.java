@@ -0,0 +1,697 @@
+/*
+ * Copyright 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.maps.android.quadtree;
+
+import com.google.maps.android.geometry.Bounds;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class PrimitivePointQuadTreeTest extends TestCase {
+
+    private PrimitivePointQuadTree mTree;
+
+    public void setUp() {
+        mTree = new PrimitivePointQuadTree(0, 1, 0, 1);
+    }
+
+    public void testAddOutOfBounds() {
+        assertTrue(mTree.add(0, 0, 0));
+        assertFalse(mTree.add(1, 1.5, 0));
+        assertEquals(1, mTree.size());
+        assertEquals(1, searchAll().length);
+    }
+
+    public void testRemove() {
+        mTree.add(0, .1, .1);
+        mTree.add(1, .2, .2);
+        mTree.add(2, .2, .2);
+
+        assertFalse(mTree.remove(0, .2, .2));
+        assertTrue(mTree.remove(1, .2, .2));
+        assertFalse(mTree.remove(1, .2, .2));
+
+        int[] ids = searchAll();
+        Arrays.sort(ids);
+        assertTrue(Arrays.equals(new int[]{0, 2}, ids));
+        assertEquals(2, mTree.size());
+    }
+
+    public void testVisitorReceivesCoordinates() {
+        mTree.add(7, .25, .75);
+        mTree.search(new Bounds(0, 1, 0, 1), new PrimitivePointQuadTree.Visitor() {
+            @Override
+            public void visit(int id, double x, double y) {
+                assertEquals(7, id);
+                assertEquals(.25, x, 0);
+                assertEquals(.75, y, 0);
+            }
+        });
+    }
+
+    public void testVeryDeepTree() {
+        for (int i = 0; i < 30000; i++) {
+            mTree.add(i, 0, 0);
+        }
+
+        assertEquals(30000, searchAll().length);
+        assertEquals(30000, mTree.search(new Bounds(0, .1, 0, .1)).length);
+        assertEquals(0, mTree.search(new Bounds(.1, 1, .1, 1)).length);
+    }
+
+    /**
+     * Checks that searches return the same items as a brute force scan of 100,000 random points.
+     */
+    public void testMatchesBruteForce() {
+        Random random = new Random(42);
+        int n = 100000;
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = random.nextDouble();
+            ys[i] = random.nextDouble();
+            mTree.add(i, xs[i], ys[i]);
+        }
+        // Remove every tenth point.
+        for (int i = 0; i < n; i += 10) {
+            assertTrue(mTree.remove(i, xs[i], ys[i]));
+        }
+
+        for (int q = 0; q < 50; q++) {
+            double minX = random.nextDouble();
+            double minY = random.nextDouble();
+            Bounds bounds = new Bounds(minX, minX + random.nextDouble() / 4,
+                    minY, minY + random.nextDouble() / 4);
+
+            int expected = 0;
+            for (int i = 0; i < n; i++) {
+                if (i % 10 != 0 && bounds.contains(xs[i], ys[i])) {
+                    expected++;
+                }
+            }
+            assertEquals(expected, mTree.search(bounds).length);
+        }
+    }
+
+    /**
+     * Checks that a bulk loaded tree answers searches exactly like one built point by point,
+     * including for points on quad boundaries and many points at the same location.
+     */
+    public void testAddAllMatchesAdd() {
+        checkAddAllMatchesAdd(new Bounds(0, 1, 0, 1));
+        // Bounds whose quad boundaries are not exactly representable.
+        checkAddAllMatchesAdd(new Bounds(-0.1, 1.3, 0.05, 1.1));
+    }
+
+    private void checkAddAllMatchesAdd(Bounds treeBounds) {
+        Random random = new Random(7);
+        int n = 50000;
+        int[] ids = new int[n];
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = i;
+            if (i % 5 == 0) {
+                // Points on quad boundaries.
+                xs[i] = random.nextInt(9) / 8.0;
+                ys[i] = random.nextInt(9) / 8.0;
+            } else if (i % 7 == 0) {
+                // Many points at the same location.
+                xs[i] = .3;
+                ys[i] = .3;
+            } else {
+                xs[i] = random.nextDouble();
+                ys[i] = random.nextDouble();
+            }
+        }
+        // One point outside the bounds, which should be ignored.
+        xs[n - 1] = 2;
+
+        PrimitivePointQuadTree incremental = new PrimitivePointQuadTree(treeBounds);
+        for (int i = 0; i < n; i++) {
+            incremental.add(ids[i], xs[i], ys[i]);
+        }
+        PrimitivePointQuadTree bulk = new PrimitivePointQuadTree(treeBounds);
+        bulk.addAll(ids, xs, ys, n);
+        assertEquals(incremental.size(), bulk.size());
+
+        for (int q = 0; q < 100; q++) {
+            double minX = random.nextInt(9) / 8.0;
+            double minY = random.nextDouble();
+            Bounds bounds = new Bounds(minX, minX + random.nextDouble() / 2,
+                    minY, minY + random.nextDouble() / 2);
+            int[] expected = incremental.search(bounds);
+            int[] actual = bulk.search(bounds);
+            Arrays.sort(expected);
+            Arrays.sort(actual);
+            assertTrue(Arrays.equals(expected, actual));
+        }
+    }
+
+    public void testAddAllToNonEmptyTree() {
+        mTree.add(0, .5, .5);
+        mTree.addAll(new int[]{1, 2}, new double[]{.1, .9}, new double[]{.1, .9}, 2);
+        assertEquals(3, mTree.size());
+        assertEquals(3, searchAll().length);
+    }
+
+    public void testAutoGrow() {
+        mTree.setAutoGrow(true);
+        assertTrue(mTree.add(0, .5, .5));
+        assertTrue(mTree.add(1, 3.5, .5));
+        assertTrue(mTree.add(2, -2, -7));
+
+        Bounds bounds = mTree.getBounds();
+        assertTrue(bounds.contains(3.5, .5));
+        assertTrue(bounds.contains(-2, -7));
+        assertEquals(3, mTree.size());
+        assertEquals(3, mTree.search(bounds).length);
+        assertTrue(mTree.remove(2, -2, -7));
+        assertEquals(2, mTree.search(bounds).length);
+
+        assertFalse(mTree.add(3, Double.NaN, 0));
+        assertFalse(mTree.add(3, Double.POSITIVE_INFINITY, 0));
+    }
+
+    public void testAutoGrowFromPoint() {
+        mTree = new PrimitivePointQuadTree(.5, .5, .5, .5);
+        mTree.setAutoGrow(true);
+        assertTrue(mTree.add(0, .5, .5));
+        assertTrue(mTree.add(1, 2, .5));
+        assertEquals(2, mTree.search(mTree.getBounds()).length);
+    }
+
+    /**
+     * Checks that a tree which grows while points are added, including points on the edges of
+     * each old root, answers searches and removes points like a brute force scan.
+     */
+    public void testAutoGrowMatchesBruteForce() {
+        Random random = new Random(11);
+        mTree.setAutoGrow(true);
+        int n = 20000;
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            // Spread the points over a range which widens as more are added.
+            double range = 1 + i / 1000;
+            if (i % 3 == 0) {
+                // Points on the edges of the original bounds.
+                xs[i] = random.nextInt(2);
+                ys[i] = random.nextDouble();
+            } else {
+                xs[i] = (random.nextDouble() - .5) * range * 2;
+                ys[i] = (random.nextDouble() - .5) * range * 2;
+            }
+            assertTrue(mTree.add(i, xs[i], ys[i]));
+        }
+        assertEquals(n, mTree.search(mTree.getBounds()).length);
+
+        for (int q = 0; q < 50; q++) {
+            double minX = (random.nextDouble() - .5) * 40;
+            double minY = (random.nextDouble() - .5) * 40;
+            Bounds bounds = new Bounds(minX, minX + random.nextDouble() * 5,
+                    minY, minY + random.nextDouble() * 5);
+            int expected = 0;
+            for (int i = 0; i < n; i++) {
+                if (bounds.contains(xs[i], ys[i])) {
+                    expected++;
+                }
+            }
+            assertEquals(expected, mTree.search(bounds).length);
+        }
+
+        for (int i = 0; i < n; i++) {
+            assertTrue(mTree.remove(i, xs[i], ys[i]));
+        }
+        assertEquals(0, mTree.size());
+    }
+
+    public void testAddAllGrows() {
+        mTree.setAutoGrow(true);
+        mTree.addAll(new int[]{0, 1, 2}, new double[]{.5, -3, 5}, new double[]{.5, 2, -1}, 3);
+        assertEquals(3, mTree.size());
+        assertEquals(3, mTree.search(mTree.getBounds()).length);
+    }
+
+    public void testAggregates() {
+        mTree = new PrimitivePointQuadTree(new Bounds(0, 1, 0, 1), true);
+        mTree.add(0, .1, .2, 1);
+        mTree.add(1, .3, .4, 3);
+        mTree.add(2, .9, .9, 2);
+        assertTrue(mTree.remove(2, .9, .9));
+
+        final int[] visits = new int[1];
+        mTree.searchAggregates(0, 1, 0, 1, Double.POSITIVE_INFINITY,
+                new PrimitivePointQuadTree.AggregateVisitor() {
+                    @Override
+                    public void visit(int count, double weight, double x, double y) {
+                        visits[0]++;
+                        assertEquals(2, count);
+                        assertEquals(4, weight, 1e-9);
+                        assertEquals(.25, x, 1e-9);
+                        assertEquals(.35, y, 1e-9);
+                    }
+                });
+        assertEquals(1, visits[0]);
+        assertEquals(1, mTree.count(0, .2, 0, .2));
+    }
+
+    public void testZeroWeightAggregates() {
+        checkZeroWeightAggregates(new PrimitivePointQuadTree(new Bounds(0, 1, 0, 1), true));
+    }
+
+    /**
+     * Checks that points which weigh nothing are not passed to aggregate searches, whether alone
+     * or in groups, since they have no weighted centroid.
+     */
+    static void checkZeroWeightAggregates(PointIndex tree) {
+        Random random = new Random(3);
+        for (int i = 0; i < 1000; i++) {
+            tree.add(i, .1 + random.nextDouble() / 10, .1 + random.nextDouble() / 10, 0);
+        }
+        tree.add(1000, .8, .8, 2);
+
+        final int[] visits = new int[1];
+        PointIndex.AggregateVisitor visitor = new PointIndex.AggregateVisitor() {
+            @Override
+            public void visit(int count, double weight, double x, double y) {
+                visits[0]++;
+                assertEquals(2, weight, 0);
+                assertFalse(Double.isNaN(x) || Double.isNaN(y));
+            }
+        };
+        for (double maxQuadSize : new double[]{0, 1.0 / 64, 1}) {
+            visits[0] = 0;
+            tree.searchAggregates(0, .3, 0, .3, maxQuadSize, visitor);
+            assertEquals(0, visits[0]);
+            tree.searchAggregates(0, 1, 0, 1, maxQuadSize, visitor);
+            assertEquals(1, visits[0]);
+            tree.searchAggregatesWrapped(-.5, .5, 0, 1, 1, maxQuadSize, visitor);
+            assertEquals(2, visits[0]);
+        }
+    }
+
+    public void testCancellingWeights() {
+        checkCancellingWeights(new PrimitivePointQuadTree(new Bounds(0, 1, 0, 1), true));
+    }
+
+    /**
+     * Checks that a quad whose weights sum to zero is searched further, so its points which
+     * weigh something are still found.
+     */
+    static void checkCancellingWeights(PointIndex tree) {
+        Random random = new Random(4);
+        for (int i = 0; i < 1000; i++) {
+            tree.add(i, random.nextDouble(), random.nextDouble(), 0);
+        }
+        tree.add(1000, .1, .1, 1);
+        tree.add(1001, .9, .9, -1);
+
+        final double[] found = new double[2];
+        PointIndex.AggregateVisitor visitor = new PointIndex.AggregateVisitor() {
+            @Override
+            public void visit(int count, double weight, double x, double y) {
+                assertFalse(Double.isNaN(x) || Double.isNaN(y));
+                found[weight > 0 ? 0 : 1] += weight;
+            }
+        };
+        // The bounds hold the whole tree, so each search can visit it as a single group.
+        tree.searchAggregates(-1, 2, -1, 2, 4, visitor);
+        tree.searchAggregatesWrapped(-1, 2, -1, 2, 4, 4, visitor);
+        assertEquals(2, found[0], 0);
+        assertEquals(-2, found[1], 0);
+    }
+
+    public void testSearchWrapped() {
+        checkSearchWrapped(new PrimitivePointQuadTree(new Bounds(0, 1, 0, 1), true));
+    }
+
+    /**
+     * Checks wrapped searches near and across both edges of the world against brute force.
+     */
+    private static void checkSearchWrapped(PointIndex tree) {
+        Random random = new Random(9);
+        int n = 20000;
+        final double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = i % 5 == 0 ? random.nextInt(2) : random.nextDouble();
+            ys[i] = random.nextDouble();
+            tree.add(i, xs[i], ys[i], 2);
+        }
+
+        for (int q = 0; q < 100; q++) {
+            double minX = random.nextDouble() * 1.4 - .7;
+            double minY = random.nextDouble() / 2;
+            final Bounds bounds = new Bounds(minX, minX + random.nextDouble() / 2,
+                    minY, minY + random.nextDouble() / 2);
+            int expected = 0;
+            for (int i = 0; i < n; i++) {
+                for (int offset = -1; offset <= 1; offset++) {
+                    if (bounds.contains(xs[i] + offset, ys[i])) {
+                        expected++;
+                    }
+                }
+            }
+
+            final int[] found = new int[2];
+            tree.searchWrapped(bounds.minX, bounds.maxX, bounds.minY, bounds.maxY, 1,
+                    new PointIndex.WrappedVisitor() {
+                        @Override
+                        public void visit(int id, double x, double y, double xOffset) {
+                            assertEquals(xs[id], x, 0);
+                            assertTrue(bounds.contains(x + xOffset, y));
+                            found[0]++;
+                        }
+                    });
+            tree.searchAggregatesWrapped(bounds.minX, bounds.maxX, bounds.minY, bounds.maxY, 1,
+                    1.0 / 32, new PointIndex.AggregateVisitor() {
+                        @Override
+                        public void visit(int count, double weight, double x, double y) {
+                            assertTrue(bounds.contains(x, y));
+                            assertEquals(2 * count, weight, 1e-9);
+                            found[1] += count;
+                        }
+                    });
+            assertEquals(expected, found[0]);
+            assertEquals(expected, found[1]);
+        }
+    }
+
+    public void testSearchAggregatesRequiresAggregateTree() {
+        try {
+            mTree.searchAggregates(0, 1, 0, 1, 1, null);
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+    }
+
+    /**
+     * Checks the aggregates of a tree which is bulk loaded, added to, grown and removed from
+     * against a brute force scan.
+     */
+    public void testAggregatesMatchBruteForce() {
+        Random random = new Random(5);
+        mTree = new PrimitivePointQuadTree(new Bounds(0, 1, 0, 1), true);
+        mTree.setAutoGrow(true);
+        int n = 40000;
+        int[] ids = new int[n];
+        final double[] xs = new double[n];
+        final double[] ys = new double[n];
+        final double[] weights = new double[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = i;
+            xs[i] = random.nextDouble();
+            ys[i] = random.nextDouble();
+            weights[i] = 1 + random.nextInt(5);
+        }
+        // Some points outside the initial bounds, to make the tree grow.
+        for (int i = 0; i < n; i += 100) {
+            xs[i] = xs[i] * 3 - 1;
+        }
+        mTree.addAll(ids, xs, ys, weights, n / 2);
+        for (int i = n / 2; i < n; i++) {
+            assertTrue(mTree.add(i, xs[i], ys[i], weights[i]));
+        }
+        // Remove every third point.
+        final boolean[] removed = new boolean[n];
+        for (int i = 0; i < n; i += 3) {
+            assertTrue(mTree.remove(i, xs[i], ys[i]));
+            removed[i] = true;
+        }
+
+        for (int q = 0; q < 50; q++) {
+            final double minX = random.nextDouble() - .2;
+            final double minY = random.nextDouble() - .2;
+            final double maxX = minX + random.nextDouble() / 2;
+            final double maxY = minY + random.nextDouble() / 2;
+
+            int expectedCount = 0;
+            double expectedWeight = 0;
+            for (int i = 0; i < n; i++) {
+                if (!removed[i] && minX <= xs[i] && xs[i] <= maxX
+                        && minY <= ys[i] && ys[i] <= maxY) {
+                    expectedCount++;
+                    expectedWeight += weights[i];
+                }
+            }
+            assertEquals(expectedCount, mTree.count(minX, maxX, minY, maxY));
+
+            final int[] count = new int[1];
+            final double[] weight = new double[1];
+            mTree.searchAggregates(minX, maxX, minY, maxY, .01,
+                    new PrimitivePointQuadTree.AggregateVisitor() {
+                        @Override
+                        public void visit(int c, double w, double x, double y) {
+                            count[0] += c;
+                            weight[0] += w;
+                            assertTrue(minX <= x && x <= maxX && minY <= y && y <= maxY);
+                        }
+                    });
+            assertEquals(expectedCount, count[0]);
+            assertEquals(expectedWeight, weight[0], 1e-6);
+        }
+    }
+
+    public void testIndexed() {
+        mTree.add(3, .5, .5);
+        mTree.setIndexed(true);
+        assertTrue(mTree.contains(3));
+        assertTrue(mTree.add(0, .1, .1));
+        assertFalse(mTree.contains(1));
+
+        try {
+            mTree.add(0, .2, .2);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        try {
+            mTree.add(-1, .2, .2);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        try {
+            mTree.addAll(new int[]{5, 5}, new double[]{.1, .2}, new double[]{.1, .2}, 2);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+
+        assertTrue(mTree.move(0, .9, .9));
+        assertEquals(0, mTree.search(new Bounds(0, .2, 0, .2)).length);
+        assertEquals(1, mTree.search(new Bounds(.8, 1, .8, 1)).length);
+        assertFalse(mTree.move(0, 2, 2));
+        assertFalse(mTree.contains(0));
+        assertTrue(mTree.remove(3));
+        assertFalse(mTree.remove(3));
+        assertEquals(0, mTree.size());
+    }
+
+    public void testNotIndexed() {
+        try {
+            mTree.remove(0);
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+    }
+
+    public void testBulkLoadIndexed() {
+        mTree.setIndexed(true);
+        int n = 1000;
+        int[] ids = new int[n];
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = i;
+            xs[i] = i / (double) n;
+            ys[i] = i / (double) n;
+        }
+        mTree.addAll(ids, xs, ys, n);
+        for (int i = 0; i < n; i++) {
+            assertTrue(mTree.remove(i));
+        }
+        assertEquals(0, mTree.size());
+        assertEquals(1, mTree.getNodeCount());
+    }
+
+    /**
+     * Moves points around an aggregating, indexed tree, and checks that it matches a brute force
+     * scan and that empty quads are merged away.
+     */
+    public void testChurn() {
+        Random random = new Random(17);
+        mTree = new PrimitivePointQuadTree(new Bounds(0, 1, 0, 1), true);
+        mTree.setIndexed(true);
+        int n = 10000;
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = random.nextDouble();
+            ys[i] = random.nextDouble();
+            mTree.add(i, xs[i], ys[i], 2);
+        }
+        int nodes = mTree.getNodeCount();
+
+        // Move every point a bit, many times, then gather them all into a corner.
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < n; i++) {
+                xs[i] = Math.min(1, Math.max(0, xs[i] + (random.nextDouble() - .5) / 10));
+                ys[i] = Math.min(1, Math.max(0, ys[i] + (random.nextDouble() - .5) / 10));
+                assertTrue(mTree.move(i, xs[i], ys[i]));
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            xs[i] = xs[i] / 100;
+            ys[i] = ys[i] / 100;
+            assertTrue(mTree.move(i, xs[i], ys[i]));
+        }
+        assertTrue(mTree.getNodeCount() < nodes * 2);
+
+        for (int q = 0; q < 20; q++) {
+            final double minX = random.nextDouble() / 100;
+            final double minY = random.nextDouble() / 100;
+            final double maxX = minX + random.nextDouble() / 200;
+            final double maxY = minY + random.nextDouble() / 200;
+            int expected = 0;
+            for (int i = 0; i < n; i++) {
+                if (minX <= xs[i] && xs[i] <= maxX && minY <= ys[i] && ys[i] <= maxY) {
+                    expected++;
+                }
+            }
+            assertEquals(expected, mTree.search(new Bounds(minX, maxX, minY, maxY)).length);
+            assertEquals(expected, mTree.count(minX, maxX, minY, maxY));
+            final double[] weight = new double[1];
+            mTree.searchAggregates(minX, maxX, minY, maxY, .001,
+                    new PrimitivePointQuadTree.AggregateVisitor() {
+                        @Override
+                        public void visit(int count, double w, double x, double y) {
+                            weight[0] += w;
+                            assertTrue(minX <= x && x <= maxX && minY <= y && y <= maxY);
+                        }
+                    });
+            assertEquals(expected * 2, weight[0], 1e-6);
+        }
+
+        // Removing every point merges the tree back into a single quad.
+        for (int i = 0; i < n; i++) {
+            assertTrue(mTree.remove(i));
+        }
+        assertEquals(0, mTree.size());
+        assertEquals(1, mTree.getNodeCount());
+    }
+
+    public void testNearest() {
+        mTree.add(0, .1, .1);
+        mTree.add(1, .5, .5);
+        mTree.add(2, .52, .5);
+        mTree.add(3, .9, .9);
+
+        assertTrue(Arrays.equals(new int[]{2, 1, 3}, mTree.nearest(.6, .5, 3)));
+        assertTrue(Arrays.equals(new int[]{2, 1}, mTree.nearest(.6, .5, 3, .2)));
+        assertEquals(4, mTree.nearest(0, 0, 10).length);
+        assertEquals(0, mTree.nearest(0, 0, 0).length);
+        assertEquals(0, new PrimitivePointQuadTree(0, 1, 0, 1).nearest(0, 0, 1).length);
+    }
+
+    public void testSearchRadius() {
+        mTree.add(0, .5, .5);
+        mTree.add(1, .5, .6);
+        // Inside the bounding square of the circle, but not the circle.
+        mTree.add(2, .58, .58);
+
+        final int[] found = new int[3];
+        mTree.searchRadius(.5, .5, .1, new PrimitivePointQuadTree.Visitor() {
+            @Override
+            public void visit(int id, double x, double y) {
+                found[id]++;
+            }
+        });
+        assertTrue(Arrays.equals(new int[]{1, 1, 0}, found));
+    }
+
+    /**
+     * Checks nearest neighbour and radius queries against a brute force scan of 1,000,000
+     * random points. Each query only opens the quads around the query point, so runs in time
+     * roughly logarithmic in the number of points, whereas the brute force scan is linear.
+     */
+    public void testNearestManyPoints() {
+        Random random = new Random(3);
+        int n = 1000000;
+        int[] ids = new int[n];
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = i;
+            xs[i] = random.nextDouble();
+            ys[i] = random.nextDouble();
+        }
+        mTree.addAll(ids, xs, ys, n);
+
+        // Tree queries.
+        int k = 20;
+        int queries = 1000;
+        double[] qx = new double[queries];
+        double[] qy = new double[queries];
+        int[][] nearest = new int[queries][];
+        for (int q = 0; q < queries; q++) {
+            qx[q] = random.nextDouble();
+            qy[q] = random.nextDouble();
+            nearest[q] = mTree.nearest(qx[q], qy[q], k);
+        }
+
+        // Brute force, for a sample of the queries.
+        for (int q = 0; q < queries; q += 100) {
+            double[] distances = new double[n];
+            for (int i = 0; i < n; i++) {
+                distances[i] = (xs[i] - qx[q]) * (xs[i] - qx[q]) + (ys[i] - qy[q]) * (ys[i] - qy[q]);
+            }
+            double[] sorted = distances.clone();
+            Arrays.sort(sorted);
+
+            assertEquals(k, nearest[q].length);
+            for (int j = 0; j < k; j++) {
+                assertEquals(sorted[j], distances[nearest[q][j]], 0);
+            }
+
+            final double radius = Math.sqrt(sorted[k - 1]);
+            final int[] count = new int[1];
+            mTree.searchRadius(qx[q], qy[q], radius, new PrimitivePointQuadTree.Visitor() {
+                @Override
+                public void visit(int id, double x, double y) {
+                    count[0]++;
+                }
+            });
+            int expected = 0;
+            for (int i = 0; i < n; i++) {
+                if (distances[i] <= radius * radius) {
+                    expected++;
+                }
+            }
+            assertEquals(expected, count[0]);
+        }
+    }
+
+    private int[] searchAll() {
+        return mTree.search(new Bounds(0, 1, 0, 1));
+    }
+}